@@ -0,0 +1,126 @@
+package org.vectorspacedatabase.vectordb.benchmark;
+
+import org.vectorspacedatabase.vectordb.similaritysearch.TopK;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.BruteForce;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+
+// Base vectors plus held out queries. "synthetic" generates clustered gaussian data, which behaves far more like real
+// embeddings than uniform noise does, anything else is read as an .fvecs file (little endian int32 dimension followed by
+// that many float32 values per vector, the format of the SIFT/GIST/Deep1B sets) with the last queries rows held out.
+final class Dataset {
+
+    static final String SYNTHETIC = "synthetic";
+
+    private static final int CLUSTERS = 64;
+
+    final float[][] base;
+
+    final float[][] queries;
+
+    private Dataset(float[][] base, float[][] queries) {
+        this.base = base;
+        this.queries = queries;
+    }
+
+    static Dataset load(String source, int size, int dimension, int queries, long seed) throws IOException {
+        float[][] vectors = SYNTHETIC.equals(source) ? synthetic(size + queries, dimension, seed)
+                : readFvecs(Paths.get(source), size + queries);
+        if(vectors.length <= queries) {
+            throw new IllegalArgumentException(source + " holds " + vectors.length + " vectors, not enough for " + queries + " queries");
+        }
+        return new Dataset(Arrays.copyOfRange(vectors, 0, vectors.length - queries),
+                Arrays.copyOfRange(vectors, vectors.length - queries, vectors.length));
+    }
+
+    static float[][] synthetic(int count, int dimension, long seed) {
+        Random random = new Random(seed);
+        float[][] centers = new float[CLUSTERS][dimension];
+        for(float[] center : centers) {
+            for(int index = 0; index < dimension; index++) {
+                center[index] = (float) random.nextGaussian();
+            }
+        }
+        float[][] vectors = new float[count][dimension];
+        for(float[] vector : vectors) {
+            float[] center = centers[random.nextInt(CLUSTERS)];
+            for(int index = 0; index < dimension; index++) {
+                vector[index] = center[index] + 0.5f * (float) random.nextGaussian();
+            }
+        }
+        return vectors;
+    }
+
+    static float[][] readFvecs(Path path, int limit) throws IOException {
+        try (InputStream file = Files.newInputStream(path);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(file, 1 << 20))) {
+            float[][] vectors = new float[limit][];
+            int count = 0;
+            byte[] buffer = new byte[0];
+            while(count < limit) {
+                int dimension;
+                try {
+                    dimension = Integer.reverseBytes(input.readInt());
+                } catch (EOFException e) {
+                    break;
+                }
+                if(buffer.length != dimension * Float.BYTES) {
+                    buffer = new byte[dimension * Float.BYTES];
+                }
+                input.readFully(buffer);
+                float[] vector = new float[dimension];
+                ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+                vectors[count++] = vector;
+            }
+            return Arrays.copyOf(vectors, count);
+        }
+    }
+
+    // Exact top k ordinals for every query, ordinals being base positions
+    int[][] groundTruth(Metric metric, int k) {
+        BruteForce exact = BruteForce.builder().withMetric(metric).build();
+        for(int ordinal = 0; ordinal < base.length; ordinal++) {
+            exact.add(ordinal, base[ordinal]);
+        }
+        int[][] truth = new int[queries.length][];
+        for(int query = 0; query < queries.length; query++) {
+            TopK topK = exact.search(queries[query], k).sort();
+            truth[query] = new int[topK.size()];
+            for(int rank = 0; rank < topK.size(); rank++) {
+                truth[query][rank] = topK.ordinalAt(rank);
+            }
+        }
+        return truth;
+    }
+
+    // Fraction of the exact top k the approximate results found, averaged over the queries
+    static double recall(int[][] truth, TopK[] results) {
+        double total = 0;
+        for(int query = 0; query < truth.length; query++) {
+            TopK result = results[query].sort();
+            int found = 0;
+            for(int expected : truth[query]) {
+                for(int rank = 0; rank < result.size(); rank++) {
+                    if(result.ordinalAt(rank) == expected) {
+                        found++;
+                        break;
+                    }
+                }
+            }
+            total += truth[query].length == 0 ? 1 : (double) found / truth[query].length;
+        }
+        return total / truth.length;
+    }
+}
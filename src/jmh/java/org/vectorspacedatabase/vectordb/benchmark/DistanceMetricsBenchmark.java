@@ -0,0 +1,95 @@
+package org.vectorspacedatabase.vectordb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.DistanceMetrics;
+
+import java.util.concurrent.TimeUnit;
+
+// Single pair kernels and the block kernels the scans use, at the dimensions of common embedding models. The SIMD
+// kernels are used when the fork has the vector module, add -jvmArgsAppend -Dvectordb.simd=false for the scalar ones.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DistanceMetricsBenchmark {
+
+    private static final int BLOCK_ROWS = 256;
+
+    @Param({"384", "768", "1536"})
+    private int dimension;
+
+    private float[] x;
+
+    private float[] y;
+
+    private float[] block;
+
+    private float[] scores;
+
+    @Setup
+    public void setup() {
+        float[][] vectors = Dataset.synthetic(BLOCK_ROWS + 1, dimension, 42);
+        x = vectors[0];
+        y = vectors[1];
+        block = new float[BLOCK_ROWS * dimension];
+        for(int row = 0; row < BLOCK_ROWS; row++) {
+            System.arraycopy(vectors[row + 1], 0, block, row * dimension, dimension);
+        }
+        scores = new float[BLOCK_ROWS];
+    }
+
+    @Benchmark
+    public double dotProduct() {
+        return DistanceMetrics.dotProduct(x, y);
+    }
+
+    @Benchmark
+    public double cosineSimilarity() {
+        return DistanceMetrics.cosineSimilarity(x, y);
+    }
+
+    @Benchmark
+    public double euclideanDistance() {
+        return DistanceMetrics.euclideanDistance(x, y);
+    }
+
+    @Benchmark
+    public double manhattanDistance() {
+        return DistanceMetrics.manhattanDistance(x, y);
+    }
+
+    // Per row cost of scoring one query against a block
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_ROWS)
+    public float[] dotProductBatch() {
+        DistanceMetrics.dotProductBatch(x, block, 0, BLOCK_ROWS, dimension, scores);
+        return scores;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_ROWS)
+    public float[] cosineSimilarityBatch() {
+        DistanceMetrics.cosineSimilarityBatch(x, block, 0, BLOCK_ROWS, dimension, scores);
+        return scores;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCK_ROWS)
+    public float[] euclideanDistanceBatch() {
+        DistanceMetrics.euclideanDistanceBatch(x, block, 0, BLOCK_ROWS, dimension, scores);
+        return scores;
+    }
+}
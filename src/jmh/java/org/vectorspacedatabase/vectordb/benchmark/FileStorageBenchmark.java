@@ -0,0 +1,107 @@
+package org.vectorspacedatabase.vectordb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.persistence.FileStorage;
+import org.vectorspacedatabase.vectordb.persistence.SegmentFileStorage;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Documents per second written in batches and read back by id from segment storage, with and without fsync per batch.
+// Every trial starts from an empty temporary directory.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class FileStorageBenchmark {
+
+    private static final int BATCH_SIZE = 256;
+
+    private static final int READ_DOCUMENTS = 10_000;
+
+    @Param({"384", "1536"})
+    private int dimension;
+
+    @Param({"false", "true"})
+    private boolean fsync;
+
+    private Path directory;
+
+    private FileStorage storage;
+
+    private List<Document> batch;
+
+    private long written;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("vectordb-storage-benchmark");
+        storage = SegmentFileStorage.builder().withDirectory(directory).withFsync(fsync).build();
+
+        float[][] vectors = Dataset.synthetic(BATCH_SIZE, dimension, 42);
+        batch = new ArrayList<>(BATCH_SIZE);
+        for(int index = 0; index < BATCH_SIZE; index++) {
+            batch.add(new Document("read-" + index, "Benchmark document " + index, Map.of("batch", index % 8), vectors[index]));
+        }
+        // Documents the read benchmark picks from
+        for(int start = 0; start < READ_DOCUMENTS; start += BATCH_SIZE) {
+            List<Document> documents = new ArrayList<>(BATCH_SIZE);
+            for(int index = start; index < Math.min(start + BATCH_SIZE, READ_DOCUMENTS); index++) {
+                Document template = batch.get(index % BATCH_SIZE);
+                documents.add(new Document("read-" + index, template.getContent(), template.getMetadata(), template.getEmbedding()));
+            }
+            storage.saveDocuments(documents);
+        }
+        storage.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        storage.close();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for(Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    // New ids every batch so storage appends instead of replacing
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void write() {
+        List<Document> documents = new ArrayList<>(BATCH_SIZE);
+        for(Document template : batch) {
+            documents.add(new Document("write-" + written++, template.getContent(), template.getMetadata(), template.getEmbedding()));
+        }
+        storage.saveDocuments(documents);
+    }
+
+    @Benchmark
+    public Document read() {
+        return storage.loadDocumentFromFile("read-" + ThreadLocalRandom.current().nextInt(READ_DOCUMENTS));
+    }
+}
@@ -0,0 +1,57 @@
+package org.vectorspacedatabase.vectordb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchStrategy;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Time to index every base vector from empty, training included for IVF_PQ
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class IndexBuildBenchmark {
+
+    @Param({"BRUTE_FORCE", "HNSW", "IVF_PQ"})
+    private IndexType index;
+
+    // "synthetic" or the path of an .fvecs file
+    @Param(Dataset.SYNTHETIC)
+    private String dataset;
+
+    @Param("50000")
+    private int size;
+
+    // Only used for synthetic data
+    @Param("384")
+    private int dimension;
+
+    @Param("COSINE")
+    private Metric metric;
+
+    private float[][] base;
+
+    @Setup
+    public void setup() throws IOException {
+        base = Dataset.load(dataset, size, dimension, 1, 42).base;
+    }
+
+    @Benchmark
+    public SearchStrategy build() {
+        return index.build(metric, base);
+    }
+}
@@ -0,0 +1,69 @@
+package org.vectorspacedatabase.vectordb.benchmark;
+
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchStrategy;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.BruteForce;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.IVFPQ;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.SegmentedIndex;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.util.Arrays;
+
+// Indexes under benchmark, configured the way VectorDatabase.main sets them up
+enum IndexType {
+    BRUTE_FORCE {
+        @Override
+        SearchStrategy create(Metric metric, float[][] base) {
+            return BruteForce.builder().withMetric(metric).build();
+        }
+    },
+    HNSW {
+        @Override
+        SearchStrategy create(Metric metric, float[][] base) {
+            return org.vectorspacedatabase.vectordb.similaritysearch.algorithms.HNSW.builder()
+                    .withMetric(metric)
+                    .withM(16)
+                    .withEfConstruction(200)
+                    .withEfSearch(50)
+                    .build();
+        }
+    },
+    // HNSW per sealed segment, the graphs are built in the background so searches right after the build also pay for
+    // the segments that are still scanned exactly
+    SEGMENTED {
+        @Override
+        SearchStrategy create(Metric metric, float[][] base) {
+            return SegmentedIndex.builder()
+                    .withMetric(metric)
+                    .withSegmentFactory(segmentArena -> org.vectorspacedatabase.vectordb.similaritysearch.algorithms.HNSW.builder()
+                            .withMetric(metric)
+                            .withArenaFactory(segmentArena)
+                            .withM(16)
+                            .withEfConstruction(200)
+                            .withEfSearch(50)
+                            .build())
+                    .build();
+        }
+    },
+    // Trained up front on a sample of the base vectors, otherwise it would answer exactly until trainingSize adds
+    IVF_PQ {
+        @Override
+        SearchStrategy create(Metric metric, float[][] base) {
+            IVFPQ index = IVFPQ.builder()
+                    .withMetric(metric)
+                    .withLists(Math.max(16, (int) Math.sqrt(base.length)))
+                    .build();
+            index.train(Arrays.copyOf(base, Math.min(base.length, 50_000)));
+            return index;
+        }
+    };
+
+    abstract SearchStrategy create(Metric metric, float[][] base);
+
+    SearchStrategy build(Metric metric, float[][] base) {
+        SearchStrategy index = create(metric, base);
+        for(int ordinal = 0; ordinal < base.length; ordinal++) {
+            index.add(ordinal, base[ordinal]);
+        }
+        return index;
+    }
+}
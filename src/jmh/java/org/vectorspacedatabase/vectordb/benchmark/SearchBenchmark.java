@@ -0,0 +1,110 @@
+package org.vectorspacedatabase.vectordb.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchStrategy;
+import org.vectorspacedatabase.vectordb.similaritysearch.TopK;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Query throughput and latency distribution per index over the held out queries. Recall@k against the exact BruteForce
+// results is computed once per trial and logged with the fork output, a faster index only counts at the same recall.
+// Run with -t to measure concurrent queries.
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SearchBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchBenchmark.class);
+
+    @Param({"BRUTE_FORCE", "HNSW", "IVF_PQ"})
+    private IndexType index;
+
+    // "synthetic" or the path of an .fvecs file
+    @Param(Dataset.SYNTHETIC)
+    private String dataset;
+
+    @Param("50000")
+    private int size;
+
+    // Only used for synthetic data
+    @Param("384")
+    private int dimension;
+
+    @Param("1000")
+    private int queries;
+
+    @Param("10")
+    private int k;
+
+    @Param("COSINE")
+    private Metric metric;
+
+    private SearchStrategy strategy;
+
+    private float[][] queryVectors;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Dataset data = Dataset.load(dataset, size, dimension, queries, 42);
+        queryVectors = data.queries;
+        strategy = index.build(metric, data.base);
+
+        int[][] truth = data.groundTruth(metric, k);
+        TopK[] results = new TopK[queryVectors.length];
+        for(int query = 0; query < queryVectors.length; query++) {
+            results[query] = strategy.search(queryVectors[query], k);
+        }
+        log.info("{} recall@{} over {} queries: {}", index, k, queryVectors.length,
+                String.format("%.4f", Dataset.recall(truth, results)));
+    }
+
+    // Each thread walks the queries from its own position
+    @State(Scope.Thread)
+    public static class QueryCursor {
+        private int next;
+
+        float[] next(float[][] queryVectors) {
+            float[] query = queryVectors[next];
+            next = next + 1 == queryVectors.length ? 0 : next + 1;
+            return query;
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public TopK queriesPerSecond(QueryCursor cursor) {
+        return strategy.search(cursor.next(queryVectors), k);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public TopK latency(QueryCursor cursor) {
+        return strategy.search(cursor.next(queryVectors), k);
+    }
+
+    // Every query in one call, compare with queries / queriesPerSecond for the cost of answering them one by one
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public TopK[] batch() {
+        return strategy.searchBatch(queryVectors, k);
+    }
+}
@@ -5,49 +5,336 @@ import ai.djl.repository.zoo.ModelNotFoundException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.embeddings.EmbeddingCache;
 import org.vectorspacedatabase.vectordb.embeddings.EmbeddingModel;
 import org.vectorspacedatabase.vectordb.embeddings.EmbeddingStrategy;
 import org.vectorspacedatabase.vectordb.embeddings.HuggingFaceEmbeddingModel;
+import org.vectorspacedatabase.vectordb.ingestion.Chunker;
+import org.vectorspacedatabase.vectordb.ingestion.IngestionPipeline;
+import org.vectorspacedatabase.vectordb.lexical.BM25Index;
+import org.vectorspacedatabase.vectordb.metadata.Filter;
+import org.vectorspacedatabase.vectordb.metrics.VectorDbMetrics;
 import org.vectorspacedatabase.vectordb.persistence.FileStorage;
+import org.vectorspacedatabase.vectordb.persistence.FsyncPolicy;
+import org.vectorspacedatabase.vectordb.persistence.SegmentFileStorage;
+import org.vectorspacedatabase.vectordb.persistence.WriteAheadLog;
+import org.vectorspacedatabase.vectordb.sharding.Shard;
+import org.vectorspacedatabase.vectordb.similaritysearch.MappedVectorArena;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchResult;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchSimilarity;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.BruteForce;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.HNSW;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class VectorDatabase {
+public class VectorDatabase implements Shard {
 
     public static final Logger log = LoggerFactory.getLogger(VectorDatabase.class);
 
+    private static final long LOAD_PROGRESS_INTERVAL = 100_000;
+
     protected Map<String, Document> contentStore = new ConcurrentHashMap<>();
 
     private EmbeddingStrategy embeddingStrategy;
 
     private final FileStorage fileStorage;
 
+    private final SearchSimilarity searchSimilarity;
+
+    // Optional, when present every batch is logged before it reaches storage or memory
+    private final WriteAheadLog writeAheadLog;
+
+    // Orders batches so the log, storage and memory see them in the same sequence
+    private final Object writeLock = new Object();
+
+    // When false the content store keeps documents without their embedding, the index and storage still hold the vector
+    private volatile boolean retainEmbeddings = true;
+
+    // Null until startCompaction
+    private ScheduledExecutorService compactor;
+
     public VectorDatabase(EmbeddingStrategy embeddingStrategy, FileStorage fileStorage) {
+        this(embeddingStrategy, fileStorage, new SearchSimilarity(BruteForce.builder().withMetric(Metric.COSINE).build()));
+    }
+
+    public VectorDatabase(EmbeddingStrategy embeddingStrategy, FileStorage fileStorage, SearchSimilarity searchSimilarity) {
+        this(embeddingStrategy, fileStorage, searchSimilarity, null);
+    }
+
+    public VectorDatabase(EmbeddingStrategy embeddingStrategy, FileStorage fileStorage, SearchSimilarity searchSimilarity,
+                          WriteAheadLog writeAheadLog) {
         this.embeddingStrategy = embeddingStrategy;
         this.fileStorage = fileStorage;
+        this.searchSimilarity = searchSimilarity;
+        this.writeAheadLog = writeAheadLog;
     }
 
     public void setEmbeddingStrategy(EmbeddingStrategy embeddingStrategy) {
         this.embeddingStrategy = embeddingStrategy;
     }
 
+    // Turn off with an off-heap arena so vectors do not stay on the heap twice
+    public void setRetainEmbeddings(boolean retainEmbeddings) {
+        this.retainEmbeddings = retainEmbeddings;
+    }
+
+    private Document inMemory(Document document) {
+        if(this.retainEmbeddings) {
+            return document;
+        }
+        return new Document(document.getId(), document.getContent(), document.getMetadata(), null);
+    }
+
     public void add(List<Document> documents) {
-        for(Document document : documents) {
-            log.info("Embedding for document with id : {}", document.getId());
-            List<Float> embedding = this.embeddingStrategy.embed(document);
+        log.debug("Embedding {} documents", documents.size());
+        long start = System.nanoTime();
+        List<float[]> embeddings = this.embeddingStrategy.embedAll(documents);
+        VectorDbMetrics.EMBED.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        for(int index = 0; index < documents.size(); index++) {
+            Document document = documents.get(index);
+            float[] embedding = embeddings.get(index);
             document.setEmbedding(embedding);
-            this.contentStore.put(document.getId(), document);
-            this.fileStorage.saveDocumentIntoFile(document.getId(), document);
+        }
+        addEmbedded(documents);
+    }
+
+    // Persists and indexes documents that already carry their embeddings, used by the ingestion pipeline
+    @Override
+    public void addEmbedded(List<Document> documents) {
+        synchronized (this.writeLock) {
+            long start = System.nanoTime();
+            if(this.writeAheadLog != null) {
+                this.writeAheadLog.appendAdd(documents);
+            }
+            this.fileStorage.saveDocuments(documents);
+            VectorDbMetrics.PERSIST.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+            index(documents);
+            checkpointIfNeeded();
+        }
+    }
+
+    private void applyAdd(List<Document> documents) {
+        this.fileStorage.saveDocuments(documents);
+        index(documents);
+    }
+
+    private void index(List<Document> documents) {
+        for(Document document : documents) {
+            this.contentStore.put(document.getId(), inMemory(document));
+            if(document.getEmbedding().length == 0) {
+                log.warn("Document {} has no embedding, it will not be searchable", document.getId());
+                continue;
+            }
+            long start = System.nanoTime();
+            this.searchSimilarity.add(document.getId(), document.getEmbedding(), document.getMetadata(), document.getContent());
+            VectorDbMetrics.INDEX_INSERT.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void applyDelete(List<String> documentIds) {
+        this.fileStorage.deleteDocuments(documentIds);
+
+        for(String id : documentIds) {
+            this.contentStore.remove(id);
+            this.searchSimilarity.remove(id);
+        }
+    }
+
+    // Storage is flushed first, only then can the log entries it now covers be dropped
+    public void checkpoint() {
+        if(this.writeAheadLog == null) {
+            return;
+        }
+        synchronized (this.writeLock) {
+            this.fileStorage.flush();
+            this.writeAheadLog.checkpoint();
         }
     }
 
+    private void checkpointIfNeeded() {
+        if(this.writeAheadLog != null && this.writeAheadLog.needsCheckpoint()) {
+            checkpoint();
+        }
+    }
+
+    // Storage rewrites the segments that updates and deletes have mostly superseded, then the index reclaims what
+    // removed vectors still hold. Reads and writes carry on while it runs.
+    public void compact() {
+        long start = System.nanoTime();
+        int rewritten = this.fileStorage.compact();
+        this.searchSimilarity.compact();
+        log.debug("Compaction rewrote {} storage files in {} ms", rewritten,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    // Runs compact every interval on a background thread
+    public synchronized void startCompaction(Duration interval) {
+        if(this.compactor != null) {
+            throw new IllegalStateException("Compaction is already scheduled");
+        }
+        this.compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "compaction");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactor.scheduleWithFixedDelay(this::compactQuietly, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (RuntimeException e) {
+            log.error("Compaction failed, retrying at the next interval", e);
+        }
+    }
+
+    // Rebuilds the in-memory state on boot. The index snapshot is restored first when one exists, then storage is
+    // streamed in parallel and only documents the snapshot does not already hold with the same vector are indexed.
+    public void load(Path snapshotPath) {
+        long start = System.nanoTime();
+
+        boolean restored = false;
+        if(snapshotPath != null) {
+            try {
+                restored = this.searchSimilarity.readSnapshot(snapshotPath);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Ignoring unusable index snapshot {}, rebuilding the index from storage", snapshotPath, e);
+            }
+        }
+        long snapshotMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        boolean useSnapshot = restored;
+        AtomicLong loaded = new AtomicLong();
+        AtomicLong indexed = new AtomicLong();
+        this.fileStorage.forEachDocument(document -> {
+            this.contentStore.put(document.getId(), inMemory(document));
+            float[] embedding = document.getEmbedding();
+            if(embedding.length > 0 && !(useSnapshot && this.searchSimilarity.contains(document.getId(), embedding))) {
+                this.searchSimilarity.add(document.getId(), embedding, document.getMetadata(), document.getContent());
+                indexed.incrementAndGet();
+            } else if(embedding.length > 0) {
+                this.searchSimilarity.indexFields(document.getId(), document.getMetadata(), document.getContent());
+            }
+
+            long count = loaded.incrementAndGet();
+            if(count % LOAD_PROGRESS_INTERVAL == 0) {
+                log.info("Loaded {} documents in {} ms", count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            }
+        });
+
+        // Drop whatever the snapshot still indexes but storage no longer has
+        long dropped = 0;
+        if(restored) {
+            for(String documentId : this.searchSimilarity.documentIds()) {
+                if(!this.contentStore.containsKey(documentId)) {
+                    this.searchSimilarity.remove(documentId);
+                    dropped++;
+                }
+            }
+        }
+
+        // Batches logged after the last checkpoint may be missing from storage, replaying them is idempotent
+        int replayed = 0;
+        if(this.writeAheadLog != null) {
+            synchronized (this.writeLock) {
+                replayed = this.writeAheadLog.replay(new WriteAheadLog.Replayer() {
+                    @Override
+                    public void add(List<Document> documents) {
+                        applyAdd(documents);
+                    }
+
+                    @Override
+                    public void delete(List<String> documentIds) {
+                        applyDelete(documentIds);
+                    }
+                });
+            }
+            if(replayed > 0) {
+                checkpoint();
+            }
+        }
+
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("Startup load finished in {} ms: {} documents loaded, {} indexed from storage, {} stale vectors dropped, {} log batches replayed, snapshot {} ({} ms), {} docs/s",
+                totalMillis, loaded.get(), indexed.get(), dropped, replayed, restored ? "restored" : "not used", snapshotMillis,
+                totalMillis == 0 ? loaded.get() : loaded.get() * 1000 / totalMillis);
+    }
+
+    public void saveSnapshot(Path snapshotPath) {
+        long start = System.nanoTime();
+        try {
+            this.searchSimilarity.writeSnapshot(snapshotPath);
+        } catch (IOException e) {
+            throw new RuntimeException("Error while writing index snapshot: " + snapshotPath, e);
+        }
+        log.info("Wrote index snapshot {} with {} vectors in {} ms", snapshotPath, this.searchSimilarity.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public List<SearchResult> search(String query, int k) {
+        return search(embedQuery(query), k);
+    }
+
+    public List<SearchResult> search(float[] queryVector, int k) {
+        return this.searchSimilarity.search(queryVector, k);
+    }
+
+    // Only documents whose metadata matches the filter are considered, e.g. Filter.eq("filename", "report.pdf")
+    public List<SearchResult> search(String query, int k, Filter filter) {
+        return search(embedQuery(query), k, filter);
+    }
+
+    @Override
+    public List<SearchResult> search(float[] queryVector, int k, Filter filter) {
+        return this.searchSimilarity.search(queryVector, k, filter);
+    }
+
+    // Answers many query vectors in one pass over the index, cheaper than searching them one by one
+    @Override
+    public List<List<SearchResult>> searchBatch(float[][] queryVectors, int k, Filter filter) {
+        return this.searchSimilarity.searchBatch(queryVectors, k, filter);
+    }
+
+    // Keyword search only, good for exact terms such as part numbers and error codes
+    @Override
+    public List<SearchResult> lexicalSearch(String query, int k, Filter filter) {
+        return this.searchSimilarity.searchLexical(query, k, filter);
+    }
+
+    // Embedding and keyword results fused by reciprocal rank
+    public List<SearchResult> hybridSearch(String query, int k) {
+        return hybridSearch(query, k, null);
+    }
+
+    public List<SearchResult> hybridSearch(String query, int k, Filter filter) {
+        return this.searchSimilarity.searchHybrid(embedQuery(query), query, k, filter);
+    }
+
+    private float[] embedQuery(String query) {
+        Document queryDocument = Document.builder().withContent(query).build();
+        long start = System.nanoTime();
+        float[] embedding = this.embeddingStrategy.embed(queryDocument);
+        VectorDbMetrics.EMBED_QUERY.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return embedding;
+    }
+
     // load files from storage
+    @Override
     public Document getDocument(String documentId) {
         return this.contentStore.get(documentId);
     }
@@ -56,14 +343,65 @@ public class VectorDatabase {
         return this.fileStorage.loadDocumentFromFile(documentId);
     }
 
+    @Override
+    public int size() {
+        return this.contentStore.size();
+    }
+
+    public EmbeddingStrategy getEmbeddingStrategy() {
+        return this.embeddingStrategy;
+    }
+
+    public SearchSimilarity getSearchSimilarity() {
+        return this.searchSimilarity;
+    }
+
+    // Null when the database runs without a log
+    public WriteAheadLog getWriteAheadLog() {
+        return this.writeAheadLog;
+    }
+
+    @Override
     public Optional<Boolean> delete(List<String> documentIdsToDelete) {
-        for(String id: documentIdsToDelete) {
-            this.contentStore.remove(id);
+        synchronized (this.writeLock) {
+            if(this.writeAheadLog != null) {
+                this.writeAheadLog.appendDelete(documentIdsToDelete);
+            }
+            applyDelete(documentIdsToDelete);
+            checkpointIfNeeded();
         }
 
         return Optional.of(Boolean.TRUE);
     }
 
+    @Override
+    public void close() {
+        stopCompaction();
+        if(this.writeAheadLog != null) {
+            checkpoint();
+            this.writeAheadLog.close();
+        }
+        this.fileStorage.close();
+        // After the checkpoint, which snapshots the index
+        this.searchSimilarity.close();
+    }
+
+    // Interrupts a running compaction, which stops between records, and waits for it before storage closes
+    private synchronized void stopCompaction() {
+        if(this.compactor == null) {
+            return;
+        }
+        this.compactor.shutdownNow();
+        try {
+            if(!this.compactor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("Compaction did not stop within 30 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.compactor = null;
+    }
+
     @Override
     public String toString() {
         return "VectorDatabase{" +
@@ -84,20 +422,58 @@ public class VectorDatabase {
 
             EmbeddingStrategy huggingFaceEmbeddingStrategy = new HuggingFaceEmbeddingModel.Builder()
                     .withModelUrl("djl://ai.djl.huggingface.pytorch/sentence-transformers/all-MiniLM-L6-v2")
+                    .withMaxBatchSize(32)
+                    .withLingerMillis(5)
                     .build();
 
             log.info("Embedding model: {}", huggingFaceEmbeddingStrategy);
 
-            VectorDatabase vdb = new VectorDatabase(huggingFaceEmbeddingStrategy, new FileStorage());
+            EmbeddingStrategy cachedEmbeddingStrategy = EmbeddingCache.builder()
+                    .withEmbeddingStrategy(huggingFaceEmbeddingStrategy)
+                    .withMaxBytes(64L * 1024 * 1024)
+                    .withDiskDirectory(Paths.get("embedding-cache"))
+                    .build();
+
+            SearchSimilarity hnswSearch = new SearchSimilarity(HNSW.builder()
+                    .withMetric(Metric.COSINE)
+                    .withArenaFactory(MappedVectorArena.factory(Paths.get("storage", "vectors.bin")))
+                    .withM(16)
+                    .withEfConstruction(200)
+                    .withEfSearch(50)
+                    .build(), BM25Index.builder().build());
 
-            File pdfFile = Paths.get(ClassLoader.getSystemResource("test.pdf").toURI()).toFile();
+            // The log makes batches durable, so storage itself skips the per-batch fsync
+            WriteAheadLog writeAheadLog = WriteAheadLog.builder()
+                    .withDirectory(Paths.get("wal"))
+                    .withFsyncPolicy(FsyncPolicy.PER_BATCH)
+                    .build();
 
-            List<Document> documents = List.of(Document.builder().withContent(pdfFile).withMetadata("meta1", "value1").build());
+            VectorDatabase vdb = new VectorDatabase(cachedEmbeddingStrategy, SegmentFileStorage.builder().withFsync(false).build(),
+                    hnswSearch, writeAheadLog);
+            vdb.setRetainEmbeddings(false);
+            Path snapshotPath = Paths.get("storage", "index.snapshot");
+            vdb.load(snapshotPath);
 
-            vdb.add(documents);
+            File pdfFile = Paths.get(ClassLoader.getSystemResource("test.pdf").toURI()).toFile();
+
+            // Bulk loads go through the pipeline, every file is extracted, chunked, embedded and written in parallel stages
+            try (IngestionPipeline pipeline = IngestionPipeline.builder()
+                    .withVectorDatabase(vdb)
+                    .withEmbeddingStrategy(cachedEmbeddingStrategy)
+                    .withChunker(Chunker.builder().withMaxTokens(256).withOverlapTokens(32).build())
+                    .build()) {
+                pipeline.submit(pdfFile, Map.of("meta1", "value1"));
+            }
 
             log.info("Content store is: {}", vdb);
 
+            log.info("Search results: {}", vdb.search("test", 3));
+            log.info("Search results in test.pdf: {}", vdb.search("test", 3, Filter.eq("filename", "test.pdf")));
+            log.info("Hybrid search results: {}", vdb.hybridSearch("test", 3));
+
+            vdb.saveSnapshot(snapshotPath);
+            vdb.close();
+
         } catch (Exception e) {
             log.error("Error initializing EmbeddingModel", e);
         }
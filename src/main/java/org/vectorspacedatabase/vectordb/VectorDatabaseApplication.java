@@ -0,0 +1,13 @@
+package org.vectorspacedatabase.vectordb;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+// HTTP server entry point, the database itself is wired in api.VectorDatabaseConfiguration
+@SpringBootApplication
+public class VectorDatabaseApplication {
+
+    public static void main(String[] args) {
+        SpringApplication.run(VectorDatabaseApplication.class, args);
+    }
+}
@@ -0,0 +1,119 @@
+package org.vectorspacedatabase.vectordb.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+// Request and response encoding shared by the controllers. Bodies are read token by token straight off the request
+// stream and responses are written the same way, nothing holds a whole payload in memory.
+final class ApiCodec {
+
+    static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private ApiCodec() {
+        throw new UnsupportedOperationException("This is a utility class, can't be instantiated");
+    }
+
+    // Reads a JSON number array, the parser must be on its START_ARRAY. Avoids the boxed lists data binding would build.
+    static float[] readFloats(JsonParser parser) throws IOException {
+        if(parser.currentToken() != JsonToken.START_ARRAY) {
+            throw new IllegalArgumentException("Expected an array of numbers");
+        }
+        float[] values = new float[64];
+        int size = 0;
+        JsonToken token;
+        while((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if(token != JsonToken.VALUE_NUMBER_FLOAT && token != JsonToken.VALUE_NUMBER_INT) {
+                throw new IllegalArgumentException("Vectors must only contain numbers");
+            }
+            if(size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = parser.getFloatValue();
+        }
+        return Arrays.copyOf(values, size);
+    }
+
+    // Binary vectors are packed little endian float32, dimension floats per vector with no header. Returns null once the
+    // stream ends on a vector boundary.
+    static float[] readBinaryVector(InputStream input, int dimension, byte[] buffer) throws IOException {
+        int length = dimension * Float.BYTES;
+        int read = input.readNBytes(buffer, 0, length);
+        if(read == 0) {
+            return null;
+        }
+        if(read < length) {
+            throw new IllegalArgumentException("Binary body ends inside a vector, expected " + length + " bytes but got " + read);
+        }
+        float[] vector = new float[dimension];
+        ByteBuffer.wrap(buffer, 0, length).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    static float[] decodeBinaryVector(byte[] body) {
+        if(body.length == 0 || body.length % Float.BYTES != 0) {
+            throw new IllegalArgumentException("Binary vector body must be a non empty multiple of 4 bytes");
+        }
+        float[] vector = new float[body.length / Float.BYTES];
+        ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(vector);
+        return vector;
+    }
+
+    // Root values are written back to back, callers end every NDJSON line themselves
+    static JsonGenerator generator(ObjectMapper objectMapper, OutputStream output) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(output);
+        generator.setPrettyPrinter(new MinimalPrettyPrinter(""));
+        return generator;
+    }
+
+    static void endLine(JsonGenerator generator) throws IOException {
+        generator.writeRaw('\n');
+        generator.flush();
+    }
+
+    static void writeResults(JsonGenerator generator, List<SearchResult> results) throws IOException {
+        generator.writeArrayFieldStart("results");
+        for(SearchResult result : results) {
+            generator.writeStartObject();
+            generator.writeStringField("id", result.getDocumentId());
+            generator.writeNumberField("score", result.getScore());
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    // Bulk bodies are either one JSON array or newline delimited JSON, both are walked one element at a time
+    static final class Elements {
+        private final JsonParser parser;
+        private boolean started;
+        private boolean array;
+
+        Elements(JsonParser parser) {
+            this.parser = parser;
+        }
+
+        // Moves the parser onto the first token of the next element, false at the end of the body
+        boolean next() throws IOException {
+            JsonToken token = parser.nextToken();
+            if(!started) {
+                started = true;
+                if(token == JsonToken.START_ARRAY) {
+                    array = true;
+                    token = parser.nextToken();
+                }
+            }
+            return token != null && !(array && token == JsonToken.END_ARRAY);
+        }
+    }
+}
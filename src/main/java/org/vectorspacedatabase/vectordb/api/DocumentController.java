@@ -0,0 +1,213 @@
+package org.vectorspacedatabase.vectordb.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.sharding.ShardedVectorDatabase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Bulk writes. Bodies are a JSON array or NDJSON, applied in batches while they are still being received, and every
+// batch is acknowledged with one NDJSON line as soon as it is durable. A failure ends the stream with an error line,
+// the batches acknowledged before it stay written.
+@RestController
+@RequestMapping("/api/documents")
+public class DocumentController {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentController.class);
+
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+
+    private final ShardedVectorDatabase vectorDatabase;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${vectordb.api.write-batch-size:256}")
+    private int writeBatchSize;
+
+    public DocumentController(ShardedVectorDatabase vectorDatabase, ObjectMapper objectMapper) {
+        this.vectorDatabase = vectorDatabase;
+        this.objectMapper = objectMapper;
+    }
+
+    // Elements are {"id", "content", "metadata", "embedding"}. Documents without an embedding are embedded here, the
+    // id defaults to the content hash like Document.Builder does. An existing id is replaced.
+    @PostMapping(consumes = {MediaType.APPLICATION_JSON_VALUE, ApiCodec.APPLICATION_NDJSON},
+            produces = ApiCodec.APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> upsert(HttpServletRequest request) throws IOException {
+        InputStream input = request.getInputStream();
+        StreamingResponseBody body = output -> {
+            try (JsonParser parser = objectMapper.getFactory().createParser(input);
+                 JsonGenerator generator = ApiCodec.generator(objectMapper, output)) {
+                ApiCodec.Elements elements = new ApiCodec.Elements(parser);
+                List<Document> batch = new ArrayList<>(writeBatchSize);
+                int batches = 0;
+                long upserted = 0;
+                try {
+                    while(elements.next()) {
+                        batch.add(readDocument(parser));
+                        if(batch.size() == writeBatchSize) {
+                            upserted += write(batch);
+                            writeBatchLine(generator, batches++, "upserted", batch.size());
+                            batch.clear();
+                        }
+                    }
+                    if(!batch.isEmpty()) {
+                        upserted += write(batch);
+                        writeBatchLine(generator, batches++, "upserted", batch.size());
+                    }
+                    writeSummaryLine(generator, "upserted", upserted, null);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Bulk upsert stopped after {} documents", upserted, e);
+                    writeSummaryLine(generator, "upserted", upserted, e.getMessage());
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(ApiCodec.APPLICATION_NDJSON)).body(body);
+    }
+
+    // Elements are document ids
+    @PostMapping(path = "/delete", consumes = {MediaType.APPLICATION_JSON_VALUE, ApiCodec.APPLICATION_NDJSON},
+            produces = ApiCodec.APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> delete(HttpServletRequest request) throws IOException {
+        InputStream input = request.getInputStream();
+        StreamingResponseBody body = output -> {
+            try (JsonParser parser = objectMapper.getFactory().createParser(input);
+                 JsonGenerator generator = ApiCodec.generator(objectMapper, output)) {
+                ApiCodec.Elements elements = new ApiCodec.Elements(parser);
+                List<String> batch = new ArrayList<>(writeBatchSize);
+                int batches = 0;
+                long deleted = 0;
+                try {
+                    while(elements.next()) {
+                        if(parser.currentToken() != JsonToken.VALUE_STRING) {
+                            throw new IllegalArgumentException("Expected a document id string");
+                        }
+                        batch.add(parser.getText());
+                        if(batch.size() == writeBatchSize) {
+                            vectorDatabase.delete(batch);
+                            deleted += batch.size();
+                            writeBatchLine(generator, batches++, "deleted", batch.size());
+                            batch = new ArrayList<>(writeBatchSize);
+                        }
+                    }
+                    if(!batch.isEmpty()) {
+                        vectorDatabase.delete(batch);
+                        deleted += batch.size();
+                        writeBatchLine(generator, batches++, "deleted", batch.size());
+                    }
+                    writeSummaryLine(generator, "deleted", deleted, null);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Bulk delete stopped after {} documents", deleted, e);
+                    writeSummaryLine(generator, "deleted", deleted, e.getMessage());
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(ApiCodec.APPLICATION_NDJSON)).body(body);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public Map<String, Integer> count() {
+        return Map.of("count", vectorDatabase.size());
+    }
+
+    @GetMapping(path = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Document> get(@PathVariable("id") String id) {
+        Document document = vectorDatabase.getDocument(id);
+        return document == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(document);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> delete(@PathVariable("id") String id) {
+        if(vectorDatabase.getDocument(id) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        vectorDatabase.delete(List.of(id));
+        return ResponseEntity.noContent().build();
+    }
+
+    private Document readDocument(JsonParser parser) throws IOException {
+        if(parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected a document object");
+        }
+        String id = null;
+        String content = null;
+        Map<String, Object> metadata = null;
+        float[] embedding = null;
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "id" -> id = parser.getValueAsString();
+                case "content" -> content = parser.getValueAsString();
+                case "metadata" -> metadata = parser.readValueAs(METADATA_TYPE);
+                case "embedding" -> embedding = ApiCodec.readFloats(parser);
+                default -> parser.skipChildren();
+            }
+        }
+
+        if(content == null && (embedding == null || id == null)) {
+            throw new IllegalArgumentException("A document needs content, or an id and an embedding");
+        }
+        if(id == null) {
+            id = String.valueOf(content.hashCode());
+        }
+        return new Document(id, content, metadata == null ? new HashMap<>() : metadata, embedding);
+    }
+
+    // Embeds what arrived without a vector, then writes the whole batch at once and in order so the last write of an
+    // id within it wins
+    private int write(List<Document> batch) {
+        List<Document> toEmbed = new ArrayList<>();
+        for(Document document : batch) {
+            if(document.getEmbedding().length == 0) {
+                toEmbed.add(document);
+            }
+        }
+        if(!toEmbed.isEmpty()) {
+            vectorDatabase.embed(toEmbed);
+        }
+        vectorDatabase.addEmbedded(batch);
+        return batch.size();
+    }
+
+    private static void writeBatchLine(JsonGenerator generator, int batch, String countField, int count) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("batch", batch);
+        generator.writeNumberField(countField, count);
+        generator.writeEndObject();
+        ApiCodec.endLine(generator);
+    }
+
+    private static void writeSummaryLine(JsonGenerator generator, String countField, long count, String error) throws IOException {
+        generator.writeStartObject();
+        generator.writeBooleanField("done", error == null);
+        generator.writeNumberField(countField, count);
+        if(error != null) {
+            generator.writeStringField("error", error);
+        }
+        generator.writeEndObject();
+        ApiCodec.endLine(generator);
+    }
+}
@@ -0,0 +1,296 @@
+package org.vectorspacedatabase.vectordb.api;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.vectorspacedatabase.vectordb.metadata.Filter;
+import org.vectorspacedatabase.vectordb.metadata.JsonFilters;
+import org.vectorspacedatabase.vectordb.sharding.ShardedVectorDatabase;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// k-NN queries. A JSON query is {"vector": [...] or "text": "...", "k": 10, "filter": {...}, "mode": "vector"}, mode
+// being vector, lexical or hybrid. Clients that already hold vectors should send application/octet-stream instead:
+// little endian float32 values, one vector for a single query or dimension floats per query for a batch, with k and
+// filter as request parameters. That skips parsing floats from text, the bulk of the cost of a JSON query.
+@RestController
+@RequestMapping("/api/search")
+public class SearchController {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchController.class);
+
+    private enum Mode { VECTOR, LEXICAL, HYBRID }
+
+    // Batch queries are searched this many at a time, each group still streams its lines as soon as it is done
+    private static final int BATCH_QUERIES = 64;
+
+    private final ShardedVectorDatabase vectorDatabase;
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${vectordb.api.max-k:1000}")
+    private int maxK;
+
+    public SearchController(ShardedVectorDatabase vectorDatabase, ObjectMapper objectMapper) {
+        this.vectorDatabase = vectorDatabase;
+        this.objectMapper = objectMapper;
+    }
+
+    // Single queries are answered on the request thread, an async dispatch costs more than the search itself
+    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public void search(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Query query;
+        try (JsonParser parser = objectMapper.getFactory().createParser(request.getInputStream())) {
+            parser.nextToken();
+            query = readQuery(parser);
+        }
+        writeResponse(response, execute(query));
+    }
+
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    public void searchBinary(HttpServletRequest request, HttpServletResponse response,
+                             @RequestParam(name = "k", defaultValue = "10") int k,
+                             @RequestParam(name = "filter", required = false) String filter) throws IOException {
+        float[] vector = ApiCodec.decodeBinaryVector(request.getInputStream().readAllBytes());
+        writeResponse(response, execute(new Query(vector, null, checkK(k), parseFilter(filter), Mode.VECTOR)));
+    }
+
+    // Queries are a JSON array or NDJSON, answered in order with one {"query": i, "results": [...]} line each, written
+    // as soon as it is ready. Consecutive vector queries with the same k and filter are answered together by one batch
+    // search, up to BATCH_QUERIES of them. A bad query ends the stream with an error line.
+    @PostMapping(path = "/batch", consumes = {MediaType.APPLICATION_JSON_VALUE, ApiCodec.APPLICATION_NDJSON},
+            produces = ApiCodec.APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> searchBatch(HttpServletRequest request) throws IOException {
+        InputStream input = request.getInputStream();
+        StreamingResponseBody body = output -> {
+            try (JsonParser parser = objectMapper.getFactory().createParser(input);
+                 JsonGenerator generator = ApiCodec.generator(objectMapper, output)) {
+                ApiCodec.Elements elements = new ApiCodec.Elements(parser);
+                List<Query> group = new ArrayList<>();
+                int index = 0;
+                try {
+                    while(true) {
+                        Query query;
+                        try {
+                            if(!elements.next()) {
+                                break;
+                            }
+                            query = readQuery(parser);
+                        } catch (IOException | RuntimeException e) {
+                            // The queries before the bad one still get their answers
+                            index = writeGroup(generator, index, group);
+                            throw e;
+                        }
+                        if(!group.isEmpty() && !sameGroup(group.get(0), query)) {
+                            index = writeGroup(generator, index, group);
+                        }
+                        if(!groupable(query)) {
+                            writeQueryLine(generator, index++, execute(query));
+                            continue;
+                        }
+                        group.add(query);
+                        if(group.size() == BATCH_QUERIES) {
+                            index = writeGroup(generator, index, group);
+                        }
+                    }
+                    writeGroup(generator, index, group);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Batch search stopped at query {}", index, e);
+                    writeErrorLine(generator, index, e.getMessage());
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(ApiCodec.APPLICATION_NDJSON)).body(body);
+    }
+
+    @PostMapping(path = "/batch", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE, produces = ApiCodec.APPLICATION_NDJSON)
+    public ResponseEntity<StreamingResponseBody> searchBatchBinary(HttpServletRequest request,
+                                                                   @RequestParam(name = "dimension") int dimension,
+                                                                   @RequestParam(name = "k", defaultValue = "10") int k,
+                                                                   @RequestParam(name = "filter", required = false) String filter) throws IOException {
+        if(dimension <= 0) {
+            throw new IllegalArgumentException("dimension must be greater than zero");
+        }
+        int checkedK = checkK(k);
+        Filter parsedFilter = parseFilter(filter);
+        InputStream input = request.getInputStream();
+        StreamingResponseBody body = output -> {
+            try (JsonGenerator generator = ApiCodec.generator(objectMapper, output)) {
+                byte[] buffer = new byte[dimension * Float.BYTES];
+                float[][] batch = new float[BATCH_QUERIES][];
+                int index = 0;
+                try {
+                    int count = 0;
+                    float[] vector;
+                    while((vector = ApiCodec.readBinaryVector(input, dimension, buffer)) != null) {
+                        batch[count++] = vector;
+                        if(count == batch.length) {
+                            index = writeBatch(generator, index, batch, checkedK, parsedFilter);
+                            count = 0;
+                        }
+                    }
+                    if(count > 0) {
+                        writeBatch(generator, index, Arrays.copyOf(batch, count), checkedK, parsedFilter);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Binary batch search stopped at query {}", index, e);
+                    writeErrorLine(generator, index, e.getMessage());
+                }
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(ApiCodec.APPLICATION_NDJSON)).body(body);
+    }
+
+    // Answers the queries with one batch search, which reads the index once for all of them
+    private int writeBatch(JsonGenerator generator, int index, float[][] batch, int k, Filter filter) throws IOException {
+        for(List<SearchResult> results : vectorDatabase.searchBatch(batch, k, filter)) {
+            writeQueryLine(generator, index++, results);
+        }
+        return index;
+    }
+
+    private int writeGroup(JsonGenerator generator, int index, List<Query> group) throws IOException {
+        if(group.isEmpty()) {
+            return index;
+        }
+        float[][] batch = new float[group.size()][];
+        for(int query = 0; query < batch.length; query++) {
+            batch[query] = group.get(query).vector;
+        }
+        Query first = group.get(0);
+        group.clear();
+        return writeBatch(generator, index, batch, first.k, first.filter);
+    }
+
+    private static boolean groupable(Query query) {
+        return query.mode == Mode.VECTOR && query.vector != null;
+    }
+
+    // Filters parsed from separate queries are different objects, their cache keys say whether they select the same
+    private static boolean sameGroup(Query first, Query query) {
+        if(!groupable(query) || query.k != first.k || query.vector.length != first.vector.length) {
+            return false;
+        }
+        if(first.filter == null || query.filter == null) {
+            return first.filter == query.filter;
+        }
+        return first.filter.cacheKey().equals(query.filter.cacheKey());
+    }
+
+    private Query readQuery(JsonParser parser) throws IOException {
+        if(parser.currentToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Expected a query object");
+        }
+        float[] vector = null;
+        String text = null;
+        int k = 10;
+        Filter filter = null;
+        Mode mode = Mode.VECTOR;
+        while(parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "vector" -> vector = ApiCodec.readFloats(parser);
+                case "text" -> text = parser.getValueAsString();
+                case "k" -> k = parser.getValueAsInt();
+                case "filter" -> filter = JsonFilters.parse(parser.<JsonNode>readValueAsTree());
+                case "mode" -> mode = parseMode(parser.getValueAsString());
+                default -> parser.skipChildren();
+            }
+        }
+
+        if(mode == Mode.VECTOR ? vector == null && text == null : text == null) {
+            throw new IllegalArgumentException(mode == Mode.VECTOR ? "A query needs a vector or a text"
+                    : "A " + mode.name().toLowerCase() + " query needs a text");
+        }
+        return new Query(vector, text, checkK(k), filter, mode);
+    }
+
+    private List<SearchResult> execute(Query query) {
+        return switch (query.mode) {
+            case VECTOR -> query.vector != null ? vectorDatabase.search(query.vector, query.k, query.filter)
+                    : vectorDatabase.search(query.text, query.k, query.filter);
+            case LEXICAL -> vectorDatabase.lexicalSearch(query.text, query.k, query.filter);
+            case HYBRID -> vectorDatabase.hybridSearch(query.text, query.k, query.filter);
+        };
+    }
+
+    private static Mode parseMode(String mode) {
+        try {
+            return Mode.valueOf(mode.toUpperCase());
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Unknown search mode " + mode);
+        }
+    }
+
+    private int checkK(int k) {
+        if(k <= 0 || k > maxK) {
+            throw new IllegalArgumentException("k must be between 1 and " + maxK);
+        }
+        return k;
+    }
+
+    private Filter parseFilter(String filter) throws IOException {
+        return filter == null || filter.isBlank() ? null : JsonFilters.parse(objectMapper.readTree(filter));
+    }
+
+    private void writeResponse(HttpServletResponse response, List<SearchResult> results) throws IOException {
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        try (JsonGenerator generator = ApiCodec.generator(objectMapper, response.getOutputStream())) {
+            generator.writeStartObject();
+            ApiCodec.writeResults(generator, results);
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeQueryLine(JsonGenerator generator, int index, List<SearchResult> results) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("query", index);
+        ApiCodec.writeResults(generator, results);
+        generator.writeEndObject();
+        ApiCodec.endLine(generator);
+    }
+
+    private static void writeErrorLine(JsonGenerator generator, int index, String error) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("query", index);
+        generator.writeStringField("error", error);
+        generator.writeEndObject();
+        ApiCodec.endLine(generator);
+    }
+
+    private static final class Query {
+        private final float[] vector;
+        private final String text;
+        private final int k;
+        private final Filter filter;
+        private final Mode mode;
+
+        Query(float[] vector, String text, int k, Filter filter, Mode mode) {
+            this.vector = vector;
+            this.text = text;
+            this.k = k;
+            this.filter = filter;
+            this.mode = mode;
+        }
+    }
+}
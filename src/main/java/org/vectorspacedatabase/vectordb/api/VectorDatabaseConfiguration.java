@@ -0,0 +1,207 @@
+package org.vectorspacedatabase.vectordb.api;
+
+import ai.djl.MalformedModelException;
+import ai.djl.repository.zoo.ModelNotFoundException;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.vectorspacedatabase.vectordb.VectorDatabase;
+import org.vectorspacedatabase.vectordb.embeddings.EmbeddingCache;
+import org.vectorspacedatabase.vectordb.embeddings.EmbeddingStrategy;
+import org.vectorspacedatabase.vectordb.embeddings.HuggingFaceEmbeddingModel;
+import org.vectorspacedatabase.vectordb.lexical.BM25Index;
+import org.vectorspacedatabase.vectordb.metrics.VectorDatabaseMetrics;
+import org.vectorspacedatabase.vectordb.persistence.FsyncPolicy;
+import org.vectorspacedatabase.vectordb.persistence.SegmentFileStorage;
+import org.vectorspacedatabase.vectordb.persistence.WriteAheadLog;
+import org.vectorspacedatabase.vectordb.sharding.RemoteShard;
+import org.vectorspacedatabase.vectordb.sharding.Shard;
+import org.vectorspacedatabase.vectordb.sharding.ShardedVectorDatabase;
+import org.vectorspacedatabase.vectordb.similaritysearch.MappedVectorArena;
+import org.vectorspacedatabase.vectordb.similaritysearch.QueryCache;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchSimilarity;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.HNSW;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.SegmentedIndex;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+// Same setup as VectorDatabase.main, with the paths and model taken from application.properties
+@Configuration
+public class VectorDatabaseConfiguration {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorDatabaseConfiguration.class);
+
+    private static final String SNAPSHOT_FILE = "index.snapshot";
+
+    @Value("${vectordb.storage.directory:storage}")
+    private String storageDirectory;
+
+    @Value("${vectordb.wal.directory:wal}")
+    private String walDirectory;
+
+    @Value("${vectordb.embedding.model-url:djl://ai.djl.huggingface.pytorch/sentence-transformers/all-MiniLM-L6-v2}")
+    private String modelUrl;
+
+    @Value("${vectordb.embedding.cache.directory:embedding-cache}")
+    private String embeddingCacheDirectory;
+
+    @Value("${vectordb.embedding.cache.max-bytes:67108864}")
+    private long embeddingCacheMaxBytes;
+
+    @Value("${vectordb.embedding.cache.max-disk-bytes:1073741824}")
+    private long embeddingCacheMaxDiskBytes;
+
+    @Value("${vectordb.shards.count:1}")
+    private int shardCount;
+
+    @Value("${vectordb.shards.remote:}")
+    private List<String> remoteShards;
+
+    @Value("${vectordb.shards.username:vectordb}")
+    private String shardUsername;
+
+    @Value("${vectordb.shards.password:}")
+    private String shardPassword;
+
+    // Remote shards are expected to run with the same limit
+    @Value("${vectordb.api.max-k:1000}")
+    private int maxK;
+
+    @Value("${vectordb.compaction.interval-seconds:300}")
+    private long compactionIntervalSeconds;
+
+    @Value("${vectordb.compaction.bytes-per-second:33554432}")
+    private long compactionBytesPerSecond;
+
+    @Value("${vectordb.query-cache.max-bytes:67108864}")
+    private long queryCacheMaxBytes;
+
+    private final List<VectorDatabase> localShards = new ArrayList<>();
+
+    @Bean
+    public EmbeddingStrategy embeddingStrategy() throws ModelNotFoundException, MalformedModelException, IOException {
+        EmbeddingStrategy model = new HuggingFaceEmbeddingModel.Builder()
+                .withModelUrl(modelUrl)
+                .withMaxBatchSize(32)
+                .withLingerMillis(5)
+                .build();
+        return EmbeddingCache.builder()
+                .withEmbeddingStrategy(model)
+                .withMaxBytes(embeddingCacheMaxBytes)
+                .withDiskDirectory(Paths.get(embeddingCacheDirectory))
+                .withMaxDiskBytes(embeddingCacheMaxDiskBytes)
+                .build();
+    }
+
+    // One shard keeps the storage and log directories as they are, more put shard-<n> directories underneath them.
+    // With vectordb.shards.remote set the shards are other processes and nothing is stored here.
+    @Bean
+    public ShardedVectorDatabase vectorDatabase(EmbeddingStrategy embeddingStrategy) {
+        if(!remoteShards.isEmpty()) {
+            List<Shard> shards = new ArrayList<>();
+            for(String uri : remoteShards) {
+                shards.add(RemoteShard.builder()
+                        .withBaseUri(URI.create(uri.strip()))
+                        .withCredentials(shardUsername, shardPassword)
+                        .withMaxK(maxK)
+                        .build());
+            }
+            return new ShardedVectorDatabase(embeddingStrategy, shards);
+        }
+
+        if(shardCount <= 0) {
+            throw new IllegalArgumentException("vectordb.shards.count must be greater than zero");
+        }
+        // Shards load in parallel, each replays only its own storage and log
+        List<CompletableFuture<VectorDatabase>> loading = new ArrayList<>();
+        for(int shard = 0; shard < shardCount; shard++) {
+            int index = shard;
+            loading.add(CompletableFuture.supplyAsync(() -> localShard(embeddingStrategy, index)));
+        }
+        for(CompletableFuture<VectorDatabase> future : loading) {
+            this.localShards.add(future.join());
+        }
+        return new ShardedVectorDatabase(embeddingStrategy, this.localShards);
+    }
+
+    private VectorDatabase localShard(EmbeddingStrategy embeddingStrategy, int shard) {
+        Path storage = shardDirectory(storageDirectory, shard);
+        // Writes land in a small exactly scanned segment, HNSW graphs are built and merged off the write path so bulk
+        // loads do not slow searches down. The mapped file holds every vector once, the segment graphs score through it.
+        SearchSimilarity searchSimilarity = new SearchSimilarity(SegmentedIndex.builder()
+                .withMetric(Metric.COSINE)
+                .withArenaFactory(MappedVectorArena.factory(storage.resolve("vectors.bin")))
+                .withSegmentFactory(segmentArena -> HNSW.builder()
+                        .withMetric(Metric.COSINE)
+                        .withArenaFactory(segmentArena)
+                        .withM(16)
+                        .withEfConstruction(200)
+                        .withEfSearch(50)
+                        .build())
+                .build(), BM25Index.builder().build(), queryCache());
+
+        WriteAheadLog writeAheadLog = WriteAheadLog.builder()
+                .withDirectory(shardDirectory(walDirectory, shard))
+                .withFsyncPolicy(FsyncPolicy.PER_BATCH)
+                .build();
+
+        VectorDatabase vdb = new VectorDatabase(embeddingStrategy,
+                SegmentFileStorage.builder()
+                        .withDirectory(storage)
+                        .withFsync(false)
+                        .withCompactionBytesPerSecond(compactionBytesPerSecond)
+                        .build(),
+                searchSimilarity, writeAheadLog);
+        vdb.setRetainEmbeddings(false);
+        vdb.load(storage.resolve(SNAPSHOT_FILE));
+        if(compactionIntervalSeconds > 0) {
+            vdb.startCompaction(Duration.ofSeconds(compactionIntervalSeconds));
+        }
+        return vdb;
+    }
+
+    // The budget is split between the local shards, each caches the searches it answers
+    private QueryCache queryCache() {
+        if(queryCacheMaxBytes <= 0) {
+            return null;
+        }
+        return QueryCache.builder()
+                .withMaxBytes(Math.max(1, queryCacheMaxBytes / shardCount))
+                .build();
+    }
+
+    private Path shardDirectory(String directory, int shard) {
+        return shardCount == 1 ? Paths.get(directory) : Paths.get(directory, "shard-" + shard);
+    }
+
+    // Gauges and counters for Actuator, the hot path timers register themselves
+    @Bean
+    public VectorDatabaseMetrics vectorDatabaseMetrics(ShardedVectorDatabase vectorDatabase) {
+        return new VectorDatabaseMetrics(vectorDatabase);
+    }
+
+    // The snapshot only speeds up the next boot, storage and the log already hold every acknowledged write
+    @PreDestroy
+    public void shutdown() {
+        for(int shard = 0; shard < this.localShards.size(); shard++) {
+            VectorDatabase vdb = this.localShards.get(shard);
+            try {
+                vdb.saveSnapshot(shardDirectory(storageDirectory, shard).resolve(SNAPSHOT_FILE));
+            } catch (RuntimeException e) {
+                log.error("Failed to save index snapshot of shard {} on shutdown", shard, e);
+            }
+            vdb.close();
+        }
+    }
+}
@@ -1,14 +1,10 @@
 package org.vectorspacedatabase.vectordb.document;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.text.PDFTextStripper;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
-import org.apache.poi.xwpf.usermodel.XWPFParagraph;
 import org.springframework.util.Assert;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.*;
@@ -24,13 +20,22 @@ public class Document {
     private final String content;
 
     @JsonProperty(index = 4)
-    private List<Float> embedding;
+    private float[] embedding;
 
     public Document(String id, String content, Map<String, Object> metadata) {
+        this(id, content, metadata, new float[0]);
+    }
+
+    // Used by Jackson while loading from storage, older files holding List<Float> embeddings read the same way
+    @JsonCreator
+    public Document(@JsonProperty("id") String id,
+                    @JsonProperty("content") String content,
+                    @JsonProperty("metadata") Map<String, Object> metadata,
+                    @JsonProperty("embedding") float[] embedding) {
         this.id = id;
         this.content = content;
         this.metadata = metadata;
-        this.embedding = new ArrayList<>();
+        this.embedding = embedding == null ? new float[0] : embedding;
     }
 
     public static Builder builder() {
@@ -49,42 +54,19 @@ public class Document {
             return this;
         }
 
+        public Builder withContent(String content) {
+            this.content = content;
+            return this;
+        }
+
         public Builder withContent(File file) throws IllegalArgumentException, IOException, FileNotFoundException {
             String fileName = file.getName();
             metadata.put("filename", fileName);
 
-            if(fileName.endsWith(".pdf")) {
-                this.content = extractTextFromPDF(file);
-            } else if(fileName.endsWith(".docx")) {
-                this.content = extractTextFromWord(file);   
-            } else {
-                throw new IllegalArgumentException("Unsupported file formate: " + fileName);
-            }
-            
+            this.content = TextExtractor.extract(file);
             return this;
         }
 
-        private String extractTextFromPDF(File file) throws IOException {
-            PDDocument pdfDocument = PDDocument.load(file);
-            PDFTextStripper pdfTextStripper = new PDFTextStripper();
-            String text = pdfTextStripper.getText(pdfDocument);
-            pdfDocument.close();
-            return text;
-        }
-
-        private String extractTextFromWord(File file) throws IOException {
-            XWPFDocument document = new XWPFDocument(new FileInputStream(file));
-            StringBuilder content = new StringBuilder();
-
-            List<XWPFParagraph> paragraphs = document.getParagraphs();
-            for(XWPFParagraph paragraph: paragraphs) {
-                content.append(paragraph.getText()).append("\n");
-            }
-            document.close();
-
-            return content.toString();
-        }
-
         private String generateId(String content) {
             return String.valueOf(content.hashCode());
         }
@@ -109,11 +91,11 @@ public class Document {
         return content;
     }
 
-    public List<Float> getEmbedding() {
+    public float[] getEmbedding() {
         return embedding;
     }
 
-    public void setEmbedding(List<Float> embedding) {
+    public void setEmbedding(float[] embedding) {
         this.embedding = embedding;
     }
 
@@ -122,12 +104,14 @@ public class Document {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Document document = (Document) o;
-        return Objects.equals(id, document.id) && Objects.equals(metadata, document.metadata) && Objects.equals(content, document.content) && Objects.equals(embedding, document.embedding);
+        return Objects.equals(id, document.id) && Objects.equals(metadata, document.metadata) && Objects.equals(content, document.content) && Arrays.equals(embedding, document.embedding);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(id, metadata, content, embedding);
+        int result = Objects.hash(id, metadata, content);
+        result = 31 * result + Arrays.hashCode(embedding);
+        return result;
     }
 
     @Override
@@ -136,7 +120,7 @@ public class Document {
                 "id='" + id + '\'' +
                 ", metadata=" + metadata +
                 ", content='" + content + '\'' +
-                ", embedding=" + embedding +
+                ", embedding=" + Arrays.toString(embedding) +
                 '}';
     }
 }
@@ -0,0 +1,50 @@
+package org.vectorspacedatabase.vectordb.document;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Plain text out of the supported file formats. Stateless, so ingestion workers can run it in parallel.
+public final class TextExtractor {
+
+    private TextExtractor() {
+        throw new UnsupportedOperationException("This is a utility class, can't be instantiated");
+    }
+
+    public static boolean isSupported(File file) {
+        String fileName = file.getName();
+        return fileName.endsWith(".pdf") || fileName.endsWith(".docx");
+    }
+
+    public static String extract(File file) throws IOException {
+        String fileName = file.getName();
+        if(fileName.endsWith(".pdf")) {
+            return extractTextFromPDF(file);
+        } else if(fileName.endsWith(".docx")) {
+            return extractTextFromWord(file);
+        }
+        throw new IllegalArgumentException("Unsupported file formate: " + fileName);
+    }
+
+    private static String extractTextFromPDF(File file) throws IOException {
+        try (PDDocument pdfDocument = PDDocument.load(file)) {
+            return new PDFTextStripper().getText(pdfDocument);
+        }
+    }
+
+    private static String extractTextFromWord(File file) throws IOException {
+        try (InputStream input = new FileInputStream(file); XWPFDocument document = new XWPFDocument(input)) {
+            StringBuilder content = new StringBuilder();
+            for(XWPFParagraph paragraph : document.getParagraphs()) {
+                content.append(paragraph.getText()).append("\n");
+            }
+            return content.toString();
+        }
+    }
+}
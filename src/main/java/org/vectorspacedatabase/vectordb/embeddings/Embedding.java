@@ -1,11 +1,14 @@
 package org.vectorspacedatabase.vectordb.embeddings;
 
-import java.util.List;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.Arrays;
 import java.util.Objects;
 
+@JsonIgnoreProperties(ignoreUnknown = true)
 public class Embedding {
     private String object;
-    private List<Float> embedding  ;
+    private float[] embedding;
 
     private Integer index;
 
@@ -13,7 +16,7 @@ public class Embedding {
         return object;
     }
 
-    public List<Float> getEmbedding() {
+    public float[] getEmbedding() {
         return embedding;
     }
 
@@ -24,7 +27,7 @@ public class Embedding {
     public Embedding() {}
 
 
-    public Embedding(String object, List<Float> embedding, Integer index) {
+    public Embedding(String object, float[] embedding, Integer index) {
         this.object = object;
         this.embedding = embedding;
         this.index = index;
@@ -35,19 +38,21 @@ public class Embedding {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Embedding embedding1 = (Embedding) o;
-        return Objects.equals(object, embedding1.object) && Objects.equals(embedding, embedding1.embedding) && Objects.equals(index, embedding1.index);
+        return Objects.equals(object, embedding1.object) && Arrays.equals(embedding, embedding1.embedding) && Objects.equals(index, embedding1.index);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(object, embedding, index);
+        int result = Objects.hash(object, index);
+        result = 31 * result + Arrays.hashCode(embedding);
+        return result;
     }
 
     @Override
     public String toString() {
         return "Embedding{" +
                 "object='" + object + '\'' +
-                ", embedding=" + embedding +
+                ", embedding=" + Arrays.toString(embedding) +
                 ", index=" + index +
                 '}';
     }
@@ -1,4 +1,315 @@
 package org.vectorspacedatabase.vectordb.embeddings;
 
-public class EmbeddingCache {
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.document.Document;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Content addressed cache in front of any EmbeddingStrategy.
+// Keys are SHA-256 of the model identity and the content, the in-memory tier is an LRU bounded by bytes
+// and the optional disk tier appends them to a few data files, also bounded by bytes, so embeddings survive restarts.
+// Closing the cache closes the wrapped strategy too.
+public class EmbeddingCache implements EmbeddingStrategy, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingCache.class);
+
+    // Rough per entry cost of the map node, key string and array header
+    private static final long ENTRY_OVERHEAD_BYTES = 200;
+
+    private final EmbeddingStrategy embeddingStrategy;
+
+    private final String modelIdentity;
+
+    private final long maxBytes;
+
+    // Null without a disk tier
+    private final EmbeddingDiskStore diskStore;
+
+    private final LinkedHashMap<String, float[]> entries = new LinkedHashMap<>(1024, 0.75f, true);
+
+    private long currentBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong diskHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private EmbeddingStrategy embeddingStrategy;
+        private String modelIdentity;
+        private long maxBytes = 256L * 1024 * 1024;
+        private Path diskDirectory;
+        private long maxDiskBytes = 1024L * 1024 * 1024;
+
+        public Builder withEmbeddingStrategy(EmbeddingStrategy embeddingStrategy) {
+            this.embeddingStrategy = embeddingStrategy;
+            return this;
+        }
+
+        // Defaults to the identity reported by the wrapped strategy
+        public Builder withModelIdentity(String modelIdentity) {
+            this.modelIdentity = modelIdentity;
+            return this;
+        }
+
+        public Builder withMaxBytes(long maxBytes) {
+            if(maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes must be greater than zero");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        public Builder withDiskDirectory(Path diskDirectory) {
+            this.diskDirectory = diskDirectory;
+            return this;
+        }
+
+        public Builder withMaxDiskBytes(long maxDiskBytes) {
+            if(maxDiskBytes <= 0) {
+                throw new IllegalArgumentException("maxDiskBytes must be greater than zero");
+            }
+            this.maxDiskBytes = maxDiskBytes;
+            return this;
+        }
+
+        public EmbeddingCache build() {
+            if(embeddingStrategy == null) {
+                throw new IllegalArgumentException("Embedding strategy must not be null");
+            }
+            return new EmbeddingCache(this);
+        }
+    }
+
+    public EmbeddingCache(Builder builder) {
+        this.embeddingStrategy = builder.embeddingStrategy;
+        this.modelIdentity = builder.modelIdentity != null ? builder.modelIdentity : builder.embeddingStrategy.getModelIdentity();
+        this.maxBytes = builder.maxBytes;
+        this.diskStore = builder.diskDirectory == null ? null
+                : new EmbeddingDiskStore(builder.diskDirectory, builder.maxDiskBytes);
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        String content = document.getContent();
+        if(content == null || content.isEmpty()) {
+            return embeddingStrategy.embed(document);
+        }
+
+        String key = key(content);
+        float[] embedding = getFromMemory(key);
+        if(embedding != null) {
+            hits.incrementAndGet();
+            return embedding.clone();
+        }
+
+        embedding = readFromDisk(key);
+        if(embedding != null) {
+            diskHits.incrementAndGet();
+            putInMemory(key, embedding);
+            return embedding.clone();
+        }
+
+        misses.incrementAndGet();
+        embedding = embeddingStrategy.embed(document);
+        // Never cache an empty answer, it only means the strategy had nothing to embed
+        if(embedding.length > 0) {
+            putInMemory(key, embedding.clone());
+            writeToDisk(key, embedding);
+        }
+        return embedding;
+    }
+
+    // Cached documents are answered directly, only the misses go to the wrapped strategy as one batch
+    @Override
+    public List<float[]> embedAll(List<Document> documents) {
+        float[][] embeddings = new float[documents.size()][];
+        String[] keys = new String[documents.size()];
+        List<Document> missingDocuments = new ArrayList<>();
+        List<Integer> missingPositions = new ArrayList<>();
+
+        for(int index = 0; index < documents.size(); index++) {
+            Document document = documents.get(index);
+            String content = document.getContent();
+            if(content == null || content.isEmpty()) {
+                missingDocuments.add(document);
+                missingPositions.add(index);
+                continue;
+            }
+
+            keys[index] = key(content);
+            float[] embedding = getFromMemory(keys[index]);
+            if(embedding != null) {
+                hits.incrementAndGet();
+                embeddings[index] = embedding.clone();
+                continue;
+            }
+            embedding = readFromDisk(keys[index]);
+            if(embedding != null) {
+                diskHits.incrementAndGet();
+                putInMemory(keys[index], embedding);
+                embeddings[index] = embedding.clone();
+                continue;
+            }
+
+            misses.incrementAndGet();
+            missingDocuments.add(document);
+            missingPositions.add(index);
+        }
+
+        if(!missingDocuments.isEmpty()) {
+            List<float[]> computed = embeddingStrategy.embedAll(missingDocuments);
+            for(int index = 0; index < computed.size(); index++) {
+                int position = missingPositions.get(index);
+                float[] embedding = computed.get(index);
+                embeddings[position] = embedding;
+                if(keys[position] != null && embedding.length > 0) {
+                    putInMemory(keys[position], embedding.clone());
+                    writeToDisk(keys[position], embedding);
+                }
+            }
+        }
+        return Arrays.asList(embeddings);
+    }
+
+    @Override
+    public String getModelIdentity() {
+        return modelIdentity;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public long getDiskEvictionCount() {
+        return diskStore == null ? 0 : diskStore.getEvictionCount();
+    }
+
+    public long getDiskBytes() {
+        return diskStore == null ? 0 : diskStore.getBytes();
+    }
+
+    public int diskSize() {
+        return diskStore == null ? 0 : diskStore.size();
+    }
+
+    public double getHitRate() {
+        long found = hits.get() + diskHits.get();
+        long total = found + misses.get();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private synchronized float[] getFromMemory(String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void putInMemory(String key, float[] embedding) {
+        float[] previous = entries.put(key, embedding);
+        if(previous != null) {
+            currentBytes -= weight(previous);
+        }
+        currentBytes += weight(embedding);
+
+        Iterator<Map.Entry<String, float[]>> eldest = entries.entrySet().iterator();
+        while(currentBytes > maxBytes && eldest.hasNext()) {
+            Map.Entry<String, float[]> entry = eldest.next();
+            if(entry.getKey().equals(key)) {
+                continue;
+            }
+            currentBytes -= weight(entry.getValue());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long weight(float[] embedding) {
+        return ENTRY_OVERHEAD_BYTES + (long) embedding.length * Float.BYTES;
+    }
+
+    private String key(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(modelIdentity.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private float[] readFromDisk(String key) {
+        return diskStore == null ? null : diskStore.read(key);
+    }
+
+    private void writeToDisk(String key, float[] embedding) {
+        if(diskStore != null) {
+            diskStore.write(key, embedding);
+        }
+    }
+
+    @Override
+    public void close() {
+        if(diskStore != null) {
+            diskStore.close();
+        }
+        if(embeddingStrategy instanceof AutoCloseable closeable) {
+            try {
+                closeable.close();
+            } catch (Exception e) {
+                log.warn("Failed to close embedding strategy {}", embeddingStrategy, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "EmbeddingCache{" +
+                "modelIdentity='" + modelIdentity + '\'' +
+                ", entries=" + size() +
+                ", hits=" + hits +
+                ", diskHits=" + diskHits +
+                ", misses=" + misses +
+                ", diskBytes=" + getDiskBytes() +
+                '}';
+    }
 }
@@ -0,0 +1,275 @@
+package org.vectorspacedatabase.vectordb.embeddings;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Disk tier of EmbeddingCache. Entries are appended to generation files embeddings-<n>.dat, each record the 32 byte
+// key, the dimension and the floats, and found through an in-memory index rebuilt by scanning the files at open, so a
+// key that was never written costs no file system access. Once the current generation holds half the byte bound the
+// previous one is deleted and a new one started. Entries read from the previous generation are copied forward first,
+// which keeps the tier within its bound while the embeddings still in use survive.
+final class EmbeddingDiskStore implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingDiskStore.class);
+
+    private static final String PREFIX = "embeddings-";
+
+    private static final String SUFFIX = ".dat";
+
+    private static final int KEY_BYTES = 32;
+
+    private static final int HEADER_BYTES = KEY_BYTES + Integer.BYTES;
+
+    private final Path directory;
+
+    private final long generationBytes;
+
+    private volatile Generation current;
+
+    // Null until the first rotation
+    private volatile Generation previous;
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    EmbeddingDiskStore(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.generationBytes = maxBytes / 2;
+        try {
+            Files.createDirectories(directory);
+            dropOldLayout();
+            List<Long> numbers = generationNumbers();
+            for(int index = 0; index < numbers.size() - 2; index++) {
+                Files.deleteIfExists(path(numbers.get(index)));
+            }
+            if(numbers.size() >= 2) {
+                previous = open(numbers.get(numbers.size() - 2));
+            }
+            current = open(numbers.isEmpty() ? 0 : numbers.get(numbers.size() - 1));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to open embedding cache directory: " + directory, e);
+        }
+        log.info("Opened embedding disk cache {} with {} entries in {} bytes", directory, size(), getBytes());
+    }
+
+    // Null when the key was never written or its generation is gone
+    float[] read(String key) {
+        Generation generation = current;
+        float[] embedding = read(generation, key);
+        if(embedding != null) {
+            return embedding;
+        }
+        Generation older = previous;
+        embedding = read(older, key);
+        if(embedding != null) {
+            write(key, embedding);
+        }
+        return embedding;
+    }
+
+    synchronized void write(String key, float[] embedding) {
+        int length = HEADER_BYTES + embedding.length * Float.BYTES;
+        if(length > generationBytes || current.offsets.containsKey(key)) {
+            return;
+        }
+        try {
+            if(current.size + length > generationBytes) {
+                rotate();
+            }
+            ByteBuffer record = ByteBuffer.allocate(length);
+            record.put(HexFormat.of().parseHex(key));
+            record.putInt(embedding.length);
+            record.asFloatBuffer().put(embedding);
+            record.clear();
+            long position = current.size;
+            while(record.hasRemaining()) {
+                current.channel.write(record, position + record.position());
+            }
+            current.size += length;
+            current.offsets.put(key, position);
+        } catch (IOException e) {
+            log.warn("Failed to write embedding cache entry {} to {}", key, current.path, e);
+        }
+    }
+
+    long getBytes() {
+        Generation older = previous;
+        return current.size + (older == null ? 0 : older.size);
+    }
+
+    synchronized int size() {
+        int size = current.offsets.size();
+        if(previous != null) {
+            for(String key : previous.offsets.keySet()) {
+                if(!current.offsets.containsKey(key)) {
+                    size++;
+                }
+            }
+        }
+        return size;
+    }
+
+    long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            current.channel.close();
+            if(previous != null) {
+                previous.channel.close();
+            }
+        } catch (IOException e) {
+            log.warn("Failed to close embedding disk cache {}", directory, e);
+        }
+    }
+
+    private float[] read(Generation generation, String key) {
+        if(generation == null) {
+            return null;
+        }
+        Long offset;
+        synchronized (this) {
+            offset = generation.offsets.get(key);
+        }
+        if(offset == null) {
+            return null;
+        }
+        try {
+            ByteBuffer header = readFully(generation.channel, ByteBuffer.allocate(HEADER_BYTES), offset);
+            ByteBuffer floats = readFully(generation.channel, ByteBuffer.allocate(header.getInt(KEY_BYTES) * Float.BYTES),
+                    offset + HEADER_BYTES);
+            float[] embedding = new float[floats.capacity() / Float.BYTES];
+            floats.asFloatBuffer().get(embedding);
+            return embedding;
+        } catch (ClosedChannelException e) {
+            // Rotated away while reading, a miss like any other
+            return null;
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable embedding cache entry {} in {}", key, generation.path, e);
+            return null;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Embedding cache entry ends early at " + position);
+            }
+        }
+        return buffer.flip();
+    }
+
+    private void rotate() throws IOException {
+        Generation older = previous;
+        if(older != null) {
+            int dropped = 0;
+            for(String key : older.offsets.keySet()) {
+                if(!current.offsets.containsKey(key)) {
+                    dropped++;
+                }
+            }
+            evictions.addAndGet(dropped);
+            older.channel.close();
+            Files.deleteIfExists(older.path);
+        }
+        previous = current;
+        current = open(current.number + 1);
+    }
+
+    // Indexes every complete record, a record cut short by a crash is truncated away
+    private Generation open(long number) throws IOException {
+        Path path = path(number);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        Generation generation = new Generation(number, path, channel);
+        long fileSize = channel.size();
+        byte[] key = new byte[KEY_BYTES];
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while(generation.size + HEADER_BYTES <= fileSize) {
+                input.readFully(key);
+                int dimension = input.readInt();
+                long length = HEADER_BYTES + (long) dimension * Float.BYTES;
+                if(dimension <= 0 || generation.size + length > fileSize) {
+                    break;
+                }
+                input.skipNBytes(length - HEADER_BYTES);
+                generation.offsets.put(HexFormat.of().formatHex(key), generation.size);
+                generation.size += length;
+            }
+        }
+        if(generation.size < fileSize) {
+            log.warn("Truncating embedding cache file {} from {} to {} bytes", path, fileSize, generation.size);
+            channel.truncate(generation.size);
+        }
+        return generation;
+    }
+
+    private List<Long> generationNumbers() throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for(Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    log.warn("Ignoring unexpected file in the embedding cache directory: {}", file);
+                }
+            }
+        }
+        numbers.sort(null);
+        return numbers;
+    }
+
+    // Earlier versions kept one <key>.bin file per entry, without a bound on their number
+    private void dropOldLayout() throws IOException {
+        int deleted = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.{bin,tmp}")) {
+            for(Path file : files) {
+                Files.deleteIfExists(file);
+                deleted++;
+            }
+        }
+        if(deleted > 0) {
+            log.info("Deleted {} embedding cache files of the per entry layout from {}", deleted, directory);
+        }
+    }
+
+    private Path path(long number) {
+        return directory.resolve(PREFIX + number + SUFFIX);
+    }
+
+    private static final class Generation {
+        private final long number;
+        private final Path path;
+        private final FileChannel channel;
+        // Guarded by the store's monitor
+        private final Map<String, Long> offsets = new HashMap<>();
+        private volatile long size;
+
+        Generation(long number, Path path, FileChannel channel) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+        }
+    }
+}
@@ -3,28 +3,67 @@ package org.vectorspacedatabase.vectordb.embeddings;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.LoggerFactory;
 import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.metrics.LogSampler;
 
 import org.slf4j.Logger;
 import org.vectorspacedatabase.vectordb.utility.GenericUtils;
+import org.vectorspacedatabase.vectordb.utility.TokenBucket;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+// Remote embeddings over an OpenAI compatible API.
+// Documents are sent maxBatchSize inputs per request through one shared HttpClient with sendAsync,
+// in-flight requests are bounded, request and token rates go through token buckets and 429/5xx responses are retried with backoff.
+// A batch that still fails fails the whole call, documents never come back with an empty embedding in its place.
 public class EmbeddingModel implements EmbeddingStrategy {
 
     private static final Logger log = LoggerFactory.getLogger(EmbeddingModel.class);
 
+    // Request and response bodies at debug level, sampled
+    private static final LogSampler PAYLOAD_SAMPLER = new LogSampler(log);
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    // OpenAI tokenizers average about four characters per token, good enough for rate limiting
+    private static final int CHARACTERS_PER_TOKEN = 4;
+
     private final String API_KEY;
 
     private final String MODEL_NAME;
 
     private final String OPENAI_EMBEDDING_URL ;
 
+    private final HttpClient httpClient;
+
+    private final int maxBatchSize;
+
+    private final Semaphore inFlight;
+
+    private final TokenBucket requestBucket;
+
+    private final TokenBucket tokenBucket;
+
+    private final int maxRetries;
+
+    private final Duration initialBackoff;
+
+    private final Duration maxBackoff;
+
+    private final Duration requestTimeout;
+
     public static Builder builder() {
         return new Builder();
     }
@@ -33,6 +72,15 @@ public class EmbeddingModel implements EmbeddingStrategy {
         public String apiKey;
         private String modelName;
         private String apiEndpoint;
+        private HttpClient httpClient;
+        private int maxBatchSize = 64;
+        private int maxConcurrentRequests = 8;
+        private int requestsPerMinute = 3000;
+        private int tokensPerMinute = 1_000_000;
+        private int maxRetries = 5;
+        private Duration initialBackoff = Duration.ofMillis(500);
+        private Duration maxBackoff = Duration.ofSeconds(30);
+        private Duration requestTimeout = Duration.ofSeconds(60);
 
         public Builder withApiKey(String apiKey) {
             this.apiKey = apiKey;
@@ -49,6 +97,70 @@ public class EmbeddingModel implements EmbeddingStrategy {
             return this;
         }
 
+        public Builder withHttpClient(HttpClient httpClient) {
+            this.httpClient = httpClient;
+            return this;
+        }
+
+        public Builder withMaxBatchSize(int maxBatchSize) {
+            if(maxBatchSize <= 0) {
+                throw new IllegalArgumentException("Max batch size must be greater than zero");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder withMaxConcurrentRequests(int maxConcurrentRequests) {
+            if(maxConcurrentRequests <= 0) {
+                throw new IllegalArgumentException("Max concurrent requests must be greater than zero");
+            }
+            this.maxConcurrentRequests = maxConcurrentRequests;
+            return this;
+        }
+
+        public Builder withRequestsPerMinute(int requestsPerMinute) {
+            if(requestsPerMinute <= 0) {
+                throw new IllegalArgumentException("Requests per minute must be greater than zero");
+            }
+            this.requestsPerMinute = requestsPerMinute;
+            return this;
+        }
+
+        public Builder withTokensPerMinute(int tokensPerMinute) {
+            if(tokensPerMinute <= 0) {
+                throw new IllegalArgumentException("Tokens per minute must be greater than zero");
+            }
+            this.tokensPerMinute = tokensPerMinute;
+            return this;
+        }
+
+        public Builder withMaxRetries(int maxRetries) {
+            if(maxRetries < 0) {
+                throw new IllegalArgumentException("Max retries must not be negative");
+            }
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        public Builder withInitialBackoff(Duration initialBackoff) {
+            this.initialBackoff = initialBackoff;
+            return this;
+        }
+
+        // Upper bound on a single wait between attempts, Retry-After included
+        public Builder withMaxBackoff(Duration maxBackoff) {
+            if(maxBackoff.isNegative()) {
+                throw new IllegalArgumentException("Max backoff must not be negative");
+            }
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public Builder withRequestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
         public EmbeddingModel build() {
             return new EmbeddingModel(this);
         }
@@ -58,32 +170,122 @@ public class EmbeddingModel implements EmbeddingStrategy {
         this.API_KEY = builder.apiKey;
         this.MODEL_NAME = builder.modelName;
         this.OPENAI_EMBEDDING_URL  = builder.apiEndpoint;
+        this.httpClient = builder.httpClient != null ? builder.httpClient : HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        this.maxBatchSize = builder.maxBatchSize;
+        this.inFlight = new Semaphore(builder.maxConcurrentRequests);
+        this.requestBucket = new TokenBucket(Math.max(1, builder.requestsPerMinute / 60.0), builder.requestsPerMinute / 60.0);
+        this.tokenBucket = new TokenBucket(builder.tokensPerMinute, builder.tokensPerMinute / 60.0);
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoff = builder.initialBackoff;
+        this.maxBackoff = builder.maxBackoff;
+        this.requestTimeout = builder.requestTimeout;
     }
 
+    @Override
+    public String getModelIdentity() {
+        return OPENAI_EMBEDDING_URL + "#" + MODEL_NAME;
+    }
 
     @Override
-    public List<Float> embed(Document document) {
-        try {
-            String content = document.getContent();
+    public float[] embed(Document document) {
+        return embedAll(List.of(document)).get(0);
+    }
 
-            log.info("Embedding document with ID: {}", document.getId());
-            log.info("Document content: {}", content);
+    @Override
+    public List<float[]> embedAll(List<Document> documents) {
+        float[][] embeddings = new float[documents.size()][];
+        List<String> batchContents = new ArrayList<>();
+        List<Integer> batchPositions = new ArrayList<>();
+        List<CompletableFuture<Void>> requests = new ArrayList<>();
+
+        for(int index = 0; index < documents.size(); index++) {
+            Document document = documents.get(index);
+            String content = document.getContent();
 
             // Early return if content is empty or null
             if (content == null || content.isEmpty()) {
                 log.error("Document content is null or empty for document: {}", document.getId());
-                return new ArrayList<>();
+                embeddings[index] = new float[0];
+                continue;
             }
 
-            Embedding embedding = mockfetchEmbeddingFromOpenAI(content);
+            batchContents.add(content);
+            batchPositions.add(index);
+            if(batchContents.size() == maxBatchSize) {
+                requests.add(submitBatch(batchContents, batchPositions, embeddings));
+                batchContents = new ArrayList<>();
+                batchPositions = new ArrayList<>();
+                // Interrupted while waiting for permits, the remaining batches are not sent
+                if(Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+            }
+        }
+        if(!batchContents.isEmpty() && !Thread.currentThread().isInterrupted()) {
+            requests.add(submitBatch(batchContents, batchPositions, embeddings));
+        }
 
-            log.info("Received embedding: {}", embedding);
+        try {
+            CompletableFuture.allOf(requests.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            throw new RuntimeException("Error while generating embeddings for " + documents.size() + " documents", e.getCause());
+        }
+        if(Thread.currentThread().isInterrupted()) {
+            throw new RuntimeException("Interrupted while generating embeddings for " + documents.size() + " documents");
+        }
+        return List.of(embeddings);
+    }
+
+    // Waits for rate limit and concurrency permits on the caller thread, the request itself runs asynchronously
+    private CompletableFuture<Void> submitBatch(List<String> contents, List<Integer> positions, float[][] embeddings) {
+        CompletableFuture<List<Embedding>> response;
+        try {
+            if(isMocked()) {
+                response = CompletableFuture.completedFuture(mockfetchEmbeddingsFromOpenAI(contents));
+            } else {
+                response = fetchEmbeddingsFromOpenAI(contents);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            response = CompletableFuture.failedFuture(e);
+        } catch (IOException | RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+
+        return response.thenAccept(data -> {
+            for(int index = 0; index < positions.size(); index++) {
+                float[] embedding = findEmbedding(data, index);
+                if(embedding == null || embedding.length == 0) {
+                    throw new IllegalStateException("OpenAI returned no embedding for input " + index + " of " + positions.size());
+                }
+                embeddings[positions.get(index)] = embedding;
+            }
+        });
+    }
+
+    private static float[] findEmbedding(List<Embedding> data, int index) {
+        for(Embedding embedding : data) {
+            if(embedding.getIndex() != null && embedding.getIndex() == index) {
+                return embedding.getEmbedding();
+            }
+        }
+        return index < data.size() ? data.get(index).getEmbedding() : null;
+    }
+
+    // Without an API key the model answers from a canned response, handy for local runs
+    private boolean isMocked() {
+        return API_KEY == null || API_KEY.isBlank();
+    }
 
-            return embedding.getEmbedding();
-        } catch (Exception e) {
-            log.error("Error while generating embedding from documnet : {}", document.getId());
-            return new ArrayList<>(List.of(0.5f, 0.5f));
+    private List<Embedding> mockfetchEmbeddingsFromOpenAI(List<String> contents) throws IOException {
+        List<Embedding> embeddings = new ArrayList<>(contents.size());
+        for(int index = 0; index < contents.size(); index++) {
+            Embedding embedding = mockfetchEmbeddingFromOpenAI(contents.get(index));
+            embeddings.add(new Embedding(embedding.getObject(), embedding.getEmbedding(), index));
         }
+        return embeddings;
     }
 
     private Embedding mockfetchEmbeddingFromOpenAI(String content) throws IOException {
@@ -98,36 +300,120 @@ public class EmbeddingModel implements EmbeddingStrategy {
                   "index": 0
                 }
                 """;
-        ObjectMapper mapper = new ObjectMapper();
-        Embedding embedding = mapper.readValue(mockJsonResponse, Embedding.class);
-        return embedding;
+        return MAPPER.readValue(mockJsonResponse, Embedding.class);
     }
 
-    private Embedding fetchEmbeddingFromOpenAI(String content) throws IOException, InterruptedException {
+    private CompletableFuture<List<Embedding>> fetchEmbeddingsFromOpenAI(List<String> contents) throws IOException, InterruptedException {
         // Create the request body
-        String requestBody = GenericUtils.buildRequestBody(content, MODEL_NAME, "float");
+        String requestBody = GenericUtils.buildRequestBody(contents, MODEL_NAME, "float");
 
-        log.info("Request body to OpenAI: " + requestBody);
-
-        // Create an HTTP client
-        HttpClient client = HttpClient.newHttpClient();
+        long characters = 0;
+        for(String content : contents) {
+            characters += content.length();
+        }
+        long tokens = Math.max(1, characters / CHARACTERS_PER_TOKEN);
+        acquireRateLimits(tokens);
 
         // Create the HTTP request
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(OPENAI_EMBEDDING_URL))
+                .timeout(requestTimeout)
                 .header("Authorization", "Bearer " + API_KEY)
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(requestBody))
                 .build();
 
-        // Send the request and get the response
-        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        log.debug("Sending {} inputs to OpenAI", contents.size());
+        if(PAYLOAD_SAMPLER.sample()) {
+            log.debug("Request body to OpenAI: {}", LogSampler.abbreviate(requestBody));
+        }
 
-        log.info("Response body from OpenAI: " + response.body());
-        // Parse the JSON response into an Embedding Object
-        ObjectMapper mapper = new ObjectMapper();
-        Embedding embedding = mapper.readValue(response.body(), Embedding.class);
+        inFlight.acquire();
+        CompletableFuture<HttpResponse<String>> response = null;
+        try {
+            response = sendWithRetry(request, tokens, 0);
+        } finally {
+            // sendAsync threw before there was a future to release the permit on
+            if(response == null) {
+                inFlight.release();
+            }
+        }
+        return response
+                .whenComplete((ignored, error) -> inFlight.release())
+                .thenApply(this::parseResponse);
+    }
 
-        return embedding;
+    private void acquireRateLimits(long tokens) throws InterruptedException {
+        requestBucket.acquire(1);
+        tokenBucket.acquire(tokens);
+    }
+
+    // Every attempt is a request against the limits, retries wait for the buckets again after the backoff
+    private CompletableFuture<HttpResponse<String>> sendWithRetry(HttpRequest request, long tokens, int attempt) {
+        return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .handle((response, error) -> {
+                    boolean retryable = error != null || isRetryable(response.statusCode());
+                    if(!retryable || attempt >= maxRetries) {
+                        if(error != null) {
+                            throw new CompletionException(error);
+                        }
+                        return CompletableFuture.completedFuture(response);
+                    }
+
+                    long delayMillis = backoffMillis(response, attempt);
+                    log.warn("OpenAI request failed ({}), retrying in {} ms, attempt {} of {}",
+                            error != null ? error.toString() : "status " + response.statusCode(), delayMillis, attempt + 1, maxRetries);
+                    return CompletableFuture.runAsync(() -> {
+                                try {
+                                    acquireRateLimits(tokens);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    throw new CompletionException(e);
+                                }
+                            }, CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS))
+                            .thenCompose(ignored -> sendWithRetry(request, tokens, attempt + 1));
+                })
+                .thenCompose(future -> future);
+    }
+
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    // Honours Retry-After when the server sends it, otherwise exponential backoff with full jitter. Both are capped at
+    // maxBackoff so a misbehaving server cannot park a batch, and its in-flight permit, for hours.
+    private long backoffMillis(HttpResponse<String> response, int attempt) {
+        long maxMillis = maxBackoff.toMillis();
+        if(response != null) {
+            Optional<String> retryAfter = response.headers().firstValue("Retry-After");
+            if(retryAfter.isPresent()) {
+                try {
+                    long retryAfterMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.get().trim()));
+                    return Math.max(0, Math.min(retryAfterMillis, maxMillis));
+                } catch (NumberFormatException ignored) {
+                    // HTTP date form, fall back to exponential backoff
+                }
+            }
+        }
+        long ceiling = Math.min(initialBackoff.toMillis() << Math.min(attempt, 20), maxMillis);
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    private List<Embedding> parseResponse(HttpResponse<String> response) {
+        if(PAYLOAD_SAMPLER.sample()) {
+            log.debug("Response body from OpenAI: {}", LogSampler.abbreviate(response.body()));
+        }
+
+        if(response.statusCode() / 100 != 2) {
+            throw new IllegalStateException("OpenAI embedding request failed with status " + response.statusCode() + ": " + response.body());
+        }
+
+        try {
+            // Parse the JSON response into Embedding objects
+            EmbeddingResponse embeddingResponse = MAPPER.readValue(response.body(), EmbeddingResponse.class);
+            return embeddingResponse.getData();
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
     }
 }
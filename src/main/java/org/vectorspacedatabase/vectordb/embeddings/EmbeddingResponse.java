@@ -0,0 +1,58 @@
+package org.vectorspacedatabase.vectordb.embeddings;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.util.List;
+import java.util.Objects;
+
+// Body of an OpenAI style embeddings response, one Embedding per input
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class EmbeddingResponse {
+    private String object;
+
+    private List<Embedding> data;
+
+    private String model;
+
+    public String getObject() {
+        return object;
+    }
+
+    public List<Embedding> getData() {
+        return data;
+    }
+
+    public String getModel() {
+        return model;
+    }
+
+    public EmbeddingResponse() {}
+
+    public EmbeddingResponse(String object, List<Embedding> data, String model) {
+        this.object = object;
+        this.data = data;
+        this.model = model;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        EmbeddingResponse that = (EmbeddingResponse) o;
+        return Objects.equals(object, that.object) && Objects.equals(data, that.data) && Objects.equals(model, that.model);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(object, data, model);
+    }
+
+    @Override
+    public String toString() {
+        return "EmbeddingResponse{" +
+                "object='" + object + '\'' +
+                ", data=" + data +
+                ", model='" + model + '\'' +
+                '}';
+    }
+}
@@ -2,8 +2,23 @@ package org.vectorspacedatabase.vectordb.embeddings;
 
 import org.vectorspacedatabase.vectordb.document.Document;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public interface EmbeddingStrategy {
-    List<Float> embed(Document document);
+    float[] embed(Document document);
+
+    // Embeddings in the same order as the documents, models that can batch should override this
+    default List<float[]> embedAll(List<Document> documents) {
+        List<float[]> embeddings = new ArrayList<>(documents.size());
+        for(Document document : documents) {
+            embeddings.add(embed(document));
+        }
+        return embeddings;
+    }
+
+    // Identifies the model behind the strategy, embeddings from different models must never be mixed in a cache
+    default String getModelIdentity() {
+        return getClass().getName();
+    }
 }
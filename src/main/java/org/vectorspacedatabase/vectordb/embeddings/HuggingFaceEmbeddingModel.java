@@ -11,31 +11,97 @@ import ai.djl.translate.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.metrics.LogSampler;
 
 import java.io.IOException;
-import java.util.*;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
+// Requests from embed and embedAll go through one queue, each worker owns a predictor and
+// drains up to maxBatchSize requests (waiting at most lingerMillis for a batch to fill) into one batchPredict call.
+// A request that fails, times out or is cut off by close throws instead of returning an embedding.
 public class HuggingFaceEmbeddingModel implements EmbeddingStrategy, AutoCloseable {
 
     private static final Logger log = LoggerFactory.getLogger(HuggingFaceEmbeddingModel.class);
 
+    // Payloads at debug level, sampled
+    private static final LogSampler PAYLOAD_SAMPLER = new LogSampler(log);
+
     private final String MODEL_URL;
 
+    private final int poolSize;
+
+    private final int maxBatchSize;
+
+    private final long lingerMillis;
+
+    private final Duration requestTimeout;
+
     private ZooModel<String, float[]> model; // <sentence, embedding>
 
+    private final BlockingQueue<PendingEmbedding> pending = new LinkedBlockingQueue<>();
+
+    private final List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean closed;
+
     public static Builder builder() {
         return new Builder();
     }
 
     public static class Builder {
         private String modelUrl;
+        private int poolSize = Runtime.getRuntime().availableProcessors();
+        private int maxBatchSize = 32;
+        private long lingerMillis = 5;
+        private Duration requestTimeout = Duration.ofSeconds(60);
 
         public Builder withModelUrl(String modelUrl) {
             this.modelUrl = modelUrl;
             return this;
         }
 
+        public Builder withPoolSize(int poolSize) {
+            if(poolSize <= 0) {
+                throw new IllegalArgumentException("Pool size must be greater than zero");
+            }
+            this.poolSize = poolSize;
+            return this;
+        }
+
+        public Builder withMaxBatchSize(int maxBatchSize) {
+            if(maxBatchSize <= 0) {
+                throw new IllegalArgumentException("Max batch size must be greater than zero");
+            }
+            this.maxBatchSize = maxBatchSize;
+            return this;
+        }
+
+        public Builder withLingerMillis(long lingerMillis) {
+            if(lingerMillis < 0) {
+                throw new IllegalArgumentException("Linger time must not be negative");
+            }
+            this.lingerMillis = lingerMillis;
+            return this;
+        }
+
+        // How long a caller waits for its embedding, queueing included
+        public Builder withRequestTimeout(Duration requestTimeout) {
+            if(requestTimeout == null || requestTimeout.isNegative() || requestTimeout.isZero()) {
+                throw new IllegalArgumentException("Request timeout must be positive");
+            }
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
         public HuggingFaceEmbeddingModel build() throws ModelNotFoundException, MalformedModelException, IOException {
             return new HuggingFaceEmbeddingModel(this);
         }
@@ -43,7 +109,12 @@ public class HuggingFaceEmbeddingModel implements EmbeddingStrategy, AutoCloseab
 
     public HuggingFaceEmbeddingModel(Builder builder) throws ModelNotFoundException, MalformedModelException, IOException {
         this.MODEL_URL = builder.modelUrl;
+        this.poolSize = builder.poolSize;
+        this.maxBatchSize = builder.maxBatchSize;
+        this.lingerMillis = builder.lingerMillis;
+        this.requestTimeout = builder.requestTimeout;
         initializeModel();
+        startWorkers();
     }
 
     private void initializeModel() throws ModelNotFoundException, MalformedModelException, IOException {
@@ -58,40 +129,182 @@ public class HuggingFaceEmbeddingModel implements EmbeddingStrategy, AutoCloseab
         this.model = criteria.loadModel();
     }
 
+    private void startWorkers() {
+        for(int index = 0; index < poolSize; index++) {
+            Thread worker = new Thread(this::runWorker, "hf-embedding-" + index);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+    }
+
     @Override
-    public List<Float> embed(Document document) {
-        try (Predictor<String, float[]> predictor = model.newPredictor()) {
-            String content = document.getContent();
+    public String getModelIdentity() {
+        return MODEL_URL;
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        String content = document.getContent();
+        if(content == null || content.isEmpty()) {
+            log.error("Document content is empty or null for doc id: {}", document.getId());
+            return new float[0];
+        }
 
-            log.info("Embedding document with Id: {}", document.getId());
-            log.info("Document content: {}", document.getContent());
+        float[] embedding = await(submit(content), document.getId());
+        if(PAYLOAD_SAMPLER.sample()) {
+            log.debug("Embedded document {} into {} dimensions: {}", document.getId(), embedding.length, LogSampler.abbreviate(content));
+        }
+        return embedding;
+    }
 
+    @Override
+    public List<float[]> embedAll(List<Document> documents) {
+        log.debug("Embedding batch of {} documents", documents.size());
+
+        List<CompletableFuture<float[]>> futures = new ArrayList<>(documents.size());
+        for(Document document : documents) {
+            String content = document.getContent();
             if(content == null || content.isEmpty()) {
                 log.error("Document content is empty or null for doc id: {}", document.getId());
-                return new ArrayList<>();
+                futures.add(CompletableFuture.completedFuture(new float[0]));
+            } else {
+                futures.add(submit(content));
+            }
+        }
+
+        List<float[]> embeddings = new ArrayList<>(documents.size());
+        for(int index = 0; index < documents.size(); index++) {
+            embeddings.add(await(futures.get(index), documents.get(index).getId()));
+        }
+        return embeddings;
+    }
+
+    private CompletableFuture<float[]> submit(String content) {
+        if(closed) {
+            throw new IllegalStateException("Embedding model is closed");
+        }
+        PendingEmbedding request = new PendingEmbedding(content);
+        pending.add(request);
+        // close may have drained the queue between the check above and the add, nobody would take the request then
+        if(closed && pending.remove(request)) {
+            request.result.completeExceptionally(new IllegalStateException("Embedding model is closed"));
+        }
+        return request.result;
+    }
+
+    private float[] await(CompletableFuture<float[]> future, String documentId) {
+        try {
+            return future.get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(false);
+            throw new RuntimeException("Interrupted while generating embeddings for document with id: " + documentId, e);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new RuntimeException("Timed out after " + requestTimeout + " generating embeddings for document with id: "
+                    + documentId, e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error while generating embeddings for document with id: " + documentId, e.getCause());
+        }
+    }
+
+    private void runWorker() {
+        List<PendingEmbedding> batch = new ArrayList<>(maxBatchSize);
+        try (Predictor<String, float[]> predictor = model.newPredictor()) {
+            while(!closed) {
+                PendingEmbedding first = pending.poll(100, TimeUnit.MILLISECONDS);
+                if(first == null) {
+                    continue;
+                }
+
+                batch.add(first);
+                pending.drainTo(batch, maxBatchSize - batch.size());
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                while(batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingEmbedding next = remaining > 0 ? pending.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if(next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                    pending.drainTo(batch, maxBatchSize - batch.size());
+                }
+
+                batch.removeIf(request -> request.result.isDone());
+                if(!batch.isEmpty()) {
+                    predictBatch(predictor, batch);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for(PendingEmbedding request : batch) {
+                request.result.completeExceptionally(new IllegalStateException("Embedding model is closed"));
             }
+        }
+    }
 
-            float[] embedding = predictor.predict(content);
-            List<Float> result = new ArrayList<>();
+    private void predictBatch(Predictor<String, float[]> predictor, List<PendingEmbedding> batch) {
+        List<String> contents = new ArrayList<>(batch.size());
+        for(PendingEmbedding request : batch) {
+            contents.add(request.content);
+        }
 
-            for(float value: embedding) {
-                result.add(value);
+        try {
+            List<float[]> embeddings = predictor.batchPredict(contents);
+            for(int index = 0; index < batch.size(); index++) {
+                batch.get(index).result.complete(embeddings.get(index));
+            }
+        } catch (TranslateException | RuntimeException e) {
+            for(PendingEmbedding request : batch) {
+                request.result.completeExceptionally(e);
             }
+        }
+    }
 
-            log.info("Generated embedding with size: {}", result.size());
+    private static final class PendingEmbedding {
+        final String content;
+        final CompletableFuture<float[]> result = new CompletableFuture<>();
 
-            return result;
-        } catch (TranslateException e) {
-            log.error("Error while generating embeddings for document with id: {}", document.getId());
-            return new ArrayList<>();
+        PendingEmbedding(String content) {
+            this.content = content;
         }
     }
 
     @Override
     public void close() {
+        closed = true;
+        for(Thread worker : workers) {
+            worker.interrupt();
+        }
+        for(Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        // Requests that raced with close are still queued once the workers are gone
+        PendingEmbedding request;
+        while((request = pending.poll()) != null) {
+            request.result.completeExceptionally(new IllegalStateException("Embedding model is closed"));
+        }
+
         if (model != null) {
             model.close();
         }
     }
 
+    @Override
+    public String toString() {
+        return "HuggingFaceEmbeddingModel{" +
+                "modelUrl='" + MODEL_URL + '\'' +
+                ", poolSize=" + poolSize +
+                ", maxBatchSize=" + maxBatchSize +
+                ", lingerMillis=" + lingerMillis +
+                '}';
+    }
 }
@@ -0,0 +1,143 @@
+package org.vectorspacedatabase.vectordb.ingestion;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Splits text into windows of at most maxTokens model tokens on word boundaries, consecutive windows share about
+// overlapTokens tokens so a sentence cut at a boundary is still whole in one of them. A window prefers to end after a
+// sentence when one closes in its second half. A single word longer than maxTokens becomes its own chunk.
+public class Chunker {
+
+    private final int maxTokens;
+
+    private final int overlapTokens;
+
+    private final TokenCounter tokenCounter;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private int maxTokens = 256;
+        private int overlapTokens = 32;
+        private TokenCounter tokenCounter = TokenCounter.APPROXIMATE;
+
+        // Keep at or below the embedding model's input limit, longer input is silently truncated by the model
+        public Builder withMaxTokens(int maxTokens) {
+            if(maxTokens <= 0) {
+                throw new IllegalArgumentException("maxTokens must be greater than zero");
+            }
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
+        public Builder withOverlapTokens(int overlapTokens) {
+            if(overlapTokens < 0) {
+                throw new IllegalArgumentException("overlapTokens must not be negative");
+            }
+            this.overlapTokens = overlapTokens;
+            return this;
+        }
+
+        public Builder withTokenCounter(TokenCounter tokenCounter) {
+            this.tokenCounter = tokenCounter;
+            return this;
+        }
+
+        public Chunker build() {
+            if(overlapTokens >= maxTokens) {
+                throw new IllegalArgumentException("overlapTokens must be smaller than maxTokens");
+            }
+            return new Chunker(this);
+        }
+    }
+
+    public Chunker(Builder builder) {
+        this.maxTokens = builder.maxTokens;
+        this.overlapTokens = builder.overlapTokens;
+        this.tokenCounter = builder.tokenCounter;
+    }
+
+    public List<String> chunk(String text) {
+        List<String> chunks = new ArrayList<>();
+        if(text == null) {
+            return chunks;
+        }
+
+        // Word boundaries as [start, end) character offsets with their token counts
+        List<int[]> words = new ArrayList<>();
+        int length = text.length();
+        int index = 0;
+        while(index < length) {
+            while(index < length && Character.isWhitespace(text.charAt(index))) {
+                index++;
+            }
+            int start = index;
+            while(index < length && !Character.isWhitespace(text.charAt(index))) {
+                index++;
+            }
+            if(index > start) {
+                words.add(new int[]{start, index, tokenCounter.count(text.substring(start, index))});
+            }
+        }
+
+        int first = 0;
+        while(first < words.size()) {
+            int tokens = 0;
+            int end = first;
+            while(end < words.size() && (end == first || tokens + words.get(end)[2] <= maxTokens)) {
+                tokens += words.get(end)[2];
+                end++;
+            }
+
+            if(end < words.size()) {
+                for(int candidate = end - 1; candidate > first + (end - first) / 2; candidate--) {
+                    if(endsSentence(text, words.get(candidate)[1])) {
+                        end = candidate + 1;
+                        break;
+                    }
+                }
+            }
+            chunks.add(text.substring(words.get(first)[0], words.get(end - 1)[1]));
+            if(end == words.size()) {
+                break;
+            }
+
+            // Step back from the end until the overlap is covered, always moving forward by at least one word and
+            // leaving room for the word that did not fit, otherwise the next window would end in the same place
+            int next = end;
+            int overlap = 0;
+            int following = words.get(end)[2];
+            while(next - 1 > first && overlap + words.get(next - 1)[2] <= overlapTokens
+                    && overlap + words.get(next - 1)[2] + following <= maxTokens) {
+                overlap += words.get(next - 1)[2];
+                next--;
+            }
+            first = next;
+        }
+        return chunks;
+    }
+
+    private static boolean endsSentence(String text, int wordEnd) {
+        char last = text.charAt(wordEnd - 1);
+        return last == '.' || last == '!' || last == '?'
+                || (wordEnd + 1 < text.length() && text.charAt(wordEnd) == '\n' && text.charAt(wordEnd + 1) == '\n');
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public int getOverlapTokens() {
+        return overlapTokens;
+    }
+
+    @Override
+    public String toString() {
+        return "Chunker{" +
+                "maxTokens=" + maxTokens +
+                ", overlapTokens=" + overlapTokens +
+                '}';
+    }
+}
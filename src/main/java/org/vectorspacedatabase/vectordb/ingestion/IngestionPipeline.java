@@ -0,0 +1,423 @@
+package org.vectorspacedatabase.vectordb.ingestion;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.document.TextExtractor;
+import org.vectorspacedatabase.vectordb.embeddings.EmbeddingStrategy;
+import org.vectorspacedatabase.vectordb.metrics.VectorDbMetrics;
+import org.vectorspacedatabase.vectordb.sharding.Shard;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bulk loading in stages connected by bounded queues, a full queue blocks the stage before it so memory stays flat:
+// submit -> extraction workers (extract text, chunk) -> embedding workers (batched) -> one writer (batched persistence
+// and indexing through Shard.addEmbedded). Every chunk is its own document, its id is the parent id plus the
+// chunk index and its metadata is the parent's plus parent_id, chunk_index and chunk_count. The parent id is the
+// SHA-256 of the source path and the content, so submitting the same source again replaces its chunks.
+// close() drains every stage in order and waits for the last write.
+public class IngestionPipeline implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionPipeline.class);
+
+    private static final long POLL_MILLIS = 50;
+
+    public static final String PARENT_ID = "parent_id";
+
+    public static final String CHUNK_INDEX = "chunk_index";
+
+    public static final String CHUNK_COUNT = "chunk_count";
+
+    private final Shard vectorDatabase;
+
+    private final EmbeddingStrategy embeddingStrategy;
+
+    private final Chunker chunker;
+
+    private final int embeddingBatchSize;
+
+    private final int writeBatchSize;
+
+    private final BlockingQueue<Source> sources;
+
+    private final BlockingQueue<Document> chunks;
+
+    private final BlockingQueue<Document> embedded;
+
+    private final List<Thread> extractors = new ArrayList<>();
+
+    private final List<Thread> embedders = new ArrayList<>();
+
+    private final Thread writer;
+
+    private volatile boolean submitsClosed;
+
+    private volatile boolean extractionDone;
+
+    private volatile boolean embeddingDone;
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong sourcesDone = new AtomicLong();
+
+    private final AtomicLong sourcesFailed = new AtomicLong();
+
+    private final AtomicLong chunksCreated = new AtomicLong();
+
+    private final AtomicLong chunksWritten = new AtomicLong();
+
+    private final AtomicLong chunksFailed = new AtomicLong();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Shard vectorDatabase;
+        private EmbeddingStrategy embeddingStrategy;
+        private Chunker chunker = Chunker.builder().build();
+        private int extractionThreads = Runtime.getRuntime().availableProcessors();
+        private int embeddingThreads = 2;
+        private int embeddingBatchSize = 64;
+        private int writeBatchSize = 256;
+        private int queueCapacity = 1024;
+
+        public Builder withVectorDatabase(Shard vectorDatabase) {
+            this.vectorDatabase = vectorDatabase;
+            return this;
+        }
+
+        public Builder withEmbeddingStrategy(EmbeddingStrategy embeddingStrategy) {
+            this.embeddingStrategy = embeddingStrategy;
+            return this;
+        }
+
+        public Builder withChunker(Chunker chunker) {
+            this.chunker = chunker;
+            return this;
+        }
+
+        // Extraction is CPU bound, defaults to one thread per core
+        public Builder withExtractionThreads(int extractionThreads) {
+            if(extractionThreads <= 0) {
+                throw new IllegalArgumentException("extractionThreads must be greater than zero");
+            }
+            this.extractionThreads = extractionThreads;
+            return this;
+        }
+
+        public Builder withEmbeddingThreads(int embeddingThreads) {
+            if(embeddingThreads <= 0) {
+                throw new IllegalArgumentException("embeddingThreads must be greater than zero");
+            }
+            this.embeddingThreads = embeddingThreads;
+            return this;
+        }
+
+        public Builder withEmbeddingBatchSize(int embeddingBatchSize) {
+            if(embeddingBatchSize <= 0) {
+                throw new IllegalArgumentException("embeddingBatchSize must be greater than zero");
+            }
+            this.embeddingBatchSize = embeddingBatchSize;
+            return this;
+        }
+
+        public Builder withWriteBatchSize(int writeBatchSize) {
+            if(writeBatchSize <= 0) {
+                throw new IllegalArgumentException("writeBatchSize must be greater than zero");
+            }
+            this.writeBatchSize = writeBatchSize;
+            return this;
+        }
+
+        // Capacity of each queue between stages, sources are capped at a sixteenth of it since one file makes many chunks
+        public Builder withQueueCapacity(int queueCapacity) {
+            if(queueCapacity < 16) {
+                throw new IllegalArgumentException("queueCapacity must be at least 16");
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        public IngestionPipeline build() {
+            if(vectorDatabase == null || embeddingStrategy == null) {
+                throw new IllegalArgumentException("A vector database and an embedding strategy are required");
+            }
+            return new IngestionPipeline(this);
+        }
+    }
+
+    public IngestionPipeline(Builder builder) {
+        this.vectorDatabase = builder.vectorDatabase;
+        this.embeddingStrategy = builder.embeddingStrategy;
+        this.chunker = builder.chunker;
+        this.embeddingBatchSize = builder.embeddingBatchSize;
+        this.writeBatchSize = builder.writeBatchSize;
+        this.sources = new ArrayBlockingQueue<>(builder.queueCapacity / 16);
+        this.chunks = new ArrayBlockingQueue<>(builder.queueCapacity);
+        this.embedded = new ArrayBlockingQueue<>(builder.queueCapacity);
+
+        for(int index = 0; index < builder.extractionThreads; index++) {
+            extractors.add(start("ingest-extract-" + index, this::extractLoop));
+        }
+        for(int index = 0; index < builder.embeddingThreads; index++) {
+            embedders.add(start("ingest-embed-" + index, this::embedLoop));
+        }
+        this.writer = start("ingest-write", this::writeLoop);
+    }
+
+    private static Thread start(String name, Runnable loop) {
+        Thread thread = new Thread(loop, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    // Blocks while the pipeline is full
+    public void submit(File file) {
+        submit(new Source(file, null, Map.of()));
+    }
+
+    public void submit(File file, Map<String, Object> metadata) {
+        submit(new Source(file, null, metadata));
+    }
+
+    // Text that is already extracted, it is still chunked
+    public void submit(String content, Map<String, Object> metadata) {
+        submit(new Source(null, content, metadata));
+    }
+
+    private void submit(Source source) {
+        if(submitsClosed) {
+            throw new IllegalStateException("Ingestion pipeline is closed");
+        }
+        try {
+            sources.put(source);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while submitting to the ingestion pipeline", e);
+        }
+    }
+
+    private void extractLoop() {
+        try {
+            while(true) {
+                Source source = sources.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(source == null) {
+                    if(submitsClosed && sources.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                List<Document> documentChunks;
+                try {
+                    documentChunks = chunk(source);
+                } catch (Exception e) {
+                    sourcesFailed.incrementAndGet();
+                    log.error("Error while extracting {}", source, e);
+                    continue;
+                }
+                for(Document chunk : documentChunks) {
+                    chunks.put(chunk);
+                }
+                chunksCreated.addAndGet(documentChunks.size());
+                sourcesDone.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private List<Document> chunk(Source source) throws Exception {
+        Map<String, Object> metadata = new HashMap<>(source.metadata);
+        String content = source.content;
+        if(source.file != null) {
+            metadata.put("filename", source.file.getName());
+            content = TextExtractor.extract(source.file);
+        }
+
+        String parentId = parentId(source.file != null ? source.file.getAbsolutePath() : "", content);
+
+        List<String> texts = chunker.chunk(content);
+        if(texts.isEmpty()) {
+            log.warn("No text extracted from {}", source);
+        }
+        List<Document> documentChunks = new ArrayList<>(texts.size());
+        for(int index = 0; index < texts.size(); index++) {
+            Map<String, Object> chunkMetadata = new HashMap<>(metadata);
+            chunkMetadata.put(PARENT_ID, parentId);
+            chunkMetadata.put(CHUNK_INDEX, index);
+            chunkMetadata.put(CHUNK_COUNT, texts.size());
+            documentChunks.add(new Document(parentId + "#" + index, texts.get(index), chunkMetadata));
+        }
+        return documentChunks;
+    }
+
+    // A content hashCode collides for different texts ("Aa" and "BB"), and colliding parents overwrite each other's chunks
+    static String parentId(String sourceIdentifier, String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(sourceIdentifier.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(content.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void embedLoop() {
+        try {
+            List<Document> batch = new ArrayList<>(embeddingBatchSize);
+            while(true) {
+                Document first = chunks.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(first == null) {
+                    if(extractionDone && chunks.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                chunks.drainTo(batch, embeddingBatchSize - 1);
+
+                try {
+                    long start = System.nanoTime();
+                    List<float[]> embeddings = embeddingStrategy.embedAll(batch);
+                    VectorDbMetrics.EMBED.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    for(int index = 0; index < batch.size(); index++) {
+                        batch.get(index).setEmbedding(embeddings.get(index));
+                    }
+                } catch (Exception e) {
+                    chunksFailed.addAndGet(batch.size());
+                    log.error("Error while embedding a batch of {} chunks", batch.size(), e);
+                    batch.clear();
+                    continue;
+                }
+                for(Document chunk : batch) {
+                    embedded.put(chunk);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            List<Document> batch = new ArrayList<>(writeBatchSize);
+            while(true) {
+                Document first = embedded.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if(first == null) {
+                    if(embeddingDone && embedded.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+                embedded.drainTo(batch, writeBatchSize - 1);
+
+                try {
+                    vectorDatabase.addEmbedded(batch);
+                    chunksWritten.addAndGet(batch.size());
+                } catch (Exception e) {
+                    chunksFailed.addAndGet(batch.size());
+                    log.error("Error while writing a batch of {} chunks", batch.size(), e);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Stops accepting sources and waits until everything submitted is written or has failed
+    @Override
+    public void close() {
+        if(submitsClosed) {
+            return;
+        }
+        submitsClosed = true;
+        try {
+            join(extractors);
+            extractionDone = true;
+            join(embedders);
+            embeddingDone = true;
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while draining the ingestion pipeline", e);
+        }
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        log.info("Ingestion finished in {} ms: {} sources ({} failed), {} chunks created, {} written, {} failed, {} chunks/s",
+                millis, sourcesDone.get(), sourcesFailed.get(), chunksCreated.get(), chunksWritten.get(), chunksFailed.get(),
+                millis == 0 ? chunksWritten.get() : chunksWritten.get() * 1000 / millis);
+    }
+
+    private static void join(List<Thread> threads) throws InterruptedException {
+        for(Thread thread : threads) {
+            thread.join();
+        }
+    }
+
+    public long getSourcesDone() {
+        return sourcesDone.get();
+    }
+
+    public long getSourcesFailed() {
+        return sourcesFailed.get();
+    }
+
+    public long getChunksCreated() {
+        return chunksCreated.get();
+    }
+
+    public long getChunksWritten() {
+        return chunksWritten.get();
+    }
+
+    public long getChunksFailed() {
+        return chunksFailed.get();
+    }
+
+    private static final class Source {
+        private final File file;
+        private final String content;
+        private final Map<String, Object> metadata;
+
+        private Source(File file, String content, Map<String, Object> metadata) {
+            this.file = file;
+            this.content = content;
+            this.metadata = metadata == null ? Map.of() : metadata;
+        }
+
+        @Override
+        public String toString() {
+            return file != null ? file.getPath() : "text of " + content.length() + " characters";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IngestionPipeline{" +
+                "chunker=" + chunker +
+                ", extractors=" + extractors.size() +
+                ", embedders=" + embedders.size() +
+                ", embeddingBatchSize=" + embeddingBatchSize +
+                ", writeBatchSize=" + writeBatchSize +
+                '}';
+    }
+}
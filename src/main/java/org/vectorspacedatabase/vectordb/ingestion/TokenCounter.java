@@ -0,0 +1,10 @@
+package org.vectorspacedatabase.vectordb.ingestion;
+
+// Model tokens in one whitespace separated word, plug in the embedding model's tokenizer for exact chunk sizes
+public interface TokenCounter {
+
+    // Roughly four characters per token, close enough for BPE and WordPiece vocabularies on English text
+    TokenCounter APPROXIMATE = word -> Math.max(1, (word.length() + 3) / 4);
+
+    int count(String word);
+}
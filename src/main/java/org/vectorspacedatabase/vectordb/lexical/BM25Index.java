@@ -0,0 +1,368 @@
+package org.vectorspacedatabase.vectordb.lexical;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.vectorspacedatabase.vectordb.similaritysearch.TopK;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Inverted index over document text keyed by the same ordinals as the vector index. Postings are sorted by ordinal with
+// their term frequency, queries are scored with BM25 document at a time using WAND: a document is only scored once the
+// upper bounds of the terms that can reach it beat the current k-th score, everything before it is skipped.
+// Removed ordinals are masked right away and purged from the postings in bulk, until then they still count in document
+// frequencies like deleted documents do in any segment based engine.
+public class BM25Index {
+
+    private static final int MIN_PURGE_ORDINALS = 1024;
+
+    private final Tokenizer tokenizer;
+
+    private final float k1;
+
+    private final float b;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    private int[] lengths = new int[1024];
+
+    private final RoaringBitmap live = new RoaringBitmap();
+
+    private final RoaringBitmap removed = new RoaringBitmap();
+
+    private long totalLength;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Tokenizer tokenizer = new Tokenizer();
+        private float k1 = 1.2f;
+        private float b = 0.75f;
+
+        public Builder withTokenizer(Tokenizer tokenizer) {
+            this.tokenizer = tokenizer;
+            return this;
+        }
+
+        // Term frequency saturation
+        public Builder withK1(float k1) {
+            if(k1 < 0) {
+                throw new IllegalArgumentException("k1 must not be negative");
+            }
+            this.k1 = k1;
+            return this;
+        }
+
+        // Length normalization, 0 ignores document length and 1 fully normalizes by it
+        public Builder withB(float b) {
+            if(b < 0 || b > 1) {
+                throw new IllegalArgumentException("b must be between 0 and 1");
+            }
+            this.b = b;
+            return this;
+        }
+
+        public BM25Index build() {
+            return new BM25Index(this);
+        }
+    }
+
+    public BM25Index(Builder builder) {
+        this.tokenizer = builder.tokenizer;
+        this.k1 = builder.k1;
+        this.b = builder.b;
+    }
+
+    public void add(int ordinal, String text) {
+        List<String> tokens = tokenizer.tokenize(text);
+        Map<String, Integer> frequencies = new HashMap<>();
+        for(String token : tokens) {
+            frequencies.merge(token, 1, Integer::sum);
+        }
+
+        lock.writeLock().lock();
+        try {
+            if(live.contains(ordinal)) {
+                throw new IllegalArgumentException("Ordinal " + ordinal + " is already indexed");
+            }
+            for(Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+                postings.computeIfAbsent(entry.getKey(), ignored -> new Postings()).add(ordinal, entry.getValue());
+            }
+            if(ordinal >= lengths.length) {
+                lengths = Arrays.copyOf(lengths, Math.max(ordinal + 1, lengths.length * 2));
+            }
+            lengths[ordinal] = tokens.size();
+            totalLength += tokens.size();
+            live.add(ordinal);
+            removed.remove(ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int ordinal) {
+        lock.writeLock().lock();
+        try {
+            if(!live.contains(ordinal)) {
+                return;
+            }
+            live.remove(ordinal);
+            removed.add(ordinal);
+            totalLength -= lengths[ordinal];
+            if(removed.getCardinality() >= Math.max(MIN_PURGE_ORDINALS, live.getCardinality() / 4)) {
+                purge();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Purges whatever removed ordinals are still waiting for, so they can be released without the bulk threshold
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            if(!removed.isEmpty()) {
+                purge();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A removed ordinal may only be added again once it is purged, until then its old postings would come back with it
+    public boolean isReleased(int ordinal) {
+        lock.readLock().lock();
+        try {
+            return !removed.contains(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void purge() {
+        Iterator<Postings> iterator = postings.values().iterator();
+        while(iterator.hasNext()) {
+            Postings termPostings = iterator.next();
+            termPostings.removeAll(removed);
+            if(termPostings.size == 0) {
+                iterator.remove();
+            }
+        }
+        removed.clear();
+    }
+
+    public TopK search(String query, int k) {
+        return search(query, k, null);
+    }
+
+    // Only ordinals in allowed are scored when it is set
+    public TopK search(String query, int k, RoaringBitmap allowed) {
+        TopK topK = new TopK(k);
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(tokenizer.tokenize(query)));
+
+        lock.readLock().lock();
+        try {
+            int documents = live.getCardinality();
+            if(documents == 0 || terms.isEmpty()) {
+                return topK;
+            }
+            float averageLength = Math.max(1f, (float) totalLength / documents);
+
+            List<Cursor> cursors = new ArrayList<>(terms.size());
+            for(String term : terms) {
+                Postings termPostings = postings.get(term);
+                if(termPostings != null && termPostings.size > 0) {
+                    cursors.add(new Cursor(termPostings, idf(termPostings.size, documents)));
+                }
+            }
+            wand(cursors, averageLength, allowed, topK);
+            return topK;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void wand(List<Cursor> cursors, float averageLength, RoaringBitmap allowed, TopK topK) {
+        Cursor[] active = cursors.toArray(new Cursor[0]);
+        int count = active.length;
+        while(count > 0) {
+            Arrays.sort(active, 0, count, (left, right) -> Integer.compare(left.ordinal(), right.ordinal()));
+
+            // Pivot is the first cursor where the summed upper bounds could enter the top k
+            float threshold = topK.threshold();
+            float bound = 0;
+            int pivot = -1;
+            for(int index = 0; index < count; index++) {
+                bound += active[index].upperBound(k1, b);
+                if(bound > threshold) {
+                    pivot = index;
+                    break;
+                }
+            }
+            if(pivot < 0) {
+                break;
+            }
+
+            int pivotOrdinal = active[pivot].ordinal();
+            if(active[0].ordinal() == pivotOrdinal) {
+                float score = 0;
+                for(int index = 0; index < count && active[index].ordinal() == pivotOrdinal; index++) {
+                    Cursor cursor = active[index];
+                    score += cursor.idf * termScore(cursor.frequency(), lengths[pivotOrdinal], averageLength);
+                    cursor.next();
+                }
+                if(live.contains(pivotOrdinal) && (allowed == null || allowed.contains(pivotOrdinal))) {
+                    topK.offer(pivotOrdinal, score);
+                }
+            } else {
+                // Nothing before the pivot can make it, skip those cursors ahead
+                for(int index = 0; index < pivot; index++) {
+                    active[index].advance(pivotOrdinal);
+                }
+            }
+
+            int remaining = 0;
+            for(int index = 0; index < count; index++) {
+                if(!active[index].exhausted()) {
+                    active[remaining++] = active[index];
+                }
+            }
+            count = remaining;
+        }
+    }
+
+    private float termScore(int frequency, int length, float averageLength) {
+        return frequency * (k1 + 1) / (frequency + k1 * (1 - b + b * length / averageLength));
+    }
+
+    // BM25 idf with the +1 that keeps very common terms from going negative
+    private static float idf(int documentFrequency, int documents) {
+        return (float) Math.log(1 + (documents - documentFrequency + 0.5) / (documentFrequency + 0.5));
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live.getCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int terms() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Ordinals arrive in increasing order while indexing, only a restore can add them out of order
+    private static final class Postings {
+        private int[] ordinals = new int[4];
+        private int[] frequencies = new int[4];
+        private int size;
+        private int maxFrequency;
+
+        void add(int ordinal, int frequency) {
+            if(size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                frequencies = Arrays.copyOf(frequencies, size * 2);
+            }
+            int position = size;
+            if(size > 0 && ordinals[size - 1] > ordinal) {
+                position = -Arrays.binarySearch(ordinals, 0, size, ordinal) - 1;
+                System.arraycopy(ordinals, position, ordinals, position + 1, size - position);
+                System.arraycopy(frequencies, position, frequencies, position + 1, size - position);
+            }
+            ordinals[position] = ordinal;
+            frequencies[position] = frequency;
+            size++;
+            maxFrequency = Math.max(maxFrequency, frequency);
+        }
+
+        void removeAll(RoaringBitmap removed) {
+            int kept = 0;
+            int max = 0;
+            for(int index = 0; index < size; index++) {
+                if(!removed.contains(ordinals[index])) {
+                    ordinals[kept] = ordinals[index];
+                    frequencies[kept] = frequencies[index];
+                    max = Math.max(max, frequencies[index]);
+                    kept++;
+                }
+            }
+            size = kept;
+            maxFrequency = max;
+        }
+    }
+
+    private static final class Cursor {
+        private final Postings postings;
+        private final float idf;
+        private int position;
+
+        Cursor(Postings postings, float idf) {
+            this.postings = postings;
+            this.idf = idf;
+        }
+
+        int ordinal() {
+            return postings.ordinals[position];
+        }
+
+        int frequency() {
+            return postings.frequencies[position];
+        }
+
+        boolean exhausted() {
+            return position >= postings.size;
+        }
+
+        void next() {
+            position++;
+        }
+
+        // Gallops forward to the first posting at or after target
+        void advance(int target) {
+            int step = 1;
+            int low = position;
+            int high = position;
+            while(high < postings.size && postings.ordinals[high] < target) {
+                low = high;
+                high += step;
+                step <<= 1;
+            }
+            high = Math.min(high, postings.size);
+            int found = Arrays.binarySearch(postings.ordinals, low, high, target);
+            position = found >= 0 ? found : -found - 1;
+        }
+
+        // Best case for this term, its highest frequency in the shortest possible document
+        float upperBound(float k1, float b) {
+            int frequency = postings.maxFrequency;
+            return idf * frequency * (k1 + 1) / (frequency + k1 * (1 - b));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BM25Index{" +
+                "k1=" + k1 +
+                ", b=" + b +
+                ", documents=" + size() +
+                ", terms=" + terms() +
+                '}';
+    }
+}
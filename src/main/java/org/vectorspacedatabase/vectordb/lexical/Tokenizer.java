@@ -0,0 +1,67 @@
+package org.vectorspacedatabase.vectordb.lexical;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// Lowercased runs of letters and digits. A run joined by '-', '_', '.', '/' or ':' (part numbers, error codes, versions)
+// is also kept whole, so "ERR-4012" indexes "err-4012", "err" and "4012" and an exact code query ranks its documents first.
+public class Tokenizer {
+
+    private final int maxTokenLength;
+
+    public Tokenizer() {
+        this(64);
+    }
+
+    public Tokenizer(int maxTokenLength) {
+        if(maxTokenLength <= 0) {
+            throw new IllegalArgumentException("maxTokenLength must be greater than zero");
+        }
+        this.maxTokenLength = maxTokenLength;
+    }
+
+    public List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if(text == null) {
+            return tokens;
+        }
+
+        int length = text.length();
+        int index = 0;
+        while(index < length) {
+            while(index < length && !Character.isLetterOrDigit(text.charAt(index))) {
+                index++;
+            }
+            int compoundStart = index;
+            int parts = 0;
+            while(index < length && Character.isLetterOrDigit(text.charAt(index))) {
+                int start = index;
+                while(index < length && Character.isLetterOrDigit(text.charAt(index))) {
+                    index++;
+                }
+                add(tokens, text, start, index);
+                parts++;
+                if(index + 1 < length && isJoiner(text.charAt(index)) && Character.isLetterOrDigit(text.charAt(index + 1))) {
+                    index++;
+                } else {
+                    break;
+                }
+            }
+            if(parts > 1) {
+                add(tokens, text, compoundStart, index);
+            }
+        }
+        return tokens;
+    }
+
+    private void add(List<String> tokens, String text, int start, int end) {
+        if(end > start && end - start <= maxTokenLength) {
+            tokens.add(text.substring(start, end).toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static boolean isJoiner(char character) {
+        return character == '-' || character == '_' || character == '.' || character == '/' || character == ':';
+    }
+}
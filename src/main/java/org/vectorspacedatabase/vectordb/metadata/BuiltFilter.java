@@ -0,0 +1,57 @@
+package org.vectorspacedatabase.vectordb.metadata;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// A filter made by one of Filter's factories. Its cache key is the operator followed by the operands, the keys of the
+// nested filters for and, or and not, so two filters built the same way share QueryCache entries. Nesting a filter that
+// only equals itself makes the whole filter only equal itself.
+final class BuiltFilter implements Filter {
+
+    private final Filter evaluation;
+
+    // Null when a nested filter has no key of its own
+    private final List<Object> key;
+
+    BuiltFilter(String operator, Filter evaluation, Object... operands) {
+        this.evaluation = evaluation;
+        if(operands == null) {
+            this.key = null;
+            return;
+        }
+        List<Object> key = new ArrayList<>(operands.length + 1);
+        key.add(operator);
+        key.addAll(Arrays.asList(operands));
+        this.key = key;
+    }
+
+    // Null as soon as one of the filters is keyed by its identity
+    static Object[] keys(Filter... filters) {
+        Object[] keys = new Object[filters.length];
+        for(int position = 0; position < filters.length; position++) {
+            keys[position] = filters[position].cacheKey();
+            if(keys[position] == filters[position]) {
+                return null;
+            }
+        }
+        return keys;
+    }
+
+    @Override
+    public RoaringBitmap evaluate(MetadataIndex index) {
+        return evaluation.evaluate(index);
+    }
+
+    @Override
+    public Object cacheKey() {
+        return key == null ? this : key;
+    }
+
+    @Override
+    public String toString() {
+        return "Filter" + (key == null ? "[custom]" : key);
+    }
+}
@@ -0,0 +1,83 @@
+package org.vectorspacedatabase.vectordb.metadata;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Arrays;
+import java.util.List;
+
+// Metadata filter expression, evaluated by MetadataIndex into a bitmap of allowed ordinals before the vector search runs.
+// Evaluation only combines bitmaps into new ones, the index's own bitmaps are never modified.
+public interface Filter {
+
+    RoaringBitmap evaluate(MetadataIndex index);
+
+    // Filters with equal keys select the same documents, which lets QueryCache reuse results. Filters from the
+    // factories below compare by operator and operands, filters parsed from JSON by their JSON. Any other filter only
+    // equals itself and is not cached.
+    default Object cacheKey() {
+        return this;
+    }
+
+    static Filter eq(String key, Object value) {
+        return new BuiltFilter("eq", index -> index.term(key, value), key, value);
+    }
+
+    static Filter in(String key, Object... values) {
+        List<Object> candidates = Arrays.asList(values.clone());
+        return new BuiltFilter("in", index -> {
+            RoaringBitmap result = new RoaringBitmap();
+            for(Object value : candidates) {
+                result.or(index.term(key, value));
+            }
+            return result;
+        }, key, candidates);
+    }
+
+    static Filter exists(String key) {
+        return new BuiltFilter("exists", index -> index.exists(key), key);
+    }
+
+    // Inclusive numeric range, a null bound leaves that side open
+    static Filter range(String key, Number min, Number max) {
+        return new BuiltFilter("range", index -> index.range(key, min == null ? null : min.doubleValue(), true,
+                max == null ? null : max.doubleValue(), true), key, min, max);
+    }
+
+    static Filter greaterThan(String key, Number min) {
+        return new BuiltFilter("gt", index -> index.range(key, min.doubleValue(), false, null, false), key, min);
+    }
+
+    static Filter lessThan(String key, Number max) {
+        return new BuiltFilter("lt", index -> index.range(key, null, false, max.doubleValue(), false), key, max);
+    }
+
+    static Filter and(Filter... filters) {
+        if(filters.length == 0) {
+            throw new IllegalArgumentException("and needs at least one filter");
+        }
+        Filter[] operands = filters.clone();
+        return new BuiltFilter("and", index -> {
+            RoaringBitmap result = operands[0].evaluate(index);
+            for(int position = 1; position < operands.length && !result.isEmpty(); position++) {
+                result = RoaringBitmap.and(result, operands[position].evaluate(index));
+            }
+            return result;
+        }, BuiltFilter.keys(operands));
+    }
+
+    static Filter or(Filter... filters) {
+        Filter[] operands = filters.clone();
+        return new BuiltFilter("or", index -> {
+            RoaringBitmap result = new RoaringBitmap();
+            for(Filter filter : operands) {
+                result.or(filter.evaluate(index));
+            }
+            return result;
+        }, BuiltFilter.keys(operands));
+    }
+
+    static Filter not(Filter filter) {
+        return new BuiltFilter("not", index -> RoaringBitmap.andNot(index.live(), filter.evaluate(index)),
+                BuiltFilter.keys(filter));
+    }
+}
@@ -0,0 +1,163 @@
+package org.vectorspacedatabase.vectordb.metadata;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+// Filters in request bodies, a Mongo style subset:
+//   {"lang": "en"}                              equality, several keys in one object are and-ed
+//   {"year": {"$gte": 2010, "$lt": 2020}}       $eq $ne $in $exists $gt $gte $lt $lte
+//   {"$and": [...]}, {"$or": [...]}, {"$not": {...}}
+// Parsed filters remember their JSON so a coordinator can forward them to remote shards.
+public final class JsonFilters {
+
+    private JsonFilters() {
+        throw new UnsupportedOperationException("This is a utility class, can't be instantiated");
+    }
+
+    // Null or missing means no filter
+    public static Filter parse(JsonNode node) {
+        if(node == null || node.isNull() || node.isMissingNode()) {
+            return null;
+        }
+        Filter filter = parseObject(node);
+        return filter == null ? null : new Parsed(filter, node);
+    }
+
+    // The JSON a filter was parsed from, filters built in code have none
+    public static JsonNode toJson(Filter filter) {
+        if(!(filter instanceof Parsed parsed)) {
+            throw new IllegalArgumentException("Only filters parsed by JsonFilters can be sent as JSON");
+        }
+        return parsed.node;
+    }
+
+    private static Filter parseObject(JsonNode node) {
+        if(node == null || node.isNull() || node.isMissingNode()) {
+            return null;
+        }
+        if(!node.isObject()) {
+            throw new IllegalArgumentException("Filter must be a JSON object: " + node);
+        }
+
+        List<Filter> filters = new ArrayList<>();
+        Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+        while(fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            String name = field.getKey();
+            JsonNode value = field.getValue();
+            switch (name) {
+                case "$and" -> filters.add(Filter.and(parseAll(value)));
+                case "$or" -> filters.add(Filter.or(parseAll(value)));
+                case "$not" -> filters.add(Filter.not(parseObject(value)));
+                default -> {
+                    if(name.startsWith("$")) {
+                        throw new IllegalArgumentException("Unknown filter operator " + name);
+                    }
+                    filters.add(value.isObject() ? parseConditions(name, value) : Filter.eq(name, toValue(value)));
+                }
+            }
+        }
+        return combine(filters);
+    }
+
+    private static Filter[] parseAll(JsonNode node) {
+        if(!node.isArray() || node.isEmpty()) {
+            throw new IllegalArgumentException("$and and $or take a non empty array of filters");
+        }
+        Filter[] filters = new Filter[node.size()];
+        for(int index = 0; index < filters.length; index++) {
+            filters[index] = parseObject(node.get(index));
+        }
+        return filters;
+    }
+
+    private static Filter parseConditions(String key, JsonNode conditions) {
+        List<Filter> filters = new ArrayList<>();
+        Number min = null;
+        Number max = null;
+        Iterator<Map.Entry<String, JsonNode>> fields = conditions.fields();
+        while(fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode value = field.getValue();
+            switch (field.getKey()) {
+                case "$eq" -> filters.add(Filter.eq(key, toValue(value)));
+                case "$ne" -> filters.add(Filter.not(Filter.eq(key, toValue(value))));
+                case "$in" -> {
+                    if(!value.isArray()) {
+                        throw new IllegalArgumentException("$in takes an array of values");
+                    }
+                    Object[] values = new Object[value.size()];
+                    for(int index = 0; index < values.length; index++) {
+                        values[index] = toValue(value.get(index));
+                    }
+                    filters.add(Filter.in(key, values));
+                }
+                case "$exists" -> filters.add(value.asBoolean() ? Filter.exists(key) : Filter.not(Filter.exists(key)));
+                case "$gt" -> filters.add(Filter.greaterThan(key, toNumber(value)));
+                case "$lt" -> filters.add(Filter.lessThan(key, toNumber(value)));
+                case "$gte" -> min = toNumber(value);
+                case "$lte" -> max = toNumber(value);
+                default -> throw new IllegalArgumentException("Unknown filter operator " + field.getKey());
+            }
+        }
+        if(min != null || max != null) {
+            filters.add(Filter.range(key, min, max));
+        }
+        if(filters.isEmpty()) {
+            throw new IllegalArgumentException("Empty condition for " + key);
+        }
+        return combine(filters);
+    }
+
+    private static Filter combine(List<Filter> filters) {
+        if(filters.isEmpty()) {
+            return null;
+        }
+        return filters.size() == 1 ? filters.get(0) : Filter.and(filters.toArray(new Filter[0]));
+    }
+
+    private static Object toValue(JsonNode value) {
+        if(value.isNumber()) {
+            return value.numberValue();
+        }
+        if(value.isBoolean()) {
+            return value.booleanValue();
+        }
+        if(value.isTextual()) {
+            return value.textValue();
+        }
+        throw new IllegalArgumentException("Filter values must be strings, numbers or booleans: " + value);
+    }
+
+    private static Number toNumber(JsonNode value) {
+        if(!value.isNumber()) {
+            throw new IllegalArgumentException("Range bounds must be numbers: " + value);
+        }
+        return value.numberValue();
+    }
+
+    private static final class Parsed implements Filter {
+        private final Filter filter;
+        private final JsonNode node;
+
+        Parsed(Filter filter, JsonNode node) {
+            this.filter = filter;
+            this.node = node;
+        }
+
+        @Override
+        public RoaringBitmap evaluate(MetadataIndex index) {
+            return filter.evaluate(index);
+        }
+
+        @Override
+        public Object cacheKey() {
+            return node;
+        }
+    }
+}
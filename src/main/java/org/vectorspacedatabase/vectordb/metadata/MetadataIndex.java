@@ -0,0 +1,202 @@
+package org.vectorspacedatabase.vectordb.metadata;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Inverted index from metadata key and value to a compressed bitmap of ordinals. Numeric values are also kept sorted per key
+// so ranges resolve to an or over a sub map. Collections index every element, nested maps are ignored.
+// Removed ordinals are dropped from the live set right away and purged from the value bitmaps in bulk.
+public class MetadataIndex {
+
+    private static final int MIN_PURGE_ORDINALS = 1024;
+
+    private final Map<String, Map<Object, RoaringBitmap>> terms = new HashMap<>();
+
+    private final Map<String, TreeMap<Double, RoaringBitmap>> numbers = new HashMap<>();
+
+    private final RoaringBitmap live = new RoaringBitmap();
+
+    private final RoaringBitmap removed = new RoaringBitmap();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public void add(int ordinal, Map<String, Object> metadata) {
+        lock.writeLock().lock();
+        try {
+            if(metadata != null) {
+                for(Map.Entry<String, Object> entry : metadata.entrySet()) {
+                    if(entry.getValue() instanceof Collection<?> values) {
+                        for(Object value : values) {
+                            addValue(ordinal, entry.getKey(), value);
+                        }
+                    } else {
+                        addValue(ordinal, entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            live.add(ordinal);
+            removed.remove(ordinal);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void addValue(int ordinal, String key, Object value) {
+        if(value == null || value instanceof Map) {
+            return;
+        }
+        terms.computeIfAbsent(key, ignored -> new HashMap<>())
+                .computeIfAbsent(normalize(value), ignored -> new RoaringBitmap())
+                .add(ordinal);
+        if(value instanceof Number number) {
+            numbers.computeIfAbsent(key, ignored -> new TreeMap<>())
+                    .computeIfAbsent(number.doubleValue(), ignored -> new RoaringBitmap())
+                    .add(ordinal);
+        }
+    }
+
+    public void remove(int ordinal) {
+        lock.writeLock().lock();
+        try {
+            live.remove(ordinal);
+            removed.add(ordinal);
+            if(removed.getCardinality() >= Math.max(MIN_PURGE_ORDINALS, live.getCardinality() / 4)) {
+                purge();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Purges whatever removed ordinals are still waiting for, so they can be released without the bulk threshold
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            if(!removed.isEmpty()) {
+                purge();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // A removed ordinal may only be added again once it is purged, until then its old values would come back with it
+    public boolean isReleased(int ordinal) {
+        lock.readLock().lock();
+        try {
+            return !removed.contains(ordinal);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void purge() {
+        for(Map<Object, RoaringBitmap> values : terms.values()) {
+            purge(values.values().iterator());
+        }
+        terms.values().removeIf(Map::isEmpty);
+        for(TreeMap<Double, RoaringBitmap> values : numbers.values()) {
+            purge(values.values().iterator());
+        }
+        numbers.values().removeIf(Map::isEmpty);
+        removed.clear();
+    }
+
+    private void purge(Iterator<RoaringBitmap> bitmaps) {
+        while(bitmaps.hasNext()) {
+            RoaringBitmap bitmap = bitmaps.next();
+            bitmap.andNot(removed);
+            if(bitmap.isEmpty()) {
+                bitmaps.remove();
+            } else {
+                bitmap.runOptimize();
+            }
+        }
+    }
+
+    // Ordinals of live documents matching the filter, the bitmap belongs to the caller
+    public RoaringBitmap evaluate(Filter filter) {
+        lock.readLock().lock();
+        try {
+            return RoaringBitmap.and(filter.evaluate(this), live);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live.getCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Lookups below run under the read lock taken by evaluate and return internal bitmaps, filters must not modify them
+    RoaringBitmap term(String key, Object value) {
+        Map<Object, RoaringBitmap> values = terms.get(key);
+        RoaringBitmap bitmap = values == null || value == null ? null : values.get(normalize(value));
+        return bitmap == null ? new RoaringBitmap() : bitmap;
+    }
+
+    RoaringBitmap range(String key, Double min, boolean minInclusive, Double max, boolean maxInclusive) {
+        NavigableMap<Double, RoaringBitmap> values = numbers.get(key);
+        RoaringBitmap result = new RoaringBitmap();
+        if(values == null) {
+            return result;
+        }
+        if(min != null) {
+            values = values.tailMap(min, minInclusive);
+        }
+        if(max != null) {
+            values = values.headMap(max, maxInclusive);
+        }
+        for(RoaringBitmap bitmap : values.values()) {
+            result.or(bitmap);
+        }
+        return result;
+    }
+
+    RoaringBitmap exists(String key) {
+        RoaringBitmap result = new RoaringBitmap();
+        Map<Object, RoaringBitmap> values = terms.get(key);
+        if(values != null) {
+            for(RoaringBitmap bitmap : values.values()) {
+                result.or(bitmap);
+            }
+        }
+        return result;
+    }
+
+    RoaringBitmap live() {
+        return live;
+    }
+
+    // Numbers compare by value whatever their boxed type, JSON may load 2024 as an Integer or a Long
+    private static Object normalize(Object value) {
+        if(value instanceof Number number) {
+            return number.doubleValue();
+        }
+        if(value instanceof Boolean) {
+            return value;
+        }
+        return value.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "MetadataIndex{" +
+                "keys=" + terms.keySet() +
+                ", size=" + size() +
+                '}';
+    }
+}
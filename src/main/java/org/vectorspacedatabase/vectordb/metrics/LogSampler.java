@@ -0,0 +1,44 @@
+package org.vectorspacedatabase.vectordb.metrics;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// Debug tracing for payloads too large or too frequent to log on every call: one call in every n gets through, and
+// nothing is counted or formatted unless the logger has debug enabled. Set -Dvectordb.log.sample-every to change n.
+public final class LogSampler {
+
+    public static final long DEFAULT_EVERY = Long.getLong("vectordb.log.sample-every", 100);
+
+    private static final int MAX_PAYLOAD_CHARS = 256;
+
+    private final Logger log;
+
+    private final long every;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    public LogSampler(Logger log) {
+        this(log, DEFAULT_EVERY);
+    }
+
+    public LogSampler(Logger log, long every) {
+        if(every <= 0) {
+            throw new IllegalArgumentException("every must be greater than zero");
+        }
+        this.log = log;
+        this.every = every;
+    }
+
+    public boolean sample() {
+        return log.isDebugEnabled() && calls.getAndIncrement() % every == 0;
+    }
+
+    // Cuts payloads down to a readable prefix with the full length
+    public static String abbreviate(String payload) {
+        if(payload == null || payload.length() <= MAX_PAYLOAD_CHARS) {
+            return payload;
+        }
+        return payload.substring(0, MAX_PAYLOAD_CHARS) + "... (" + payload.length() + " chars)";
+    }
+}
@@ -0,0 +1,140 @@
+package org.vectorspacedatabase.vectordb.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.vectorspacedatabase.vectordb.VectorDatabase;
+import org.vectorspacedatabase.vectordb.embeddings.EmbeddingCache;
+import org.vectorspacedatabase.vectordb.embeddings.EmbeddingStrategy;
+import org.vectorspacedatabase.vectordb.persistence.WriteAheadLog;
+import org.vectorspacedatabase.vectordb.sharding.Shard;
+import org.vectorspacedatabase.vectordb.sharding.ShardedVectorDatabase;
+import org.vectorspacedatabase.vectordb.similaritysearch.QueryCache;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchSimilarity;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Size gauges and the counters the components already keep, read when the registry is scraped rather than updated on
+// every call. Spring Boot binds it when declared as a bean, otherwise call bindTo with a registry. Behind a coordinator
+// every in-process shard gets its own series tagged shard, remote shards export theirs from their own process.
+public class VectorDatabaseMetrics implements MeterBinder {
+
+    private final EmbeddingStrategy embeddingStrategy;
+
+    private final Map<String, VectorDatabase> shards = new LinkedHashMap<>();
+
+    public VectorDatabaseMetrics(VectorDatabase vectorDatabase) {
+        this.embeddingStrategy = vectorDatabase.getEmbeddingStrategy();
+        this.shards.put(null, vectorDatabase);
+    }
+
+    public VectorDatabaseMetrics(ShardedVectorDatabase shardedVectorDatabase) {
+        this.embeddingStrategy = shardedVectorDatabase.getEmbeddingStrategy();
+        List<Shard> shardList = shardedVectorDatabase.getShards();
+        for(int shard = 0; shard < shardList.size(); shard++) {
+            if(shardList.get(shard) instanceof VectorDatabase vectorDatabase) {
+                this.shards.put(String.valueOf(shard), vectorDatabase);
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for(Map.Entry<String, VectorDatabase> entry : shards.entrySet()) {
+            bindShard(registry, entry.getValue(), entry.getKey() == null ? new String[0] : new String[]{"shard", entry.getKey()});
+        }
+
+        if(embeddingStrategy instanceof EmbeddingCache cache) {
+            FunctionCounter.builder("vectordb.embedding.cache.requests", cache, EmbeddingCache::getHitCount)
+                    .description("Embedding cache lookups")
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("vectordb.embedding.cache.requests", cache, EmbeddingCache::getDiskHitCount)
+                    .description("Embedding cache lookups")
+                    .tag("result", "disk_hit")
+                    .register(registry);
+            FunctionCounter.builder("vectordb.embedding.cache.requests", cache, EmbeddingCache::getMissCount)
+                    .description("Embedding cache lookups")
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("vectordb.embedding.cache.evictions", cache, EmbeddingCache::getEvictionCount)
+                    .description("Embeddings evicted from the memory tier")
+                    .register(registry);
+            Gauge.builder("vectordb.embedding.cache.size", cache, EmbeddingCache::getCurrentBytes)
+                    .description("Memory tier size")
+                    .baseUnit("bytes")
+                    .register(registry);
+            FunctionCounter.builder("vectordb.embedding.cache.disk.evictions", cache, EmbeddingCache::getDiskEvictionCount)
+                    .description("Embeddings dropped from the disk tier")
+                    .register(registry);
+            Gauge.builder("vectordb.embedding.cache.disk.size", cache, EmbeddingCache::getDiskBytes)
+                    .description("Disk tier size")
+                    .baseUnit("bytes")
+                    .register(registry);
+        }
+    }
+
+    private static void bindShard(MeterRegistry registry, VectorDatabase vectorDatabase, String[] tags) {
+        SearchSimilarity searchSimilarity = vectorDatabase.getSearchSimilarity();
+        Gauge.builder("vectordb.vectors", searchSimilarity, SearchSimilarity::size)
+                .description("Vectors in the index")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("vectordb.documents", vectorDatabase, VectorDatabase::size)
+                .description("Documents in the content store")
+                .tags(tags)
+                .register(registry);
+        Gauge.builder("vectordb.offheap", searchSimilarity, SearchSimilarity::offHeapBytes)
+                .description("Index memory outside the Java heap")
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(registry);
+
+        QueryCache queryCache = searchSimilarity.getQueryCache();
+        if(queryCache != null) {
+            FunctionCounter.builder("vectordb.query.cache.requests", queryCache, QueryCache::getHitCount)
+                    .description("Query cache lookups")
+                    .tags(tags)
+                    .tag("result", "hit")
+                    .register(registry);
+            FunctionCounter.builder("vectordb.query.cache.requests", queryCache, QueryCache::getMissCount)
+                    .description("Query cache lookups")
+                    .tags(tags)
+                    .tag("result", "miss")
+                    .register(registry);
+            FunctionCounter.builder("vectordb.query.cache.stale", queryCache, QueryCache::getStaleCount)
+                    .description("Cached results dropped because the collection changed since")
+                    .tags(tags)
+                    .register(registry);
+            FunctionCounter.builder("vectordb.query.cache.evictions", queryCache, QueryCache::getEvictionCount)
+                    .description("Cached results evicted to stay within the size bound")
+                    .tags(tags)
+                    .register(registry);
+            Gauge.builder("vectordb.query.cache.size", queryCache, QueryCache::getCurrentBytes)
+                    .description("Query cache size")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry);
+            Gauge.builder("vectordb.query.cache.hit.ratio", queryCache, QueryCache::getHitRate)
+                    .description("Share of query cache lookups answered from the cache")
+                    .tags(tags)
+                    .register(registry);
+        }
+
+        WriteAheadLog writeAheadLog = vectorDatabase.getWriteAheadLog();
+        if(writeAheadLog != null) {
+            FunctionCounter.builder("vectordb.wal.written", writeAheadLog, WriteAheadLog::getBytesWritten)
+                    .description("Bytes appended to the write-ahead log")
+                    .baseUnit("bytes")
+                    .tags(tags)
+                    .register(registry);
+            FunctionCounter.builder("vectordb.wal.fsyncs", writeAheadLog, WriteAheadLog::getFsyncCount)
+                    .description("Write-ahead log fsync calls")
+                    .tags(tags)
+                    .register(registry);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.vectorspacedatabase.vectordb.metrics;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+
+// Hot path timers. They live in Micrometer's global registry, which Spring Boot adds its Prometheus registry to, so the
+// storage and index classes need no wiring and cost nothing beyond a clock read when nothing is scraping.
+// Histograms are published so latency percentiles can be aggregated across instances.
+public final class VectorDbMetrics {
+
+    // One embedAll call while adding or ingesting documents
+    public static final Timer EMBED = timer("vectordb.embed", "Time to embed one batch of documents");
+
+    public static final Timer EMBED_QUERY = timer("vectordb.embed.query", "Time to embed one query text");
+
+    // Write-ahead log append plus storage write of one batch
+    public static final Timer PERSIST = timer("vectordb.persist", "Time to make one batch of documents durable");
+
+    public static final Timer INDEX_INSERT = timer("vectordb.index.insert", "Time to index one vector with its metadata and text");
+
+    public static final Timer SEARCH_VECTOR = timer("vectordb.search", "Time to answer one query", "type", "vector");
+
+    public static final Timer SEARCH_LEXICAL = timer("vectordb.search", "Time to answer one query", "type", "lexical");
+
+    public static final Timer SEARCH_HYBRID = timer("vectordb.search", "Time to answer one query", "type", "hybrid");
+
+    public static final Timer SEARCH_BATCH = timer("vectordb.search.batch", "Time to answer one batch of vector queries");
+
+    private VectorDbMetrics() {
+        throw new UnsupportedOperationException("This is a utility class, can't be instantiated");
+    }
+
+    private static Timer timer(String name, String description, String... tags) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(tags)
+                .publishPercentileHistogram()
+                .register(Metrics.globalRegistry);
+    }
+}
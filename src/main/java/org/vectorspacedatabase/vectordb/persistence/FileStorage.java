@@ -1,72 +1,37 @@
 package org.vectorspacedatabase.vectordb.persistence;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.vectorspacedatabase.vectordb.document.Document;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.*;
+import java.util.List;
+import java.util.function.Consumer;
 
-public class FileStorage {
+public interface FileStorage extends AutoCloseable {
+    void saveDocumentIntoFile(String documentId, Document document);
 
-    private static final Logger log = LoggerFactory.getLogger(FileStorage.class);
+    Document loadDocumentFromFile(String documentId);
 
-    private static final String STORAGE_DIRECTORY = "storage";
-
-    private static final String CACHE_FILE = "cache.json";
-
-    private final ObjectMapper objectMapper;
-
-    public FileStorage() {
-        this.objectMapper = new ObjectMapper();
-        creteStorageDirectory();
-    }
-
-    // Create the storage directory if it doesn't exist
-    private void creteStorageDirectory() {
-        Path storagePath = Paths.get(STORAGE_DIRECTORY);
-        try {
-            if(Files.notExists(storagePath)) {
-                Files.createDirectories(storagePath);
-                log.info("Storage directory created at: {}", storagePath.toAbsolutePath());
-            }
-        } catch (RuntimeException e) {
-            throw new RuntimeException("Failed to create storage directory", e);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+    // Engines that can write a batch in one go should override this
+    default void saveDocuments(List<Document> documents) {
+        for(Document document : documents) {
+            saveDocumentIntoFile(document.getId(), document);
         }
     }
 
-    // Save a document to /storage/document_id.json
-    public void saveDocumentIntoFile(String documentId, Document document) {
-        Path documentPath = Paths.get(STORAGE_DIRECTORY, documentId + ".json");
-        try {
-            String json = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(document);
-            Files.write(documentPath, json.getBytes(StandardCharsets.UTF_8));
-            log.info("Document {} saved into file: {}", documentId, documentPath.toAbsolutePath());
-        } catch (IOException e) {
-            throw new RuntimeException("Error while saving document to file: " + documentPath, e);
-        }
+    void deleteDocuments(List<String> documentIds);
+
+    // Makes every write so far durable, called before a write-ahead log checkpoint drops the entries it covers
+    default void flush() {
     }
 
-    // Load a document from /storage/document_id.json
-    public Document loadDocumentFromFile(String documentId) {
-        Path documentPath = Paths.get(STORAGE_DIRECTORY, documentId + ".json");
+    // Streams the latest version of every stored document, engines may call the consumer from several threads at once
+    void forEachDocument(Consumer<Document> consumer);
 
-        if (Files.notExists(documentPath)) {
-            log.warn("Document {} not found in file: {}", documentId, documentPath.toAbsolutePath());
-            return null;
-        }
+    // Reclaims the space held by superseded and deleted documents, returns how many files were rewritten
+    default int compact() {
+        return 0;
+    }
 
-        try {
-            String json = new String(Files.readAllBytes(documentPath), StandardCharsets.UTF_8);
-            Document document = objectMapper.readValue(json, Document.class);
-            log.info("Document {} loaded from file: {}", documentId, documentPath.toAbsolutePath());
-            return document;
-        } catch (IOException e) {
-            throw new RuntimeException("Error while loading document from file: " + documentPath, e);
-        }
+    @Override
+    default void close() {
     }
 }
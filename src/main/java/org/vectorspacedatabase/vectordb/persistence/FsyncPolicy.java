@@ -0,0 +1,11 @@
+package org.vectorspacedatabase.vectordb.persistence;
+
+// When the write-ahead log forces appended batches to disk
+public enum FsyncPolicy {
+    // Every batch is durable before the write returns
+    PER_BATCH,
+    // A background flush runs at a fixed interval, a crash loses at most one interval of writes
+    INTERVAL,
+    // Left to the operating system, only checkpoints and close force the log
+    NONE
+}
@@ -0,0 +1,138 @@
+package org.vectorspacedatabase.vectordb.persistence;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjLongConsumer;
+
+// One append-only data file, records are framed by SegmentRecords and addressed by their start offset.
+// The write-ahead log reuses the same framing for its batch records.
+final class Segment implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(Segment.class);
+
+    private static final int SCAN_BUFFER_BYTES = 1 << 20;
+
+    private final int id;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private volatile long size;
+
+    // Kept by SegmentFileStorage: records in the file, and how many are still the latest version of their id
+    final AtomicInteger records = new AtomicInteger();
+
+    final AtomicInteger live = new AtomicInteger();
+
+    Segment(int id, Path path) throws IOException {
+        this.id = id;
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.size = channel.size();
+    }
+
+    int id() {
+        return id;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long size() {
+        return size;
+    }
+
+    // Callers serialize appends, reads may run concurrently through positional reads
+    long append(ByteBuffer records) throws IOException {
+        long start = size;
+        long position = start;
+        while(records.hasRemaining()) {
+            position += channel.write(records, position);
+        }
+        size = position;
+        return start;
+    }
+
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    // Returns the verified record body starting after the length prefix
+    ByteBuffer read(long offset) throws IOException {
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(lengthBuffer, offset);
+        int bodyLength = lengthBuffer.flip().getInt();
+
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + bodyLength + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(record, offset);
+        int expected = record.getInt(Integer.BYTES + bodyLength);
+        if(SegmentRecords.checksum(record.array(), Integer.BYTES, bodyLength) != expected) {
+            throw new IOException("Checksum mismatch in " + path + " at offset " + offset);
+        }
+        return record.position(Integer.BYTES).limit(Integer.BYTES + bodyLength).slice();
+    }
+
+    // Walks every valid record in order, with repair a torn tail left behind by a crash is truncated
+    void scan(ObjLongConsumer<ByteBuffer> consumer, boolean repair) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        long offset = 0;
+        long end = repair ? channel.size() : size;
+
+        while(offset + SegmentRecords.FRAME_BYTES <= end) {
+            buffer.clear().limit(Integer.BYTES);
+            readFully(buffer, offset);
+            int bodyLength = buffer.flip().getInt();
+            long recordLength = (long) bodyLength + SegmentRecords.FRAME_BYTES;
+            if(bodyLength <= 0 || offset + recordLength > end) {
+                break;
+            }
+
+            if(recordLength > buffer.capacity()) {
+                buffer = ByteBuffer.allocate((int) recordLength).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            buffer.clear().limit((int) recordLength);
+            readFully(buffer, offset);
+            if(SegmentRecords.checksum(buffer.array(), Integer.BYTES, bodyLength) != buffer.getInt(Integer.BYTES + bodyLength)) {
+                break;
+            }
+
+            consumer.accept(buffer.duplicate().position(Integer.BYTES).limit(Integer.BYTES + bodyLength).slice(), offset);
+            offset += recordLength;
+        }
+
+        if(repair) {
+            if(offset < end) {
+                log.warn("Truncating {} bytes of incomplete data at the end of {}", end - offset, path);
+                channel.truncate(offset);
+            }
+            size = offset;
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while(buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if(read < 0) {
+                throw new EOFException("Unexpected end of " + path + " at offset " + position);
+            }
+            position += read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,649 @@
+package org.vectorspacedatabase.vectordb.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.utility.TokenBucket;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+// Append-only segment engine: documents are binary records in segment-NNNNNNNN.data files, the newest segment takes writes
+// and rolls over at maxSegmentBytes. An in-memory offset index maps ids to (segment, offset), sealed segments keep it in a .idx
+// sidecar so opening does not rescan them. A batch is written with one write call and at most one fsync.
+// Superseded records and tombstones stay on disk until compact rewrites the sealed segments they fill up.
+public class SegmentFileStorage implements FileStorage {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentFileStorage.class);
+
+    private static final String DATA_SUFFIX = ".data";
+
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private static final String COMPACT_SUFFIX = ".compact";
+
+    private static final int COPY_BUFFER_BYTES = 1 << 20;
+
+    // Offsets use the low 40 bits of a location, segment ids the rest
+    private static final int OFFSET_BITS = 40;
+
+    private final Path directory;
+
+    private final long maxSegmentBytes;
+
+    private final boolean fsync;
+
+    private final double compactionThreshold;
+
+    // Null when compaction runs at full speed
+    private final TokenBucket compactionThrottle;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+
+    // Segment holding the latest tombstone of each deleted id, needed so sidecars can replay deletes across segments
+    private final Map<String, Integer> tombstones = new ConcurrentHashMap<>();
+
+    // Readers hold the read side from looking a location up until its record is read, compaction swaps files under the write side
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+
+    // One compaction at a time
+    private final Object compactionLock = new Object();
+
+    private Segment activeSegment;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Path directory = Paths.get("storage");
+        private long maxSegmentBytes = 256L * 1024 * 1024;
+        private boolean fsync = true;
+        private double compactionThreshold = 0.5;
+        private long compactionBytesPerSecond = 32L * 1024 * 1024;
+
+        public Builder withDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder withMaxSegmentBytes(long maxSegmentBytes) {
+            if(maxSegmentBytes <= 0 || maxSegmentBytes >= (1L << OFFSET_BITS)) {
+                throw new IllegalArgumentException("maxSegmentBytes must be between 1 and 2^40");
+            }
+            this.maxSegmentBytes = maxSegmentBytes;
+            return this;
+        }
+
+        // fsync after every batch, turn off when another log already makes writes durable
+        public Builder withFsync(boolean fsync) {
+            this.fsync = fsync;
+            return this;
+        }
+
+        // Fraction of a sealed segment's records that must be superseded or deleted before compact rewrites it
+        public Builder withCompactionThreshold(double compactionThreshold) {
+            if(compactionThreshold <= 0 || compactionThreshold > 1) {
+                throw new IllegalArgumentException("compactionThreshold must be in (0, 1]");
+            }
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        // Bytes read plus bytes written per second while compacting, so it does not starve foreground I/O. 0 for unlimited.
+        public Builder withCompactionBytesPerSecond(long compactionBytesPerSecond) {
+            if(compactionBytesPerSecond < 0) {
+                throw new IllegalArgumentException("compactionBytesPerSecond must not be negative");
+            }
+            this.compactionBytesPerSecond = compactionBytesPerSecond;
+            return this;
+        }
+
+        public SegmentFileStorage build() {
+            return new SegmentFileStorage(this);
+        }
+    }
+
+    public SegmentFileStorage(Builder builder) {
+        this.directory = builder.directory;
+        this.maxSegmentBytes = builder.maxSegmentBytes;
+        this.fsync = builder.fsync;
+        this.compactionThreshold = builder.compactionThreshold;
+        this.compactionThrottle = builder.compactionBytesPerSecond == 0 ? null
+                : new TokenBucket(builder.compactionBytesPerSecond, builder.compactionBytesPerSecond);
+
+        try {
+            Files.createDirectories(directory);
+            openSegments();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open segment storage at: " + directory, e);
+        }
+    }
+
+    private void openSegments() throws IOException {
+        List<Path> dataFiles;
+        List<Path> unfinished;
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> all = files.toList();
+            dataFiles = all.stream().filter(path -> path.getFileName().toString().endsWith(DATA_SUFFIX)).sorted().toList();
+            unfinished = all.stream().filter(path -> path.getFileName().toString().endsWith(COMPACT_SUFFIX)).toList();
+        }
+        // Copies left by a compaction that did not finish, the segments they were made from are still complete
+        for(Path path : unfinished) {
+            Files.deleteIfExists(path);
+        }
+
+        for(Path dataFile : dataFiles) {
+            String name = dataFile.getFileName().toString();
+            int segmentId = Integer.parseInt(name.substring("segment-".length(), name.length() - DATA_SUFFIX.length()));
+            Segment segment = new Segment(segmentId, dataFile);
+            segments.put(segmentId, segment);
+
+            if(!loadIndexFile(segment)) {
+                segment.scan((body, offset) -> {
+                    boolean tombstone = SegmentRecords.type(body) == SegmentRecords.TOMBSTONE;
+                    String documentId = SegmentRecords.decodeId(body);
+                    segment.records.incrementAndGet();
+                    if(tombstone) {
+                        putTombstone(documentId, segment.id());
+                    } else {
+                        putDocument(documentId, location(segment.id(), offset));
+                    }
+                }, true);
+            }
+        }
+
+        activeSegment = segments.isEmpty() ? createSegment(1) : segments.lastEntry().getValue();
+        log.info("Opened {} segments with {} documents from: {}", segments.size(), index.size(), directory.toAbsolutePath());
+    }
+
+    @Override
+    public void saveDocumentIntoFile(String documentId, Document document) {
+        saveDocuments(List.of(document));
+    }
+
+    @Override
+    public void saveDocuments(List<Document> documents) {
+        if(documents.isEmpty()) {
+            return;
+        }
+
+        List<ByteBuffer> records = new ArrayList<>(documents.size());
+        int totalBytes = 0;
+        try {
+            for(Document document : documents) {
+                ByteBuffer record = SegmentRecords.encode(document, objectMapper);
+                records.add(record);
+                totalBytes += record.remaining();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error while encoding documents for segment storage", e);
+        }
+
+        synchronized (this) {
+            long[] locations = append(records, totalBytes);
+            for(int index = 0; index < documents.size(); index++) {
+                putDocument(documents.get(index).getId(), locations[index]);
+            }
+        }
+        log.debug("Saved {} documents ({} bytes) into segment: {}", documents.size(), totalBytes, activeSegment.path());
+    }
+
+    // Appends a tombstone per id, the records they shadow stay on disk until their segment is compacted
+    @Override
+    public void deleteDocuments(List<String> documentIds) {
+        if(documentIds.isEmpty()) {
+            return;
+        }
+
+        List<ByteBuffer> records = new ArrayList<>(documentIds.size());
+        int totalBytes = 0;
+        for(String documentId : documentIds) {
+            ByteBuffer record = SegmentRecords.encodeTombstone(documentId);
+            records.add(record);
+            totalBytes += record.remaining();
+        }
+
+        synchronized (this) {
+            long[] locations = append(records, totalBytes);
+            for(int index = 0; index < documentIds.size(); index++) {
+                putTombstone(documentIds.get(index), segmentOf(locations[index]));
+            }
+        }
+        log.debug("Deleted {} documents from segment: {}", documentIds.size(), activeSegment.path());
+    }
+
+    // Writes the records as one batch, rolling first when they would overflow the active segment.
+    // Callers hold the monitor so the index is updated in the same order the records hit the disk.
+    private long[] append(List<ByteBuffer> records, int totalBytes) {
+        ByteBuffer batch = ByteBuffer.allocate(totalBytes);
+        long[] locations = new long[records.size()];
+        for(int index = 0; index < records.size(); index++) {
+            locations[index] = batch.position();
+            batch.put(records.get(index));
+        }
+        batch.flip();
+
+        try {
+            if(activeSegment.size() > 0 && activeSegment.size() + totalBytes > maxSegmentBytes) {
+                rollSegment();
+            }
+            long start = activeSegment.append(batch);
+            activeSegment.records.addAndGet(records.size());
+            if(fsync) {
+                activeSegment.force();
+            }
+            for(int index = 0; index < locations.length; index++) {
+                locations[index] = location(activeSegment.id(), start + locations[index]);
+            }
+            return locations;
+        } catch (IOException e) {
+            throw new RuntimeException("Error while appending records to segment: " + activeSegment.path(), e);
+        }
+    }
+
+    // Keep the index, the tombstones and the per-segment live counts in step. Callers hold the monitor or are still opening.
+    private void putDocument(String documentId, long location) {
+        Long previous = index.put(documentId, location);
+        if(previous != null) {
+            release(segmentOf(previous));
+        }
+        Integer tombstone = tombstones.remove(documentId);
+        if(tombstone != null) {
+            release(tombstone);
+        }
+        segments.get(segmentOf(location)).live.incrementAndGet();
+    }
+
+    private void putTombstone(String documentId, int segmentId) {
+        Long previous = index.remove(documentId);
+        if(previous != null) {
+            release(segmentOf(previous));
+        }
+        Integer tombstone = tombstones.put(documentId, segmentId);
+        if(tombstone != null) {
+            release(tombstone);
+        }
+        segments.get(segmentId).live.incrementAndGet();
+    }
+
+    private void release(int segmentId) {
+        Segment segment = segments.get(segmentId);
+        if(segment != null) {
+            segment.live.decrementAndGet();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        try {
+            activeSegment.force();
+        } catch (IOException e) {
+            throw new RuntimeException("Error while flushing segment: " + activeSegment.path(), e);
+        }
+    }
+
+    @Override
+    public Document loadDocumentFromFile(String documentId) {
+        swapLock.readLock().lock();
+        try {
+            Long location = index.get(documentId);
+            if(location == null) {
+                log.warn("Document {} not found in segment storage: {}", documentId, directory.toAbsolutePath());
+                return null;
+            }
+
+            Segment segment = segments.get(segmentOf(location));
+            try {
+                return SegmentRecords.decode(segment.read(offsetOf(location)), objectMapper);
+            } catch (IOException e) {
+                throw new RuntimeException("Error while loading document " + documentId + " from segment: " + segment.path(), e);
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    // Segments are read in parallel, each one sequentially, records superseded by a later write are skipped
+    @Override
+    public void forEachDocument(Consumer<Document> consumer) {
+        swapLock.readLock().lock();
+        try {
+            scanDocuments(consumer);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+    }
+
+    private void scanDocuments(Consumer<Document> consumer) {
+        segments.values().parallelStream().forEach(segment -> {
+            try {
+                segment.scan((body, offset) -> {
+                    String documentId = SegmentRecords.decodeId(body.duplicate());
+                    Long latest = index.get(documentId);
+                    if(latest == null || latest != location(segment.id(), offset)) {
+                        return;
+                    }
+                    try {
+                        consumer.accept(SegmentRecords.decode(body, objectMapper));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, false);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Error while reading segment: " + segment.path(), e);
+            }
+        });
+    }
+
+    public int size() {
+        return index.size();
+    }
+
+    // Rewrites every sealed segment where at least compactionThreshold of the records are superseded or deleted, keeping
+    // only the latest version of each document. Copying runs outside the monitor, throttled, so writes and reads carry on;
+    // records superseded meanwhile are copied too and stay shadowed by their newer version. Tombstones are kept since
+    // older segments may still hold what they delete, except in the oldest segment where there is nothing left to shadow.
+    @Override
+    public int compact() {
+        synchronized (compactionLock) {
+            int activeId;
+            synchronized (this) {
+                activeId = activeSegment.id();
+            }
+            int compacted = 0;
+            for(Segment segment : segments.headMap(activeId).values()) {
+                int records = segment.records.get();
+                if(records == 0 || records - segment.live.get() < compactionThreshold * records) {
+                    continue;
+                }
+                try {
+                    compact(segment);
+                    compacted++;
+                } catch (InterruptedIOException e) {
+                    Thread.currentThread().interrupt();
+                    log.info("Compaction of {} interrupted", directory.toAbsolutePath());
+                    break;
+                } catch (IOException e) {
+                    throw new RuntimeException("Error while compacting segment: " + segment.path(), e);
+                }
+            }
+            return compacted;
+        }
+    }
+
+    private void compact(Segment source) throws IOException {
+        long start = System.nanoTime();
+        boolean oldest = source.id() == segments.firstKey();
+        Path target = source.path().resolveSibling(source.path().getFileName() + COMPACT_SUFFIX);
+        Files.deleteIfExists(target);
+
+        SegmentCopy copy = new SegmentCopy(new Segment(source.id(), target));
+        try {
+            try {
+                source.scan((body, offset) -> {
+                    String documentId = SegmentRecords.decodeId(body.duplicate());
+                    boolean tombstone = SegmentRecords.type(body) == SegmentRecords.TOMBSTONE;
+                    boolean latest = tombstone ? !oldest && Integer.valueOf(source.id()).equals(tombstones.get(documentId))
+                            : Long.valueOf(location(source.id(), offset)).equals(index.get(documentId));
+                    copy.read(body.remaining() + SegmentRecords.FRAME_BYTES);
+                    if(latest) {
+                        copy.copy(documentId, tombstone, offset, body);
+                    }
+                }, false);
+                copy.flush();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            copy.target.force();
+        } finally {
+            copy.target.close();
+        }
+
+        int live = 0;
+        synchronized (this) {
+            swapLock.writeLock().lock();
+            try {
+                for(int entry = 0; entry < copy.documentIds.size(); entry++) {
+                    String documentId = copy.documentIds.get(entry);
+                    if(copy.tombstones.get(entry)) {
+                        if(Integer.valueOf(source.id()).equals(tombstones.get(documentId))) {
+                            live++;
+                        }
+                    } else if(Long.valueOf(location(source.id(), copy.from.get(entry))).equals(index.get(documentId))) {
+                        index.put(documentId, location(source.id(), copy.to.get(entry)));
+                        live++;
+                    }
+                }
+                if(oldest) {
+                    tombstones.values().removeIf(segmentId -> segmentId == source.id());
+                }
+
+                source.close();
+                if(live == 0) {
+                    segments.remove(source.id());
+                    Files.delete(source.path());
+                    Files.deleteIfExists(indexPath(source));
+                    Files.delete(target);
+                } else {
+                    Files.move(target, source.path(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    Segment compacted = new Segment(source.id(), source.path());
+                    compacted.records.set(copy.documentIds.size());
+                    compacted.live.set(live);
+                    segments.put(source.id(), compacted);
+                    writeIndexFile(compacted);
+                }
+            } finally {
+                swapLock.writeLock().unlock();
+            }
+        }
+        log.info("Compacted segment {} from {} to {} bytes, {} live records, in {} ms", source.path(), source.size(),
+                live == 0 ? 0 : copy.written, live, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    private void rollSegment() throws IOException {
+        if(!fsync) {
+            activeSegment.force();
+        }
+        writeIndexFile(activeSegment);
+        activeSegment = createSegment(activeSegment.id() + 1);
+    }
+
+    private Segment createSegment(int segmentId) throws IOException {
+        Segment segment = new Segment(segmentId, directory.resolve(String.format("segment-%08d%s", segmentId, DATA_SUFFIX)));
+        segments.put(segmentId, segment);
+        return segment;
+    }
+
+    // Index sidecar: [long segment size][int count] then (utf id, long offset) pairs, then [int count] of tombstoned utf ids,
+    // then [int records] in the segment. Only trusted when the size still matches.
+    private void writeIndexFile(Segment segment) throws IOException {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for(Map.Entry<String, Long> entry : index.entrySet()) {
+            if(segmentOf(entry.getValue()) == segment.id()) {
+                entries.add(entry);
+            }
+        }
+        List<String> deleted = new ArrayList<>();
+        for(Map.Entry<String, Integer> entry : tombstones.entrySet()) {
+            if(entry.getValue() == segment.id()) {
+                deleted.add(entry.getKey());
+            }
+        }
+
+        Path indexPath = indexPath(segment);
+        Path temporary = indexPath.resolveSibling(indexPath.getFileName() + ".tmp");
+        try (OutputStream outputStream = Files.newOutputStream(temporary);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream))) {
+            output.writeLong(segment.size());
+            output.writeInt(entries.size());
+            for(Map.Entry<String, Long> entry : entries) {
+                output.writeUTF(entry.getKey());
+                output.writeLong(offsetOf(entry.getValue()));
+            }
+            output.writeInt(deleted.size());
+            for(String documentId : deleted) {
+                output.writeUTF(documentId);
+            }
+            output.writeInt(segment.records.get());
+        }
+        Files.move(temporary, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean loadIndexFile(Segment segment) {
+        Path indexPath = indexPath(segment);
+        if(Files.notExists(indexPath)) {
+            return false;
+        }
+
+        try (InputStream inputStream = Files.newInputStream(indexPath);
+             DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream))) {
+            if(input.readLong() != segment.size()) {
+                log.warn("Index {} is stale, rescanning segment", indexPath);
+                return false;
+            }
+            int count = input.readInt();
+            for(int entry = 0; entry < count; entry++) {
+                String documentId = input.readUTF();
+                putDocument(documentId, location(segment.id(), input.readLong()));
+            }
+            int deleted = input.readInt();
+            for(int entry = 0; entry < deleted; entry++) {
+                putTombstone(input.readUTF(), segment.id());
+            }
+            // Sidecars written before records were counted end here, the records they list are a lower bound
+            int records;
+            try {
+                records = input.readInt();
+            } catch (EOFException e) {
+                records = count + deleted;
+            }
+            segment.records.set(records);
+            return true;
+        } catch (IOException e) {
+            log.warn("Index {} is unreadable, rescanning segment", indexPath, e);
+            return false;
+        }
+    }
+
+    private Path indexPath(Segment segment) {
+        String name = segment.path().getFileName().toString();
+        return segment.path().resolveSibling(name.substring(0, name.length() - DATA_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    private static long location(int segmentId, long offset) {
+        return ((long) segmentId << OFFSET_BITS) | offset;
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location >>> OFFSET_BITS);
+    }
+
+    private static long offsetOf(long location) {
+        return location & ((1L << OFFSET_BITS) - 1);
+    }
+
+    // Batches copied records into the new file, offsets are relative to it
+    private final class SegmentCopy {
+        private final Segment target;
+        private final List<String> documentIds = new ArrayList<>();
+        private final List<Boolean> tombstones = new ArrayList<>();
+        private final List<Long> from = new ArrayList<>();
+        private final List<Long> to = new ArrayList<>();
+        private ByteBuffer batch = ByteBuffer.allocate(COPY_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long written;
+
+        SegmentCopy(Segment target) {
+            this.target = target;
+        }
+
+        void read(int bytes) {
+            throttle(bytes);
+        }
+
+        void copy(String documentId, boolean tombstone, long offset, ByteBuffer body) {
+            int recordLength = body.remaining() + SegmentRecords.FRAME_BYTES;
+            if(batch.remaining() < recordLength) {
+                flush();
+                if(batch.capacity() < recordLength) {
+                    batch = ByteBuffer.allocate(recordLength).order(ByteOrder.LITTLE_ENDIAN);
+                }
+            }
+            documentIds.add(documentId);
+            tombstones.add(tombstone);
+            from.add(offset);
+            to.add(written + batch.position());
+            SegmentRecords.copy(body, batch);
+        }
+
+        void flush() {
+            if(batch.position() == 0) {
+                return;
+            }
+            throttle(batch.position());
+            try {
+                written += batch.position();
+                target.append(batch.flip());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            batch.clear();
+        }
+
+        private void throttle(int bytes) {
+            if(compactionThrottle == null) {
+                return;
+            }
+            try {
+                compactionThrottle.acquire(bytes);
+            } catch (InterruptedException e) {
+                throw new UncheckedIOException(new InterruptedIOException("Compaction interrupted"));
+            }
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            activeSegment.force();
+            writeIndexFile(activeSegment);
+            for(Segment segment : segments.values()) {
+                segment.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error while closing segment storage: " + directory, e);
+        }
+    }
+}
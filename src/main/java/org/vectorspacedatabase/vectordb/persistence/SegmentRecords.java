@@ -0,0 +1,122 @@
+package org.vectorspacedatabase.vectordb.persistence;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.vectorspacedatabase.vectordb.document.Document;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+// Binary layout of one segment record, all numbers little endian:
+// [int bodyLength][byte type][int idLength][id][int contentLength][content][int metadataLength][metadata json][int dimension][float * dimension][int crc32 of body]
+// A tombstone stops after the id.
+final class SegmentRecords {
+
+    static final byte DOCUMENT = 1;
+
+    static final byte TOMBSTONE = 2;
+
+    // Length prefix and trailing checksum around every body
+    static final int FRAME_BYTES = 2 * Integer.BYTES;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final TypeReference<Map<String, Object>> METADATA_TYPE = new TypeReference<>() {};
+
+    private SegmentRecords() {
+        throw new UnsupportedOperationException("This is the segment record codec, can't be instantiated");
+    }
+
+    static ByteBuffer encode(Document document, ObjectMapper objectMapper) throws IOException {
+        byte[] id = document.getId().getBytes(StandardCharsets.UTF_8);
+        byte[] content = document.getContent() == null ? EMPTY : document.getContent().getBytes(StandardCharsets.UTF_8);
+        byte[] metadata = document.getMetadata() == null || document.getMetadata().isEmpty()
+                ? EMPTY : objectMapper.writeValueAsBytes(document.getMetadata());
+        float[] embedding = document.getEmbedding() == null ? new float[0] : document.getEmbedding();
+
+        int bodyLength = 1 + Integer.BYTES + id.length + Integer.BYTES + content.length + Integer.BYTES + metadata.length
+                + Integer.BYTES + embedding.length * Float.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(bodyLength + FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(bodyLength);
+        buffer.put(DOCUMENT);
+        buffer.putInt(id.length).put(id);
+        buffer.putInt(content.length).put(content);
+        buffer.putInt(metadata.length).put(metadata);
+        buffer.putInt(embedding.length);
+        buffer.asFloatBuffer().put(embedding);
+        buffer.position(buffer.position() + embedding.length * Float.BYTES);
+        buffer.putInt(checksum(buffer.array(), Integer.BYTES, bodyLength));
+
+        return buffer.flip();
+    }
+
+    static ByteBuffer encodeTombstone(String documentId) {
+        byte[] id = documentId.getBytes(StandardCharsets.UTF_8);
+        int bodyLength = 1 + Integer.BYTES + id.length;
+        ByteBuffer buffer = ByteBuffer.allocate(bodyLength + FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(bodyLength);
+        buffer.put(TOMBSTONE);
+        buffer.putInt(id.length).put(id);
+        buffer.putInt(checksum(buffer.array(), Integer.BYTES, bodyLength));
+
+        return buffer.flip();
+    }
+
+    // Frames a body read back from a segment into target, compaction copies records this way without decoding them
+    static void copy(ByteBuffer body, ByteBuffer target) {
+        int start = target.position();
+        int bodyLength = body.remaining();
+        target.putInt(bodyLength);
+        target.put(body.duplicate());
+        target.putInt(checksum(target.array(), target.arrayOffset() + start + Integer.BYTES, bodyLength));
+    }
+
+    static byte type(ByteBuffer body) {
+        return body.get(body.position());
+    }
+
+    static Document decode(ByteBuffer body, ObjectMapper objectMapper) throws IOException {
+        body.order(ByteOrder.LITTLE_ENDIAN);
+        byte type = body.get();
+        if(type != DOCUMENT) {
+            throw new IOException("Unknown segment record type: " + type);
+        }
+        String id = readString(body);
+        String content = readString(body);
+
+        byte[] metadataBytes = new byte[body.getInt()];
+        body.get(metadataBytes);
+        Map<String, Object> metadata = metadataBytes.length == 0 ? new HashMap<>() : objectMapper.readValue(metadataBytes, METADATA_TYPE);
+
+        float[] embedding = new float[body.getInt()];
+        body.asFloatBuffer().get(embedding);
+
+        return new Document(id, content, metadata, embedding);
+    }
+
+    // Reads only the id of a document or tombstone, used while rebuilding the offset index
+    static String decodeId(ByteBuffer body) {
+        body.order(ByteOrder.LITTLE_ENDIAN);
+        body.get();
+        return readString(body);
+    }
+
+    static int checksum(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static String readString(ByteBuffer body) {
+        byte[] bytes = new byte[body.getInt()];
+        body.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,376 @@
+package org.vectorspacedatabase.vectordb.persistence;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.document.Document;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Add and delete batches are appended to wal-NNNNNNNN.log before they reach storage or memory, so a crash never loses
+// or half applies a batch. Records use the segment framing (length, body, crc32), the body is
+// [byte type][long sequence][int count] followed by framed document records for adds or (int length, utf8 id) for deletes.
+// A checkpoint starts a new log file once storage is flushed and deletes the older ones, replay walks what is left in order.
+public class WriteAheadLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private static final byte ADD_BATCH = 1;
+
+    private static final byte DELETE_BATCH = 2;
+
+    private static final int HEADER_BYTES = 1 + Long.BYTES + Integer.BYTES;
+
+    private static final String LOG_PREFIX = "wal-";
+
+    private static final String LOG_SUFFIX = ".log";
+
+    private final Path directory;
+
+    private final FsyncPolicy fsyncPolicy;
+
+    private final long checkpointBytes;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final TreeMap<Integer, Segment> logs = new TreeMap<>();
+
+    private final ScheduledExecutorService flusher;
+
+    private Segment activeLog;
+
+    private long sequence;
+
+    private boolean dirty;
+
+    // Read by metrics without taking the log's lock
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final AtomicLong fsyncs = new AtomicLong();
+
+    public interface Replayer {
+        void add(List<Document> documents);
+
+        void delete(List<String> documentIds);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Path directory = Paths.get("wal");
+        private FsyncPolicy fsyncPolicy = FsyncPolicy.PER_BATCH;
+        private long fsyncIntervalMillis = 1000;
+        private long checkpointBytes = 64L * 1024 * 1024;
+
+        public Builder withDirectory(Path directory) {
+            this.directory = directory;
+            return this;
+        }
+
+        public Builder withFsyncPolicy(FsyncPolicy fsyncPolicy) {
+            this.fsyncPolicy = fsyncPolicy;
+            return this;
+        }
+
+        // Only used with FsyncPolicy.INTERVAL
+        public Builder withFsyncIntervalMillis(long fsyncIntervalMillis) {
+            if(fsyncIntervalMillis <= 0) {
+                throw new IllegalArgumentException("Fsync interval must be greater than zero");
+            }
+            this.fsyncIntervalMillis = fsyncIntervalMillis;
+            return this;
+        }
+
+        // Log size after which the owner should checkpoint
+        public Builder withCheckpointBytes(long checkpointBytes) {
+            if(checkpointBytes <= 0) {
+                throw new IllegalArgumentException("Checkpoint size must be greater than zero");
+            }
+            this.checkpointBytes = checkpointBytes;
+            return this;
+        }
+
+        public WriteAheadLog build() {
+            return new WriteAheadLog(this);
+        }
+    }
+
+    public WriteAheadLog(Builder builder) {
+        this.directory = builder.directory;
+        this.fsyncPolicy = builder.fsyncPolicy;
+        this.checkpointBytes = builder.checkpointBytes;
+
+        try {
+            Files.createDirectories(directory);
+            openLogs();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open write-ahead log at: " + directory, e);
+        }
+
+        if(fsyncPolicy == FsyncPolicy.INTERVAL) {
+            this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "wal-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleWithFixedDelay(this::flushQuietly, builder.fsyncIntervalMillis, builder.fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.flusher = null;
+        }
+    }
+
+    private void openLogs() throws IOException {
+        List<Path> logFiles;
+        try (Stream<Path> files = Files.list(directory)) {
+            logFiles = files.filter(path -> {
+                String name = path.getFileName().toString();
+                return name.startsWith(LOG_PREFIX) && name.endsWith(LOG_SUFFIX);
+            }).sorted().toList();
+        }
+
+        for(Path logFile : logFiles) {
+            String name = logFile.getFileName().toString();
+            int logId = Integer.parseInt(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+            logs.put(logId, new Segment(logId, logFile));
+        }
+
+        if(logs.isEmpty()) {
+            activeLog = createLog(1);
+        } else {
+            // Sequences only grow, so the newest file holds the latest one. Scanning also drops a torn tail.
+            activeLog = logs.lastEntry().getValue();
+            activeLog.scan((body, offset) -> sequence = body.order(ByteOrder.LITTLE_ENDIAN).getLong(body.position() + 1), true);
+        }
+        log.info("Opened write-ahead log with {} files at: {}", logs.size(), directory.toAbsolutePath());
+    }
+
+    public synchronized long appendAdd(List<Document> documents) {
+        List<ByteBuffer> records = new ArrayList<>(documents.size());
+        int totalBytes = HEADER_BYTES;
+        try {
+            for(Document document : documents) {
+                ByteBuffer record = SegmentRecords.encode(document, objectMapper);
+                records.add(record);
+                totalBytes += record.remaining();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error while encoding documents for the write-ahead log", e);
+        }
+
+        ByteBuffer body = header(ADD_BATCH, records.size(), totalBytes);
+        for(ByteBuffer record : records) {
+            body.put(record);
+        }
+        return append(body);
+    }
+
+    public synchronized long appendDelete(List<String> documentIds) {
+        List<byte[]> ids = new ArrayList<>(documentIds.size());
+        int totalBytes = HEADER_BYTES;
+        for(String documentId : documentIds) {
+            byte[] id = documentId.getBytes(StandardCharsets.UTF_8);
+            ids.add(id);
+            totalBytes += Integer.BYTES + id.length;
+        }
+
+        ByteBuffer body = header(DELETE_BATCH, ids.size(), totalBytes);
+        for(byte[] id : ids) {
+            body.putInt(id.length).put(id);
+        }
+        return append(body);
+    }
+
+    private ByteBuffer header(byte type, int count, int bodyLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(bodyLength + SegmentRecords.FRAME_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(bodyLength);
+        buffer.put(type);
+        buffer.putLong(sequence + 1);
+        buffer.putInt(count);
+        return buffer;
+    }
+
+    private long append(ByteBuffer buffer) {
+        int bodyLength = buffer.position() - Integer.BYTES;
+        buffer.putInt(SegmentRecords.checksum(buffer.array(), Integer.BYTES, bodyLength));
+        buffer.flip();
+
+        try {
+            bytesWritten.addAndGet(buffer.remaining());
+            activeLog.append(buffer);
+            if(fsyncPolicy == FsyncPolicy.PER_BATCH) {
+                force();
+            } else {
+                dirty = true;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error while appending to write-ahead log: " + activeLog.path(), e);
+        }
+        return ++sequence;
+    }
+
+    // Applies every logged batch in order, returns the number of batches replayed
+    public synchronized int replay(Replayer replayer) {
+        int[] batches = new int[1];
+        for(Segment logSegment : logs.values()) {
+            try {
+                logSegment.scan((body, offset) -> {
+                    try {
+                        replayBatch(body, replayer);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    batches[0]++;
+                }, false);
+            } catch (IOException | UncheckedIOException e) {
+                throw new RuntimeException("Error while replaying write-ahead log: " + logSegment.path(), e);
+            }
+        }
+        log.info("Replayed {} batches from the write-ahead log, last sequence {}", batches[0], sequence);
+        return batches[0];
+    }
+
+    private void replayBatch(ByteBuffer body, Replayer replayer) throws IOException {
+        body.order(ByteOrder.LITTLE_ENDIAN);
+        byte type = body.get();
+        body.getLong();
+        int count = body.getInt();
+
+        if(type == ADD_BATCH) {
+            List<Document> documents = new ArrayList<>(count);
+            for(int index = 0; index < count; index++) {
+                int recordLength = body.getInt();
+                ByteBuffer record = body.slice(body.position(), recordLength);
+                documents.add(SegmentRecords.decode(record, objectMapper));
+                body.position(body.position() + recordLength + Integer.BYTES);
+            }
+            replayer.add(documents);
+        } else if(type == DELETE_BATCH) {
+            List<String> documentIds = new ArrayList<>(count);
+            for(int index = 0; index < count; index++) {
+                byte[] id = new byte[body.getInt()];
+                body.get(id);
+                documentIds.add(new String(id, StandardCharsets.UTF_8));
+            }
+            replayer.delete(documentIds);
+        } else {
+            throw new IOException("Unknown write-ahead log record type: " + type);
+        }
+    }
+
+    public synchronized boolean needsCheckpoint() {
+        return activeLog.size() >= checkpointBytes;
+    }
+
+    // The caller must have flushed storage and must keep writers out until this returns, everything logged so far is dropped
+    public synchronized void checkpoint() {
+        if(activeLog.size() == 0 && logs.size() == 1) {
+            return;
+        }
+
+        try {
+            Segment previous = activeLog;
+            activeLog = createLog(previous.id() + 1);
+            dirty = false;
+            for(Map.Entry<Integer, Segment> entry : new ArrayList<>(logs.headMap(activeLog.id()).entrySet())) {
+                entry.getValue().close();
+                Files.deleteIfExists(entry.getValue().path());
+                logs.remove(entry.getKey());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error while truncating write-ahead log at: " + directory, e);
+        }
+        log.info("Write-ahead log checkpointed at sequence {}", sequence);
+    }
+
+    public synchronized long size() {
+        long size = 0;
+        for(Segment logSegment : logs.values()) {
+            size += logSegment.size();
+        }
+        return size;
+    }
+
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    public long getFsyncCount() {
+        return fsyncs.get();
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    private Segment createLog(int logId) throws IOException {
+        Segment logSegment = new Segment(logId, directory.resolve(String.format("%s%08d%s", LOG_PREFIX, logId, LOG_SUFFIX)));
+        logs.put(logId, logSegment);
+        return logSegment;
+    }
+
+    private void force() throws IOException {
+        activeLog.force();
+        fsyncs.incrementAndGet();
+    }
+
+    private synchronized void flushQuietly() {
+        if(!dirty) {
+            return;
+        }
+        try {
+            force();
+            dirty = false;
+        } catch (IOException e) {
+            log.error("Error while flushing write-ahead log: {}", activeLog.path(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if(flusher != null) {
+            flusher.shutdownNow();
+        }
+        synchronized (this) {
+            try {
+                force();
+                for(Segment logSegment : logs.values()) {
+                    logSegment.close();
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Error while closing write-ahead log: " + directory, e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WriteAheadLog{" +
+                "directory=" + directory +
+                ", fsyncPolicy=" + fsyncPolicy +
+                ", checkpointBytes=" + checkpointBytes +
+                ", sequence=" + sequence +
+                '}';
+    }
+}
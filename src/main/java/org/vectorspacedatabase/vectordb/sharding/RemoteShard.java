@@ -0,0 +1,330 @@
+package org.vectorspacedatabase.vectordb.sharding;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.metadata.Filter;
+import org.vectorspacedatabase.vectordb.metadata.JsonFilters;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchResult;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+
+// A shard running as its own process with the REST API and vectordb.shards.count=1, reached over HTTP. Documents go
+// out with their embeddings so the shard never embeds, query vectors as binary bodies. Filters must come from
+// JsonFilters, they are forwarded as JSON.
+public class RemoteShard implements Shard {
+
+    private static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    private final URI baseUri;
+
+    private final HttpClient httpClient;
+
+    private final ObjectMapper objectMapper;
+
+    private final Duration timeout;
+
+    private final int maxK;
+
+    // Null when the shard does not ask for credentials
+    private final String authorization;
+
+    private RemoteShard(Builder builder) {
+        this.baseUri = builder.baseUri;
+        this.objectMapper = builder.objectMapper;
+        this.timeout = builder.timeout;
+        this.maxK = builder.maxK;
+        this.authorization = builder.username == null ? null : "Basic " + Base64.getEncoder()
+                .encodeToString((builder.username + ":" + builder.password).getBytes(StandardCharsets.UTF_8));
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(builder.timeout)
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private URI baseUri;
+        private ObjectMapper objectMapper = new ObjectMapper();
+        private Duration timeout = Duration.ofSeconds(30);
+        private int maxK = 1000;
+        private String username;
+        private String password;
+
+        // e.g. http://shard-0:8080/
+        public Builder withBaseUri(URI baseUri) {
+            this.baseUri = baseUri;
+            return this;
+        }
+
+        public Builder withObjectMapper(ObjectMapper objectMapper) {
+            this.objectMapper = objectMapper;
+            return this;
+        }
+
+        public Builder withTimeout(Duration timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        // The shard process's vectordb.api.max-k
+        public Builder withMaxK(int maxK) {
+            if(maxK <= 0) {
+                throw new IllegalArgumentException("maxK must be greater than zero");
+            }
+            this.maxK = maxK;
+            return this;
+        }
+
+        public Builder withCredentials(String username, String password) {
+            this.username = username;
+            this.password = password;
+            return this;
+        }
+
+        public RemoteShard build() {
+            if(baseUri == null) {
+                throw new IllegalArgumentException("baseUri is required");
+            }
+            if(timeout == null || timeout.isNegative() || timeout.isZero()) {
+                throw new IllegalArgumentException("timeout must be positive");
+            }
+            if(!baseUri.getPath().endsWith("/")) {
+                baseUri = URI.create(baseUri + "/");
+            }
+            return new RemoteShard(this);
+        }
+    }
+
+    @Override
+    public void addEmbedded(List<Document> documents) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(body)) {
+            for(Document document : documents) {
+                generator.writeStartObject();
+                generator.writeStringField("id", document.getId());
+                generator.writeStringField("content", document.getContent());
+                generator.writeObjectField("metadata", document.getMetadata());
+                float[] embedding = document.getEmbedding();
+                if(embedding.length > 0) {
+                    generator.writeArrayFieldStart("embedding");
+                    for(float value : embedding) {
+                        generator.writeNumber(value);
+                    }
+                    generator.writeEndArray();
+                }
+                generator.writeEndObject();
+                generator.writeRaw('\n');
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error while encoding documents for shard " + baseUri, e);
+        }
+        checkDone(send(request("api/documents")
+                .header("Content-Type", APPLICATION_NDJSON)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))));
+    }
+
+    @Override
+    public Optional<Boolean> delete(List<String> documentIds) {
+        try {
+            checkDone(send(request("api/documents/delete")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(documentIds)))));
+        } catch (IOException e) {
+            throw new RuntimeException("Error while encoding document ids for shard " + baseUri, e);
+        }
+        return Optional.of(Boolean.TRUE);
+    }
+
+    @Override
+    public Document getDocument(String documentId) {
+        HttpResponse<byte[]> response = send(request("api/documents/" + encode(documentId)).GET(), 404);
+        if(response.statusCode() == 404) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(response.body(), Document.class);
+        } catch (IOException e) {
+            throw new RuntimeException("Unreadable document from shard " + baseUri, e);
+        }
+    }
+
+    @Override
+    public List<SearchResult> search(float[] queryVector, int k, Filter filter) {
+        ByteBuffer body = ByteBuffer.allocate(queryVector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        body.asFloatBuffer().put(queryVector);
+        String path = "api/search?k=" + k + (filter == null ? "" : "&filter=" + encode(JsonFilters.toJson(filter).toString()));
+        return readResults(send(request(path)
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.array()))));
+    }
+
+    // One request for the whole batch, the shard answers it with batch searches and one NDJSON line per query
+    @Override
+    public List<List<SearchResult>> searchBatch(float[][] queryVectors, int k, Filter filter) {
+        if(queryVectors.length == 0) {
+            return List.of();
+        }
+        int dimension = queryVectors[0].length;
+        ByteBuffer body = ByteBuffer.allocate(queryVectors.length * dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        FloatBuffer floats = body.asFloatBuffer();
+        for(float[] queryVector : queryVectors) {
+            if(queryVector.length != dimension) {
+                throw new IllegalArgumentException("Vectors size must be same");
+            }
+            floats.put(queryVector);
+        }
+        String path = "api/search/batch?dimension=" + dimension + "&k=" + k
+                + (filter == null ? "" : "&filter=" + encode(JsonFilters.toJson(filter).toString()));
+        HttpResponse<byte[]> response = send(request(path)
+                .header("Content-Type", "application/octet-stream")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.array())));
+
+        List<List<SearchResult>> results = new ArrayList<>(queryVectors.length);
+        for(String line : new String(response.body(), StandardCharsets.UTF_8).split("\n")) {
+            if(line.isBlank()) {
+                continue;
+            }
+            JsonNode answer;
+            try {
+                answer = objectMapper.readTree(line);
+            } catch (IOException e) {
+                throw new RuntimeException("Unreadable batch search line from shard " + baseUri + ": " + line, e);
+            }
+            if(answer.has("error")) {
+                throw new RuntimeException("Shard " + baseUri + " failed query " + answer.path("query").asInt() + " of a batch: "
+                        + answer.path("error").asText());
+            }
+            results.add(toResults(answer.path("results")));
+        }
+        if(results.size() != queryVectors.length) {
+            throw new RuntimeException("Shard " + baseUri + " answered " + results.size() + " of " + queryVectors.length
+                    + " batch queries");
+        }
+        return results;
+    }
+
+    @Override
+    public List<SearchResult> lexicalSearch(String query, int k, Filter filter) {
+        ObjectNode body = objectMapper.createObjectNode()
+                .put("text", query)
+                .put("k", k)
+                .put("mode", "lexical");
+        if(filter != null) {
+            body.set("filter", JsonFilters.toJson(filter));
+        }
+        return readResults(send(request("api/search")
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))));
+    }
+
+    @Override
+    public int maxK() {
+        return maxK;
+    }
+
+    @Override
+    public int size() {
+        return readTree(send(request("api/documents").GET())).path("count").asInt();
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release, the client's connections are dropped with it
+    }
+
+    private HttpRequest.Builder request(String path) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve(path)).timeout(timeout);
+        if(authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return builder;
+    }
+
+    private HttpResponse<byte[]> send(HttpRequest.Builder request) {
+        return send(request, 200);
+    }
+
+    // Anything other than 200 or the accepted status is a failure of the shard
+    private HttpResponse<byte[]> send(HttpRequest.Builder builder, int acceptedStatus) {
+        HttpRequest request = builder.build();
+        HttpResponse<byte[]> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException("Error while calling shard " + request.uri(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while calling shard " + request.uri(), e);
+        }
+        if(response.statusCode() != 200 && response.statusCode() != acceptedStatus) {
+            throw new RuntimeException("Shard " + request.uri() + " answered " + response.statusCode() + ": "
+                    + new String(response.body(), StandardCharsets.UTF_8));
+        }
+        return response;
+    }
+
+    // Bulk writes answer 200 before they are applied, the last NDJSON line says whether they all were
+    private void checkDone(HttpResponse<byte[]> response) {
+        String body = new String(response.body(), StandardCharsets.UTF_8).strip();
+        String last = body.substring(body.lastIndexOf('\n') + 1);
+        JsonNode summary;
+        try {
+            summary = objectMapper.readTree(last);
+        } catch (IOException e) {
+            throw new RuntimeException("Unreadable write summary from shard " + baseUri + ": " + last, e);
+        }
+        if(!summary.path("done").asBoolean()) {
+            throw new RuntimeException("Shard " + baseUri + " failed a write: " + summary.path("error").asText(last));
+        }
+    }
+
+    private List<SearchResult> readResults(HttpResponse<byte[]> response) {
+        return toResults(readTree(response).path("results"));
+    }
+
+    private static List<SearchResult> toResults(JsonNode results) {
+        List<SearchResult> searchResults = new ArrayList<>(results.size());
+        for(JsonNode result : results) {
+            searchResults.add(new SearchResult(result.path("id").asText(), (float) result.path("score").asDouble()));
+        }
+        return searchResults;
+    }
+
+    private JsonNode readTree(HttpResponse<byte[]> response) {
+        try {
+            return objectMapper.readTree(response.body());
+        } catch (IOException e) {
+            throw new RuntimeException("Unreadable response from shard " + baseUri, e);
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    @Override
+    public String toString() {
+        return "RemoteShard{" + baseUri + '}';
+    }
+}
@@ -0,0 +1,43 @@
+package org.vectorspacedatabase.vectordb.sharding;
+
+import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.metadata.Filter;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+// One slice of a sharded collection, an in-process VectorDatabase or a RemoteShard. Shards never embed, the
+// coordinator embeds once and hands them documents and query vectors.
+public interface Shard extends AutoCloseable {
+
+    void addEmbedded(List<Document> documents);
+
+    Optional<Boolean> delete(List<String> documentIds);
+
+    Document getDocument(String documentId);
+
+    List<SearchResult> search(float[] queryVector, int k, Filter filter);
+
+    // One result list per query, in order
+    default List<List<SearchResult>> searchBatch(float[][] queryVectors, int k, Filter filter) {
+        List<List<SearchResult>> results = new ArrayList<>(queryVectors.length);
+        for(float[] queryVector : queryVectors) {
+            results.add(search(queryVector, k, filter));
+        }
+        return results;
+    }
+
+    List<SearchResult> lexicalSearch(String query, int k, Filter filter);
+
+    // Largest k one search may ask for, remote shards reject anything above their vectordb.api.max-k
+    default int maxK() {
+        return Integer.MAX_VALUE;
+    }
+
+    int size();
+
+    @Override
+    void close();
+}
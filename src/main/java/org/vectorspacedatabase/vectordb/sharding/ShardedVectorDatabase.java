@@ -0,0 +1,288 @@
+package org.vectorspacedatabase.vectordb.sharding;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.embeddings.EmbeddingStrategy;
+import org.vectorspacedatabase.vectordb.metadata.Filter;
+import org.vectorspacedatabase.vectordb.metrics.VectorDbMetrics;
+import org.vectorspacedatabase.vectordb.similaritysearch.ReciprocalRankFusion;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchResult;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchSimilarity;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Coordinator over N shards, each with its own index, storage and log. Documents are routed by a hash of their id, so
+// every write and lookup touches one shard while searches fan out to all of them in parallel and the per-shard top k
+// lists are merged by score. Writes spanning several shards are applied per shard and are not atomic across them.
+public class ShardedVectorDatabase implements Shard {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardedVectorDatabase.class);
+
+    private final EmbeddingStrategy embeddingStrategy;
+
+    private final List<Shard> shards;
+
+    // Null with a single shard, there is nothing to fan out
+    private final ExecutorService executor;
+
+    public ShardedVectorDatabase(EmbeddingStrategy embeddingStrategy, List<? extends Shard> shards) {
+        if(shards == null || shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.embeddingStrategy = embeddingStrategy;
+        this.shards = List.copyOf(shards);
+        this.executor = this.shards.size() == 1 ? null : newExecutor(this.shards.size());
+        log.info("Coordinating {} shards", this.shards.size());
+    }
+
+    // Searches block in the shards, remote ones on the network, so every core gets a worker and every shard at least one
+    private static ExecutorService newExecutor(int shardCount) {
+        int threads = Math.max(shardCount, Runtime.getRuntime().availableProcessors());
+        AtomicInteger counter = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "shard-worker-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Stable for a given shard count, changing the count means reloading the documents into the new layout
+    public int shardOf(String documentId) {
+        int hash = documentId.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), this.shards.size());
+    }
+
+    public List<Shard> getShards() {
+        return this.shards;
+    }
+
+    public EmbeddingStrategy getEmbeddingStrategy() {
+        return this.embeddingStrategy;
+    }
+
+    // Embeds once here, the shards only store and index
+    public void add(List<Document> documents) {
+        embed(documents);
+        addEmbedded(documents);
+    }
+
+    // Sets the embedding of every document, without writing anything
+    public void embed(List<Document> documents) {
+        long start = System.nanoTime();
+        List<float[]> embeddings = this.embeddingStrategy.embedAll(documents);
+        VectorDbMetrics.EMBED.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        for(int index = 0; index < documents.size(); index++) {
+            documents.get(index).setEmbedding(embeddings.get(index));
+        }
+    }
+
+    @Override
+    public void addEmbedded(List<Document> documents) {
+        List<List<Document>> routed = route(documents, Document::getId);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for(int shard = 0; shard < routed.size(); shard++) {
+            List<Document> batch = routed.get(shard);
+            if(!batch.isEmpty()) {
+                Shard target = this.shards.get(shard);
+                tasks.add(() -> {
+                    target.addEmbedded(batch);
+                    return null;
+                });
+            }
+        }
+        invokeAll(tasks);
+    }
+
+    @Override
+    public Optional<Boolean> delete(List<String> documentIds) {
+        List<List<String>> routed = route(documentIds, id -> id);
+        List<Callable<Optional<Boolean>>> tasks = new ArrayList<>();
+        for(int shard = 0; shard < routed.size(); shard++) {
+            List<String> batch = routed.get(shard);
+            if(!batch.isEmpty()) {
+                Shard target = this.shards.get(shard);
+                tasks.add(() -> target.delete(batch));
+            }
+        }
+        for(Optional<Boolean> deleted : invokeAll(tasks)) {
+            if(deleted.isEmpty() || !deleted.get()) {
+                return Optional.of(Boolean.FALSE);
+            }
+        }
+        return Optional.of(Boolean.TRUE);
+    }
+
+    @Override
+    public Document getDocument(String documentId) {
+        return this.shards.get(shardOf(documentId)).getDocument(documentId);
+    }
+
+    public List<SearchResult> search(String query, int k) {
+        return search(embedQuery(query), k, null);
+    }
+
+    public List<SearchResult> search(float[] queryVector, int k) {
+        return search(queryVector, k, null);
+    }
+
+    public List<SearchResult> search(String query, int k, Filter filter) {
+        return search(embedQuery(query), k, filter);
+    }
+
+    // Each shard returns its own top k, the global top k is among them
+    @Override
+    public List<SearchResult> search(float[] queryVector, int k, Filter filter) {
+        return merge(scatter(shard -> shard.search(queryVector, k, filter)), k);
+    }
+
+    // Every shard answers the whole batch, then each query's per-shard lists are merged
+    @Override
+    public List<List<SearchResult>> searchBatch(float[][] queryVectors, int k, Filter filter) {
+        List<List<List<SearchResult>>> perShard = scatter(shard -> shard.searchBatch(queryVectors, k, filter));
+        List<List<SearchResult>> results = new ArrayList<>(queryVectors.length);
+        for(int query = 0; query < queryVectors.length; query++) {
+            List<List<SearchResult>> rankings = new ArrayList<>(perShard.size());
+            for(List<List<SearchResult>> shardResults : perShard) {
+                rankings.add(shardResults.get(query));
+            }
+            results.add(merge(rankings, k));
+        }
+        return results;
+    }
+
+    // BM25 statistics are per shard, so scores are only comparable across shards of similar content
+    @Override
+    public List<SearchResult> lexicalSearch(String query, int k, Filter filter) {
+        return merge(scatter(shard -> shard.lexicalSearch(query, k, filter)), k);
+    }
+
+    public List<SearchResult> hybridSearch(String query, int k) {
+        return hybridSearch(query, k, null);
+    }
+
+    // Fuses the merged rankings rather than per-shard fusions, which would not be comparable. A shard is asked for no
+    // more than its max k, a large k then fuses shallower rankings instead of failing.
+    public List<SearchResult> hybridSearch(String query, int k, Filter filter) {
+        float[] queryVector = embedQuery(query);
+        int depth = k * SearchSimilarity.HYBRID_DEPTH;
+        List<List<SearchResult>> vectorRankings = new ArrayList<>();
+        List<List<SearchResult>> lexicalRankings = new ArrayList<>();
+        for(List<List<SearchResult>> rankings : scatter(shard -> {
+            int shardDepth = Math.max(k, Math.min(depth, shard.maxK()));
+            return List.of(shard.search(queryVector, shardDepth, filter), shard.lexicalSearch(query, shardDepth, filter));
+        })) {
+            vectorRankings.add(rankings.get(0));
+            lexicalRankings.add(rankings.get(1));
+        }
+        return ReciprocalRankFusion.fuse(k, ReciprocalRankFusion.DEFAULT_RANK_CONSTANT,
+                merge(vectorRankings, depth), merge(lexicalRankings, depth));
+    }
+
+    private float[] embedQuery(String query) {
+        Document queryDocument = Document.builder().withContent(query).build();
+        long start = System.nanoTime();
+        float[] embedding = this.embeddingStrategy.embed(queryDocument);
+        VectorDbMetrics.EMBED_QUERY.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return embedding;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for(int shardSize : scatter(Shard::size)) {
+            size += shardSize;
+        }
+        return size;
+    }
+
+    @Override
+    public void close() {
+        if(this.executor != null) {
+            this.executor.shutdown();
+        }
+        for(Shard shard : this.shards) {
+            try {
+                shard.close();
+            } catch (RuntimeException e) {
+                log.error("Failed to close shard {}", shard, e);
+            }
+        }
+    }
+
+    private <T> List<List<T>> route(List<T> items, Function<T, String> id) {
+        List<List<T>> routed = new ArrayList<>(this.shards.size());
+        for(int shard = 0; shard < this.shards.size(); shard++) {
+            routed.add(new ArrayList<>());
+        }
+        for(T item : items) {
+            routed.get(shardOf(id.apply(item))).add(item);
+        }
+        return routed;
+    }
+
+    private <T> List<T> scatter(Function<Shard, T> call) {
+        List<Callable<T>> tasks = new ArrayList<>(this.shards.size());
+        for(Shard shard : this.shards) {
+            tasks.add(() -> call.apply(shard));
+        }
+        return invokeAll(tasks);
+    }
+
+    // The calling thread runs the first task itself, so a single shard or a single routed batch never changes threads
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<>(tasks.size());
+        for(int index = 1; index < tasks.size(); index++) {
+            futures.add(this.executor.submit(tasks.get(index)));
+        }
+
+        List<T> results = new ArrayList<>(tasks.size());
+        RuntimeException failure = null;
+        if(!tasks.isEmpty()) {
+            try {
+                results.add(tasks.get(0).call());
+            } catch (Exception e) {
+                failure = e instanceof RuntimeException runtime ? runtime : new RuntimeException(e);
+            }
+        }
+        // Wait for every shard even after a failure, a write must not still be running when the caller sees the error
+        for(Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if(failure == null) {
+                    failure = e.getCause() instanceof RuntimeException runtime ? runtime
+                            : new RuntimeException("Shard call failed", e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for shards", e);
+            }
+        }
+        if(failure != null) {
+            throw failure;
+        }
+        return results;
+    }
+
+    private static List<SearchResult> merge(List<List<SearchResult>> perShard, int k) {
+        List<SearchResult> merged = new ArrayList<>();
+        for(List<SearchResult> results : perShard) {
+            merged.addAll(results);
+        }
+        merged.sort(Comparator.comparingDouble(SearchResult::getScore).reversed());
+        return merged.size() > k ? new ArrayList<>(merged.subList(0, k)) : merged;
+    }
+}
@@ -0,0 +1,62 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Holds back what a writer frees, ordinals or arena rows, until no reader that could still reach it is left. Readers
+// enter the current epoch and leave it when done. The writer retires what it has just unlinked into the current epoch,
+// and reclaim hands back everything retired into epochs that have emptied, oldest first, so an item comes back as soon
+// as the last search that started before its removal returns. retire and reclaim are called by the writer under its
+// own lock, enter and leave from any thread.
+public class EpochReclaimer<T> {
+
+    private volatile Epoch<T> current = new Epoch<>();
+
+    // Epochs moved past that still hold retired items, oldest first
+    private final ArrayDeque<Epoch<T>> retiring = new ArrayDeque<>();
+
+    // The count is taken on the epoch that is still current afterwards, an epoch reclaim has already moved past may
+    // be seen empty at any moment and must not pick up readers
+    public Epoch<T> enter() {
+        while(true) {
+            Epoch<T> epoch = current;
+            epoch.readers.incrementAndGet();
+            if(epoch == current) {
+                return epoch;
+            }
+            epoch.readers.decrementAndGet();
+        }
+    }
+
+    public void leave(Epoch<T> epoch) {
+        epoch.readers.decrementAndGet();
+    }
+
+    // Only once no reader entering from now on can reach the item
+    public void retire(T item) {
+        current.retired.add(item);
+    }
+
+    public void reclaim(Consumer<T> released) {
+        Epoch<T> epoch = current;
+        if(!epoch.retired.isEmpty()) {
+            current = new Epoch<>();
+            retiring.add(epoch);
+        }
+        // A reader still in an older epoch may reach anything retired after it entered
+        while(!retiring.isEmpty() && retiring.peek().readers.get() == 0) {
+            for(T item : retiring.poll().retired) {
+                released.accept(item);
+            }
+        }
+    }
+
+    public static final class Epoch<T> {
+        private final AtomicInteger readers = new AtomicInteger();
+        // Only touched by the writer
+        private final List<T> retired = new ArrayList<>();
+    }
+}
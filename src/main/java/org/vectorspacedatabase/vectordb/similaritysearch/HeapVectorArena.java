@@ -0,0 +1,157 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.DistanceMetrics;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Row-major vector matrix split into fixed size float[] blocks on the heap, row number is the ordinal so scans walk plain memory.
+// The L2 norm of every row is kept in a parallel block so cosine never recomputes it.
+public class HeapVectorArena implements VectorArena {
+
+    private final int dimension;
+
+    private final boolean normalized;
+
+    private volatile float[][] blocks = new float[0][];
+
+    private volatile float[][] normBlocks = new float[0][];
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    public HeapVectorArena(int dimension) {
+        this(dimension, false);
+    }
+
+    public HeapVectorArena(int dimension, boolean normalized) {
+        if(dimension <= 0) {
+            throw new IllegalArgumentException("Dimension must be greater than zero");
+        }
+        this.dimension = dimension;
+        this.normalized = normalized;
+    }
+
+    @Override
+    public void set(int ordinal, float[] vector) {
+        if(vector.length != dimension) {
+            throw new IllegalArgumentException("Vector dimension " + vector.length + " does not match arena dimension " + dimension);
+        }
+        int blockIndex = ordinal / BLOCK_ROWS;
+        float[] block = ensureBlock(blockIndex);
+        float norm = DistanceMetrics.norm(vector);
+
+        if(normalized && norm != 0) {
+            int offset = offsetOf(ordinal);
+            for(int index = 0; index < dimension; index++) {
+                block[offset + index] = vector[index] / norm;
+            }
+            norm = 1;
+        } else {
+            System.arraycopy(vector, 0, block, offsetOf(ordinal), dimension);
+        }
+        normBlocks[blockIndex][ordinal % BLOCK_ROWS] = norm;
+        size.accumulateAndGet(ordinal + 1, Math::max);
+    }
+
+    @Override
+    public float norm(int ordinal) {
+        return normBlocks[ordinal / BLOCK_ROWS][ordinal % BLOCK_ROWS];
+    }
+
+    @Override
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    @Override
+    public float[] get(int ordinal) {
+        int offset = offsetOf(ordinal);
+        return Arrays.copyOfRange(blocks[ordinal / BLOCK_ROWS], offset, offset + dimension);
+    }
+
+    @Override
+    public float score(Metric metric, ScoringQuery query, int ordinal) {
+        return metric.score(query.vector(), query.norm(), blocks[ordinal / BLOCK_ROWS], offsetOf(ordinal), norm(ordinal), dimension);
+    }
+
+    @Override
+    public void scoreBatch(Metric metric, ScoringQuery query, int from, int rows, float[] scores) {
+        int blockIndex = from / BLOCK_ROWS;
+        metric.scoreBatch(query.vector(), query.norm(), blocks[blockIndex], offsetOf(from), rows, dimension,
+                normBlocks[blockIndex], from % BLOCK_ROWS, scores);
+    }
+
+    private int offsetOf(int ordinal) {
+        return (ordinal % BLOCK_ROWS) * dimension;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public void writeRows(DataOutput output, int rows) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_ROWS * dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for(int blockIndex = 0; blockIndex * BLOCK_ROWS < rows; blockIndex++) {
+            int blockRows = Math.min(BLOCK_ROWS, rows - blockIndex * BLOCK_ROWS);
+            buffer.clear();
+            buffer.asFloatBuffer().put(blocks[blockIndex], 0, blockRows * dimension);
+            output.write(buffer.array(), 0, blockRows * dimension * Float.BYTES);
+            buffer.clear();
+            buffer.asFloatBuffer().put(normBlocks[blockIndex], 0, blockRows);
+            output.write(buffer.array(), 0, blockRows * Float.BYTES);
+        }
+    }
+
+    @Override
+    public void readRows(DataInput input, int rows) throws IOException {
+        byte[] bytes = new byte[BLOCK_ROWS * dimension * Float.BYTES];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for(int blockIndex = 0; blockIndex * BLOCK_ROWS < rows; blockIndex++) {
+            int blockRows = Math.min(BLOCK_ROWS, rows - blockIndex * BLOCK_ROWS);
+            float[] block = ensureBlock(blockIndex);
+            input.readFully(bytes, 0, blockRows * dimension * Float.BYTES);
+            buffer.clear();
+            buffer.asFloatBuffer().get(block, 0, blockRows * dimension);
+            input.readFully(bytes, 0, blockRows * Float.BYTES);
+            buffer.clear();
+            buffer.asFloatBuffer().get(normBlocks[blockIndex], 0, blockRows);
+        }
+        size.accumulateAndGet(rows, Math::max);
+    }
+
+    private float[] ensureBlock(int blockIndex) {
+        float[][] current = blocks;
+        if(blockIndex < current.length) {
+            return current[blockIndex];
+        }
+
+        synchronized (this) {
+            current = blocks;
+            if(blockIndex >= current.length) {
+                float[][] grown = Arrays.copyOf(current, Math.max(blockIndex + 1, current.length * 2));
+                float[][] grownNorms = Arrays.copyOf(normBlocks, grown.length);
+                for(int index = current.length; index < grown.length; index++) {
+                    grown[index] = new float[BLOCK_ROWS * dimension];
+                    grownNorms[index] = new float[BLOCK_ROWS];
+                }
+                normBlocks = grownNorms;
+                blocks = grown;
+                current = grown;
+            }
+            return current[blockIndex];
+        }
+    }
+}
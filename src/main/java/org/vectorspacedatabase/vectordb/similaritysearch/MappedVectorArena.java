@@ -0,0 +1,243 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.DistanceMetrics;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Rows live in a fixed stride file mapped with MappedByteBuffer, so the arena can outgrow the heap and the OS page cache
+// decides what stays resident. One mapping is capped at 2 GB, the file is mapped in chunks of whole blocks below 1 GB
+// and the kernels score the mapped memory in place. Norms stay in small heap blocks.
+// The file is scratch space recreated on open, storage and index snapshots are the durable copies.
+public class MappedVectorArena implements VectorArena {
+
+    private static final long TARGET_CHUNK_BYTES = 1L << 30;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final int dimension;
+
+    private final boolean normalized;
+
+    private final int rowBytes;
+
+    private final int chunkRows;
+
+    private final long chunkBytes;
+
+    private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+
+    private volatile FloatBuffer[] chunkFloats = new FloatBuffer[0];
+
+    private volatile float[][] normBlocks = new float[0][];
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    public static Factory factory(Path path) {
+        return (dimension, normalized) -> new MappedVectorArena(path, dimension, normalized);
+    }
+
+    public MappedVectorArena(Path path, int dimension, boolean normalized) {
+        this(path, dimension, normalized, TARGET_CHUNK_BYTES);
+    }
+
+    MappedVectorArena(Path path, int dimension, boolean normalized, long targetChunkBytes) {
+        if(dimension <= 0) {
+            throw new IllegalArgumentException("Dimension must be greater than zero");
+        }
+        if((long) BLOCK_ROWS * dimension * Float.BYTES > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Dimension " + dimension + " is too large for a mapped arena");
+        }
+        this.path = path;
+        this.dimension = dimension;
+        this.normalized = normalized;
+        this.rowBytes = dimension * Float.BYTES;
+        this.chunkRows = BLOCK_ROWS * (int) Math.max(1, targetChunkBytes / ((long) BLOCK_ROWS * rowBytes));
+        this.chunkBytes = (long) chunkRows * rowBytes;
+
+        try {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open vector file: " + path, e);
+        }
+    }
+
+    @Override
+    public void set(int ordinal, float[] vector) {
+        if(vector.length != dimension) {
+            throw new IllegalArgumentException("Vector dimension " + vector.length + " does not match arena dimension " + dimension);
+        }
+        ensureCapacity(ordinal);
+        float norm = DistanceMetrics.norm(vector);
+
+        float[] row = vector;
+        if(normalized && norm != 0) {
+            row = new float[dimension];
+            for(int index = 0; index < dimension; index++) {
+                row[index] = vector[index] / norm;
+            }
+            norm = 1;
+        }
+        chunkFloats[ordinal / chunkRows].put((ordinal % chunkRows) * dimension, row);
+        normBlocks[ordinal / BLOCK_ROWS][ordinal % BLOCK_ROWS] = norm;
+        size.accumulateAndGet(ordinal + 1, Math::max);
+    }
+
+    @Override
+    public float[] get(int ordinal) {
+        float[] row = new float[dimension];
+        chunkFloats[ordinal / chunkRows].get((ordinal % chunkRows) * dimension, row);
+        return row;
+    }
+
+    @Override
+    public float norm(int ordinal) {
+        return normBlocks[ordinal / BLOCK_ROWS][ordinal % BLOCK_ROWS];
+    }
+
+    @Override
+    public float score(Metric metric, ScoringQuery query, int ordinal) {
+        return metric.score(query.vector(), query.norm(), chunks[ordinal / chunkRows], (ordinal % chunkRows) * rowBytes, norm(ordinal), dimension);
+    }
+
+    @Override
+    public void scoreBatch(Metric metric, ScoringQuery query, int from, int rows, float[] scores) {
+        metric.scoreBatch(query.vector(), query.norm(), chunks[from / chunkRows], (from % chunkRows) * rowBytes, rows, dimension,
+                normBlocks[from / BLOCK_ROWS], from % BLOCK_ROWS, scores);
+    }
+
+    @Override
+    public boolean isNormalized() {
+        return normalized;
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public long offHeapBytes() {
+        return chunks.length * chunkBytes;
+    }
+
+    // Flushes the mapped rows, closes the file and drops the mappings, so the file can be deleted or opened again right
+    // away. The JDK has no supported unmap, the mapped memory goes back once the dropped buffers are collected.
+    @Override
+    public synchronized void close() {
+        for(MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        chunks = new MappedByteBuffer[0];
+        chunkFloats = new FloatBuffer[0];
+        normBlocks = new float[0][];
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to close vector file: " + path, e);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Rows are copied straight from the mapping, they are already little endian
+    @Override
+    public void writeRows(DataOutput output, int rows) throws IOException {
+        byte[] bytes = new byte[BLOCK_ROWS * rowBytes];
+        ByteBuffer norms = ByteBuffer.allocate(BLOCK_ROWS * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for(int blockIndex = 0; blockIndex * BLOCK_ROWS < rows; blockIndex++) {
+            int first = blockIndex * BLOCK_ROWS;
+            int blockRows = Math.min(BLOCK_ROWS, rows - first);
+            chunks[first / chunkRows].get((first % chunkRows) * rowBytes, bytes, 0, blockRows * rowBytes);
+            output.write(bytes, 0, blockRows * rowBytes);
+            norms.clear();
+            norms.asFloatBuffer().put(normBlocks[blockIndex], 0, blockRows);
+            output.write(norms.array(), 0, blockRows * Float.BYTES);
+        }
+    }
+
+    @Override
+    public void readRows(DataInput input, int rows) throws IOException {
+        byte[] bytes = new byte[BLOCK_ROWS * rowBytes];
+        ByteBuffer norms = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        for(int blockIndex = 0; blockIndex * BLOCK_ROWS < rows; blockIndex++) {
+            int first = blockIndex * BLOCK_ROWS;
+            int blockRows = Math.min(BLOCK_ROWS, rows - first);
+            ensureCapacity(first + blockRows - 1);
+            input.readFully(bytes, 0, blockRows * rowBytes);
+            chunks[first / chunkRows].put((first % chunkRows) * rowBytes, bytes, 0, blockRows * rowBytes);
+            input.readFully(bytes, 0, blockRows * Float.BYTES);
+            norms.clear();
+            norms.asFloatBuffer().get(normBlocks[blockIndex], 0, blockRows);
+        }
+        size.accumulateAndGet(rows, Math::max);
+    }
+
+    // Mapping READ_WRITE past the end of the file grows it, untouched pages stay sparse
+    private void ensureCapacity(int ordinal) {
+        int chunkIndex = ordinal / chunkRows;
+        int blockIndex = ordinal / BLOCK_ROWS;
+        if(chunkIndex < chunks.length && blockIndex < normBlocks.length) {
+            return;
+        }
+
+        synchronized (this) {
+            MappedByteBuffer[] currentChunks = chunks;
+            if(chunkIndex >= currentChunks.length) {
+                MappedByteBuffer[] grown = Arrays.copyOf(currentChunks, chunkIndex + 1);
+                FloatBuffer[] grownFloats = Arrays.copyOf(chunkFloats, chunkIndex + 1);
+                try {
+                    for(int index = currentChunks.length; index < grown.length; index++) {
+                        MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_WRITE, index * chunkBytes, chunkBytes);
+                        chunk.order(ByteOrder.LITTLE_ENDIAN);
+                        grown[index] = chunk;
+                        grownFloats[index] = chunk.asFloatBuffer();
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to map vector file: " + path, e);
+                }
+                chunkFloats = grownFloats;
+                chunks = grown;
+            }
+
+            float[][] currentNorms = normBlocks;
+            if(blockIndex >= currentNorms.length) {
+                float[][] grown = Arrays.copyOf(currentNorms, Math.max(blockIndex + 1, currentNorms.length * 2));
+                for(int index = currentNorms.length; index < grown.length; index++) {
+                    grown[index] = new float[BLOCK_ROWS];
+                }
+                normBlocks = grown;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MappedVectorArena{" +
+                "path=" + path +
+                ", dimension=" + dimension +
+                ", size=" + size() +
+                '}';
+    }
+}
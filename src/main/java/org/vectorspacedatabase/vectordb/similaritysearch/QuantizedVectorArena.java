@@ -0,0 +1,342 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.DistanceMetrics;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Scalar quantization on top of a full precision arena. Each dimension is mapped from the [min, max] seen in the first
+// trainingRows vectors onto signed int8 codes, later values outside the range are clamped. Until then the full precision
+// rows are scored. Queries are mapped into code space once in prepare, so the kernels read one byte per dimension.
+// With rescoring the index collects k * rescoreMultiplier candidates and they are reordered on the original floats.
+public class QuantizedVectorArena implements VectorArena {
+
+    private static final Logger log = LoggerFactory.getLogger(QuantizedVectorArena.class);
+
+    private final VectorArena fullPrecision;
+
+    private final int trainingRows;
+
+    private final int rescoreMultiplier;
+
+    private final int dimension;
+
+    private volatile byte[][] codeBlocks = new byte[0][];
+
+    private volatile Quantizer quantizer;
+
+    public static Factory factory(Factory fullPrecision, int trainingRows, int rescoreMultiplier) {
+        return (dimension, normalized) -> new QuantizedVectorArena(fullPrecision.create(dimension, normalized), trainingRows,
+                rescoreMultiplier);
+    }
+
+    // rescoreMultiplier of 1 turns rescoring off
+    public QuantizedVectorArena(VectorArena fullPrecision, int trainingRows, int rescoreMultiplier) {
+        if(trainingRows <= 0) {
+            throw new IllegalArgumentException("Training rows must be greater than zero");
+        }
+        if(rescoreMultiplier < 1) {
+            throw new IllegalArgumentException("Rescore multiplier must be at least one");
+        }
+        this.fullPrecision = fullPrecision;
+        this.trainingRows = trainingRows;
+        this.rescoreMultiplier = rescoreMultiplier;
+        this.dimension = fullPrecision.dimension();
+    }
+
+    @Override
+    public void set(int ordinal, float[] vector) {
+        fullPrecision.set(ordinal, vector);
+        ensureCapacity(ordinal);
+
+        Quantizer current = quantizer;
+        if(current == null) {
+            synchronized (this) {
+                current = quantizer;
+                if(current == null) {
+                    if(fullPrecision.size() >= trainingRows) {
+                        train();
+                    }
+                    return;
+                }
+            }
+        }
+        encode(current, ordinal);
+    }
+
+    // Per dimension range over everything stored so far, then every row is encoded before the quantizer is published
+    private void train() {
+        int rows = fullPrecision.size();
+        float[] min = new float[dimension];
+        float[] max = new float[dimension];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+        for(int ordinal = 0; ordinal < rows; ordinal++) {
+            float[] row = fullPrecision.get(ordinal);
+            for(int index = 0; index < dimension; index++) {
+                min[index] = Math.min(min[index], row[index]);
+                max[index] = Math.max(max[index], row[index]);
+            }
+        }
+
+        Quantizer trained = new Quantizer(min, max);
+        for(int ordinal = 0; ordinal < rows; ordinal++) {
+            encode(trained, ordinal);
+        }
+        quantizer = trained;
+        log.info("Trained int8 quantizer on {} rows of dimension {}", rows, dimension);
+    }
+
+    private void encode(Quantizer current, int ordinal) {
+        float[] row = fullPrecision.get(ordinal);
+        byte[] block = codeBlocks[ordinal / BLOCK_ROWS];
+        int offset = (ordinal % BLOCK_ROWS) * dimension;
+        for(int index = 0; index < dimension; index++) {
+            block[offset + index] = current.encode(index, row[index]);
+        }
+    }
+
+    @Override
+    public float[] get(int ordinal) {
+        return fullPrecision.get(ordinal);
+    }
+
+    @Override
+    public float norm(int ordinal) {
+        return fullPrecision.norm(ordinal);
+    }
+
+    @Override
+    public ScoringQuery prepare(Metric metric, float[] query) {
+        Quantizer current = quantizer;
+        if(current == null) {
+            return fullPrecision.prepare(metric, query);
+        }
+        return new QuantizedQuery(query, metric, current);
+    }
+
+    // Queries prepared before training still score the full precision rows
+    @Override
+    public float score(Metric metric, ScoringQuery query, int ordinal) {
+        if(query instanceof QuantizedQuery quantized) {
+            return quantized.score(codeBlocks[ordinal / BLOCK_ROWS], (ordinal % BLOCK_ROWS) * dimension, norm(ordinal));
+        }
+        return fullPrecision.score(metric, query, ordinal);
+    }
+
+    @Override
+    public void scoreBatch(Metric metric, ScoringQuery query, int from, int rows, float[] scores) {
+        if(query instanceof QuantizedQuery quantized) {
+            byte[] block = codeBlocks[from / BLOCK_ROWS];
+            int offset = (from % BLOCK_ROWS) * dimension;
+            for(int row = 0; row < rows; row++) {
+                scores[row] = quantized.score(block, offset + row * dimension, norm(from + row));
+            }
+        } else {
+            fullPrecision.scoreBatch(metric, query, from, rows, scores);
+        }
+    }
+
+    @Override
+    public int candidates(int k) {
+        return quantizer == null ? k : k * rescoreMultiplier;
+    }
+
+    // Exact scores for the approximate candidates, the result never holds more than k
+    @Override
+    public TopK rescore(Metric metric, ScoringQuery query, TopK candidates, int k) {
+        if(!(query instanceof QuantizedQuery) || rescoreMultiplier == 1) {
+            return candidates.capacity() <= k ? candidates : best(candidates, k);
+        }
+
+        candidates.sort();
+        ScoringQuery exact = fullPrecision.prepare(metric, query.vector());
+        TopK rescored = new TopK(k);
+        for(int index = 0; index < candidates.size(); index++) {
+            int ordinal = candidates.ordinalAt(index);
+            rescored.offer(ordinal, fullPrecision.score(metric, exact, ordinal));
+        }
+        return rescored;
+    }
+
+    private static TopK best(TopK candidates, int k) {
+        TopK best = new TopK(k);
+        best.merge(candidates);
+        return best;
+    }
+
+    @Override
+    public boolean isNormalized() {
+        return fullPrecision.isNormalized();
+    }
+
+    @Override
+    public int dimension() {
+        return dimension;
+    }
+
+    @Override
+    public int size() {
+        return fullPrecision.size();
+    }
+
+    // Codes live on the heap
+    @Override
+    public long offHeapBytes() {
+        return fullPrecision.offHeapBytes();
+    }
+
+    @Override
+    public void close() {
+        fullPrecision.close();
+    }
+
+    public boolean isTrained() {
+        return quantizer != null;
+    }
+
+    // Only the full precision rows are written, codes are trained again from them on read
+    @Override
+    public void writeRows(DataOutput output, int rows) throws IOException {
+        fullPrecision.writeRows(output, rows);
+    }
+
+    @Override
+    public synchronized void readRows(DataInput input, int rows) throws IOException {
+        fullPrecision.readRows(input, rows);
+        if(rows > 0) {
+            ensureCapacity(rows - 1);
+        }
+        if(quantizer == null && fullPrecision.size() >= trainingRows) {
+            train();
+        } else if(quantizer != null) {
+            for(int ordinal = 0; ordinal < rows; ordinal++) {
+                encode(quantizer, ordinal);
+            }
+        }
+    }
+
+    private void ensureCapacity(int ordinal) {
+        int blockIndex = ordinal / BLOCK_ROWS;
+        if(blockIndex < codeBlocks.length) {
+            return;
+        }
+
+        synchronized (this) {
+            byte[][] current = codeBlocks;
+            if(blockIndex >= current.length) {
+                byte[][] grown = Arrays.copyOf(current, Math.max(blockIndex + 1, current.length * 2));
+                for(int index = current.length; index < grown.length; index++) {
+                    grown[index] = new byte[BLOCK_ROWS * dimension];
+                }
+                codeBlocks = grown;
+            }
+        }
+    }
+
+    // x = base + scale * code, with base at the middle of the range so codes use the whole signed byte
+    private static final class Quantizer {
+
+        private final float[] scale;
+
+        private final float[] base;
+
+        private Quantizer(float[] min, float[] max) {
+            this.scale = new float[min.length];
+            this.base = new float[min.length];
+            for(int index = 0; index < min.length; index++) {
+                scale[index] = (max[index] - min[index]) / 255f;
+                base[index] = min[index] + 128 * scale[index];
+            }
+        }
+
+        private byte encode(int index, float value) {
+            if(scale[index] == 0) {
+                return 0;
+            }
+            int code = Math.round((value - base[index]) / scale[index]);
+            return (byte) Math.max(-128, Math.min(127, code));
+        }
+    }
+
+    // The query mapped into code space for one metric, offset collects the terms that do not depend on the codes
+    private static final class QuantizedQuery extends ScoringQuery {
+
+        private final Metric metric;
+
+        private final float[] mapped;
+
+        private final float[] weights;
+
+        private final float offset;
+
+        private QuantizedQuery(float[] query, Metric metric, Quantizer quantizer) {
+            super(query);
+            this.metric = metric;
+            int dimension = query.length;
+            this.mapped = new float[dimension];
+            this.weights = new float[dimension];
+
+            float constant = 0;
+            for(int index = 0; index < dimension; index++) {
+                float scale = quantizer.scale[index];
+                float difference = query[index] - quantizer.base[index];
+                switch (metric) {
+                    case COSINE, DOT_PRODUCT -> {
+                        mapped[index] = query[index] * scale;
+                        constant += query[index] * quantizer.base[index];
+                    }
+                    case EUCLIDEAN -> {
+                        if(scale == 0) {
+                            constant += difference * difference;
+                        } else {
+                            mapped[index] = difference / scale;
+                            weights[index] = scale * scale;
+                        }
+                    }
+                    case MANHATTAN -> {
+                        if(scale == 0) {
+                            constant += Math.abs(difference);
+                        } else {
+                            mapped[index] = difference / scale;
+                            weights[index] = scale;
+                        }
+                    }
+                }
+            }
+            this.offset = constant;
+        }
+
+        private float score(byte[] codes, int codeOffset, float norm) {
+            int dimension = mapped.length;
+            return switch (metric) {
+                case DOT_PRODUCT -> offset + (float) DistanceMetrics.dotProduct(mapped, codes, codeOffset, dimension);
+                case COSINE -> {
+                    float queryNorm = norm();
+                    if(queryNorm == 0 || norm == 0) {
+                        yield 0;
+                    }
+                    yield (offset + (float) DistanceMetrics.dotProduct(mapped, codes, codeOffset, dimension)) / (queryNorm * norm);
+                }
+                case EUCLIDEAN -> (float) -Math.sqrt(Math.max(0,
+                        offset + DistanceMetrics.weightedSquaredEuclidean(mapped, weights, codes, codeOffset, dimension)));
+                case MANHATTAN -> -(offset + (float) DistanceMetrics.weightedManhattan(mapped, weights, codes, codeOffset, dimension));
+            };
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QuantizedVectorArena{" +
+                "fullPrecision=" + fullPrecision +
+                ", trainingRows=" + trainingRows +
+                ", rescoreMultiplier=" + rescoreMultiplier +
+                ", trained=" + isTrained() +
+                '}';
+    }
+}
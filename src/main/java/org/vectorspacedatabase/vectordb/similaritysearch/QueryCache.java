@@ -0,0 +1,249 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.vectorspacedatabase.vectordb.metadata.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Vector search results of one collection, keyed by the query vector, k and the filter. Every entry carries the write
+// epoch it was computed at and only answers while the collection is still at that epoch, so a write invalidates the
+// whole cache by bumping a counter. Stale entries are dropped when they are next looked up or age out of the LRU,
+// which is bounded by bytes. Keys are spread by hash over independently locked segments, each an LRU with an equal
+// share of the bytes, so concurrent searches only contend when they land on the same segment.
+public class QueryCache {
+
+    // Rough per entry cost of the map node, key, entry and list headers
+    private static final long ENTRY_OVERHEAD_BYTES = 200;
+
+    // Rough cost of one cached result, the object and the id string it points to
+    private static final long RESULT_BYTES = 80;
+
+    // Small caches get fewer segments, a segment below this could not hold a useful number of entries
+    private static final long MIN_SEGMENT_BYTES = 256 * 1024;
+
+    private final long maxBytes;
+
+    private final Segment[] segments;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong stale = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private long maxBytes = 64L * 1024 * 1024;
+        private int segments = 4 * Runtime.getRuntime().availableProcessors();
+
+        public Builder withMaxBytes(long maxBytes) {
+            if(maxBytes <= 0) {
+                throw new IllegalArgumentException("maxBytes must be greater than zero");
+            }
+            this.maxBytes = maxBytes;
+            return this;
+        }
+
+        // Upper bound, rounded down to a power of two and lowered until each segment gets MIN_SEGMENT_BYTES
+        public Builder withSegments(int segments) {
+            if(segments <= 0) {
+                throw new IllegalArgumentException("segments must be greater than zero");
+            }
+            this.segments = segments;
+            return this;
+        }
+
+        public QueryCache build() {
+            return new QueryCache(this);
+        }
+    }
+
+    public QueryCache(Builder builder) {
+        this.maxBytes = builder.maxBytes;
+        int count = (int) Math.max(1, Math.min(builder.segments, builder.maxBytes / MIN_SEGMENT_BYTES));
+        this.segments = new Segment[Integer.highestOneBit(count)];
+        for(int index = 0; index < segments.length; index++) {
+            segments[index] = new Segment(maxBytes / segments.length);
+        }
+    }
+
+    // Null on a miss, otherwise a copy the caller may keep
+    public List<SearchResult> get(float[] query, int k, Filter filter, long epoch) {
+        Key key = new Key(query, k, filter);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry entry = segment.entries.get(key);
+            if(entry != null && entry.epoch == epoch) {
+                hits.incrementAndGet();
+                return new ArrayList<>(entry.results);
+            }
+            if(entry != null) {
+                segment.entries.remove(key);
+                segment.bytes -= entry.weight;
+                stale.incrementAndGet();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    // The epoch must be read before the search ran, a write racing with it then leaves the entry stale
+    public void put(float[] query, int k, Filter filter, long epoch, List<SearchResult> results) {
+        Key key = new Key(query.clone(), k, filter);
+        Entry entry = new Entry(epoch, List.copyOf(results),
+                ENTRY_OVERHEAD_BYTES + (long) query.length * Float.BYTES + results.size() * RESULT_BYTES);
+
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            Entry previous = segment.entries.put(key, entry);
+            if(previous != null) {
+                segment.bytes -= previous.weight;
+            }
+            segment.bytes += entry.weight;
+
+            Iterator<Map.Entry<Key, Entry>> eldest = segment.entries.entrySet().iterator();
+            while(segment.bytes > segment.maxBytes && eldest.hasNext()) {
+                Map.Entry<Key, Entry> candidate = eldest.next();
+                if(candidate.getKey().equals(key)) {
+                    continue;
+                }
+                segment.bytes -= candidate.getValue().weight;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    // The key hash is already mixed from the vector bits, the high bits are folded in so they pick the segment too
+    private Segment segmentFor(Key key) {
+        int hash = key.hash;
+        return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+    }
+
+    public void clear() {
+        for(Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+                segment.bytes = 0;
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    // Includes the lookups that found an entry from an older epoch
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getStaleCount() {
+        return stale.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public double getHitRate() {
+        long found = hits.get();
+        long total = found + misses.get();
+        return total == 0 ? 0 : (double) found / total;
+    }
+
+    public long getCurrentBytes() {
+        long bytes = 0;
+        for(Segment segment : segments) {
+            synchronized (segment) {
+                bytes += segment.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public int size() {
+        int size = 0;
+        for(Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    // One lock, LRU order and byte budget per segment
+    private static final class Segment {
+        private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+        private final long maxBytes;
+        private long bytes;
+
+        Segment(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    // The hash covers the vector's bits, equality still compares them all so a collision never returns wrong results
+    private static final class Key {
+        private final float[] query;
+        private final int k;
+        private final Object filter;
+        private final int hash;
+
+        Key(float[] query, int k, Filter filter) {
+            this.query = query;
+            this.k = k;
+            this.filter = filter == null ? null : filter.cacheKey();
+            this.hash = 31 * (31 * Arrays.hashCode(query) + k) + (this.filter == null ? 0 : this.filter.hashCode());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof Key other)) {
+                return false;
+            }
+            return hash == other.hash && k == other.k && Arrays.equals(query, other.query)
+                    && (filter == null ? other.filter == null : filter.equals(other.filter));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Entry {
+        private final long epoch;
+        private final List<SearchResult> results;
+        private final long weight;
+
+        Entry(long epoch, List<SearchResult> results, long weight) {
+            this.epoch = epoch;
+            this.results = results;
+            this.weight = weight;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "QueryCache{" +
+                "entries=" + size() +
+                ", hits=" + hits +
+                ", misses=" + misses +
+                ", stale=" + stale +
+                '}';
+    }
+}
@@ -0,0 +1,58 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Merges rankings whose scores are not comparable, BM25 against cosine for example. Every ordinal scores
+// sum(1 / (rankConstant + rank)) over the rankings it appears in, rank starting at 1, so only positions matter.
+public final class ReciprocalRankFusion {
+
+    public static final int DEFAULT_RANK_CONSTANT = 60;
+
+    private ReciprocalRankFusion() {
+        throw new UnsupportedOperationException("This is a utility class, can't be instantiated");
+    }
+
+    // Rankings must be sorted, the result is not
+    public static TopK fuse(int k, int rankConstant, TopK... rankings) {
+        if(rankConstant < 0) {
+            throw new IllegalArgumentException("rankConstant must not be negative");
+        }
+        Map<Integer, Float> scores = new HashMap<>();
+        for(TopK ranking : rankings) {
+            for(int rank = 0; rank < ranking.size(); rank++) {
+                scores.merge(ranking.ordinalAt(rank), 1f / (rankConstant + rank + 1), Float::sum);
+            }
+        }
+
+        TopK fused = new TopK(k);
+        for(Map.Entry<Integer, Float> entry : scores.entrySet()) {
+            fused.offer(entry.getKey(), entry.getValue());
+        }
+        return fused;
+    }
+
+    // Same fusion over rankings that were already resolved to documents, e.g. merged from several shards. Sorted.
+    @SafeVarargs
+    public static List<SearchResult> fuse(int k, int rankConstant, List<SearchResult>... rankings) {
+        if(rankConstant < 0) {
+            throw new IllegalArgumentException("rankConstant must not be negative");
+        }
+        Map<String, Float> scores = new HashMap<>();
+        for(List<SearchResult> ranking : rankings) {
+            for(int rank = 0; rank < ranking.size(); rank++) {
+                scores.merge(ranking.get(rank).getDocumentId(), 1f / (rankConstant + rank + 1), Float::sum);
+            }
+        }
+
+        List<SearchResult> fused = new ArrayList<>(scores.size());
+        for(Map.Entry<String, Float> entry : scores.entrySet()) {
+            fused.add(new SearchResult(entry.getKey(), entry.getValue()));
+        }
+        fused.sort(Comparator.comparingDouble(SearchResult::getScore).reversed());
+        return fused.size() > k ? new ArrayList<>(fused.subList(0, k)) : fused;
+    }
+}
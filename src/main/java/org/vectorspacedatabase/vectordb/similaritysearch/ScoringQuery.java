@@ -0,0 +1,25 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.DistanceMetrics;
+
+// A query prepared for one arena, built once per search. Arenas that score on transformed queries extend it
+// with whatever they precompute, the rest use the vector and its norm as is.
+public class ScoringQuery {
+
+    private final float[] vector;
+
+    private final float norm;
+
+    public ScoringQuery(float[] vector) {
+        this.vector = vector;
+        this.norm = DistanceMetrics.norm(vector);
+    }
+
+    public float[] vector() {
+        return vector;
+    }
+
+    public float norm() {
+        return norm;
+    }
+}
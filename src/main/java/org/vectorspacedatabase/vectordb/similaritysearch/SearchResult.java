@@ -0,0 +1,44 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import java.util.Objects;
+
+public class SearchResult {
+
+    private final String documentId;
+
+    private final float score;
+
+    public SearchResult(String documentId, float score) {
+        this.documentId = documentId;
+        this.score = score;
+    }
+
+    public String getDocumentId() {
+        return documentId;
+    }
+
+    public float getScore() {
+        return score;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SearchResult that = (SearchResult) o;
+        return Float.compare(that.score, score) == 0 && Objects.equals(documentId, that.documentId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(documentId, score);
+    }
+
+    @Override
+    public String toString() {
+        return "SearchResult{" +
+                "documentId='" + documentId + '\'' +
+                ", score=" + score +
+                '}';
+    }
+}
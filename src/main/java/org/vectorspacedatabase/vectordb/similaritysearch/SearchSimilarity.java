@@ -1,4 +1,539 @@
 package org.vectorspacedatabase.vectordb.similaritysearch;
 
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.lexical.BM25Index;
+import org.vectorspacedatabase.vectordb.metadata.Filter;
+import org.vectorspacedatabase.vectordb.metadata.MetadataIndex;
+import org.vectorspacedatabase.vectordb.metrics.VectorDbMetrics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
 public class SearchSimilarity {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchSimilarity.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x56444258; // "VDBX"
+
+    private static final int SNAPSHOT_VERSION = 5;
+
+    private final SearchStrategy searchStrategy;
+
+    private final Map<String, Integer> ordinals = new ConcurrentHashMap<>();
+
+    private volatile String[] documentIds = new String[VectorArena.BLOCK_ROWS];
+
+    // 64 bit hash of the vector stored at each ordinal, lets a restored snapshot tell which documents changed since it
+    // was written. A 32 bit hash collides often enough at millions of documents to keep a stale vector unnoticed.
+    private volatile long[] fingerprints = new long[VectorArena.BLOCK_ROWS];
+
+    private int nextOrdinal;
+
+    // Ordinals of removed documents are handed out again, the lowest first, but only once no running search can still
+    // map one to the document it held and every index has let go of it. Guarded by this.
+    private final RoaringBitmap freeOrdinals = new RoaringBitmap();
+
+    // Out of reach of searches but still held by an index, checked again on every compact. Guarded by this.
+    private final RoaringBitmap releasing = new RoaringBitmap();
+
+    private final EpochReclaimer<Integer> reclaimer = new EpochReclaimer<>();
+
+    // Not part of the snapshot, it is rebuilt from the documents streamed out of storage on load
+    private final MetadataIndex metadataIndex = new MetadataIndex();
+
+    // Optional keyword index over document content, rebuilt on load like the metadata
+    private final BM25Index lexicalIndex;
+
+    // How many results per ranking hybrid search fuses for each result it returns
+    public static final int HYBRID_DEPTH = 4;
+
+    // Writers share the read side, a snapshot takes the write side so ids and index are captured at the same point
+    private final ReadWriteLock snapshotLock = new ReentrantReadWriteLock();
+
+    // Optional, answers repeated vector searches until the next write
+    private final QueryCache queryCache;
+
+    // Bumped after every change to what a search can return, cached results from an older epoch are never served
+    private final AtomicLong writeEpoch = new AtomicLong();
+
+    public SearchSimilarity(SearchStrategy searchStrategy) {
+        this(searchStrategy, null);
+    }
+
+    public SearchSimilarity(SearchStrategy searchStrategy, BM25Index lexicalIndex) {
+        this(searchStrategy, lexicalIndex, null);
+    }
+
+    public SearchSimilarity(SearchStrategy searchStrategy, BM25Index lexicalIndex, QueryCache queryCache) {
+        this.searchStrategy = searchStrategy;
+        this.lexicalIndex = lexicalIndex;
+        this.queryCache = queryCache;
+    }
+
+    public void add(String documentId, float[] vector) {
+        add(documentId, vector, null);
+    }
+
+    public void add(String documentId, float[] vector, Map<String, Object> metadata) {
+        add(documentId, vector, metadata, null);
+    }
+
+    public void add(String documentId, float[] vector, Map<String, Object> metadata, String content) {
+        snapshotLock.readLock().lock();
+        try {
+            int ordinal;
+            Integer previous;
+            synchronized (this) {
+                previous = ordinals.get(documentId);
+                ordinal = allocateOrdinal();
+                if(ordinal >= documentIds.length) {
+                    documentIds = Arrays.copyOf(documentIds, documentIds.length * 2);
+                    fingerprints = Arrays.copyOf(fingerprints, documentIds.length);
+                }
+                documentIds[ordinal] = documentId;
+                fingerprints[ordinal] = fingerprint(vector);
+                ordinals.put(documentId, ordinal);
+            }
+
+            metadataIndex.add(ordinal, metadata);
+            if(lexicalIndex != null) {
+                lexicalIndex.add(ordinal, content);
+            }
+            searchStrategy.add(ordinal, vector);
+            if(previous != null) {
+                removeOrdinal(previous);
+            }
+        } finally {
+            writeEpoch.incrementAndGet();
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    public boolean remove(String documentId) {
+        snapshotLock.readLock().lock();
+        try {
+            Integer ordinal = ordinals.remove(documentId);
+            if(ordinal == null) {
+                return false;
+            }
+            removeOrdinal(ordinal);
+            writeEpoch.incrementAndGet();
+            return true;
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    public boolean contains(String documentId) {
+        return ordinals.containsKey(documentId);
+    }
+
+    // True when the document is indexed with this exact vector
+    public boolean contains(String documentId, float[] vector) {
+        Integer ordinal = ordinals.get(documentId);
+        return ordinal != null && fingerprints[ordinal] == fingerprint(vector);
+    }
+
+    // xxHash64 style rounds over the float bits followed by the murmur3 finalizer
+    private static long fingerprint(float[] vector) {
+        long hash = 0x27D4EB2F165667C5L + vector.length;
+        for(float value : vector) {
+            hash = Long.rotateLeft(hash + (Float.floatToIntBits(value) & 0xFFFFFFFFL) * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B185EBCA87L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    public List<String> documentIds() {
+        return new ArrayList<>(ordinals.keySet());
+    }
+
+    // Indexes metadata and content for a document restored from a snapshot
+    public boolean indexFields(String documentId, Map<String, Object> metadata, String content) {
+        Integer ordinal = ordinals.get(documentId);
+        if(ordinal == null) {
+            return false;
+        }
+        metadataIndex.add(ordinal, metadata);
+        if(lexicalIndex != null) {
+            lexicalIndex.add(ordinal, content);
+        }
+        writeEpoch.incrementAndGet();
+        return true;
+    }
+
+    private void removeOrdinal(int ordinal) {
+        searchStrategy.remove(ordinal);
+        metadataIndex.remove(ordinal);
+        if(lexicalIndex != null) {
+            lexicalIndex.remove(ordinal);
+        }
+        synchronized (this) {
+            documentIds[ordinal] = null;
+            reclaimer.retire(ordinal);
+        }
+    }
+
+    // Callers hold the monitor
+    private int allocateOrdinal() {
+        reclaimer.reclaim(this::release);
+        if(!freeOrdinals.isEmpty()) {
+            int ordinal = freeOrdinals.first();
+            freeOrdinals.remove(ordinal);
+            return ordinal;
+        }
+        if(nextOrdinal == Integer.MAX_VALUE) {
+            throw new IllegalStateException("No ordinals left, compact to reuse the ones removed documents held");
+        }
+        return nextOrdinal++;
+    }
+
+    // An ordinal no search can reach any more, free once the indexes are done with it too. Callers hold the monitor.
+    private void release(int ordinal) {
+        if(isReleased(ordinal)) {
+            freeOrdinals.add(ordinal);
+        } else {
+            releasing.add(ordinal);
+        }
+    }
+
+    private boolean isReleased(int ordinal) {
+        return searchStrategy.isReleased(ordinal) && metadataIndex.isReleased(ordinal)
+                && (lexicalIndex == null || lexicalIndex.isReleased(ordinal));
+    }
+
+    // Callers hold the monitor
+    private void releaseWaiting() {
+        RoaringBitmap released = new RoaringBitmap();
+        PeekableIntIterator waiting = releasing.getIntIterator();
+        while(waiting.hasNext()) {
+            int ordinal = waiting.next();
+            if(isReleased(ordinal)) {
+                released.add(ordinal);
+            }
+        }
+        releasing.andNot(released);
+        freeOrdinals.or(released);
+    }
+
+    public List<SearchResult> search(float[] query, int k) {
+        return search(query, k, null);
+    }
+
+    // The filter becomes a bitmap of ordinals first, the strategy only ever returns vectors inside it
+    public List<SearchResult> search(float[] query, int k, Filter filter) {
+        long start = System.nanoTime();
+        try {
+            // A filter keyed by its own identity would only hit if the same object came back, it would just churn the LRU
+            if(queryCache == null || (filter != null && filter.cacheKey() == filter)) {
+                return searchIndex(query, k, filter);
+            }
+            long epoch = writeEpoch.get();
+            List<SearchResult> results = queryCache.get(query, k, filter, epoch);
+            if(results == null) {
+                results = searchIndex(query, k, filter);
+                queryCache.put(query, k, filter, epoch, results);
+            }
+            return results;
+        } finally {
+            VectorDbMetrics.SEARCH_VECTOR.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Ordinals a search collects are mapped to ids before it leaves its epoch, none of them is reused meanwhile
+    private List<SearchResult> searchIndex(float[] query, int k, Filter filter) {
+        EpochReclaimer.Epoch<Integer> epoch = reclaimer.enter();
+        try {
+            if(filter == null) {
+                return toResults(searchStrategy.search(query, k).sort());
+            }
+            RoaringBitmap allowed = metadataIndex.evaluate(filter);
+            if(allowed.isEmpty()) {
+                return new ArrayList<>();
+            }
+            return toResults(searchStrategy.search(query, k, allowed).sort());
+        } finally {
+            reclaimer.leave(epoch);
+        }
+    }
+
+    // One result list per query, in order. The filter is evaluated once for the whole batch.
+    public List<List<SearchResult>> searchBatch(float[][] queries, int k, Filter filter) {
+        long start = System.nanoTime();
+        EpochReclaimer.Epoch<Integer> epoch = reclaimer.enter();
+        try {
+            List<List<SearchResult>> results = new ArrayList<>(queries.length);
+            RoaringBitmap allowed = filter == null ? null : metadataIndex.evaluate(filter);
+            if(allowed != null && allowed.isEmpty()) {
+                for(int query = 0; query < queries.length; query++) {
+                    results.add(new ArrayList<>());
+                }
+                return results;
+            }
+            for(TopK topK : searchStrategy.searchBatch(queries, k, allowed)) {
+                results.add(toResults(topK.sort()));
+            }
+            return results;
+        } finally {
+            reclaimer.leave(epoch);
+            VectorDbMetrics.SEARCH_BATCH.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // BM25 over document content, scores are not comparable with vector scores
+    public List<SearchResult> searchLexical(String query, int k, Filter filter) {
+        requireLexicalIndex();
+        long start = System.nanoTime();
+        EpochReclaimer.Epoch<Integer> epoch = reclaimer.enter();
+        try {
+            RoaringBitmap allowed = filter == null ? null : metadataIndex.evaluate(filter);
+            if(allowed != null && allowed.isEmpty()) {
+                return new ArrayList<>();
+            }
+            return toResults(lexicalIndex.search(query, k, allowed).sort());
+        } finally {
+            reclaimer.leave(epoch);
+            VectorDbMetrics.SEARCH_LEXICAL.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // Vector and keyword rankings fused with reciprocal rank fusion, the scores are the fused ones
+    public List<SearchResult> searchHybrid(float[] query, String text, int k, Filter filter) {
+        requireLexicalIndex();
+        long start = System.nanoTime();
+        EpochReclaimer.Epoch<Integer> epoch = reclaimer.enter();
+        try {
+            RoaringBitmap allowed = filter == null ? null : metadataIndex.evaluate(filter);
+            if(allowed != null && allowed.isEmpty()) {
+                return new ArrayList<>();
+            }
+            int depth = k * HYBRID_DEPTH;
+            TopK vectorRanking = searchStrategy.search(query, depth, allowed).sort();
+            TopK lexicalRanking = lexicalIndex.search(text, depth, allowed).sort();
+            return toResults(ReciprocalRankFusion.fuse(k, ReciprocalRankFusion.DEFAULT_RANK_CONSTANT, vectorRanking, lexicalRanking).sort());
+        } finally {
+            reclaimer.leave(epoch);
+            VectorDbMetrics.SEARCH_HYBRID.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void requireLexicalIndex() {
+        if(lexicalIndex == null) {
+            throw new IllegalStateException("No lexical index is configured for keyword search");
+        }
+    }
+
+    // An update indexes the new vector before the old one is removed, a search in between can see both. Only the
+    // better ranked of the two is kept, so an id never comes back twice, not even through the cache.
+    private List<SearchResult> toResults(TopK topK) {
+        String[] ids = documentIds;
+
+        List<SearchResult> results = new ArrayList<>(topK.size());
+        Set<String> seen = new HashSet<>(topK.size() * 2);
+        for(int index = 0; index < topK.size(); index++) {
+            int ordinal = topK.ordinalAt(index);
+            String documentId = ordinal < ids.length ? ids[ordinal] : null;
+            if(documentId != null && seen.add(documentId)) {
+                results.add(new SearchResult(documentId, topK.scoreAt(index)));
+            }
+        }
+        return results;
+    }
+
+    public int size() {
+        return ordinals.size();
+    }
+
+    public long offHeapBytes() {
+        return searchStrategy.offHeapBytes();
+    }
+
+    // Lets the indexes reclaim what removed documents still hold, then frees the ordinals they have all let go of.
+    // Runs like a write so a snapshot sees it whole.
+    public void compact() {
+        snapshotLock.readLock().lock();
+        try {
+            searchStrategy.compact();
+            metadataIndex.compact();
+            if(lexicalIndex != null) {
+                lexicalIndex.compact();
+            }
+            synchronized (this) {
+                reclaimer.reclaim(this::release);
+                releaseWaiting();
+            }
+        } finally {
+            snapshotLock.readLock().unlock();
+        }
+    }
+
+    // Releases the files and mappings behind the index, waits for a running snapshot first
+    public void close() {
+        snapshotLock.writeLock().lock();
+        try {
+            searchStrategy.close();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+    }
+
+    // Layout: magic, version, strategy class, next ordinal, (id, ordinal, fingerprint) triples, strategy state, crc32 of everything before it.
+    // Written to a temp file and moved into place so a crash never leaves a half written snapshot behind.
+    public void writeSnapshot(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        snapshotLock.writeLock().lock();
+        try (OutputStream file = Files.newOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 20), new CRC32());
+            DataOutputStream output = new DataOutputStream(checked);
+            output.writeInt(SNAPSHOT_MAGIC);
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeUTF(searchStrategy.getClass().getName());
+            output.writeInt(nextOrdinal);
+            output.writeInt(ordinals.size());
+            for(Map.Entry<String, Integer> entry : ordinals.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeInt(entry.getValue());
+                output.writeLong(fingerprints[entry.getValue()]);
+            }
+            searchStrategy.writeSnapshot(output);
+            output.flush();
+            output.writeInt((int) checked.getChecksum().getValue());
+            output.flush();
+        } finally {
+            snapshotLock.writeLock().unlock();
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // Returns false when there is no snapshot, throws when it is corrupt or was written by a different strategy.
+    // The checksum is verified before anything is applied so a failed restore leaves this instance empty.
+    public boolean readSnapshot(Path path) throws IOException {
+        if(!Files.exists(path)) {
+            return false;
+        }
+        verifyChecksum(path);
+
+        snapshotLock.writeLock().lock();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 20))) {
+            if(!ordinals.isEmpty() || nextOrdinal != 0) {
+                throw new IllegalStateException("Snapshots can only be restored into an empty index");
+            }
+            if(input.readInt() != SNAPSHOT_MAGIC || input.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot format: " + path);
+            }
+            String strategy = input.readUTF();
+            if(!strategy.equals(searchStrategy.getClass().getName())) {
+                throw new IOException("Snapshot was written by " + strategy + " but the index uses " + searchStrategy.getClass().getName());
+            }
+
+            int restoredNextOrdinal = input.readInt();
+            int count = input.readInt();
+            Map<String, Integer> restoredOrdinals = new HashMap<>(count * 2);
+            String[] restoredIds = new String[Math.max(VectorArena.BLOCK_ROWS, restoredNextOrdinal)];
+            long[] restoredFingerprints = new long[restoredIds.length];
+            for(int index = 0; index < count; index++) {
+                String documentId = input.readUTF();
+                int ordinal = input.readInt();
+                restoredOrdinals.put(documentId, ordinal);
+                restoredIds[ordinal] = documentId;
+                restoredFingerprints[ordinal] = input.readLong();
+            }
+            searchStrategy.readSnapshot(input);
+
+            synchronized (this) {
+                ordinals.putAll(restoredOrdinals);
+                fingerprints = restoredFingerprints;
+                documentIds = restoredIds;
+                nextOrdinal = restoredNextOrdinal;
+                for(int ordinal = 0; ordinal < restoredNextOrdinal; ordinal++) {
+                    if(restoredIds[ordinal] == null) {
+                        release(ordinal);
+                    }
+                }
+            }
+        } finally {
+            writeEpoch.incrementAndGet();
+            snapshotLock.writeLock().unlock();
+        }
+        log.info("Restored index snapshot {} with {} vectors", path, size());
+        return true;
+    }
+
+    private static void verifyChecksum(Path path) throws IOException {
+        long length = Files.size(path);
+        if(length < Integer.BYTES) {
+            throw new IOException("Truncated snapshot: " + path);
+        }
+        try (InputStream file = new BufferedInputStream(Files.newInputStream(path), 1 << 20)) {
+            CheckedInputStream checked = new CheckedInputStream(file, new CRC32());
+            byte[] buffer = new byte[1 << 16];
+            long remaining = length - Integer.BYTES;
+            while(remaining > 0) {
+                int read = checked.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if(read < 0) {
+                    throw new IOException("Truncated snapshot: " + path);
+                }
+                remaining -= read;
+            }
+            int expected = new DataInputStream(file).readInt();
+            if(expected != (int) checked.getChecksum().getValue()) {
+                throw new IOException("Snapshot checksum mismatch: " + path);
+            }
+        }
+    }
+
+    public BM25Index getLexicalIndex() {
+        return lexicalIndex;
+    }
+
+    public MetadataIndex getMetadataIndex() {
+        return metadataIndex;
+    }
+
+    // Null when searches are not cached
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    public SearchStrategy getSearchStrategy() {
+        return searchStrategy;
+    }
+
+    @Override
+    public String toString() {
+        return "SearchSimilarity{" +
+                "searchStrategy=" + searchStrategy +
+                ", size=" + size() +
+                '}';
+    }
 }
@@ -0,0 +1,63 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.roaringbitmap.RoaringBitmap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Indexes work on dense ordinals handed out by SearchSimilarity, document ids never reach the hot path
+public interface SearchStrategy {
+    void add(int ordinal, float[] vector);
+
+    void remove(int ordinal);
+
+    TopK search(float[] query, int k);
+
+    // Only ordinals in allowed may be returned, the filter is applied while searching so k matches come back when they exist
+    TopK search(float[] query, int k, RoaringBitmap allowed);
+
+    // One top k per query, in order. Strategies that can share work across the queries override the second form.
+    default TopK[] searchBatch(float[][] queries, int k) {
+        return searchBatch(queries, k, null);
+    }
+
+    default TopK[] searchBatch(float[][] queries, int k, RoaringBitmap allowed) {
+        TopK[] results = new TopK[queries.length];
+        for(int query = 0; query < queries.length; query++) {
+            results[query] = allowed == null ? search(queries[query], k) : search(queries[query], k, allowed);
+        }
+        return results;
+    }
+
+    int size();
+
+    // Memory the index holds outside the Java heap, mapped vector files for example
+    default long offHeapBytes() {
+        return 0;
+    }
+
+    // Background maintenance after removals, reclaims what removed ordinals still hold inside the index
+    default void compact() {
+    }
+
+    // Whether a removed ordinal may be added again. Strategies that keep removed ordinals around until compact say
+    // false until then, SearchSimilarity only hands an ordinal out again once this is true.
+    default boolean isReleased(int ordinal) {
+        return true;
+    }
+
+    // Releases the files and mappings the index holds, it must not be used afterwards
+    default void close() {
+    }
+
+    // Snapshots let a restart skip rebuilding the index, strategies without one are rebuilt from storage
+    default void writeSnapshot(DataOutput output) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support snapshots");
+    }
+
+    // Only valid on an empty strategy, replaces its whole state
+    default void readSnapshot(DataInput input) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support snapshots");
+    }
+}
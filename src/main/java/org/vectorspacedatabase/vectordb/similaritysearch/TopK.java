@@ -0,0 +1,154 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import java.util.Arrays;
+
+// Bounded min-heap over primitive arrays, the root is the worst of the best k seen so far
+public class TopK {
+
+    private final int capacity;
+
+    private final int[] ordinals;
+
+    private final float[] scores;
+
+    private int size;
+
+    private boolean sorted;
+
+    public TopK(int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("k must be greater than zero");
+        }
+        this.capacity = capacity;
+        this.ordinals = new int[capacity];
+        this.scores = new float[capacity];
+    }
+
+    public boolean offer(int ordinal, float score) {
+        if(sorted) {
+            throw new IllegalStateException("TopK is already sorted");
+        }
+
+        if(size < capacity) {
+            ordinals[size] = ordinal;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+
+        if(score <= scores[0]) {
+            return false;
+        }
+
+        ordinals[0] = ordinal;
+        scores[0] = score;
+        siftDown(0, size);
+        return true;
+    }
+
+    // Lowest score that can still enter, -Infinity until the heap is full
+    public float threshold() {
+        return size < capacity ? Float.NEGATIVE_INFINITY : scores[0];
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void merge(TopK other) {
+        for(int index = 0; index < other.size; index++) {
+            offer(other.ordinals[index], other.scores[index]);
+        }
+    }
+
+    // Replaces every entry with the one it maps to, for indexes that collect rows and hand back ordinals
+    public TopK remap(int[] mapping) {
+        for(int index = 0; index < size; index++) {
+            ordinals[index] = mapping[ordinals[index]];
+        }
+        return this;
+    }
+
+    // Heap sort in place, afterwards ordinalAt(0) is the best match
+    public TopK sort() {
+        if(!sorted) {
+            for(int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            sorted = true;
+        }
+        return this;
+    }
+
+    public int ordinalAt(int index) {
+        checkSorted();
+        return ordinals[index];
+    }
+
+    public float scoreAt(int index) {
+        checkSorted();
+        return scores[index];
+    }
+
+    private void checkSorted() {
+        if(!sorted) {
+            throw new IllegalStateException("TopK must be sorted before reading results");
+        }
+    }
+
+    private void siftUp(int index) {
+        while(index > 0) {
+            int parent = (index - 1) >>> 1;
+            if(scores[parent] <= scores[index]) {
+                break;
+            }
+            swap(parent, index);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index, int limit) {
+        while(true) {
+            int left = 2 * index + 1;
+            if(left >= limit) {
+                break;
+            }
+            int smallest = left;
+            int right = left + 1;
+            if(right < limit && scores[right] < scores[left]) {
+                smallest = right;
+            }
+            if(scores[index] <= scores[smallest]) {
+                break;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int ordinal = ordinals[i];
+        ordinals[i] = ordinals[j];
+        ordinals[j] = ordinal;
+        float score = scores[i];
+        scores[i] = scores[j];
+        scores[j] = score;
+    }
+
+    @Override
+    public String toString() {
+        return "TopK{" +
+                "ordinals=" + Arrays.toString(Arrays.copyOf(ordinals, size)) +
+                ", scores=" + Arrays.toString(Arrays.copyOf(scores, size)) +
+                '}';
+    }
+}
@@ -0,0 +1,87 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Dense vector storage addressed by ordinal, rows are grouped in blocks of BLOCK_ROWS so scans score a block slice per call.
+// Implementations keep the L2 norm of every row so cosine never recomputes it. A normalized arena stores unit length rows,
+// which turns cosine into a plain dot product.
+public interface VectorArena {
+
+    int BLOCK_ROWS = 1024;
+
+    // Creates the arena once the first vector fixes the dimension
+    interface Factory {
+        VectorArena create(int dimension, boolean normalized);
+    }
+
+    Factory ON_HEAP = HeapVectorArena::new;
+
+    void set(int ordinal, float[] vector);
+
+    // Copy of the stored row
+    float[] get(int ordinal);
+
+    float norm(int ordinal);
+
+    // Called once per query before any score or scoreBatch
+    default ScoringQuery prepare(Metric metric, float[] query) {
+        return new ScoringQuery(query);
+    }
+
+    float score(Metric metric, ScoringQuery query, int ordinal);
+
+    // Scores rows consecutive ordinals starting at from into scores[0..rows), the range must not cross a block boundary
+    void scoreBatch(Metric metric, ScoringQuery query, int from, int rows, float[] scores);
+
+    // Arenas with approximate scores ask the index for more candidates than k and rescore them at full precision
+    default int candidates(int k) {
+        return k;
+    }
+
+    default TopK rescore(Metric metric, ScoringQuery query, TopK candidates, int k) {
+        return candidates;
+    }
+
+    boolean isNormalized();
+
+    int dimension();
+
+    // Highest ordinal written plus one, rows below it may still be empty or removed
+    int size();
+
+    // Memory held outside the Java heap, a mapped file counts with everything mapped so far
+    default long offHeapBytes() {
+        return 0;
+    }
+
+    // Releases the files and mappings behind the arena, nothing may read or write it afterwards
+    default void close() {
+    }
+
+    // Rows go block by block as little endian floats, each block followed by its norms
+    void writeRows(DataOutput output, int rows) throws IOException;
+
+    void readRows(DataInput input, int rows) throws IOException;
+
+    default void writeTo(DataOutput output) throws IOException {
+        writeTo(output, size());
+    }
+
+    // Only the first rows, an index that packs its rows leaves the ones above unused
+    default void writeTo(DataOutput output, int rows) throws IOException {
+        output.writeInt(dimension());
+        output.writeBoolean(isNormalized());
+        output.writeInt(rows);
+        writeRows(output, rows);
+    }
+
+    static VectorArena readFrom(DataInput input, Factory factory) throws IOException {
+        VectorArena arena = factory.create(input.readInt(), input.readBoolean());
+        arena.readRows(input, input.readInt());
+        return arena;
+    }
+}
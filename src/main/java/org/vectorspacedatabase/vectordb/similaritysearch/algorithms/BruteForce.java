@@ -1,4 +1,552 @@
 package org.vectorspacedatabase.vectordb.similaritysearch.algorithms;
 
-public class BruteForce {
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.similaritysearch.ScoringQuery;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchStrategy;
+import org.vectorspacedatabase.vectordb.similaritysearch.TopK;
+import org.vectorspacedatabase.vectordb.similaritysearch.VectorArena;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.DistanceMetrics;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Exact k-NN, scans the whole arena and splits the rows across the fork/join pool. Vectors sit in arena rows of their own
+// rather than at their ordinal: an add fills the lowest row a removal left empty, and compact moves the last rows into
+// the remaining holes, so the scanned rows stay as many as the live vectors.
+public class BruteForce implements SearchStrategy {
+
+    private static final Logger log = LoggerFactory.getLogger(BruteForce.class);
+
+    // Filters allowing fewer than one row in this many are scored row by row instead of scanning blocks
+    private static final int SPARSE_FILTER_RATIO = 16;
+
+    // Rows a batch search scores every query against before moving on, sized to stay in a core's L2 cache
+    private static final int TILE_BYTES = 256 * 1024;
+
+    // Batch scans are cut into about this many tasks per worker, each task keeps a top k per query
+    private static final int BATCH_TASKS_PER_WORKER = 4;
+
+    private final Metric metric;
+
+    private final boolean normalizedVectors;
+
+    // Metric actually run by the kernels, cosine over unit vectors is a dot product
+    private final Metric scoringMetric;
+
+    private final VectorArena.Factory arenaFactory;
+
+    private final ForkJoinPool pool;
+
+    private final int minRowsPerTask;
+
+    // Live rows
+    private final BitSet live = new BitSet();
+
+    // Rows below rows that removals emptied, the lowest is filled first
+    private final RoaringBitmap freeRows = new RoaringBitmap();
+
+    // Ordinal held by each row and row holding each ordinal, -1 for none
+    private int[] rowOrdinals = new int[0];
+
+    private int[] ordinalRows = new int[0];
+
+    // Rows handed out, scans stop here
+    private int rows;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private VectorArena arena;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Metric metric = Metric.COSINE;
+        private boolean normalizedVectors;
+        private VectorArena.Factory arenaFactory = VectorArena.ON_HEAP;
+        private ForkJoinPool pool = ForkJoinPool.commonPool();
+        private int minRowsPerTask = 4 * VectorArena.BLOCK_ROWS;
+
+        public Builder withMetric(Metric metric) {
+            this.metric = metric;
+            return this;
+        }
+
+        // Where vectors live, on the heap by default or in a memory-mapped file through MappedVectorArena.factory
+        public Builder withArenaFactory(VectorArena.Factory arenaFactory) {
+            this.arenaFactory = arenaFactory;
+            return this;
+        }
+
+        // Stores unit length vectors, only valid for cosine
+        public Builder withNormalizedVectors(boolean normalizedVectors) {
+            this.normalizedVectors = normalizedVectors;
+            return this;
+        }
+
+        public Builder withPool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public Builder withMinRowsPerTask(int minRowsPerTask) {
+            if(minRowsPerTask <= 0) {
+                throw new IllegalArgumentException("minRowsPerTask must be greater than zero");
+            }
+            this.minRowsPerTask = minRowsPerTask;
+            return this;
+        }
+
+        public BruteForce build() {
+            if(normalizedVectors && metric != Metric.COSINE) {
+                throw new IllegalArgumentException("Normalized vectors are only supported for cosine similarity");
+            }
+            return new BruteForce(this);
+        }
+    }
+
+    public BruteForce(Builder builder) {
+        this.metric = builder.metric;
+        this.normalizedVectors = builder.normalizedVectors;
+        this.scoringMetric = builder.normalizedVectors ? Metric.DOT_PRODUCT : builder.metric;
+        this.arenaFactory = builder.arenaFactory;
+        this.pool = builder.pool;
+        this.minRowsPerTask = builder.minRowsPerTask;
+    }
+
+    @Override
+    public void add(int ordinal, float[] vector) {
+        lock.writeLock().lock();
+        try {
+            if(arena == null) {
+                arena = arenaFactory.create(vector.length, normalizedVectors);
+            }
+            int row = rowOf(ordinal);
+            if(row < 0) {
+                row = freeRows.isEmpty() ? rows++ : freeRows.first();
+                freeRows.remove(row);
+                ensureCapacity(ordinal, row);
+                rowOrdinals[row] = ordinal;
+                ordinalRows[ordinal] = row;
+            }
+            arena.set(row, vector);
+            live.set(row);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void remove(int ordinal) {
+        lock.writeLock().lock();
+        try {
+            int row = rowOf(ordinal);
+            if(row < 0) {
+                return;
+            }
+            live.clear(row);
+            freeRows.add(row);
+            rowOrdinals[row] = -1;
+            ordinalRows[ordinal] = -1;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Moves the last live rows into the holes below them, one vector copy each, and gives the emptied tail back.
+    // Searches wait for it, it only copies as many rows as there are holes.
+    @Override
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            int moved = 0;
+            int last = live.previousSetBit(rows - 1);
+            for(int hole = live.nextClearBit(0); hole < last; hole = live.nextClearBit(hole + 1)) {
+                int ordinal = rowOrdinals[last];
+                arena.set(hole, arena.get(last));
+                live.set(hole);
+                live.clear(last);
+                rowOrdinals[hole] = ordinal;
+                rowOrdinals[last] = -1;
+                ordinalRows[ordinal] = hole;
+                last = live.previousSetBit(last - 1);
+                moved++;
+            }
+            if(rows > last + 1) {
+                log.debug("Packed {} rows into {}, moved {}", rows, last + 1, moved);
+            }
+            rows = last + 1;
+            freeRows.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Callers hold the lock
+    private int rowOf(int ordinal) {
+        return ordinal < ordinalRows.length ? ordinalRows[ordinal] : -1;
+    }
+
+    private void ensureCapacity(int ordinal, int row) {
+        if(row >= rowOrdinals.length) {
+            int length = rowOrdinals.length;
+            rowOrdinals = Arrays.copyOf(rowOrdinals, Math.max(row + 1, Math.max(VectorArena.BLOCK_ROWS, length * 2)));
+            Arrays.fill(rowOrdinals, length, rowOrdinals.length, -1);
+        }
+        if(ordinal >= ordinalRows.length) {
+            int length = ordinalRows.length;
+            ordinalRows = Arrays.copyOf(ordinalRows, Math.max(ordinal + 1, Math.max(VectorArena.BLOCK_ROWS, length * 2)));
+            Arrays.fill(ordinalRows, length, ordinalRows.length, -1);
+        }
+    }
+
+
+    @Override
+    public TopK search(float[] query, int k) {
+        return search(query, k, null);
+    }
+
+    @Override
+    public TopK search(float[] query, int k, RoaringBitmap allowed) {
+        lock.readLock().lock();
+        try {
+            if(arena == null) {
+                return new TopK(k);
+            }
+            if(query.length != arena.dimension()) {
+                throw new IllegalArgumentException("Vectors size must be same");
+            }
+
+            ScoringQuery scoringQuery = arena.prepare(scoringMetric, normalizedVectors ? DistanceMetrics.normalize(query) : query);
+            int candidates = arena.candidates(k);
+
+            int rows = this.rows;
+            TopK topK;
+            if(allowed != null && allowed.getCardinality() < rows / SPARSE_FILTER_RATIO) {
+                topK = scoreAllowed(scoringQuery, candidates, allowed);
+            } else {
+                topK = rows <= minRowsPerTask
+                        ? scan(scoringQuery, candidates, allowed, 0, rows)
+                        : pool.invoke(new ScanTask(scoringQuery, candidates, allowed, 0, rows));
+            }
+            // Scans collect rows, callers get ordinals
+            return arena.rescore(scoringMetric, scoringQuery, topK, k).remap(rowOrdinals);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Many queries in one pass: rows are cut into cache sized tiles and every query is scored against a tile before the
+    // next one is read, so the arena streams from memory once per batch instead of once per query. Tiles are split
+    // across the pool by row range, the per-range top k lists are merged per query.
+    @Override
+    public TopK[] searchBatch(float[][] queries, int k, RoaringBitmap allowed) {
+        lock.readLock().lock();
+        try {
+            TopK[] results = new TopK[queries.length];
+            if(arena == null) {
+                for(int query = 0; query < queries.length; query++) {
+                    results[query] = new TopK(k);
+                }
+                return results;
+            }
+
+            ScoringQuery[] scoringQueries = new ScoringQuery[queries.length];
+            for(int query = 0; query < queries.length; query++) {
+                if(queries[query].length != arena.dimension()) {
+                    throw new IllegalArgumentException("Vectors size must be same");
+                }
+                scoringQueries[query] = arena.prepare(scoringMetric,
+                        normalizedVectors ? DistanceMetrics.normalize(queries[query]) : queries[query]);
+            }
+            int candidates = arena.candidates(k);
+
+            int rows = this.rows;
+            TopK[] topKs;
+            if(allowed != null && allowed.getCardinality() < rows / SPARSE_FILTER_RATIO) {
+                topKs = new TopK[queries.length];
+                for(int query = 0; query < queries.length; query++) {
+                    topKs[query] = scoreAllowed(scoringQueries[query], candidates, allowed);
+                }
+            } else {
+                int rowsPerTask = Math.max(minRowsPerTask, rows / (pool.getParallelism() * BATCH_TASKS_PER_WORKER));
+                topKs = rows <= rowsPerTask
+                        ? scanBatch(scoringQueries, candidates, allowed, 0, rows)
+                        : pool.invoke(new BatchScanTask(scoringQueries, candidates, allowed, 0, rows, rowsPerTask));
+            }
+            for(int query = 0; query < queries.length; query++) {
+                results[query] = arena.rescore(scoringMetric, scoringQueries[query], topKs[query], k).remap(rowOrdinals);
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private TopK scoreAllowed(ScoringQuery query, int k, RoaringBitmap allowed) {
+        TopK topK = new TopK(k);
+        PeekableIntIterator ordinals = allowed.getIntIterator();
+        while(ordinals.hasNext()) {
+            int ordinal = ordinals.next();
+            if(ordinal >= ordinalRows.length) {
+                break;
+            }
+            int row = ordinalRows[ordinal];
+            if(row >= 0) {
+                topK.offer(row, arena.score(scoringMetric, query, row));
+            }
+        }
+        return topK;
+    }
+
+    // Scores whole block slices with the batch kernels, then offers the live rows that pass the filter
+    private TopK scan(ScoringQuery query, int k, RoaringBitmap allowed, int from, int to) {
+        TopK topK = new TopK(k);
+        float[] scores = new float[VectorArena.BLOCK_ROWS];
+
+        int start = from;
+        while(start < to) {
+            int blockIndex = start / VectorArena.BLOCK_ROWS;
+            int end = Math.min(to, (blockIndex + 1) * VectorArena.BLOCK_ROWS);
+
+            int first = live.nextSetBit(start);
+            if(first < 0 || first >= to) {
+                break;
+            }
+            if(first >= end) {
+                start = first;
+                continue;
+            }
+
+            arena.scoreBatch(scoringMetric, query, first, end - first, scores);
+            for(int row = first; row >= 0 && row < end; row = live.nextSetBit(row + 1)) {
+                if(allowed == null || allowed.contains(rowOrdinals[row])) {
+                    topK.offer(row, scores[row - first]);
+                }
+            }
+            start = end;
+        }
+        return topK;
+    }
+
+    // Live rows that pass the filter are listed once per tile, then each query scores the tile and offers those rows
+    private TopK[] scanBatch(ScoringQuery[] queries, int k, RoaringBitmap allowed, int from, int to) {
+        TopK[] topKs = new TopK[queries.length];
+        for(int query = 0; query < queries.length; query++) {
+            topKs[query] = new TopK(k);
+        }
+        int tileRows = Math.max(1, Math.min(VectorArena.BLOCK_ROWS, TILE_BYTES / (arena.dimension() * Float.BYTES)));
+        float[] scores = new float[tileRows];
+        int[] accepted = new int[tileRows];
+
+        int start = from;
+        while(start < to) {
+            int first = live.nextSetBit(start);
+            if(first < 0 || first >= to) {
+                break;
+            }
+            int end = Math.min(Math.min(to, first + tileRows), (first / VectorArena.BLOCK_ROWS + 1) * VectorArena.BLOCK_ROWS);
+
+            int count = 0;
+            for(int row = first; row >= 0 && row < end; row = live.nextSetBit(row + 1)) {
+                if(allowed == null || allowed.contains(rowOrdinals[row])) {
+                    accepted[count++] = row;
+                }
+            }
+            if(count > 0) {
+                for(int query = 0; query < queries.length; query++) {
+                    arena.scoreBatch(scoringMetric, queries[query], first, end - first, scores);
+                    TopK topK = topKs[query];
+                    for(int index = 0; index < count; index++) {
+                        topK.offer(accepted[index], scores[accepted[index] - first]);
+                    }
+                }
+            }
+            start = end;
+        }
+        return topKs;
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return live.cardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public long offHeapBytes() {
+        lock.readLock().lock();
+        try {
+            return arena == null ? 0 : arena.offHeapBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if(arena != null) {
+                arena.close();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    // The rows in use followed by the ordinal each holds, -1 for a hole
+    @Override
+    public void writeSnapshot(DataOutput output) throws IOException {
+        lock.readLock().lock();
+        try {
+            output.writeBoolean(arena != null);
+            if(arena == null) {
+                return;
+            }
+            arena.writeTo(output, rows);
+            for(int row = 0; row < rows; row++) {
+                output.writeInt(rowOrdinals[row]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void readSnapshot(DataInput input) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if(arena != null) {
+                throw new IllegalStateException("Snapshots can only be restored into an empty index");
+            }
+            if(!input.readBoolean()) {
+                return;
+            }
+            VectorArena restored = VectorArena.readFrom(input, arenaFactory);
+            if(restored.isNormalized() != normalizedVectors) {
+                throw new IOException("Snapshot normalization does not match the index configuration");
+            }
+            int restoredRows = restored.size();
+            for(int row = 0; row < restoredRows; row++) {
+                int ordinal = input.readInt();
+                if(ordinal < 0) {
+                    freeRows.add(row);
+                    continue;
+                }
+                ensureCapacity(ordinal, row);
+                rowOrdinals[row] = ordinal;
+                ordinalRows[ordinal] = row;
+                live.set(row);
+            }
+            rows = restoredRows;
+            arena = restored;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Forked tasks run while the caller holds the read lock, so they see a stable arena
+    private class ScanTask extends RecursiveTask<TopK> {
+        private final ScoringQuery query;
+        private final int k;
+        private final RoaringBitmap allowed;
+        private final int from;
+        private final int to;
+
+        ScanTask(ScoringQuery query, int k, RoaringBitmap allowed, int from, int to) {
+            this.query = query;
+            this.k = k;
+            this.allowed = allowed;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopK compute() {
+            if(to - from <= minRowsPerTask) {
+                return scan(query, k, allowed, from, to);
+            }
+
+            // Split on block boundaries so each task streams whole blocks
+            int middle = from + ((to - from) / 2 / VectorArena.BLOCK_ROWS) * VectorArena.BLOCK_ROWS;
+            if(middle <= from) {
+                middle = from + (to - from) / 2;
+            }
+            ScanTask left = new ScanTask(query, k, allowed, from, middle);
+            ScanTask right = new ScanTask(query, k, allowed, middle, to);
+            left.fork();
+            TopK topK = right.compute();
+            topK.merge(left.join());
+            return topK;
+        }
+    }
+
+    private class BatchScanTask extends RecursiveTask<TopK[]> {
+        private final ScoringQuery[] queries;
+        private final int k;
+        private final RoaringBitmap allowed;
+        private final int from;
+        private final int to;
+        private final int rowsPerTask;
+
+        BatchScanTask(ScoringQuery[] queries, int k, RoaringBitmap allowed, int from, int to, int rowsPerTask) {
+            this.queries = queries;
+            this.k = k;
+            this.allowed = allowed;
+            this.from = from;
+            this.to = to;
+            this.rowsPerTask = rowsPerTask;
+        }
+
+        @Override
+        protected TopK[] compute() {
+            if(to - from <= rowsPerTask) {
+                return scanBatch(queries, k, allowed, from, to);
+            }
+
+            int middle = from + ((to - from) / 2 / VectorArena.BLOCK_ROWS) * VectorArena.BLOCK_ROWS;
+            if(middle <= from) {
+                middle = from + (to - from) / 2;
+            }
+            BatchScanTask left = new BatchScanTask(queries, k, allowed, from, middle, rowsPerTask);
+            BatchScanTask right = new BatchScanTask(queries, k, allowed, middle, to, rowsPerTask);
+            left.fork();
+            TopK[] topKs = right.compute();
+            TopK[] leftTopKs = left.join();
+            for(int query = 0; query < topKs.length; query++) {
+                topKs[query].merge(leftTopKs[query]);
+            }
+            return topKs;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "BruteForce{" +
+                "metric=" + metric +
+                ", normalizedVectors=" + normalizedVectors +
+                ", size=" + size() +
+                '}';
+    }
 }
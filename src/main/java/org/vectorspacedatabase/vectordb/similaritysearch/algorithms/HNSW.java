@@ -1,4 +1,873 @@
 package org.vectorspacedatabase.vectordb.similaritysearch.algorithms;
 
-public class HNSW {
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.similaritysearch.ScoringQuery;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchStrategy;
+import org.vectorspacedatabase.vectordb.similaritysearch.TopK;
+import org.vectorspacedatabase.vectordb.similaritysearch.VectorArena;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.DistanceMetrics;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntPredicate;
+
+// Hierarchical navigable small world graph (Malkov & Yashunin).
+// Inserts lock one node at a time while rewiring its neighbour list, lists are replaced copy-on-write so searches never lock.
+public class HNSW implements SearchStrategy {
+
+    private static final Logger log = LoggerFactory.getLogger(HNSW.class);
+
+    private static final int NODE_CHUNK = VectorArena.BLOCK_ROWS;
+
+    private static final int MAX_LEVEL = 16;
+
+    private static final int[] NO_NEIGHBOURS = new int[0];
+
+    // Takes the place of every unlinked node, so their lists are garbage once compact is done with them
+    private static final Node REMOVED = removedNode();
+
+    private static final ThreadLocal<VisitedSet> VISITED = ThreadLocal.withInitial(VisitedSet::new);
+
+    private final Metric metric;
+
+    private final boolean normalizedVectors;
+
+    // Metric actually run by the kernels, cosine over unit vectors is a dot product
+    private final Metric scoringMetric;
+
+    private final VectorArena.Factory arenaFactory;
+
+    private final int m;
+
+    private final int maxM0;
+
+    private final int efConstruction;
+
+    private volatile int efSearch;
+
+    private final int exactFilterThreshold;
+
+    private final double levelMultiplier;
+
+    private final double repairThreshold;
+
+    private volatile VectorArena arena;
+
+    private volatile AtomicReferenceArray<Node>[] nodes = newChunks(0);
+
+    private volatile EntryPoint entryPoint;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    // Removed nodes other nodes may still link to
+    private final AtomicInteger linkedRemovals = new AtomicInteger();
+
+    // One repair at a time
+    private final Object repairLock = new Object();
+
+    // Nodes the running compact is unlinking, its second repair pass still looks them up by ordinal
+    private volatile RoaringBitmap unlinking;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Metric metric = Metric.COSINE;
+        private boolean normalizedVectors;
+        private VectorArena.Factory arenaFactory = VectorArena.ON_HEAP;
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 50;
+        private int exactFilterThreshold = 10_000;
+        private double repairThreshold = 0.1;
+
+        public Builder withMetric(Metric metric) {
+            this.metric = metric;
+            return this;
+        }
+
+        // Where vectors live, on the heap by default or in a memory-mapped file through MappedVectorArena.factory
+        public Builder withArenaFactory(VectorArena.Factory arenaFactory) {
+            this.arenaFactory = arenaFactory;
+            return this;
+        }
+
+        // Stores unit length vectors, only valid for cosine
+        public Builder withNormalizedVectors(boolean normalizedVectors) {
+            this.normalizedVectors = normalizedVectors;
+            return this;
+        }
+
+        public Builder withM(int m) {
+            if(m < 2) {
+                throw new IllegalArgumentException("M must be at least 2");
+            }
+            this.m = m;
+            return this;
+        }
+
+        public Builder withEfConstruction(int efConstruction) {
+            if(efConstruction <= 0) {
+                throw new IllegalArgumentException("efConstruction must be greater than zero");
+            }
+            this.efConstruction = efConstruction;
+            return this;
+        }
+
+        public Builder withEfSearch(int efSearch) {
+            if(efSearch <= 0) {
+                throw new IllegalArgumentException("efSearch must be greater than zero");
+            }
+            this.efSearch = efSearch;
+            return this;
+        }
+
+        // Filters allowing at most this many vectors are scored directly, walking the graph would visit most of it anyway
+        public Builder withExactFilterThreshold(int exactFilterThreshold) {
+            if(exactFilterThreshold < 0) {
+                throw new IllegalArgumentException("exactFilterThreshold must not be negative");
+            }
+            this.exactFilterThreshold = exactFilterThreshold;
+            return this;
+        }
+
+        // Removed nodes stay linked until they are this fraction of the graph, compact then repairs around them
+        public Builder withRepairThreshold(double repairThreshold) {
+            if(repairThreshold <= 0 || repairThreshold > 1) {
+                throw new IllegalArgumentException("repairThreshold must be in (0, 1]");
+            }
+            this.repairThreshold = repairThreshold;
+            return this;
+        }
+
+        public HNSW build() {
+            if(normalizedVectors && metric != Metric.COSINE) {
+                throw new IllegalArgumentException("Normalized vectors are only supported for cosine similarity");
+            }
+            return new HNSW(this);
+        }
+    }
+
+    public HNSW(Builder builder) {
+        this.metric = builder.metric;
+        this.normalizedVectors = builder.normalizedVectors;
+        this.scoringMetric = builder.normalizedVectors ? Metric.DOT_PRODUCT : builder.metric;
+        this.arenaFactory = builder.arenaFactory;
+        this.m = builder.m;
+        this.maxM0 = 2 * builder.m;
+        this.efConstruction = Math.max(builder.efConstruction, builder.m);
+        this.efSearch = builder.efSearch;
+        this.exactFilterThreshold = builder.exactFilterThreshold;
+        this.levelMultiplier = 1 / Math.log(builder.m);
+        this.repairThreshold = builder.repairThreshold;
+    }
+
+    @Override
+    public void add(int ordinal, float[] vector) {
+        VectorArena vectors = arenaFor(vector);
+        vectors.set(ordinal, vector);
+        if(normalizedVectors) {
+            vector = DistanceMetrics.normalize(vector);
+        }
+        ScoringQuery scoringVector = vectors.prepare(scoringMetric, vector);
+
+        Node node = new Node(randomLevel());
+        publish(ordinal, node);
+        size.incrementAndGet();
+
+        EntryPoint entry = entryPoint;
+        if(entry == null) {
+            synchronized (this) {
+                entry = entryPoint;
+                if(entry == null) {
+                    entryPoint = new EntryPoint(ordinal, node.level);
+                    return;
+                }
+            }
+        }
+
+        int current = entry.ordinal;
+        float currentScore = score(scoringVector, current);
+        for(int level = entry.level; level > node.level; level--) {
+            current = greedyClosest(scoringVector, current, currentScore, level);
+            currentScore = score(scoringVector, current);
+        }
+
+        // Removed nodes are walked through but not linked to, compact could not unlink them otherwise
+        IntPredicate live = candidate -> !node(candidate).deleted;
+        for(int level = Math.min(node.level, entry.level); level >= 0; level--) {
+            TopK candidates = searchLayer(scoringVector, current, efConstruction, level, live).sort();
+            if(candidates.size() == 0) {
+                continue;
+            }
+            int[] selected = selectNeighbours(candidates, m);
+
+            synchronized (node) {
+                if(!node.unlinked) {
+                    node.neighbours.set(level, selected);
+                }
+            }
+            for(int neighbour : selected) {
+                connect(neighbour, ordinal, level);
+            }
+            current = candidates.ordinalAt(0);
+        }
+
+        if(node.level > entry.level) {
+            synchronized (this) {
+                if(node.level > entryPoint.level) {
+                    entryPoint = new EntryPoint(ordinal, node.level);
+                }
+            }
+        }
+    }
+
+    // Removed nodes stay in the graph so it remains navigable, they are only kept out of the results until compact
+    // unlinks them
+    @Override
+    public void remove(int ordinal) {
+        Node node = node(ordinal);
+        if(node != null && !node.deleted) {
+            node.deleted = true;
+            size.decrementAndGet();
+            linkedRemovals.incrementAndGet();
+        }
+    }
+
+    // Once removed nodes pass repairThreshold of the graph, every live node linking to one reselects that level's
+    // neighbours from its remaining ones plus the removed node's live neighbours, then the removed nodes are dropped.
+    // Only nodes removed before the repair starts are unlinked, searches and inserts carry on meanwhile. An insert can
+    // still link to a node between the first pass and its unlinking, a second pass repairs those lists.
+    @Override
+    public void compact() {
+        synchronized (repairLock) {
+            int pending = linkedRemovals.get();
+            if(pending == 0 || size.get() == 0 || pending < repairThreshold * (size.get() + pending)) {
+                return;
+            }
+            long start = System.nanoTime();
+
+            RoaringBitmap removed = new RoaringBitmap();
+            int rows = nodes.length * NODE_CHUNK;
+            int entryOrdinal = -1;
+            int entryLevel = -1;
+            for(int ordinal = 0; ordinal < rows; ordinal++) {
+                Node node = node(ordinal);
+                if(node == null) {
+                    continue;
+                }
+                if(node.deleted) {
+                    if(!node.unlinked) {
+                        removed.add(ordinal);
+                    }
+                } else if(node.level > entryLevel) {
+                    entryOrdinal = ordinal;
+                    entryLevel = node.level;
+                }
+            }
+            if(removed.isEmpty() || entryOrdinal < 0) {
+                return;
+            }
+
+            // The entry point must not lead into a node whose lists are about to go
+            synchronized (this) {
+                if(removed.contains(entryPoint.ordinal)) {
+                    entryPoint = new EntryPoint(entryOrdinal, entryLevel);
+                }
+            }
+
+            // Nodes unlinked by an earlier compact count too, a racing insert may have linked to one
+            IntPredicate gone = neighbour -> removed.contains(neighbour) || node(neighbour).unlinked;
+            unlinking = removed;
+            int repaired;
+            try {
+                repaired = repairAll(gone);
+
+                AtomicReferenceArray<Node>[] chunks = nodes;
+                PeekableIntIterator ordinals = removed.getIntIterator();
+                while(ordinals.hasNext()) {
+                    int ordinal = ordinals.next();
+                    Node node = node(ordinal);
+                    synchronized (node) {
+                        for(int level = 0; level <= node.level; level++) {
+                            node.neighbours.set(level, NO_NEIGHBOURS);
+                        }
+                        node.unlinked = true;
+                    }
+                    chunks[ordinal / NODE_CHUNK].compareAndSet(ordinal % NODE_CHUNK, node, REMOVED);
+                }
+                repaired += repairAll(gone);
+            } finally {
+                unlinking = null;
+            }
+            linkedRemovals.addAndGet(-removed.getCardinality());
+            log.debug("Unlinked {} removed nodes, repaired {} neighbour lists in {} ms", removed.getCardinality(), repaired,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    private int repairAll(IntPredicate gone) {
+        int repaired = 0;
+        int rows = nodes.length * NODE_CHUNK;
+        for(int ordinal = 0; ordinal < rows; ordinal++) {
+            Node node = node(ordinal);
+            if(node == null || node.deleted) {
+                continue;
+            }
+            for(int level = 0; level <= node.level; level++) {
+                if(repair(ordinal, node, level, gone)) {
+                    repaired++;
+                }
+            }
+        }
+        return repaired;
+    }
+
+    private boolean repair(int ordinal, Node node, int level, IntPredicate gone) {
+        if(!linksInto(node.neighbours.get(level), gone)) {
+            return false;
+        }
+        VectorArena vectors = arena;
+        ScoringQuery base = vectors.prepare(scoringMetric, vectors.get(ordinal));
+        int maxNeighbours = level == 0 ? maxM0 : m;
+
+        synchronized (node) {
+            int[] current = node.neighbours.get(level);
+            VisitedSet seen = VISITED.get();
+            seen.reset(nodes.length * NODE_CHUNK);
+            seen.visit(ordinal);
+            TopK candidates = new TopK(current.length * (maxNeighbours + 1));
+            for(int neighbour : current) {
+                if(!gone.test(neighbour) && seen.visit(neighbour)) {
+                    candidates.offer(neighbour, score(base, neighbour));
+                }
+                for(int second : node(neighbour).neighbours.get(level)) {
+                    if(!gone.test(second) && seen.visit(second)) {
+                        candidates.offer(second, score(base, second));
+                    }
+                }
+            }
+            node.neighbours.set(level, selectNeighbours(candidates.sort(), maxNeighbours));
+        }
+        return true;
+    }
+
+    private static boolean linksInto(int[] neighbours, IntPredicate gone) {
+        for(int neighbour : neighbours) {
+            if(gone.test(neighbour)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public TopK search(float[] query, int k) {
+        return search(query, k, null);
+    }
+
+    // The graph is walked through every node but only allowed ones enter the results, so the walk keeps going until
+    // ef of them are found. Small filters skip the graph and score their vectors directly.
+    @Override
+    public TopK search(float[] query, int k, RoaringBitmap allowed) {
+        EntryPoint entry = entryPoint;
+        if(entry == null) {
+            return new TopK(k);
+        }
+        if(query.length != arena.dimension()) {
+            throw new IllegalArgumentException("Vectors size must be same");
+        }
+        VectorArena vectors = arena;
+        ScoringQuery scoringQuery = vectors.prepare(scoringMetric, normalizedVectors ? DistanceMetrics.normalize(query) : query);
+        int candidateCount = vectors.candidates(k);
+
+        if(allowed != null && allowed.getCardinality() <= exactFilterThreshold) {
+            return vectors.rescore(scoringMetric, scoringQuery, scoreAllowed(scoringQuery, candidateCount, allowed), k);
+        }
+        IntPredicate accept = allowed == null
+                ? ordinal -> !node(ordinal).deleted
+                : ordinal -> !node(ordinal).deleted && allowed.contains(ordinal);
+
+        int current = entry.ordinal;
+        float currentScore = score(scoringQuery, current);
+        for(int level = entry.level; level > 0; level--) {
+            current = greedyClosest(scoringQuery, current, currentScore, level);
+            currentScore = score(scoringQuery, current);
+        }
+
+        TopK candidates = searchLayer(scoringQuery, current, Math.max(efSearch, candidateCount), 0, accept).sort();
+        TopK topK = new TopK(candidateCount);
+        for(int index = 0; index < candidates.size(); index++) {
+            topK.offer(candidates.ordinalAt(index), candidates.scoreAt(index));
+        }
+        return vectors.rescore(scoringMetric, scoringQuery, topK, k);
+    }
+
+    private TopK scoreAllowed(ScoringQuery query, int k, RoaringBitmap allowed) {
+        TopK topK = new TopK(k);
+        PeekableIntIterator ordinals = allowed.getIntIterator();
+        while(ordinals.hasNext()) {
+            int ordinal = ordinals.next();
+            Node node = node(ordinal);
+            if(node != null && !node.deleted) {
+                topK.offer(ordinal, score(query, ordinal));
+            }
+        }
+        return topK;
+    }
+
+    // Released once compact has unlinked the node and put REMOVED in its place, an add then simply replaces it
+    @Override
+    public boolean isReleased(int ordinal) {
+        Node node = node(ordinal);
+        RoaringBitmap pending = unlinking;
+        return (node == null || node == REMOVED) && (pending == null || !pending.contains(ordinal));
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public long offHeapBytes() {
+        VectorArena vectors = arena;
+        return vectors == null ? 0 : vectors.offHeapBytes();
+    }
+
+    public void setEfSearch(int efSearch) {
+        if(efSearch <= 0) {
+            throw new IllegalArgumentException("efSearch must be greater than zero");
+        }
+        this.efSearch = efSearch;
+    }
+
+    public int getEfSearch() {
+        return efSearch;
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    // Writes the arena followed by every node's level, deleted flag and neighbour lists, so a restore needs no distance work
+    @Override
+    public void writeSnapshot(DataOutput output) throws IOException {
+        VectorArena vectors = arena;
+        EntryPoint entry = entryPoint;
+        output.writeBoolean(vectors != null && entry != null);
+        if(vectors == null || entry == null) {
+            return;
+        }
+
+        vectors.writeTo(output);
+        int rows = vectors.size();
+        for(int ordinal = 0; ordinal < rows; ordinal++) {
+            Node node = node(ordinal);
+            if(node == null || node == REMOVED) {
+                output.writeInt(-1);
+                continue;
+            }
+            output.writeInt(node.level);
+            output.writeBoolean(node.deleted);
+            for(int level = 0; level <= node.level; level++) {
+                int[] neighbours = node.neighbours.get(level);
+                output.writeInt(neighbours.length);
+                for(int neighbour : neighbours) {
+                    output.writeInt(neighbour);
+                }
+            }
+        }
+        output.writeInt(entry.ordinal);
+        output.writeInt(entry.level);
+    }
+
+    @Override
+    public synchronized void readSnapshot(DataInput input) throws IOException {
+        if(arena != null || entryPoint != null) {
+            throw new IllegalStateException("Snapshots can only be restored into an empty index");
+        }
+        if(!input.readBoolean()) {
+            return;
+        }
+
+        VectorArena vectors = VectorArena.readFrom(input, arenaFactory);
+        if(vectors.isNormalized() != normalizedVectors) {
+            throw new IOException("Snapshot normalization does not match the index configuration");
+        }
+        int rows = vectors.size();
+        AtomicReferenceArray<Node>[] chunks = newChunks((rows + NODE_CHUNK - 1) / NODE_CHUNK);
+        for(int index = 0; index < chunks.length; index++) {
+            chunks[index] = new AtomicReferenceArray<>(NODE_CHUNK);
+        }
+
+        int live = 0;
+        int linked = 0;
+        for(int ordinal = 0; ordinal < rows; ordinal++) {
+            int nodeLevel = input.readInt();
+            if(nodeLevel < 0) {
+                // Never added or unlinked, either way nothing is meant to reach it
+                chunks[ordinal / NODE_CHUNK].set(ordinal % NODE_CHUNK, REMOVED);
+                continue;
+            }
+            if(nodeLevel > MAX_LEVEL) {
+                throw new IOException("Corrupt snapshot, node level " + nodeLevel + " at ordinal " + ordinal);
+            }
+            Node node = new Node(nodeLevel);
+            node.deleted = input.readBoolean();
+            for(int level = 0; level <= nodeLevel; level++) {
+                int[] neighbours = new int[input.readInt()];
+                for(int index = 0; index < neighbours.length; index++) {
+                    neighbours[index] = input.readInt();
+                }
+                node.neighbours.set(level, neighbours);
+            }
+            chunks[ordinal / NODE_CHUNK].set(ordinal % NODE_CHUNK, node);
+            if(!node.deleted) {
+                live++;
+            } else {
+                node.unlinked = isUnlinked(node);
+                if(!node.unlinked) {
+                    linked++;
+                }
+            }
+        }
+        EntryPoint entry = new EntryPoint(input.readInt(), input.readInt());
+
+        nodes = chunks;
+        arena = vectors;
+        size.set(live);
+        linkedRemovals.set(linked);
+        entryPoint = entry;
+    }
+
+    private static boolean isUnlinked(Node node) {
+        for(int level = 0; level <= node.level; level++) {
+            if(node.neighbours.get(level).length > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int greedyClosest(ScoringQuery query, int current, float currentScore, int level) {
+        boolean changed = true;
+        while(changed) {
+            changed = false;
+            for(int neighbour : node(current).neighbours.get(level)) {
+                float neighbourScore = score(query, neighbour);
+                if(neighbourScore > currentScore) {
+                    current = neighbour;
+                    currentScore = neighbourScore;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Best-first expansion of one layer, keeps the ef closest nodes seen that pass accept, null accepts every node
+    private TopK searchLayer(ScoringQuery query, int entry, int ef, int level, IntPredicate accept) {
+        VisitedSet visited = VISITED.get();
+        visited.reset(nodes.length * NODE_CHUNK);
+
+        CandidateQueue candidates = new CandidateQueue(ef);
+        TopK results = new TopK(ef);
+
+        float entryScore = score(query, entry);
+        visited.visit(entry);
+        candidates.push(entry, entryScore);
+        if(accept == null || accept.test(entry)) {
+            results.offer(entry, entryScore);
+        }
+
+        while(!candidates.isEmpty()) {
+            if(candidates.peekScore() < results.threshold()) {
+                break;
+            }
+            int current = candidates.pop();
+
+            for(int neighbour : node(current).neighbours.get(level)) {
+                if(!visited.visit(neighbour)) {
+                    continue;
+                }
+                float neighbourScore = score(query, neighbour);
+                if(neighbourScore > results.threshold()) {
+                    candidates.push(neighbour, neighbourScore);
+                    if(accept == null || accept.test(neighbour)) {
+                        results.offer(neighbour, neighbourScore);
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    // Heuristic from the paper: keep a candidate only if it is closer to the base than to any neighbour already kept
+    private int[] selectNeighbours(TopK sortedCandidates, int limit) {
+        VectorArena vectors = arena;
+        int[] selected = new int[Math.min(limit, sortedCandidates.size())];
+        int count = 0;
+
+        for(int index = 0; index < sortedCandidates.size() && count < selected.length; index++) {
+            int candidate = sortedCandidates.ordinalAt(index);
+            float candidateScore = sortedCandidates.scoreAt(index);
+            ScoringQuery candidateVector = vectors.prepare(scoringMetric, vectors.get(candidate));
+
+            boolean keep = true;
+            for(int kept = 0; kept < count; kept++) {
+                if(score(candidateVector, selected[kept]) > candidateScore) {
+                    keep = false;
+                    break;
+                }
+            }
+            if(keep) {
+                selected[count++] = candidate;
+            }
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    private void connect(int ordinal, int newNeighbour, int level) {
+        Node node = node(ordinal);
+        int maxNeighbours = level == 0 ? maxM0 : m;
+
+        synchronized (node) {
+            if(node.unlinked) {
+                return;
+            }
+            int[] current = node.neighbours.get(level);
+            for(int neighbour : current) {
+                if(neighbour == newNeighbour) {
+                    return;
+                }
+            }
+
+            if(current.length < maxNeighbours) {
+                int[] grown = Arrays.copyOf(current, current.length + 1);
+                grown[current.length] = newNeighbour;
+                node.neighbours.set(level, grown);
+                return;
+            }
+
+            ScoringQuery base = arena.prepare(scoringMetric, arena.get(ordinal));
+            TopK candidates = new TopK(current.length + 1);
+            for(int neighbour : current) {
+                candidates.offer(neighbour, score(base, neighbour));
+            }
+            candidates.offer(newNeighbour, score(base, newNeighbour));
+            node.neighbours.set(level, selectNeighbours(candidates.sort(), maxNeighbours));
+        }
+    }
+
+    private float score(ScoringQuery query, int ordinal) {
+        return arena.score(scoringMetric, query, ordinal);
+    }
+
+    private int randomLevel() {
+        double random = ThreadLocalRandom.current().nextDouble();
+        return Math.min((int) (-Math.log(1 - random) * levelMultiplier), MAX_LEVEL);
+    }
+
+    @Override
+    public synchronized void close() {
+        if(arena != null) {
+            arena.close();
+        }
+    }
+
+    private VectorArena arenaFor(float[] vector) {
+        VectorArena vectors = arena;
+        if(vectors == null) {
+            synchronized (this) {
+                vectors = arena;
+                if(vectors == null) {
+                    vectors = arenaFactory.create(vector.length, normalizedVectors);
+                    arena = vectors;
+                }
+            }
+        }
+        return vectors;
+    }
+
+    private Node node(int ordinal) {
+        AtomicReferenceArray<Node>[] chunks = nodes;
+        int chunk = ordinal / NODE_CHUNK;
+        return chunk < chunks.length ? chunks[chunk].get(ordinal % NODE_CHUNK) : null;
+    }
+
+    private void publish(int ordinal, Node node) {
+        int chunk = ordinal / NODE_CHUNK;
+        AtomicReferenceArray<Node>[] chunks = nodes;
+        if(chunk >= chunks.length) {
+            synchronized (this) {
+                chunks = nodes;
+                if(chunk >= chunks.length) {
+                    AtomicReferenceArray<Node>[] grown = Arrays.copyOf(chunks, Math.max(chunk + 1, chunks.length * 2));
+                    for(int index = chunks.length; index < grown.length; index++) {
+                        grown[index] = new AtomicReferenceArray<>(NODE_CHUNK);
+                    }
+                    nodes = grown;
+                    chunks = grown;
+                }
+            }
+        }
+        chunks[chunk].set(ordinal % NODE_CHUNK, node);
+    }
+
+    private static Node removedNode() {
+        Node node = new Node(MAX_LEVEL);
+        node.deleted = true;
+        node.unlinked = true;
+        return node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static AtomicReferenceArray<Node>[] newChunks(int length) {
+        return (AtomicReferenceArray<Node>[]) new AtomicReferenceArray[length];
+    }
+
+    private static final class Node {
+        final int level;
+        final AtomicReferenceArray<int[]> neighbours;
+        volatile boolean deleted;
+        // Set by compact, under the node's monitor, once nothing is meant to link here any more
+        volatile boolean unlinked;
+
+        Node(int level) {
+            this.level = level;
+            this.neighbours = new AtomicReferenceArray<>(level + 1);
+            for(int index = 0; index <= level; index++) {
+                neighbours.set(index, NO_NEIGHBOURS);
+            }
+        }
+    }
+
+    private static final class EntryPoint {
+        final int ordinal;
+        final int level;
+
+        EntryPoint(int ordinal, int level) {
+            this.ordinal = ordinal;
+            this.level = level;
+        }
+    }
+
+    // Max-heap on score, pops the closest unexpanded node first
+    private static final class CandidateQueue {
+        private int[] ordinals;
+        private float[] scores;
+        private int size;
+
+        CandidateQueue(int capacity) {
+            this.ordinals = new int[capacity];
+            this.scores = new float[capacity];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        float peekScore() {
+            return scores[0];
+        }
+
+        void push(int ordinal, float score) {
+            if(size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int index = size++;
+            while(index > 0) {
+                int parent = (index - 1) >>> 1;
+                if(scores[parent] >= score) {
+                    break;
+                }
+                ordinals[index] = ordinals[parent];
+                scores[index] = scores[parent];
+                index = parent;
+            }
+            ordinals[index] = ordinal;
+            scores[index] = score;
+        }
+
+        int pop() {
+            int top = ordinals[0];
+            int lastOrdinal = ordinals[--size];
+            float lastScore = scores[size];
+
+            int index = 0;
+            while(true) {
+                int child = 2 * index + 1;
+                if(child >= size) {
+                    break;
+                }
+                if(child + 1 < size && scores[child + 1] > scores[child]) {
+                    child++;
+                }
+                if(scores[child] <= lastScore) {
+                    break;
+                }
+                ordinals[index] = ordinals[child];
+                scores[index] = scores[child];
+                index = child;
+            }
+            ordinals[index] = lastOrdinal;
+            scores[index] = lastScore;
+            return top;
+        }
+    }
+
+    // Per-thread visit marks, bumping the epoch clears the set without touching the array
+    private static final class VisitedSet {
+        private int[] marks = new int[0];
+        private int epoch;
+
+        void reset(int capacity) {
+            if(marks.length < capacity) {
+                marks = new int[capacity];
+                epoch = 0;
+            }
+            epoch++;
+            if(epoch == Integer.MAX_VALUE) {
+                Arrays.fill(marks, 0);
+                epoch = 1;
+            }
+        }
+
+        // Returns true the first time an ordinal is seen, grows when concurrent inserts outrun the reset size
+        boolean visit(int ordinal) {
+            if(ordinal >= marks.length) {
+                marks = Arrays.copyOf(marks, Math.max(ordinal + 1, marks.length * 2));
+            }
+            if(marks[ordinal] == epoch) {
+                return false;
+            }
+            marks[ordinal] = epoch;
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "HNSW{" +
+                "metric=" + metric +
+                ", normalizedVectors=" + normalizedVectors +
+                ", m=" + m +
+                ", efConstruction=" + efConstruction +
+                ", efSearch=" + efSearch +
+                ", size=" + size() +
+                '}';
+    }
 }
@@ -0,0 +1,758 @@
+package org.vectorspacedatabase.vectordb.similaritysearch.algorithms;
+
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchStrategy;
+import org.vectorspacedatabase.vectordb.similaritysearch.TopK;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.DistanceMetrics;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Inverted file with product quantization. A k-means coarse quantizer splits the space into lists and every vector is kept
+// in the list of its nearest centroid as one byte per subspace, the index of the closest entry in that subspace's 256 entry
+// codebook for its residual. A search probes the nprobe best lists and sums lookup tables built from the query, codes are
+// never decoded. Vectors added before training stay as floats and are searched exactly, the index trains itself on them
+// once trainingSize have arrived, or train(sample) can be called up front. Training runs outside the lock, adds and
+// searches carry on against the float vectors until the trained quantizer is swapped in.
+public class IVFPQ implements SearchStrategy {
+
+    private static final Logger log = LoggerFactory.getLogger(IVFPQ.class);
+
+    private static final int CODEBOOK_SIZE = 256;
+
+    private final Metric metric;
+
+    // Cosine runs as dot product over unit vectors
+    private final Metric scoringMetric;
+
+    private final int lists;
+
+    private final int subspaces;
+
+    private final int trainingSize;
+
+    private final int iterations;
+
+    private final long seed;
+
+    private volatile int nprobe;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int dimension;
+
+    private final Map<Integer, float[]> pending = new LinkedHashMap<>();
+
+    // Set while one thread trains, the others keep buffering into pending
+    private final AtomicBoolean training = new AtomicBoolean();
+
+    private float[] centroids;
+
+    // codebooks[subspace] holds CODEBOOK_SIZE rows of dimension / subspaces floats
+    private float[][] codebooks;
+
+    private PostingList[] postings;
+
+    // Where each trained ordinal sits, -1 when it is not in any list
+    private int[] listOf = new int[0];
+
+    private int[] positionOf = new int[0];
+
+    private int size;
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Metric metric = Metric.COSINE;
+        private int lists = 256;
+        private int subspaces = 16;
+        private int nprobe = 8;
+        private int trainingSize = 50_000;
+        private int iterations = 10;
+        private long seed = 42;
+
+        public Builder withMetric(Metric metric) {
+            this.metric = metric;
+            return this;
+        }
+
+        // Number of k-means coarse centroids, each one owns an inverted list
+        public Builder withLists(int lists) {
+            if(lists <= 0) {
+                throw new IllegalArgumentException("lists must be greater than zero");
+            }
+            this.lists = lists;
+            return this;
+        }
+
+        // Bytes per stored vector, the dimension must be a multiple of it
+        public Builder withSubspaces(int subspaces) {
+            if(subspaces <= 0) {
+                throw new IllegalArgumentException("subspaces must be greater than zero");
+            }
+            this.subspaces = subspaces;
+            return this;
+        }
+
+        public Builder withNprobe(int nprobe) {
+            if(nprobe <= 0) {
+                throw new IllegalArgumentException("nprobe must be greater than zero");
+            }
+            this.nprobe = nprobe;
+            return this;
+        }
+
+        // Vectors buffered before the index trains itself on them
+        public Builder withTrainingSize(int trainingSize) {
+            this.trainingSize = trainingSize;
+            return this;
+        }
+
+        // Lloyd iterations for both the coarse centroids and the codebooks
+        public Builder withIterations(int iterations) {
+            if(iterations <= 0) {
+                throw new IllegalArgumentException("iterations must be greater than zero");
+            }
+            this.iterations = iterations;
+            return this;
+        }
+
+        public Builder withSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public IVFPQ build() {
+            if(trainingSize < Math.max(lists, CODEBOOK_SIZE)) {
+                throw new IllegalArgumentException("trainingSize must be at least max(lists, " + CODEBOOK_SIZE + ")");
+            }
+            return new IVFPQ(this);
+        }
+    }
+
+    public IVFPQ(Builder builder) {
+        this.metric = builder.metric;
+        this.scoringMetric = builder.metric == Metric.COSINE ? Metric.DOT_PRODUCT : builder.metric;
+        this.lists = builder.lists;
+        this.subspaces = builder.subspaces;
+        this.nprobe = builder.nprobe;
+        this.trainingSize = builder.trainingSize;
+        this.iterations = builder.iterations;
+        this.seed = builder.seed;
+    }
+
+    @Override
+    public void add(int ordinal, float[] vector) {
+        List<float[]> sample = null;
+        lock.writeLock().lock();
+        try {
+            if(dimension == 0) {
+                setDimension(vector.length);
+            } else if(vector.length != dimension) {
+                throw new IllegalArgumentException("Vectors size must be same");
+            }
+
+            float[] stored = metric == Metric.COSINE ? DistanceMetrics.normalize(vector) : vector.clone();
+            if(centroids == null) {
+                pending.put(ordinal, stored);
+                size++;
+                if(pending.size() >= trainingSize && training.compareAndSet(false, true)) {
+                    sample = new ArrayList<>(pending.values());
+                }
+            } else {
+                insert(ordinal, stored);
+                size++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        if(sample != null) {
+            trainAndInstall(sample);
+        }
+    }
+
+    // Trains on an explicit sample instead of the first trainingSize vectors, vectors already added are encoded afterwards
+    public void train(float[][] sample) {
+        List<float[]> vectors;
+        lock.writeLock().lock();
+        try {
+            if(centroids != null) {
+                throw new IllegalStateException("Index is already trained");
+            }
+            if(sample.length == 0) {
+                throw new IllegalArgumentException("Training sample must not be empty");
+            }
+            if(dimension == 0) {
+                setDimension(sample[0].length);
+            }
+            vectors = new ArrayList<>(sample.length);
+            for(float[] vector : sample) {
+                if(vector.length != dimension) {
+                    throw new IllegalArgumentException("Vectors size must be same");
+                }
+                vectors.add(metric == Metric.COSINE ? DistanceMetrics.normalize(vector) : vector);
+            }
+            if(!training.compareAndSet(false, true)) {
+                throw new IllegalStateException("Index is already training");
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        trainAndInstall(vectors);
+    }
+
+    private void setDimension(int dimension) {
+        if(dimension % subspaces != 0) {
+            throw new IllegalArgumentException("Dimension " + dimension + " is not a multiple of " + subspaces + " subspaces");
+        }
+        this.dimension = dimension;
+    }
+
+    // Called with training set. k-means and the encoding of what is pending by then run without the lock, the write lock
+    // is only taken to swap the quantizer in and encode the vectors added in the meantime.
+    private void trainAndInstall(List<float[]> sample) {
+        try {
+            Quantizer quantizer = train(sample);
+
+            List<float[]> snapshot;
+            lock.readLock().lock();
+            try {
+                snapshot = new ArrayList<>(pending.values());
+            } finally {
+                lock.readLock().unlock();
+            }
+            // Keyed by the stored array, a vector removed and added again under the same ordinal is a new array
+            Map<float[], Encoded> encoded = new IdentityHashMap<>(snapshot.size());
+            float[] scores = new float[Math.max(lists, CODEBOOK_SIZE)];
+            for(float[] vector : snapshot) {
+                encoded.put(vector, encode(vector, quantizer, scores));
+            }
+
+            lock.writeLock().lock();
+            try {
+                centroids = quantizer.centroids;
+                codebooks = quantizer.codebooks;
+                postings = new PostingList[lists];
+                for(int list = 0; list < lists; list++) {
+                    postings[list] = new PostingList(subspaces);
+                }
+                for(Map.Entry<Integer, float[]> entry : pending.entrySet()) {
+                    Encoded code = encoded.get(entry.getValue());
+                    place(entry.getKey(), code != null ? code : encode(entry.getValue(), quantizer, scores));
+                }
+                pending.clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            training.set(false);
+        }
+    }
+
+    private Quantizer train(List<float[]> sample) {
+        if(sample.size() < Math.max(lists, CODEBOOK_SIZE)) {
+            throw new IllegalArgumentException("Training needs at least max(lists, " + CODEBOOK_SIZE + ") vectors, got " + sample.size());
+        }
+        long start = System.currentTimeMillis();
+        Random random = new Random(seed);
+        int count = sample.size();
+        int subDimension = dimension / subspaces;
+
+        float[] points = new float[count * dimension];
+        for(int index = 0; index < count; index++) {
+            System.arraycopy(sample.get(index), 0, points, index * dimension, dimension);
+        }
+        float[] trainedCentroids = kMeans(points, count, dimension, lists, random);
+
+        // Codebooks are trained on residuals, the part of each vector its coarse centroid does not explain
+        float[] scores = new float[Math.max(lists, CODEBOOK_SIZE)];
+        float[][] subPoints = new float[subspaces][count * subDimension];
+        for(int index = 0; index < count; index++) {
+            float[] vector = sample.get(index);
+            int list = nearest(vector, trainedCentroids, lists, dimension, scores);
+            for(int subspace = 0; subspace < subspaces; subspace++) {
+                for(int offset = 0; offset < subDimension; offset++) {
+                    int component = subspace * subDimension + offset;
+                    subPoints[subspace][index * subDimension + offset] = vector[component] - trainedCentroids[list * dimension + component];
+                }
+            }
+        }
+        float[][] trainedCodebooks = new float[subspaces][];
+        for(int subspace = 0; subspace < subspaces; subspace++) {
+            trainedCodebooks[subspace] = kMeans(subPoints[subspace], count, subDimension, CODEBOOK_SIZE, random);
+        }
+
+        log.info("Trained IVF-PQ with {} lists and {} subspaces on {} vectors in {} ms", lists, subspaces, count,
+                System.currentTimeMillis() - start);
+        return new Quantizer(trainedCentroids, trainedCodebooks);
+    }
+
+    // Lloyd's algorithm seeded with distinct random points, an emptied cluster is reseeded with a random point
+    private float[] kMeans(float[] points, int count, int pointDimension, int clusters, Random random) {
+        float[] centers = new float[clusters * pointDimension];
+        int[] order = new int[count];
+        for(int index = 0; index < count; index++) {
+            order[index] = index;
+        }
+        for(int cluster = 0; cluster < clusters; cluster++) {
+            int swap = cluster + random.nextInt(count - cluster);
+            int chosen = order[swap];
+            order[swap] = order[cluster];
+            order[cluster] = chosen;
+            System.arraycopy(points, chosen * pointDimension, centers, cluster * pointDimension, pointDimension);
+        }
+
+        float[] point = new float[pointDimension];
+        float[] scores = new float[clusters];
+        float[] sums = new float[clusters * pointDimension];
+        int[] counts = new int[clusters];
+        for(int iteration = 0; iteration < iterations; iteration++) {
+            Arrays.fill(sums, 0);
+            Arrays.fill(counts, 0);
+            for(int index = 0; index < count; index++) {
+                System.arraycopy(points, index * pointDimension, point, 0, pointDimension);
+                int cluster = nearest(point, centers, clusters, pointDimension, scores);
+                counts[cluster]++;
+                for(int offset = 0; offset < pointDimension; offset++) {
+                    sums[cluster * pointDimension + offset] += point[offset];
+                }
+            }
+
+            for(int cluster = 0; cluster < clusters; cluster++) {
+                if(counts[cluster] == 0) {
+                    System.arraycopy(points, random.nextInt(count) * pointDimension, centers, cluster * pointDimension, pointDimension);
+                    continue;
+                }
+                for(int offset = 0; offset < pointDimension; offset++) {
+                    centers[cluster * pointDimension + offset] = sums[cluster * pointDimension + offset] / counts[cluster];
+                }
+            }
+        }
+        return centers;
+    }
+
+    // Closest row by euclidean distance, used for training and encoding whatever the search metric
+    private static int nearest(float[] vector, float[] centers, int rows, int rowDimension, float[] scores) {
+        Metric.EUCLIDEAN.scoreBatch(vector, centers, 0, rows, rowDimension, scores);
+        int best = 0;
+        for(int row = 1; row < rows; row++) {
+            if(scores[row] > scores[best]) {
+                best = row;
+            }
+        }
+        return best;
+    }
+
+    private void insert(int ordinal, float[] vector) {
+        place(ordinal, encode(vector, new Quantizer(centroids, codebooks), new float[Math.max(lists, CODEBOOK_SIZE)]));
+    }
+
+    private Encoded encode(float[] vector, Quantizer quantizer, float[] scores) {
+        int subDimension = dimension / subspaces;
+        int list = nearest(vector, quantizer.centroids, lists, dimension, scores);
+
+        byte[] code = new byte[subspaces];
+        float[] residual = new float[subDimension];
+        for(int subspace = 0; subspace < subspaces; subspace++) {
+            for(int offset = 0; offset < subDimension; offset++) {
+                int component = subspace * subDimension + offset;
+                residual[offset] = vector[component] - quantizer.centroids[list * dimension + component];
+            }
+            code[subspace] = (byte) nearest(residual, quantizer.codebooks[subspace], CODEBOOK_SIZE, subDimension, scores);
+        }
+        return new Encoded(list, code);
+    }
+
+    private void place(int ordinal, Encoded encoded) {
+        int list = encoded.list;
+        if(ordinal >= listOf.length) {
+            int capacity = Math.max(ordinal + 1, listOf.length * 2);
+            int previous = listOf.length;
+            listOf = Arrays.copyOf(listOf, capacity);
+            positionOf = Arrays.copyOf(positionOf, capacity);
+            Arrays.fill(listOf, previous, capacity, -1);
+        }
+        listOf[ordinal] = list;
+        positionOf[ordinal] = postings[list].add(ordinal, encoded.code);
+    }
+
+    @Override
+    public void remove(int ordinal) {
+        lock.writeLock().lock();
+        try {
+            if(pending.remove(ordinal) != null) {
+                size--;
+                return;
+            }
+            if(ordinal >= listOf.length || listOf[ordinal] < 0) {
+                return;
+            }
+            int moved = postings[listOf[ordinal]].removeAt(positionOf[ordinal]);
+            if(moved >= 0) {
+                positionOf[moved] = positionOf[ordinal];
+            }
+            listOf[ordinal] = -1;
+            size--;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public TopK search(float[] query, int k) {
+        return search(query, k, null);
+    }
+
+    // Filtered entries are skipped inside the probed lists, a very narrow filter may need a larger nprobe to fill k
+    @Override
+    public TopK search(float[] query, int k, RoaringBitmap allowed) {
+        lock.readLock().lock();
+        try {
+            if(dimension == 0) {
+                return new TopK(k);
+            }
+            if(query.length != dimension) {
+                throw new IllegalArgumentException("Vectors size must be same");
+            }
+            float[] scoringQuery = metric == Metric.COSINE ? DistanceMetrics.normalize(query) : query;
+            return centroids == null ? searchPending(scoringQuery, k, allowed) : searchLists(scoringQuery, k, allowed);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private TopK searchPending(float[] query, int k, RoaringBitmap allowed) {
+        TopK topK = new TopK(k);
+        for(Map.Entry<Integer, float[]> entry : pending.entrySet()) {
+            if(allowed != null && !allowed.contains(entry.getKey())) {
+                continue;
+            }
+            topK.offer(entry.getKey(), scoringMetric.score(query, entry.getValue(), 0, dimension));
+        }
+        return topK;
+    }
+
+    private TopK searchLists(float[] query, int k, RoaringBitmap allowed) {
+        float[] centroidScores = new float[lists];
+        scoringMetric.scoreBatch(query, centroids, 0, lists, dimension, centroidScores);
+        TopK probes = new TopK(Math.min(nprobe, lists));
+        for(int list = 0; list < lists; list++) {
+            probes.offer(list, centroidScores[list]);
+        }
+        probes.sort();
+
+        // Inner products split over the centroid, so one table serves every list. Distances depend on the residual
+        // query, their tables are rebuilt per probed list.
+        boolean dotProduct = scoringMetric == Metric.DOT_PRODUCT;
+        float[] tables = new float[subspaces * CODEBOOK_SIZE];
+        float[] scratch = new float[CODEBOOK_SIZE];
+        float[] residual = new float[dimension];
+        if(dotProduct) {
+            buildTables(query, tables, scratch);
+        }
+
+        TopK topK = new TopK(k);
+        for(int index = 0; index < probes.size(); index++) {
+            int list = probes.ordinalAt(index);
+            PostingList posting = postings[list];
+            if(posting.size == 0) {
+                continue;
+            }
+
+            float base = 0;
+            if(dotProduct) {
+                base = centroidScores[list];
+            } else {
+                for(int component = 0; component < dimension; component++) {
+                    residual[component] = query[component] - centroids[list * dimension + component];
+                }
+                buildTables(residual, tables, scratch);
+            }
+
+            byte[] codes = posting.codes;
+            for(int entry = 0; entry < posting.size; entry++) {
+                if(allowed != null && !allowed.contains(posting.ordinals[entry])) {
+                    continue;
+                }
+                float sum = base;
+                int codeOffset = entry * subspaces;
+                for(int subspace = 0; subspace < subspaces; subspace++) {
+                    sum += tables[subspace * CODEBOOK_SIZE + (codes[codeOffset + subspace] & 0xFF)];
+                }
+                topK.offer(posting.ordinals[entry], toScore(sum));
+            }
+        }
+        return topK;
+    }
+
+    // tables[subspace * 256 + code] is the additive contribution of that codebook entry for the given query part
+    private void buildTables(float[] vector, float[] tables, float[] scratch) {
+        int subDimension = dimension / subspaces;
+        float[] part = new float[subDimension];
+        for(int subspace = 0; subspace < subspaces; subspace++) {
+            System.arraycopy(vector, subspace * subDimension, part, 0, subDimension);
+            scoringMetric.scoreBatch(part, codebooks[subspace], 0, CODEBOOK_SIZE, subDimension, scratch);
+            int offset = subspace * CODEBOOK_SIZE;
+            for(int code = 0; code < CODEBOOK_SIZE; code++) {
+                float score = scratch[code];
+                tables[offset + code] = switch (scoringMetric) {
+                    case EUCLIDEAN -> score * score;
+                    case MANHATTAN -> -score;
+                    default -> score;
+                };
+            }
+        }
+    }
+
+    // Euclidean tables hold squared distances, the root is taken once per candidate
+    private float toScore(float sum) {
+        return switch (scoringMetric) {
+            case EUCLIDEAN -> (float) -Math.sqrt(Math.max(0, sum));
+            case MANHATTAN -> -sum;
+            default -> sum;
+        };
+    }
+
+    @Override
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean isTrained() {
+        lock.readLock().lock();
+        try {
+            return centroids != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void setNprobe(int nprobe) {
+        if(nprobe <= 0) {
+            throw new IllegalArgumentException("nprobe must be greater than zero");
+        }
+        this.nprobe = nprobe;
+    }
+
+    public int getNprobe() {
+        return nprobe;
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    // Writes the configuration, then either the untrained vectors or the centroids, codebooks and every list's codes
+    @Override
+    public void writeSnapshot(DataOutput output) throws IOException {
+        lock.readLock().lock();
+        try {
+            output.writeInt(dimension);
+            if(dimension == 0) {
+                return;
+            }
+            output.writeInt(lists);
+            output.writeInt(subspaces);
+            output.writeBoolean(centroids != null);
+
+            if(centroids == null) {
+                output.writeInt(pending.size());
+                for(Map.Entry<Integer, float[]> entry : pending.entrySet()) {
+                    output.writeInt(entry.getKey());
+                    writeFloats(output, entry.getValue());
+                }
+                return;
+            }
+
+            writeFloats(output, centroids);
+            for(float[] codebook : codebooks) {
+                writeFloats(output, codebook);
+            }
+            for(PostingList posting : postings) {
+                output.writeInt(posting.size);
+                for(int entry = 0; entry < posting.size; entry++) {
+                    output.writeInt(posting.ordinals[entry]);
+                }
+                output.write(posting.codes, 0, posting.size * subspaces);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void readSnapshot(DataInput input) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if(size != 0 || centroids != null || training.get()) {
+                throw new IllegalStateException("Snapshots can only be restored into an empty index");
+            }
+            int restoredDimension = input.readInt();
+            if(restoredDimension == 0) {
+                return;
+            }
+            if(input.readInt() != lists || input.readInt() != subspaces) {
+                throw new IOException("Snapshot lists or subspaces do not match the index configuration");
+            }
+            setDimension(restoredDimension);
+
+            if(!input.readBoolean()) {
+                int count = input.readInt();
+                for(int index = 0; index < count; index++) {
+                    pending.put(input.readInt(), readFloats(input, dimension));
+                }
+                size = count;
+                return;
+            }
+
+            float[] restoredCentroids = readFloats(input, lists * dimension);
+            float[][] restoredCodebooks = new float[subspaces][];
+            for(int subspace = 0; subspace < subspaces; subspace++) {
+                restoredCodebooks[subspace] = readFloats(input, CODEBOOK_SIZE * (dimension / subspaces));
+            }
+            PostingList[] restoredPostings = new PostingList[lists];
+            int restoredSize = 0;
+            for(int list = 0; list < lists; list++) {
+                PostingList posting = new PostingList(subspaces);
+                int count = input.readInt();
+                posting.ensureCapacity(count);
+                for(int entry = 0; entry < count; entry++) {
+                    posting.ordinals[entry] = input.readInt();
+                }
+                input.readFully(posting.codes, 0, count * subspaces);
+                posting.size = count;
+                restoredPostings[list] = posting;
+                restoredSize += count;
+            }
+
+            int maxOrdinal = -1;
+            for(PostingList posting : restoredPostings) {
+                for(int entry = 0; entry < posting.size; entry++) {
+                    maxOrdinal = Math.max(maxOrdinal, posting.ordinals[entry]);
+                }
+            }
+            listOf = new int[maxOrdinal + 1];
+            positionOf = new int[maxOrdinal + 1];
+            Arrays.fill(listOf, -1);
+            for(int list = 0; list < lists; list++) {
+                PostingList posting = restoredPostings[list];
+                for(int entry = 0; entry < posting.size; entry++) {
+                    listOf[posting.ordinals[entry]] = list;
+                    positionOf[posting.ordinals[entry]] = entry;
+                }
+            }
+
+            centroids = restoredCentroids;
+            codebooks = restoredCodebooks;
+            postings = restoredPostings;
+            size = restoredSize;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void writeFloats(DataOutput output, float[] values) throws IOException {
+        for(float value : values) {
+            output.writeFloat(value);
+        }
+    }
+
+    private static float[] readFloats(DataInput input, int count) throws IOException {
+        float[] values = new float[count];
+        for(int index = 0; index < count; index++) {
+            values[index] = input.readFloat();
+        }
+        return values;
+    }
+
+    private static final class Quantizer {
+        private final float[] centroids;
+        private final float[][] codebooks;
+
+        Quantizer(float[] centroids, float[][] codebooks) {
+            this.centroids = centroids;
+            this.codebooks = codebooks;
+        }
+    }
+
+    private static final class Encoded {
+        private final int list;
+        private final byte[] code;
+
+        Encoded(int list, byte[] code) {
+            this.list = list;
+            this.code = code;
+        }
+    }
+
+    // One inverted list, codes are stored row after row so a scan reads them sequentially. Removal swaps in the last entry.
+    private static final class PostingList {
+        private final int codeSize;
+        private int[] ordinals = new int[0];
+        private byte[] codes = new byte[0];
+        private int size;
+
+        PostingList(int codeSize) {
+            this.codeSize = codeSize;
+        }
+
+        int add(int ordinal, byte[] code) {
+            ensureCapacity(size + 1);
+            ordinals[size] = ordinal;
+            System.arraycopy(code, 0, codes, size * codeSize, codeSize);
+            return size++;
+        }
+
+        // Returns the ordinal moved into position, or -1 when the last entry was removed
+        int removeAt(int position) {
+            int last = --size;
+            if(position == last) {
+                return -1;
+            }
+            ordinals[position] = ordinals[last];
+            System.arraycopy(codes, last * codeSize, codes, position * codeSize, codeSize);
+            return ordinals[position];
+        }
+
+        void ensureCapacity(int capacity) {
+            if(capacity > ordinals.length) {
+                int grown = Math.max(capacity, Math.max(16, ordinals.length * 2));
+                ordinals = Arrays.copyOf(ordinals, grown);
+                codes = Arrays.copyOf(codes, grown * codeSize);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "IVFPQ{" +
+                "metric=" + metric +
+                ", lists=" + lists +
+                ", subspaces=" + subspaces +
+                ", nprobe=" + nprobe +
+                ", trained=" + isTrained() +
+                ", size=" + size() +
+                '}';
+    }
+}
@@ -0,0 +1,1015 @@
+package org.vectorspacedatabase.vectordb.similaritysearch.algorithms;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.vectorspacedatabase.vectordb.similaritysearch.EpochReclaimer;
+import org.vectorspacedatabase.vectordb.similaritysearch.ScoringQuery;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchStrategy;
+import org.vectorspacedatabase.vectordb.similaritysearch.TopK;
+import org.vectorspacedatabase.vectordb.similaritysearch.VectorArena;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// Log structured index. Writes append to a small mutable segment that is scanned exactly, a full one is sealed and
+// indexed in the background by the segment factory, and sealed segments of the same size tier are merged so there are
+// only a logarithmic number of them. Searches never lock: a search reads one immutable View holding the segment list,
+// the mutable segment's row count and the write version, and only sees rows and deletes published before it. Segments
+// a view still references stay reachable until the last search using it returns, the garbage collector is the
+// reference count. Deletes are tombstones stamped with their version, merges leave the deleted rows behind and a
+// segment whose deleted fraction passes compactionThreshold is rewritten on its own. Segment indexes score through a
+// view of the shared arena, so every vector is stored once. Vectors live in arena rows of their own rather than at
+// their ordinal: the rows and ordinals a rewrite drops are released once the last search that started before it has
+// returned, so the arena stays as large as the live vectors plus what running searches may still read.
+public class SegmentedIndex implements SearchStrategy {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentedIndex.class);
+
+    private final Metric metric;
+
+    private final VectorArena.Factory arenaFactory;
+
+    // Null keeps sealed segments as exact scans
+    private final Function<VectorArena.Factory, SearchStrategy> segmentFactory;
+
+    private final int mutableSegmentRows;
+
+    private final int mergeFactor;
+
+    private final int maxSegmentRows;
+
+    private final double compactionThreshold;
+
+    private final Executor background;
+
+    // Every vector by row. A row is written before any view shows it and not again until it is released.
+    private volatile VectorArena arena;
+
+    // Ordinal stored in each row. Only the writer stores into it, grown by copy.
+    private volatile int[] rowOrdinals = new int[VectorArena.BLOCK_ROWS];
+
+    // Version that deleted each ordinal, 0 while live. Only the writer stores into it, grown by copy.
+    private volatile long[] deletedAt = new long[VectorArena.BLOCK_ROWS];
+
+    private volatile View view;
+
+    private volatile int live;
+
+    // Writer state, guarded by this
+    private long version;
+
+    private int nextSegmentId;
+
+    // Segment holding each ordinal, 0 for ordinals never added
+    private int[] segmentIds = new int[VectorArena.BLOCK_ROWS];
+
+    private int nextRow;
+
+    // Released rows, the lowest are reused first so the arena stays dense
+    private final RoaringBitmap freeRows = new RoaringBitmap();
+
+    // Searches run inside an epoch, what a rewrite drops waits in it until they have returned
+    private final EpochReclaimer<Dropped> reclaimer = new EpochReclaimer<>();
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private Metric metric = Metric.COSINE;
+        private VectorArena.Factory arenaFactory = VectorArena.ON_HEAP;
+        private Function<VectorArena.Factory, SearchStrategy> segmentFactory;
+        private int mutableSegmentRows = 4 * VectorArena.BLOCK_ROWS;
+        private int mergeFactor = 8;
+        private int maxSegmentRows = 1 << 21;
+        private double compactionThreshold = 0.3;
+        private Executor background;
+
+        public Builder withMetric(Metric metric) {
+            this.metric = metric;
+            return this;
+        }
+
+        // Where every vector is kept for scans and merges, full precision only
+        public Builder withArenaFactory(VectorArena.Factory arenaFactory) {
+            this.arenaFactory = arenaFactory;
+            return this;
+        }
+
+        // Builds the index of a sealed segment from the arena factory it must use, e.g.
+        // segmentArena -> HNSW.builder().withMetric(metric).withArenaFactory(segmentArena).build(). The arena maps the
+        // segment's local row numbers onto the shared one, the index is filled with those rows and never written after
+        // it is published.
+        public Builder withSegmentFactory(Function<VectorArena.Factory, SearchStrategy> segmentFactory) {
+            this.segmentFactory = segmentFactory;
+            return this;
+        }
+
+        // Rows written before a segment is sealed, the part every search scans exactly
+        public Builder withMutableSegmentRows(int mutableSegmentRows) {
+            if(mutableSegmentRows <= 0) {
+                throw new IllegalArgumentException("mutableSegmentRows must be greater than zero");
+            }
+            this.mutableSegmentRows = mutableSegmentRows;
+            return this;
+        }
+
+        // Segments of a size tier merged at once, a tier spans a factor of mergeFactor in live rows
+        public Builder withMergeFactor(int mergeFactor) {
+            if(mergeFactor < 2) {
+                throw new IllegalArgumentException("mergeFactor must be at least 2");
+            }
+            this.mergeFactor = mergeFactor;
+            return this;
+        }
+
+        // Segments this large are not merged any further
+        public Builder withMaxSegmentRows(int maxSegmentRows) {
+            if(maxSegmentRows <= 0) {
+                throw new IllegalArgumentException("maxSegmentRows must be greater than zero");
+            }
+            this.maxSegmentRows = maxSegmentRows;
+            return this;
+        }
+
+        // Fraction of a sealed segment's rows deleted before it is rewritten without them, its index rebuilt on the rest
+        public Builder withCompactionThreshold(double compactionThreshold) {
+            if(compactionThreshold <= 0 || compactionThreshold > 1) {
+                throw new IllegalArgumentException("compactionThreshold must be in (0, 1]");
+            }
+            this.compactionThreshold = compactionThreshold;
+            return this;
+        }
+
+        // Runs segment builds and merges, tasks must run one at a time. Defaults to a dedicated daemon thread.
+        public Builder withExecutor(Executor background) {
+            this.background = background;
+            return this;
+        }
+
+        public SegmentedIndex build() {
+            if(metric == null || arenaFactory == null) {
+                throw new IllegalArgumentException("metric and arenaFactory are required");
+            }
+            return new SegmentedIndex(this);
+        }
+    }
+
+    public SegmentedIndex(Builder builder) {
+        this.metric = builder.metric;
+        this.arenaFactory = builder.arenaFactory;
+        this.segmentFactory = builder.segmentFactory;
+        this.mutableSegmentRows = builder.mutableSegmentRows;
+        this.mergeFactor = builder.mergeFactor;
+        this.maxSegmentRows = builder.maxSegmentRows;
+        this.compactionThreshold = builder.compactionThreshold;
+        this.background = builder.background != null ? builder.background : Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-builder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.view = new View(List.of(), newMutableSegment(), 0, 0);
+    }
+
+    @Override
+    public void add(int ordinal, float[] vector) {
+        Segment sealed = null;
+        synchronized (this) {
+            if(arena == null) {
+                arena = arenaFactory.create(vector.length, false);
+            }
+            int row = allocateRow();
+            arena.set(row, vector);
+            ensureCapacity(ordinal, row);
+            rowOrdinals[row] = ordinal;
+
+            View current = view;
+            Segment mutable = current.mutable;
+            mutable.ordinals[current.mutableRows] = ordinal;
+            mutable.rows[current.mutableRows] = row;
+            segmentIds[ordinal] = mutable.id;
+            live++;
+            version++;
+
+            int rows = current.mutableRows + 1;
+            if(rows == mutable.ordinals.length) {
+                sealed = seal(mutable);
+                view = new View(append(current.sealed, sealed), newMutableSegment(), 0, version);
+            } else {
+                view = new View(current.sealed, mutable, rows, version);
+            }
+        }
+        if(sealed != null) {
+            int segmentId = sealed.id;
+            background.execute(() -> buildAndMerge(segmentId));
+        }
+    }
+
+    // Stamps a tombstone and removes the row from its segment's index, so graph searches step over it instead of
+    // returning it. The row itself goes away with the next merge or rewrite of its segment.
+    @Override
+    public void remove(int ordinal) {
+        boolean rewrite = false;
+        synchronized (this) {
+            long[] tombstones = deletedAt;
+            if(ordinal >= segmentIds.length || segmentIds[ordinal] == 0 || tombstones[ordinal] != 0) {
+                return;
+            }
+            version++;
+            tombstones[ordinal] = version;
+            live--;
+
+            View current = view;
+            Segment segment = current.find(segmentIds[ordinal]);
+            if(segment != null) {
+                removeFromIndex(segment, ordinal);
+                int deleted = segment.deleted.incrementAndGet();
+                // Scheduled once, when the count crosses the threshold
+                rewrite = segment != current.mutable
+                        && deleted == Math.max(1, (int) Math.ceil(compactionThreshold * segment.ordinals.length));
+            }
+            view = new View(current.sealed, current.mutable, current.mutableRows, version);
+        }
+        if(rewrite) {
+            background.execute(this::rewriteDeleted);
+        }
+    }
+
+    // Callers hold the monitor
+    private static void removeFromIndex(Segment segment, int ordinal) {
+        if(segment.index != null) {
+            int local = Arrays.binarySearch(segment.ordinals, ordinal);
+            if(local >= 0) {
+                segment.index.remove(local);
+            }
+        }
+    }
+
+    // Catches segments that were already past the threshold when they were merged
+    @Override
+    public void compact() {
+        background.execute(this::rewriteDeleted);
+    }
+
+    private void rewriteDeleted() {
+        try {
+            for(Segment segment : view.sealed) {
+                boolean unbuilt = segmentFactory != null && segment.index == null;
+                if(!unbuilt && segment.deleted.get() >= compactionThreshold * segment.ordinals.length
+                        && segment.deleted.get() > 0) {
+                    merge(List.of(segment));
+                } else if(segment.index != null) {
+                    // Below the threshold the segment stays, its index can still unlink the removed rows
+                    segment.index.compact();
+                }
+            }
+            mergeIfNeeded();
+        } catch (RuntimeException e) {
+            log.error("Failed to rewrite segments with deleted rows", e);
+        }
+    }
+
+    @Override
+    public TopK search(float[] query, int k) {
+        return search(query, k, null);
+    }
+
+    @Override
+    public TopK search(float[] query, int k, RoaringBitmap allowed) {
+        EpochReclaimer.Epoch<Dropped> epoch = reclaimer.enter();
+        try {
+            return search(view, query, k, allowed);
+        } finally {
+            reclaimer.leave(epoch);
+        }
+    }
+
+    // Rows and ordinals of the pinned view are not released before the search leaves its epoch
+    private TopK search(View pinned, float[] query, int k, RoaringBitmap allowed) {
+        VectorArena vectors = arena;
+        if(vectors == null) {
+            return new TopK(k);
+        }
+        if(query.length != vectors.dimension()) {
+            throw new IllegalArgumentException("Vectors size must be same");
+        }
+        long[] tombstones = deletedAt;
+        int[] ordinalsByRow = rowOrdinals;
+
+        ScoringQuery scoringQuery = vectors.prepare(metric, query);
+        float[] scores = new float[VectorArena.BLOCK_ROWS];
+        TopK scanned = new TopK(vectors.candidates(k));
+        scan(vectors, scoringQuery, pinned.mutable, pinned.mutableRows, allowed, tombstones, pinned.version, scores, scanned);
+
+        TopK topK = new TopK(k);
+        for(Segment segment : pinned.sealed) {
+            if(segment.index == null) {
+                scan(vectors, scoringQuery, segment, segment.ordinals.length, allowed, tombstones, pinned.version, scores, scanned);
+            } else {
+                searchSegment(segment, query, k, allowed, tombstones, pinned.version, topK);
+            }
+        }
+        TopK rescored = vectors.rescore(metric, scoringQuery, scanned, k).sort();
+        for(int index = 0; index < rescored.size(); index++) {
+            topK.offer(ordinalsByRow[rescored.ordinalAt(index)], rescored.scoreAt(index));
+        }
+        return topK;
+    }
+
+    // Scores runs of consecutive rows with the batch kernel, appends usually leave a segment as a few long runs.
+    // Offers rows, the caller maps them back to ordinals after rescoring.
+    private void scan(VectorArena vectors, ScoringQuery query, Segment segment, int count, RoaringBitmap allowed,
+                      long[] tombstones, long pinnedVersion, float[] scores, TopK topK) {
+        int[] ordinals = segment.ordinals;
+        int[] rows = segment.rows;
+        int position = 0;
+        while(position < count) {
+            int first = rows[position];
+            int blockEnd = (first / VectorArena.BLOCK_ROWS + 1) * VectorArena.BLOCK_ROWS;
+            int end = position + 1;
+            while(end < count && rows[end] == rows[end - 1] + 1 && rows[end] < blockEnd) {
+                end++;
+            }
+
+            if(end - position == 1) {
+                if(accept(ordinals[position], allowed, tombstones, pinnedVersion)) {
+                    topK.offer(first, vectors.score(metric, query, first));
+                }
+            } else {
+                vectors.scoreBatch(metric, query, first, end - position, scores);
+                for(int index = position; index < end; index++) {
+                    if(accept(ordinals[index], allowed, tombstones, pinnedVersion)) {
+                        topK.offer(rows[index], scores[index - position]);
+                    }
+                }
+            }
+            position = end;
+        }
+    }
+
+    private void searchSegment(Segment segment, float[] query, int k, RoaringBitmap allowed, long[] tombstones,
+                               long pinnedVersion, TopK topK) {
+        int[] ordinals = segment.ordinals;
+        RoaringBitmap localAllowed = null;
+        if(allowed != null) {
+            localAllowed = toLocal(ordinals, allowed);
+            if(localAllowed.isEmpty()) {
+                return;
+            }
+        }
+        // Deleted rows are removed from the index as well, so k candidates fill k unless a delete races the search
+        TopK results = segment.index.search(query, Math.min(ordinals.length, k), localAllowed).sort();
+        for(int index = 0; index < results.size(); index++) {
+            int ordinal = ordinals[results.ordinalAt(index)];
+            if(visible(ordinal, tombstones, pinnedVersion)) {
+                topK.offer(ordinal, results.scoreAt(index));
+            }
+        }
+    }
+
+    // Sealed segments keep their ordinals sorted, so a small filter is mapped by binary search and a large one by probing
+    private static RoaringBitmap toLocal(int[] ordinals, RoaringBitmap allowed) {
+        RoaringBitmap local = new RoaringBitmap();
+        if(ordinals.length == 0) {
+            return local;
+        }
+        if(allowed.getCardinality() > ordinals.length) {
+            for(int row = 0; row < ordinals.length; row++) {
+                if(allowed.contains(ordinals[row])) {
+                    local.add(row);
+                }
+            }
+            return local;
+        }
+
+        int last = ordinals[ordinals.length - 1];
+        PeekableIntIterator iterator = allowed.getIntIterator();
+        iterator.advanceIfNeeded(ordinals[0]);
+        while(iterator.hasNext()) {
+            int ordinal = iterator.next();
+            if(ordinal > last) {
+                break;
+            }
+            int row = Arrays.binarySearch(ordinals, ordinal);
+            if(row >= 0) {
+                local.add(row);
+            }
+        }
+        return local;
+    }
+
+    private static boolean accept(int ordinal, RoaringBitmap allowed, long[] tombstones, long pinnedVersion) {
+        return (allowed == null || allowed.contains(ordinal)) && visible(ordinal, tombstones, pinnedVersion);
+    }
+
+    // A tombstone newer than the pinned version is ignored, the search started before that delete
+    private static boolean visible(int ordinal, long[] tombstones, long pinnedVersion) {
+        long deleted = ordinal < tombstones.length ? tombstones[ordinal] : 0;
+        return deleted == 0 || deleted > pinnedVersion;
+    }
+
+    private void buildAndMerge(int segmentId) {
+        try {
+            Segment segment = view.find(segmentId);
+            if(segment != null && segment.index == null && segmentFactory != null) {
+                SearchStrategy index = buildIndex(segment.ordinals, segment.rows);
+                synchronized (this) {
+                    removeDeleted(segment.ordinals, index);
+                    replace(List.of(segment), new Segment(segmentId, segment.ordinals, segment.rows, index, segment.deleted));
+                }
+            }
+            mergeIfNeeded();
+        } catch (RuntimeException e) {
+            log.error("Failed to build segment {}, it stays an exact scan", segmentId, e);
+        }
+    }
+
+    // Rows deleted while the index was built went into it, they are taken out again before it is published.
+    // Callers hold the monitor.
+    private int removeDeleted(int[] ordinals, SearchStrategy index) {
+        long[] tombstones = deletedAt;
+        int deleted = 0;
+        for(int local = 0; local < ordinals.length; local++) {
+            if(tombstones[ordinals[local]] != 0) {
+                index.remove(local);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private int countDeleted(int[] ordinals) {
+        long[] tombstones = deletedAt;
+        int deleted = 0;
+        for(int ordinal : ordinals) {
+            if(tombstones[ordinal] != 0) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    private SearchStrategy buildIndex(int[] ordinals, int[] rows) {
+        VectorArena vectors = arena;
+        long[] tombstones = deletedAt;
+        SearchStrategy index = segmentFactory.apply(segmentArena(vectors, rows));
+        for(int local = 0; local < ordinals.length; local++) {
+            if(tombstones[ordinals[local]] == 0) {
+                index.add(local, vectors.get(rows[local]));
+            }
+        }
+        return index;
+    }
+
+    private void mergeIfNeeded() {
+        List<Segment> candidates;
+        while((candidates = pickMerge(view.sealed)) != null) {
+            merge(candidates);
+        }
+    }
+
+    // The oldest mergeFactor segments of the lowest tier that has that many, segments still waiting for their index
+    // and those at maxSegmentRows are left alone
+    private List<Segment> pickMerge(List<Segment> sealed) {
+        Map<Integer, List<Segment>> tiers = new HashMap<>();
+        for(Segment segment : sealed) {
+            int liveRows = segment.ordinals.length - segment.deleted.get();
+            if((segmentFactory != null && segment.index == null) || liveRows >= maxSegmentRows) {
+                continue;
+            }
+            tiers.computeIfAbsent(tier(liveRows), key -> new ArrayList<>()).add(segment);
+        }
+        List<Segment> picked = null;
+        int pickedTier = Integer.MAX_VALUE;
+        for(Map.Entry<Integer, List<Segment>> entry : tiers.entrySet()) {
+            if(entry.getValue().size() >= mergeFactor && entry.getKey() < pickedTier) {
+                picked = entry.getValue().subList(0, mergeFactor);
+                pickedTier = entry.getKey();
+            }
+        }
+        return picked;
+    }
+
+    private int tier(int liveRows) {
+        int tier = 0;
+        for(long bound = mutableSegmentRows; liveRows > bound; bound *= mergeFactor) {
+            tier++;
+        }
+        return tier;
+    }
+
+    // Rows deleted while the merge runs are copied along, the recount below keeps the new segment's tombstone count right.
+    // The arena rows and ordinals of the dropped ones are released for reuse.
+    private void merge(List<Segment> segments) {
+        long[] tombstones = deletedAt;
+        int total = 0;
+        for(Segment segment : segments) {
+            total += segment.ordinals.length;
+        }
+        long[] pairs = new long[total];
+        Dropped dropped = new Dropped();
+        int rows = 0;
+        for(Segment segment : segments) {
+            if(segment.index != null) {
+                dropped.indexes.add(segment.index);
+            }
+            for(int local = 0; local < segment.ordinals.length; local++) {
+                if(tombstones[segment.ordinals[local]] == 0) {
+                    pairs[rows++] = pair(segment.ordinals[local], segment.rows[local]);
+                } else {
+                    dropped.ordinals.add(segment.ordinals[local]);
+                    dropped.rows.add(segment.rows[local]);
+                }
+            }
+        }
+        Segment rewritten = sorted(0, Arrays.copyOf(pairs, rows));
+        SearchStrategy index = segmentFactory == null || rows == 0 ? null : buildIndex(rewritten.ordinals, rewritten.rows);
+
+        synchronized (this) {
+            Segment merged = null;
+            if(rows > 0) {
+                int deleted = index == null ? countDeleted(rewritten.ordinals) : removeDeleted(rewritten.ordinals, index);
+                merged = new Segment(++nextSegmentId, rewritten.ordinals, rewritten.rows, index, new AtomicInteger(deleted));
+                for(int ordinal : merged.ordinals) {
+                    segmentIds[ordinal] = merged.id;
+                }
+            }
+            replace(segments, merged);
+            reclaimer.retire(dropped);
+        }
+        log.debug("Rewrote {} segments into one of {} rows, {} deleted rows dropped", segments.size(), rows, total - rows);
+    }
+
+    // No search is left that could reach them. The ordinals are forgotten, so they can be added again. Callers hold the
+    // monitor.
+    private void release(Dropped dropped) {
+        for(SearchStrategy index : dropped.indexes) {
+            index.close();
+        }
+        freeRows.or(dropped.rows);
+        long[] tombstones = deletedAt;
+        PeekableIntIterator ordinals = dropped.ordinals.getIntIterator();
+        while(ordinals.hasNext()) {
+            int ordinal = ordinals.next();
+            segmentIds[ordinal] = 0;
+            tombstones[ordinal] = 0;
+        }
+    }
+
+    // Callers hold the monitor
+    private int allocateRow() {
+        reclaimer.reclaim(this::release);
+        if(freeRows.isEmpty()) {
+            return nextRow++;
+        }
+        int row = freeRows.first();
+        freeRows.remove(row);
+        return row;
+    }
+
+    private static long pair(int ordinal, int row) {
+        return ((long) ordinal << 32) | (row & 0xFFFFFFFFL);
+    }
+
+    // Ordinal and row pairs sorted by ordinal, as a sealed segment keeps them
+    private static Segment sorted(int id, long[] pairs) {
+        Arrays.sort(pairs);
+        int[] ordinals = new int[pairs.length];
+        int[] rows = new int[pairs.length];
+        for(int index = 0; index < pairs.length; index++) {
+            ordinals[index] = (int) (pairs[index] >>> 32);
+            rows[index] = (int) pairs[index];
+        }
+        return new Segment(id, ordinals, rows, null, new AtomicInteger());
+    }
+
+    // Swaps segments for their replacement, or drops them when it is null. Callers hold the monitor.
+    private void replace(List<Segment> segments, Segment replacement) {
+        View current = view;
+        List<Segment> sealed = new ArrayList<>(current.sealed.size());
+        boolean replaced = false;
+        for(Segment segment : current.sealed) {
+            if(!segments.contains(segment)) {
+                sealed.add(segment);
+            } else if(!replaced && replacement != null) {
+                sealed.add(replacement);
+                replaced = true;
+            }
+        }
+        view = new View(List.copyOf(sealed), current.mutable, current.mutableRows, current.version);
+    }
+
+    private Segment seal(Segment mutable) {
+        long[] pairs = new long[mutable.ordinals.length];
+        for(int local = 0; local < pairs.length; local++) {
+            pairs[local] = pair(mutable.ordinals[local], mutable.rows[local]);
+        }
+        Segment sorted = sorted(mutable.id, pairs);
+        return new Segment(mutable.id, sorted.ordinals, sorted.rows, null, mutable.deleted);
+    }
+
+    private Segment newMutableSegment() {
+        return new Segment(++nextSegmentId, new int[mutableSegmentRows], new int[mutableSegmentRows], null, new AtomicInteger());
+    }
+
+    private static List<Segment> append(List<Segment> segments, Segment segment) {
+        List<Segment> appended = new ArrayList<>(segments.size() + 1);
+        appended.addAll(segments);
+        appended.add(segment);
+        return List.copyOf(appended);
+    }
+
+    private void ensureCapacity(int ordinal, int row) {
+        if(row >= rowOrdinals.length) {
+            rowOrdinals = Arrays.copyOf(rowOrdinals, Math.max(row + 1, rowOrdinals.length * 2));
+        }
+        if(ordinal < segmentIds.length) {
+            return;
+        }
+        int length = Math.max(ordinal + 1, segmentIds.length * 2);
+        segmentIds = Arrays.copyOf(segmentIds, length);
+        deletedAt = Arrays.copyOf(deletedAt, length);
+    }
+
+    // A removed ordinal is released once a rewrite has dropped it and no search that started before is left
+    @Override
+    public synchronized boolean isReleased(int ordinal) {
+        reclaimer.reclaim(this::release);
+        return ordinal >= segmentIds.length || segmentIds[ordinal] == 0;
+    }
+
+    @Override
+    public int size() {
+        return live;
+    }
+
+    @Override
+    public long offHeapBytes() {
+        VectorArena vectors = arena;
+        long bytes = vectors == null ? 0 : vectors.offHeapBytes();
+        for(Segment segment : view.sealed) {
+            if(segment.index != null) {
+                bytes += segment.index.offHeapBytes();
+            }
+        }
+        return bytes;
+    }
+
+    // Closes the segment indexes and the shared arena, a build or merge still running fails on it and is logged
+    @Override
+    public synchronized void close() {
+        for(Segment segment : view.sealed) {
+            if(segment.index != null) {
+                segment.index.close();
+            }
+        }
+        if(arena != null) {
+            arena.close();
+        }
+    }
+
+    public int getSegmentCount() {
+        return view.sealed.size() + 1;
+    }
+
+    public Metric getMetric() {
+        return metric;
+    }
+
+    // Layout: arena, ordinal capacity, deleted ordinals, sealed segments (ordinals, rows, index snapshot when built),
+    // mutable segment ordinals and rows. Tombstone versions are not kept, they only matter to searches running at the
+    // time, and rows no segment holds are free again after a restore.
+    @Override
+    public synchronized void writeSnapshot(DataOutput output) throws IOException {
+        VectorArena vectors = arena;
+        output.writeBoolean(vectors != null);
+        if(vectors == null) {
+            return;
+        }
+        vectors.writeTo(output);
+
+        long[] tombstones = deletedAt;
+        output.writeInt(tombstones.length);
+        int deleted = 0;
+        for(long deletedVersion : tombstones) {
+            if(deletedVersion != 0) {
+                deleted++;
+            }
+        }
+        output.writeInt(deleted);
+        for(int ordinal = 0; ordinal < tombstones.length; ordinal++) {
+            if(tombstones[ordinal] != 0) {
+                output.writeInt(ordinal);
+            }
+        }
+
+        View current = view;
+        output.writeInt(current.sealed.size());
+        for(Segment segment : current.sealed) {
+            writeInts(output, segment.ordinals, segment.ordinals.length);
+            writeInts(output, segment.rows, segment.rows.length);
+            output.writeBoolean(segment.index != null);
+            if(segment.index != null) {
+                segment.index.writeSnapshot(output);
+            }
+        }
+        writeInts(output, current.mutable.ordinals, current.mutableRows);
+        writeInts(output, current.mutable.rows, current.mutableRows);
+    }
+
+    // The restored mutable rows come back as a sealed segment, indexes missing from the snapshot are built afterwards
+    @Override
+    public void readSnapshot(DataInput input) throws IOException {
+        List<Integer> toBuild = new ArrayList<>();
+        synchronized (this) {
+            if(arena != null) {
+                throw new IllegalStateException("Snapshots can only be restored into an empty index");
+            }
+            if(!input.readBoolean()) {
+                return;
+            }
+            VectorArena restored = VectorArena.readFrom(input, arenaFactory);
+            long[] tombstones = new long[Math.max(VectorArena.BLOCK_ROWS, input.readInt())];
+            int[] ids = new int[tombstones.length];
+            int[] ordinalsByRow = new int[Math.max(VectorArena.BLOCK_ROWS, restored.size())];
+            RoaringBitmap unused = new RoaringBitmap();
+            unused.add(0L, restored.size());
+            int deleted = input.readInt();
+            for(int index = 0; index < deleted; index++) {
+                tombstones[input.readInt()] = 1;
+            }
+
+            int segmentCount = input.readInt();
+            List<Segment> sealed = new ArrayList<>(segmentCount + 1);
+            for(int index = 0; index <= segmentCount; index++) {
+                int[] ordinals = readInts(input);
+                int[] rows = readInts(input);
+                SearchStrategy segmentIndex = null;
+                if(index < segmentCount && input.readBoolean()) {
+                    if(segmentFactory == null) {
+                        throw new IOException("Snapshot has indexed segments but no segment factory is configured");
+                    }
+                    segmentIndex = segmentFactory.apply(segmentArena(restored, rows));
+                    segmentIndex.readSnapshot(input);
+                }
+                if(ordinals.length == 0) {
+                    continue;
+                }
+                if(index == segmentCount) {
+                    long[] pairs = new long[ordinals.length];
+                    for(int local = 0; local < pairs.length; local++) {
+                        pairs[local] = pair(ordinals[local], rows[local]);
+                    }
+                    Segment sorted = sorted(0, pairs);
+                    ordinals = sorted.ordinals;
+                    rows = sorted.rows;
+                }
+
+                int segmentDeleted = 0;
+                int segmentId = ++nextSegmentId;
+                for(int local = 0; local < ordinals.length; local++) {
+                    int ordinal = ordinals[local];
+                    ids[ordinal] = segmentId;
+                    ordinalsByRow[rows[local]] = ordinal;
+                    unused.remove(rows[local]);
+                    if(tombstones[ordinal] != 0) {
+                        segmentDeleted++;
+                    }
+                }
+                live += ordinals.length - segmentDeleted;
+                sealed.add(new Segment(segmentId, ordinals, rows, segmentIndex, new AtomicInteger(segmentDeleted)));
+                if(segmentIndex == null) {
+                    toBuild.add(segmentId);
+                }
+            }
+
+            version = 1;
+            segmentIds = ids;
+            deletedAt = tombstones;
+            rowOrdinals = ordinalsByRow;
+            nextRow = restored.size();
+            freeRows.or(unused);
+            arena = restored;
+            view = new View(List.copyOf(sealed), newMutableSegment(), 0, version);
+        }
+        for(int segmentId : toBuild) {
+            background.execute(() -> buildAndMerge(segmentId));
+        }
+    }
+
+    private static VectorArena.Factory segmentArena(VectorArena shared, int[] rows) {
+        return (dimension, normalized) -> {
+            if(dimension != shared.dimension() || normalized != shared.isNormalized()) {
+                throw new IllegalArgumentException("Segment index needs a " + (normalized ? "normalized " : "") + dimension
+                        + " dimension arena, the shared one is " + (shared.isNormalized() ? "normalized " : "")
+                        + shared.dimension());
+            }
+            return new SegmentArena(shared, rows);
+        };
+    }
+
+    private static void writeInts(DataOutput output, int[] values, int count) throws IOException {
+        output.writeInt(count);
+        for(int index = 0; index < count; index++) {
+            output.writeInt(values[index]);
+        }
+    }
+
+    private static int[] readInts(DataInput input) throws IOException {
+        int[] values = new int[input.readInt()];
+        for(int index = 0; index < values.length; index++) {
+            values[index] = input.readInt();
+        }
+        return values;
+    }
+
+    // A segment's local rows mapped onto the shared arena. The index scores the vectors where they already are, nothing
+    // is stored here and its snapshots carry no rows, the shared arena is written once with the SegmentedIndex.
+    private static final class SegmentArena implements VectorArena {
+        private final VectorArena shared;
+        private final int[] rows;
+
+        SegmentArena(VectorArena shared, int[] rows) {
+            this.shared = shared;
+            this.rows = rows;
+        }
+
+        // The vector is already in the shared arena
+        @Override
+        public void set(int row, float[] vector) {
+            if(row >= rows.length) {
+                throw new IllegalArgumentException("Row " + row + " is outside the segment's " + rows.length + " rows");
+            }
+        }
+
+        @Override
+        public float[] get(int row) {
+            return shared.get(rows[row]);
+        }
+
+        @Override
+        public float norm(int row) {
+            return shared.norm(rows[row]);
+        }
+
+        @Override
+        public ScoringQuery prepare(Metric metric, float[] query) {
+            return shared.prepare(metric, query);
+        }
+
+        @Override
+        public float score(Metric metric, ScoringQuery query, int row) {
+            return shared.score(metric, query, rows[row]);
+        }
+
+        // Batches only while the shared rows stay consecutive within one block, reused rows can come in any order
+        @Override
+        public void scoreBatch(Metric metric, ScoringQuery query, int from, int count, float[] scores) {
+            int first = rows[from];
+            boolean consecutive = first % BLOCK_ROWS + count <= BLOCK_ROWS;
+            for(int index = 1; consecutive && index < count; index++) {
+                consecutive = rows[from + index] == first + index;
+            }
+            if(consecutive) {
+                shared.scoreBatch(metric, query, first, count, scores);
+                return;
+            }
+            for(int index = 0; index < count; index++) {
+                scores[index] = shared.score(metric, query, rows[from + index]);
+            }
+        }
+
+        @Override
+        public int candidates(int k) {
+            return shared.candidates(k);
+        }
+
+        @Override
+        public TopK rescore(Metric metric, ScoringQuery query, TopK candidates, int k) {
+            candidates.sort();
+            int[] local = new int[candidates.size()];
+            TopK sharedCandidates = new TopK(candidates.capacity());
+            for(int index = 0; index < candidates.size(); index++) {
+                local[index] = candidates.ordinalAt(index);
+                sharedCandidates.offer(rows[local[index]], candidates.scoreAt(index));
+            }
+            TopK rescored = shared.rescore(metric, query, sharedCandidates, k);
+            if(rescored == sharedCandidates) {
+                return candidates;
+            }
+            rescored.sort();
+            TopK results = new TopK(k);
+            for(int index = 0; index < rescored.size(); index++) {
+                int row = rescored.ordinalAt(index);
+                for(int candidate : local) {
+                    if(rows[candidate] == row) {
+                        results.offer(candidate, rescored.scoreAt(index));
+                        break;
+                    }
+                }
+            }
+            return results;
+        }
+
+        @Override
+        public boolean isNormalized() {
+            return shared.isNormalized();
+        }
+
+        @Override
+        public int dimension() {
+            return shared.dimension();
+        }
+
+        @Override
+        public int size() {
+            return rows.length;
+        }
+
+        @Override
+        public void writeRows(DataOutput output, int rows) {
+            // The shared arena holds them
+        }
+
+        @Override
+        public void readRows(DataInput input, int rows) {
+            // The shared arena holds them
+        }
+    }
+
+    // Immutable, a search reads the current one once and works on it throughout
+    private static final class View {
+        final List<Segment> sealed;
+        final Segment mutable;
+        final int mutableRows;
+        final long version;
+
+        View(List<Segment> sealed, Segment mutable, int mutableRows, long version) {
+            this.sealed = sealed;
+            this.mutable = mutable;
+            this.mutableRows = mutableRows;
+            this.version = version;
+        }
+
+        Segment find(int segmentId) {
+            if(mutable.id == segmentId) {
+                return mutable;
+            }
+            for(Segment segment : sealed) {
+                if(segment.id == segmentId) {
+                    return segment;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Segment {
+        final int id;
+        // Sealed: sorted, one per local row. Mutable: capacity long, filled up to the view's mutableRows.
+        final int[] ordinals;
+        // Arena row of each ordinal above
+        final int[] rows;
+        // Over row numbers local to the segment, null while unbuilt or without a segment factory
+        final SearchStrategy index;
+        // Tombstoned rows, shared with the unbuilt version of the same segment
+        final AtomicInteger deleted;
+
+        Segment(int id, int[] ordinals, int[] rows, SearchStrategy index, AtomicInteger deleted) {
+            this.id = id;
+            this.ordinals = ordinals;
+            this.rows = rows;
+            this.index = index;
+            this.deleted = deleted;
+        }
+    }
+
+    // What one rewrite dropped
+    private static final class Dropped {
+        final RoaringBitmap ordinals = new RoaringBitmap();
+        final RoaringBitmap rows = new RoaringBitmap();
+        final List<SearchStrategy> indexes = new ArrayList<>();
+    }
+
+    @Override
+    public String toString() {
+        return "SegmentedIndex{" +
+                "metric=" + metric +
+                ", segments=" + getSegmentCount() +
+                ", size=" + size() +
+                '}';
+    }
+}
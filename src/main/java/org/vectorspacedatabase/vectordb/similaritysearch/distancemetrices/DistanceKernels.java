@@ -0,0 +1,41 @@
+package org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices;
+
+import java.nio.ByteBuffer;
+
+// Raw kernels behind DistanceMetrics, y is read from offsetY so rows of a packed block need no copy.
+// Batch variants score one query against rows consecutive rows starting at offset and write into scores[0..rows).
+// ByteBuffer variants read little endian floats in place, byteOffset is in bytes, so mapped files are scored without copying.
+// Code variants read signed int8 codes, x and weights are the query already mapped into code space by the caller.
+interface DistanceKernels {
+    float dotProduct(float[] x, float[] y, int offsetY, int dimension);
+
+    float squaredNorm(float[] vector, int offset, int dimension);
+
+    float squaredEuclidean(float[] x, float[] y, int offsetY, int dimension);
+
+    float manhattan(float[] x, float[] y, int offsetY, int dimension);
+
+    void dotProductBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores);
+
+    void squaredEuclideanBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores);
+
+    void manhattanBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores);
+
+    float dotProduct(float[] x, ByteBuffer y, int byteOffset, int dimension);
+
+    float squaredEuclidean(float[] x, ByteBuffer y, int byteOffset, int dimension);
+
+    float manhattan(float[] x, ByteBuffer y, int byteOffset, int dimension);
+
+    void dotProductBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores);
+
+    void squaredEuclideanBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores);
+
+    void manhattanBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores);
+
+    float dotProduct(float[] x, byte[] codes, int offset, int dimension);
+
+    float weightedSquaredEuclidean(float[] x, float[] weights, byte[] codes, int offset, int dimension);
+
+    float weightedManhattan(float[] x, float[] weights, byte[] codes, int offset, int dimension);
+}
@@ -1,84 +1,200 @@
 package org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices;
 
-import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class DistanceMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(DistanceMetrics.class);
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    // Set -Dvectordb.simd=false to force the scalar kernels
+    private static final String SIMD_PROPERTY = "vectordb.simd";
+
+    private static final DistanceKernels KERNELS = selectKernels();
+
     private DistanceMetrics() {
         throw new UnsupportedOperationException("This is the distance metrics utility class, can't be instantiated");
     }
 
-    public static double dotProduct(List<Float> vectorX, List<Float> vectorY) {
-        if(vectorX == null || vectorY == null) {
-            throw new RuntimeException("Vectors must be NotNull");
-        }
-
-        if(vectorX.size() != vectorY.size()) {
-            throw new IllegalArgumentException("Vectors size must be same");
+    private static DistanceKernels selectKernels() {
+        boolean simdAllowed = Boolean.parseBoolean(System.getProperty(SIMD_PROPERTY, "true"));
+        if(simdAllowed && ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            try {
+                DistanceKernels kernels = (DistanceKernels) Class.forName(DistanceMetrics.class.getPackageName() + ".VectorizedDistanceKernels")
+                        .getDeclaredConstructor()
+                        .newInstance();
+                log.info("Using SIMD distance kernels from {}", VECTOR_MODULE);
+                return kernels;
+            } catch (ReflectiveOperationException | LinkageError e) {
+                log.warn("SIMD distance kernels unavailable, falling back to scalar kernels", e);
+            }
+        } else {
+            log.info("Using scalar distance kernels, start the JVM with --add-modules {} to enable SIMD", VECTOR_MODULE);
         }
+        return new ScalarDistanceKernels();
+    }
 
-        double result = 0;
-        for(int index = 0; index < vectorX.size(); index++) {
-            result += (vectorX.get(index) * vectorY.get(index));
-        }
+    public static boolean isVectorized() {
+        return !(KERNELS instanceof ScalarDistanceKernels);
+    }
 
-        return result;
+    public static double dotProduct(float[] vectorX, float[] vectorY) {
+        validate(vectorX, vectorY);
+        return dotProduct(vectorX, vectorY, 0, vectorX.length);
     }
 
-    public static double cosineSimilarity(List<Float> vectorX, List<Float> vectorY) {
-        if(vectorX == null || vectorY == null) {
-            throw new RuntimeException("Vectors must be NotNull");
-        }
+    // Scores vectorX against the row of a packed block starting at offsetY, callers check the dimension once per query
+    public static double dotProduct(float[] vectorX, float[] vectorY, int offsetY, int dimension) {
+        return KERNELS.dotProduct(vectorX, vectorY, offsetY, dimension);
+    }
 
-        if(vectorX.size() != vectorY.size()) {
-            throw new IllegalArgumentException("Vectors size must be same");
-        }
+    public static double cosineSimilarity(float[] vectorX, float[] vectorY) {
+        validate(vectorX, vectorY);
+        return cosineSimilarity(vectorX, vectorY, 0, vectorX.length);
+    }
 
-        double dotProduct = dotProduct(vectorX, vectorY);
-        double normalizeX = normalization(vectorX);
-        double normalizeY = normalization(vectorY);
+    // A zero vector has no direction and scores 0 against everything, the same as the precomputed norm forms in Metric
+    public static double cosineSimilarity(float[] vectorX, float[] vectorY, int offsetY, int dimension) {
+        return cosineSimilarity(KERNELS, vectorX, vectorY, offsetY, dimension);
+    }
 
+    // The kernels are a parameter so tests can check the SIMD and scalar kernels agree
+    static double cosineSimilarity(DistanceKernels kernels, float[] vectorX, float[] vectorY, int offsetY, int dimension) {
+        double normalizeX = kernels.squaredNorm(vectorX, 0, dimension);
+        double normalizeY = kernels.squaredNorm(vectorY, offsetY, dimension);
         if(normalizeX == 0 || normalizeY == 0) {
-            throw new IllegalArgumentException("Vectors must not have zero normalization");
+            return 0;
         }
 
+        double dotProduct = kernels.dotProduct(vectorX, vectorY, offsetY, dimension);
         return dotProduct / (Math.sqrt(normalizeX) * Math.sqrt(normalizeY));
     }
 
-    private static double normalization(List<Float> vector) {
-        return dotProduct(vector, vector);
+    public static float norm(float[] vector) {
+        return norm(vector, 0, vector.length);
     }
 
-    public static double euclideanDistance(List<Float> vectorX, List<Float> vectorY) {
-        if(vectorX == null || vectorY == null) {
-            throw new RuntimeException("Vectors must be NotNull");
+    public static float norm(float[] vector, int offset, int dimension) {
+        return (float) Math.sqrt(KERNELS.squaredNorm(vector, offset, dimension));
+    }
+
+    // Unit length copy of the vector, zero vectors are returned as is
+    public static float[] normalize(float[] vector) {
+        float norm = norm(vector);
+        float[] normalized = new float[vector.length];
+        for(int index = 0; index < vector.length; index++) {
+            normalized[index] = norm == 0 ? vector[index] : vector[index] / norm;
         }
+        return normalized;
+    }
 
-        if (vectorX.size() != vectorY.size()) {
-            throw new IllegalArgumentException("Vectors size must be same");
+    public static double euclideanDistance(float[] vectorX, float[] vectorY) {
+        validate(vectorX, vectorY);
+        return euclideanDistance(vectorX, vectorY, 0, vectorX.length);
+    }
+
+    public static double euclideanDistance(float[] vectorX, float[] vectorY, int offsetY, int dimension) {
+        return Math.sqrt(KERNELS.squaredEuclidean(vectorX, vectorY, offsetY, dimension));
+    }
+
+    public static double manhattanDistance(float[] vectorX, float[] vectorY) {
+        validate(vectorX, vectorY);
+        return manhattanDistance(vectorX, vectorY, 0, vectorX.length);
+    }
+
+    public static double manhattanDistance(float[] vectorX, float[] vectorY, int offsetY, int dimension) {
+        return KERNELS.manhattan(vectorX, vectorY, offsetY, dimension);
+    }
+
+    // Batched variants score the query against rows consecutive rows of block starting at offset, results go to scores[0..rows)
+    public static void dotProductBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        KERNELS.dotProductBatch(query, block, offset, rows, dimension, scores);
+    }
+
+    public static void cosineSimilarityBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        cosineSimilarityBatch(KERNELS, query, block, offset, rows, dimension, scores);
+    }
+
+    static void cosineSimilarityBatch(DistanceKernels kernels, float[] query, float[] block, int offset, int rows, int dimension,
+                                      float[] scores) {
+        double normalizeQuery = kernels.squaredNorm(query, 0, dimension);
+        if(normalizeQuery == 0) {
+            Arrays.fill(scores, 0, rows, 0);
+            return;
         }
 
-        double result = 0;
-        for(int index = 0; index < vectorX.size(); index++) {
-            result += Math.pow((vectorX.get(index) - vectorY.get(index)), 2);
+        kernels.dotProductBatch(query, block, offset, rows, dimension, scores);
+        double queryNorm = Math.sqrt(normalizeQuery);
+        for(int row = 0; row < rows; row++) {
+            double normalizeRow = kernels.squaredNorm(block, offset + row * dimension, dimension);
+            scores[row] = normalizeRow == 0 ? 0 : (float) (scores[row] / (queryNorm * Math.sqrt(normalizeRow)));
         }
+    }
+
+    public static void euclideanDistanceBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        KERNELS.squaredEuclideanBatch(query, block, offset, rows, dimension, scores);
+        for(int row = 0; row < rows; row++) {
+            scores[row] = (float) Math.sqrt(scores[row]);
+        }
+    }
+
+    public static void manhattanDistanceBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        KERNELS.manhattanBatch(query, block, offset, rows, dimension, scores);
+    }
+
+    // Off-heap forms, rows are little endian floats read in place from the buffer starting at byteOffset
+    public static double dotProduct(float[] vectorX, ByteBuffer vectorY, int byteOffset, int dimension) {
+        return KERNELS.dotProduct(vectorX, vectorY, byteOffset, dimension);
+    }
+
+    public static double euclideanDistance(float[] vectorX, ByteBuffer vectorY, int byteOffset, int dimension) {
+        return Math.sqrt(KERNELS.squaredEuclidean(vectorX, vectorY, byteOffset, dimension));
+    }
 
-        return Math.sqrt(result);
+    public static double manhattanDistance(float[] vectorX, ByteBuffer vectorY, int byteOffset, int dimension) {
+        return KERNELS.manhattan(vectorX, vectorY, byteOffset, dimension);
     }
 
-    public static double manhattanDistance(List<Float> vectorX, List<Float> vectorY) {
+    public static void dotProductBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores) {
+        KERNELS.dotProductBatch(query, block, byteOffset, rows, dimension, scores);
+    }
+
+    public static void euclideanDistanceBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores) {
+        KERNELS.squaredEuclideanBatch(query, block, byteOffset, rows, dimension, scores);
+        for(int row = 0; row < rows; row++) {
+            scores[row] = (float) Math.sqrt(scores[row]);
+        }
+    }
+
+    public static void manhattanDistanceBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores) {
+        KERNELS.manhattanBatch(query, block, byteOffset, rows, dimension, scores);
+    }
+
+    // int8 code forms, x and weights are the query mapped into code space by the quantizer
+    public static double dotProduct(float[] vectorX, byte[] codes, int offset, int dimension) {
+        return KERNELS.dotProduct(vectorX, codes, offset, dimension);
+    }
+
+    public static double weightedSquaredEuclidean(float[] vectorX, float[] weights, byte[] codes, int offset, int dimension) {
+        return KERNELS.weightedSquaredEuclidean(vectorX, weights, codes, offset, dimension);
+    }
+
+    public static double weightedManhattan(float[] vectorX, float[] weights, byte[] codes, int offset, int dimension) {
+        return KERNELS.weightedManhattan(vectorX, weights, codes, offset, dimension);
+    }
+
+    private static void validate(float[] vectorX, float[] vectorY) {
         if(vectorX == null || vectorY == null) {
             throw new RuntimeException("Vectors must be NotNull");
         }
 
-        if(vectorX.size() != vectorY.size()) {
+        if(vectorX.length != vectorY.length) {
             throw new IllegalArgumentException("Vectors size must be same");
         }
-
-        double result = 0;
-        for(int index = 0; index < vectorX.size(); index++) {
-            result += Math.abs(vectorX.get(index) - vectorY.get(index));
-        }
-
-        return result;
     }
 }
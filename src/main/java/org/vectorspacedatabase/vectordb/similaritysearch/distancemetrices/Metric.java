@@ -0,0 +1,160 @@
+package org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices;
+
+import java.nio.ByteBuffer;
+
+// Every metric is turned into a score where higher means closer, distances are negated so the indexes rank them all the same way
+public enum Metric {
+    COSINE {
+        @Override
+        public float score(float[] vectorX, float[] vectorY, int offsetY, int dimension) {
+            return (float) DistanceMetrics.cosineSimilarity(vectorX, vectorY, offsetY, dimension);
+        }
+
+        @Override
+        public void scoreBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+            DistanceMetrics.cosineSimilarityBatch(query, block, offset, rows, dimension, scores);
+        }
+
+        // One dot product per row, both norms are already known
+        @Override
+        public float score(float[] query, float queryNorm, float[] vectors, int offset, float norm, int dimension) {
+            if(queryNorm == 0 || norm == 0) {
+                return 0;
+            }
+            return (float) DistanceMetrics.dotProduct(query, vectors, offset, dimension) / (queryNorm * norm);
+        }
+
+        @Override
+        public void scoreBatch(float[] query, float queryNorm, float[] block, int offset, int rows, int dimension,
+                               float[] norms, int normOffset, float[] scores) {
+            DistanceMetrics.dotProductBatch(query, block, offset, rows, dimension, scores);
+            for(int row = 0; row < rows; row++) {
+                float norm = norms[normOffset + row];
+                scores[row] = queryNorm == 0 || norm == 0 ? 0 : scores[row] / (queryNorm * norm);
+            }
+        }
+
+        @Override
+        public float score(float[] query, float queryNorm, ByteBuffer vectors, int byteOffset, float norm, int dimension) {
+            if(queryNorm == 0 || norm == 0) {
+                return 0;
+            }
+            return (float) DistanceMetrics.dotProduct(query, vectors, byteOffset, dimension) / (queryNorm * norm);
+        }
+
+        @Override
+        public void scoreBatch(float[] query, float queryNorm, ByteBuffer block, int byteOffset, int rows, int dimension,
+                               float[] norms, int normOffset, float[] scores) {
+            DistanceMetrics.dotProductBatch(query, block, byteOffset, rows, dimension, scores);
+            for(int row = 0; row < rows; row++) {
+                float norm = norms[normOffset + row];
+                scores[row] = queryNorm == 0 || norm == 0 ? 0 : scores[row] / (queryNorm * norm);
+            }
+        }
+    },
+    DOT_PRODUCT {
+        @Override
+        public float score(float[] vectorX, float[] vectorY, int offsetY, int dimension) {
+            return (float) DistanceMetrics.dotProduct(vectorX, vectorY, offsetY, dimension);
+        }
+
+        @Override
+        public void scoreBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+            DistanceMetrics.dotProductBatch(query, block, offset, rows, dimension, scores);
+        }
+
+        @Override
+        public float score(float[] query, float queryNorm, ByteBuffer vectors, int byteOffset, float norm, int dimension) {
+            return (float) DistanceMetrics.dotProduct(query, vectors, byteOffset, dimension);
+        }
+
+        @Override
+        public void scoreBatch(float[] query, float queryNorm, ByteBuffer block, int byteOffset, int rows, int dimension,
+                               float[] norms, int normOffset, float[] scores) {
+            DistanceMetrics.dotProductBatch(query, block, byteOffset, rows, dimension, scores);
+        }
+    },
+    EUCLIDEAN {
+        @Override
+        public float score(float[] vectorX, float[] vectorY, int offsetY, int dimension) {
+            return (float) -DistanceMetrics.euclideanDistance(vectorX, vectorY, offsetY, dimension);
+        }
+
+        @Override
+        public void scoreBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+            DistanceMetrics.euclideanDistanceBatch(query, block, offset, rows, dimension, scores);
+            negate(scores, rows);
+        }
+
+        @Override
+        public float score(float[] query, float queryNorm, ByteBuffer vectors, int byteOffset, float norm, int dimension) {
+            return (float) -DistanceMetrics.euclideanDistance(query, vectors, byteOffset, dimension);
+        }
+
+        @Override
+        public void scoreBatch(float[] query, float queryNorm, ByteBuffer block, int byteOffset, int rows, int dimension,
+                               float[] norms, int normOffset, float[] scores) {
+            DistanceMetrics.euclideanDistanceBatch(query, block, byteOffset, rows, dimension, scores);
+            negate(scores, rows);
+        }
+    },
+    MANHATTAN {
+        @Override
+        public float score(float[] vectorX, float[] vectorY, int offsetY, int dimension) {
+            return (float) -DistanceMetrics.manhattanDistance(vectorX, vectorY, offsetY, dimension);
+        }
+
+        @Override
+        public void scoreBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+            DistanceMetrics.manhattanDistanceBatch(query, block, offset, rows, dimension, scores);
+            negate(scores, rows);
+        }
+
+        @Override
+        public float score(float[] query, float queryNorm, ByteBuffer vectors, int byteOffset, float norm, int dimension) {
+            return (float) -DistanceMetrics.manhattanDistance(query, vectors, byteOffset, dimension);
+        }
+
+        @Override
+        public void scoreBatch(float[] query, float queryNorm, ByteBuffer block, int byteOffset, int rows, int dimension,
+                               float[] norms, int normOffset, float[] scores) {
+            DistanceMetrics.manhattanDistanceBatch(query, block, byteOffset, rows, dimension, scores);
+            negate(scores, rows);
+        }
+    };
+
+    public abstract float score(float[] vectorX, float[] vectorY, int offsetY, int dimension);
+
+    // Scores rows consecutive rows of a block in one call, see DistanceMetrics batch kernels
+    public abstract void scoreBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores);
+
+    // Norm-aware forms used by the indexes, norms are stored at insert time and computed once per query.
+    // Only cosine needs them, the other metrics ignore the norms.
+    public float score(float[] query, float queryNorm, float[] vectors, int offset, float norm, int dimension) {
+        return score(query, vectors, offset, dimension);
+    }
+
+    public void scoreBatch(float[] query, float queryNorm, float[] block, int offset, int rows, int dimension,
+                           float[] norms, int normOffset, float[] scores) {
+        scoreBatch(query, block, offset, rows, dimension, scores);
+    }
+
+    // Same scores over little endian rows of a mapped buffer, byteOffset is in bytes
+    public abstract float score(float[] query, float queryNorm, ByteBuffer vectors, int byteOffset, float norm, int dimension);
+
+    public abstract void scoreBatch(float[] query, float queryNorm, ByteBuffer block, int byteOffset, int rows, int dimension,
+                                    float[] norms, int normOffset, float[] scores);
+
+    public float score(float[] vectorX, float[] vectorY) {
+        if(vectorX.length != vectorY.length) {
+            throw new IllegalArgumentException("Vectors size must be same");
+        }
+        return score(vectorX, vectorY, 0, vectorX.length);
+    }
+
+    private static void negate(float[] scores, int rows) {
+        for(int row = 0; row < rows; row++) {
+            scores[row] = -scores[row];
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices;
+
+import java.nio.ByteBuffer;
+
+// Plain loops, used when the incubator vector module is not enabled
+class ScalarDistanceKernels implements DistanceKernels {
+
+    @Override
+    public float dotProduct(float[] x, float[] y, int offsetY, int dimension) {
+        float result = 0;
+        for(int index = 0; index < dimension; index++) {
+            result += x[index] * y[offsetY + index];
+        }
+        return result;
+    }
+
+    @Override
+    public float squaredNorm(float[] vector, int offset, int dimension) {
+        float result = 0;
+        for(int index = offset; index < offset + dimension; index++) {
+            result += vector[index] * vector[index];
+        }
+        return result;
+    }
+
+    @Override
+    public float squaredEuclidean(float[] x, float[] y, int offsetY, int dimension) {
+        float result = 0;
+        for(int index = 0; index < dimension; index++) {
+            float difference = x[index] - y[offsetY + index];
+            result += difference * difference;
+        }
+        return result;
+    }
+
+    @Override
+    public float manhattan(float[] x, float[] y, int offsetY, int dimension) {
+        float result = 0;
+        for(int index = 0; index < dimension; index++) {
+            result += Math.abs(x[index] - y[offsetY + index]);
+        }
+        return result;
+    }
+
+    @Override
+    public void dotProductBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        for(int row = 0; row < rows; row++) {
+            scores[row] = dotProduct(query, block, offset + row * dimension, dimension);
+        }
+    }
+
+    @Override
+    public void squaredEuclideanBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        for(int row = 0; row < rows; row++) {
+            scores[row] = squaredEuclidean(query, block, offset + row * dimension, dimension);
+        }
+    }
+
+    @Override
+    public void manhattanBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        for(int row = 0; row < rows; row++) {
+            scores[row] = manhattan(query, block, offset + row * dimension, dimension);
+        }
+    }
+
+    // Buffers are little endian, set by the caller
+    @Override
+    public float dotProduct(float[] x, ByteBuffer y, int byteOffset, int dimension) {
+        float result = 0;
+        for(int index = 0; index < dimension; index++) {
+            result += x[index] * y.getFloat(byteOffset + index * Float.BYTES);
+        }
+        return result;
+    }
+
+    @Override
+    public float squaredEuclidean(float[] x, ByteBuffer y, int byteOffset, int dimension) {
+        float result = 0;
+        for(int index = 0; index < dimension; index++) {
+            float difference = x[index] - y.getFloat(byteOffset + index * Float.BYTES);
+            result += difference * difference;
+        }
+        return result;
+    }
+
+    @Override
+    public float manhattan(float[] x, ByteBuffer y, int byteOffset, int dimension) {
+        float result = 0;
+        for(int index = 0; index < dimension; index++) {
+            result += Math.abs(x[index] - y.getFloat(byteOffset + index * Float.BYTES));
+        }
+        return result;
+    }
+
+    @Override
+    public void dotProductBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores) {
+        int rowBytes = dimension * Float.BYTES;
+        for(int row = 0; row < rows; row++) {
+            scores[row] = dotProduct(query, block, byteOffset + row * rowBytes, dimension);
+        }
+    }
+
+    @Override
+    public void squaredEuclideanBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores) {
+        int rowBytes = dimension * Float.BYTES;
+        for(int row = 0; row < rows; row++) {
+            scores[row] = squaredEuclidean(query, block, byteOffset + row * rowBytes, dimension);
+        }
+    }
+
+    @Override
+    public void manhattanBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores) {
+        int rowBytes = dimension * Float.BYTES;
+        for(int row = 0; row < rows; row++) {
+            scores[row] = manhattan(query, block, byteOffset + row * rowBytes, dimension);
+        }
+    }
+
+    @Override
+    public float dotProduct(float[] x, byte[] codes, int offset, int dimension) {
+        float result = 0;
+        for(int index = 0; index < dimension; index++) {
+            result += x[index] * codes[offset + index];
+        }
+        return result;
+    }
+
+    @Override
+    public float weightedSquaredEuclidean(float[] x, float[] weights, byte[] codes, int offset, int dimension) {
+        float result = 0;
+        for(int index = 0; index < dimension; index++) {
+            float difference = x[index] - codes[offset + index];
+            result += weights[index] * difference * difference;
+        }
+        return result;
+    }
+
+    @Override
+    public float weightedManhattan(float[] x, float[] weights, byte[] codes, int offset, int dimension) {
+        float result = 0;
+        for(int index = 0; index < dimension; index++) {
+            result += weights[index] * Math.abs(x[index] - codes[offset + index]);
+        }
+        return result;
+    }
+}
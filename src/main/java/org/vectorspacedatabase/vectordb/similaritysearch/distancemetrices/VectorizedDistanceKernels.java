@@ -0,0 +1,411 @@
+package org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// SIMD kernels on the JDK Vector API, only loaded when --add-modules jdk.incubator.vector is present.
+// Batch variants walk four rows per pass so every query lane is loaded once for four rows.
+class VectorizedDistanceKernels implements DistanceKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    // Byte lanes matching the float lanes one to one, codes widen with B2F. Shapes below 64 bits do not exist,
+    // narrow float species fall back to the scalar code loops.
+    private static final boolean CODE_LANES = SPECIES.length() >= 8;
+
+    private static final VectorSpecies<Byte> BYTE_SPECIES = CODE_LANES
+            ? VectorSpecies.of(byte.class, VectorShape.forBitSize(SPECIES.length() * Byte.SIZE))
+            : ByteVector.SPECIES_64;
+
+    private static final ScalarDistanceKernels SCALAR = new ScalarDistanceKernels();
+
+    @Override
+    public float dotProduct(float[] x, float[] y, int offsetY, int dimension) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(SPECIES, x, index);
+            FloatVector vy = FloatVector.fromArray(SPECIES, y, offsetY + index);
+            sum = vx.fma(vy, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            result += x[index] * y[offsetY + index];
+        }
+        return result;
+    }
+
+    @Override
+    public float squaredNorm(float[] vector, int offset, int dimension) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            FloatVector v = FloatVector.fromArray(SPECIES, vector, offset + index);
+            sum = v.fma(v, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            result += vector[offset + index] * vector[offset + index];
+        }
+        return result;
+    }
+
+    @Override
+    public float squaredEuclidean(float[] x, float[] y, int offsetY, int dimension) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            FloatVector difference = FloatVector.fromArray(SPECIES, x, index)
+                    .sub(FloatVector.fromArray(SPECIES, y, offsetY + index));
+            sum = difference.fma(difference, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            float difference = x[index] - y[offsetY + index];
+            result += difference * difference;
+        }
+        return result;
+    }
+
+    @Override
+    public float manhattan(float[] x, float[] y, int offsetY, int dimension) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            FloatVector difference = FloatVector.fromArray(SPECIES, x, index)
+                    .sub(FloatVector.fromArray(SPECIES, y, offsetY + index));
+            sum = sum.add(difference.abs());
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            result += Math.abs(x[index] - y[offsetY + index]);
+        }
+        return result;
+    }
+
+    @Override
+    public void dotProductBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        int bound = SPECIES.loopBound(dimension);
+        int row = 0;
+        for(; row + 4 <= rows; row += 4) {
+            int offset0 = offset + row * dimension;
+            int offset1 = offset0 + dimension;
+            int offset2 = offset1 + dimension;
+            int offset3 = offset2 + dimension;
+            FloatVector sum0 = FloatVector.zero(SPECIES);
+            FloatVector sum1 = FloatVector.zero(SPECIES);
+            FloatVector sum2 = FloatVector.zero(SPECIES);
+            FloatVector sum3 = FloatVector.zero(SPECIES);
+            int index = 0;
+            for(; index < bound; index += SPECIES.length()) {
+                FloatVector q = FloatVector.fromArray(SPECIES, query, index);
+                sum0 = q.fma(FloatVector.fromArray(SPECIES, block, offset0 + index), sum0);
+                sum1 = q.fma(FloatVector.fromArray(SPECIES, block, offset1 + index), sum1);
+                sum2 = q.fma(FloatVector.fromArray(SPECIES, block, offset2 + index), sum2);
+                sum3 = q.fma(FloatVector.fromArray(SPECIES, block, offset3 + index), sum3);
+            }
+            float result0 = sum0.reduceLanes(VectorOperators.ADD);
+            float result1 = sum1.reduceLanes(VectorOperators.ADD);
+            float result2 = sum2.reduceLanes(VectorOperators.ADD);
+            float result3 = sum3.reduceLanes(VectorOperators.ADD);
+            for(; index < dimension; index++) {
+                result0 += query[index] * block[offset0 + index];
+                result1 += query[index] * block[offset1 + index];
+                result2 += query[index] * block[offset2 + index];
+                result3 += query[index] * block[offset3 + index];
+            }
+            scores[row] = result0;
+            scores[row + 1] = result1;
+            scores[row + 2] = result2;
+            scores[row + 3] = result3;
+        }
+        for(; row < rows; row++) {
+            scores[row] = dotProduct(query, block, offset + row * dimension, dimension);
+        }
+    }
+
+    @Override
+    public void squaredEuclideanBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        int bound = SPECIES.loopBound(dimension);
+        int row = 0;
+        for(; row + 4 <= rows; row += 4) {
+            int offset0 = offset + row * dimension;
+            int offset1 = offset0 + dimension;
+            int offset2 = offset1 + dimension;
+            int offset3 = offset2 + dimension;
+            FloatVector sum0 = FloatVector.zero(SPECIES);
+            FloatVector sum1 = FloatVector.zero(SPECIES);
+            FloatVector sum2 = FloatVector.zero(SPECIES);
+            FloatVector sum3 = FloatVector.zero(SPECIES);
+            int index = 0;
+            for(; index < bound; index += SPECIES.length()) {
+                FloatVector q = FloatVector.fromArray(SPECIES, query, index);
+                FloatVector difference0 = q.sub(FloatVector.fromArray(SPECIES, block, offset0 + index));
+                FloatVector difference1 = q.sub(FloatVector.fromArray(SPECIES, block, offset1 + index));
+                FloatVector difference2 = q.sub(FloatVector.fromArray(SPECIES, block, offset2 + index));
+                FloatVector difference3 = q.sub(FloatVector.fromArray(SPECIES, block, offset3 + index));
+                sum0 = difference0.fma(difference0, sum0);
+                sum1 = difference1.fma(difference1, sum1);
+                sum2 = difference2.fma(difference2, sum2);
+                sum3 = difference3.fma(difference3, sum3);
+            }
+            float result0 = sum0.reduceLanes(VectorOperators.ADD);
+            float result1 = sum1.reduceLanes(VectorOperators.ADD);
+            float result2 = sum2.reduceLanes(VectorOperators.ADD);
+            float result3 = sum3.reduceLanes(VectorOperators.ADD);
+            for(; index < dimension; index++) {
+                float difference0 = query[index] - block[offset0 + index];
+                float difference1 = query[index] - block[offset1 + index];
+                float difference2 = query[index] - block[offset2 + index];
+                float difference3 = query[index] - block[offset3 + index];
+                result0 += difference0 * difference0;
+                result1 += difference1 * difference1;
+                result2 += difference2 * difference2;
+                result3 += difference3 * difference3;
+            }
+            scores[row] = result0;
+            scores[row + 1] = result1;
+            scores[row + 2] = result2;
+            scores[row + 3] = result3;
+        }
+        for(; row < rows; row++) {
+            scores[row] = squaredEuclidean(query, block, offset + row * dimension, dimension);
+        }
+    }
+
+    @Override
+    public void manhattanBatch(float[] query, float[] block, int offset, int rows, int dimension, float[] scores) {
+        for(int row = 0; row < rows; row++) {
+            scores[row] = manhattan(query, block, offset + row * dimension, dimension);
+        }
+    }
+
+    @Override
+    public float dotProduct(float[] x, ByteBuffer y, int byteOffset, int dimension) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            FloatVector vx = FloatVector.fromArray(SPECIES, x, index);
+            FloatVector vy = FloatVector.fromByteBuffer(SPECIES, y, byteOffset + index * Float.BYTES, ORDER);
+            sum = vx.fma(vy, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            result += x[index] * y.getFloat(byteOffset + index * Float.BYTES);
+        }
+        return result;
+    }
+
+    @Override
+    public float squaredEuclidean(float[] x, ByteBuffer y, int byteOffset, int dimension) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            FloatVector difference = FloatVector.fromArray(SPECIES, x, index)
+                    .sub(FloatVector.fromByteBuffer(SPECIES, y, byteOffset + index * Float.BYTES, ORDER));
+            sum = difference.fma(difference, sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            float difference = x[index] - y.getFloat(byteOffset + index * Float.BYTES);
+            result += difference * difference;
+        }
+        return result;
+    }
+
+    @Override
+    public float manhattan(float[] x, ByteBuffer y, int byteOffset, int dimension) {
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            FloatVector difference = FloatVector.fromArray(SPECIES, x, index)
+                    .sub(FloatVector.fromByteBuffer(SPECIES, y, byteOffset + index * Float.BYTES, ORDER));
+            sum = sum.add(difference.abs());
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            result += Math.abs(x[index] - y.getFloat(byteOffset + index * Float.BYTES));
+        }
+        return result;
+    }
+
+    @Override
+    public void dotProductBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores) {
+        int rowBytes = dimension * Float.BYTES;
+        int bound = SPECIES.loopBound(dimension);
+        int row = 0;
+        for(; row + 4 <= rows; row += 4) {
+            int offset0 = byteOffset + row * rowBytes;
+            int offset1 = offset0 + rowBytes;
+            int offset2 = offset1 + rowBytes;
+            int offset3 = offset2 + rowBytes;
+            FloatVector sum0 = FloatVector.zero(SPECIES);
+            FloatVector sum1 = FloatVector.zero(SPECIES);
+            FloatVector sum2 = FloatVector.zero(SPECIES);
+            FloatVector sum3 = FloatVector.zero(SPECIES);
+            int index = 0;
+            for(; index < bound; index += SPECIES.length()) {
+                int lane = index * Float.BYTES;
+                FloatVector q = FloatVector.fromArray(SPECIES, query, index);
+                sum0 = q.fma(FloatVector.fromByteBuffer(SPECIES, block, offset0 + lane, ORDER), sum0);
+                sum1 = q.fma(FloatVector.fromByteBuffer(SPECIES, block, offset1 + lane, ORDER), sum1);
+                sum2 = q.fma(FloatVector.fromByteBuffer(SPECIES, block, offset2 + lane, ORDER), sum2);
+                sum3 = q.fma(FloatVector.fromByteBuffer(SPECIES, block, offset3 + lane, ORDER), sum3);
+            }
+            float result0 = sum0.reduceLanes(VectorOperators.ADD);
+            float result1 = sum1.reduceLanes(VectorOperators.ADD);
+            float result2 = sum2.reduceLanes(VectorOperators.ADD);
+            float result3 = sum3.reduceLanes(VectorOperators.ADD);
+            for(; index < dimension; index++) {
+                int lane = index * Float.BYTES;
+                result0 += query[index] * block.getFloat(offset0 + lane);
+                result1 += query[index] * block.getFloat(offset1 + lane);
+                result2 += query[index] * block.getFloat(offset2 + lane);
+                result3 += query[index] * block.getFloat(offset3 + lane);
+            }
+            scores[row] = result0;
+            scores[row + 1] = result1;
+            scores[row + 2] = result2;
+            scores[row + 3] = result3;
+        }
+        for(; row < rows; row++) {
+            scores[row] = dotProduct(query, block, byteOffset + row * rowBytes, dimension);
+        }
+    }
+
+    @Override
+    public void squaredEuclideanBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores) {
+        int rowBytes = dimension * Float.BYTES;
+        int bound = SPECIES.loopBound(dimension);
+        int row = 0;
+        for(; row + 4 <= rows; row += 4) {
+            int offset0 = byteOffset + row * rowBytes;
+            int offset1 = offset0 + rowBytes;
+            int offset2 = offset1 + rowBytes;
+            int offset3 = offset2 + rowBytes;
+            FloatVector sum0 = FloatVector.zero(SPECIES);
+            FloatVector sum1 = FloatVector.zero(SPECIES);
+            FloatVector sum2 = FloatVector.zero(SPECIES);
+            FloatVector sum3 = FloatVector.zero(SPECIES);
+            int index = 0;
+            for(; index < bound; index += SPECIES.length()) {
+                int lane = index * Float.BYTES;
+                FloatVector q = FloatVector.fromArray(SPECIES, query, index);
+                FloatVector difference0 = q.sub(FloatVector.fromByteBuffer(SPECIES, block, offset0 + lane, ORDER));
+                FloatVector difference1 = q.sub(FloatVector.fromByteBuffer(SPECIES, block, offset1 + lane, ORDER));
+                FloatVector difference2 = q.sub(FloatVector.fromByteBuffer(SPECIES, block, offset2 + lane, ORDER));
+                FloatVector difference3 = q.sub(FloatVector.fromByteBuffer(SPECIES, block, offset3 + lane, ORDER));
+                sum0 = difference0.fma(difference0, sum0);
+                sum1 = difference1.fma(difference1, sum1);
+                sum2 = difference2.fma(difference2, sum2);
+                sum3 = difference3.fma(difference3, sum3);
+            }
+            float result0 = sum0.reduceLanes(VectorOperators.ADD);
+            float result1 = sum1.reduceLanes(VectorOperators.ADD);
+            float result2 = sum2.reduceLanes(VectorOperators.ADD);
+            float result3 = sum3.reduceLanes(VectorOperators.ADD);
+            for(; index < dimension; index++) {
+                int lane = index * Float.BYTES;
+                float difference0 = query[index] - block.getFloat(offset0 + lane);
+                float difference1 = query[index] - block.getFloat(offset1 + lane);
+                float difference2 = query[index] - block.getFloat(offset2 + lane);
+                float difference3 = query[index] - block.getFloat(offset3 + lane);
+                result0 += difference0 * difference0;
+                result1 += difference1 * difference1;
+                result2 += difference2 * difference2;
+                result3 += difference3 * difference3;
+            }
+            scores[row] = result0;
+            scores[row + 1] = result1;
+            scores[row + 2] = result2;
+            scores[row + 3] = result3;
+        }
+        for(; row < rows; row++) {
+            scores[row] = squaredEuclidean(query, block, byteOffset + row * rowBytes, dimension);
+        }
+    }
+
+    @Override
+    public void manhattanBatch(float[] query, ByteBuffer block, int byteOffset, int rows, int dimension, float[] scores) {
+        int rowBytes = dimension * Float.BYTES;
+        for(int row = 0; row < rows; row++) {
+            scores[row] = manhattan(query, block, byteOffset + row * rowBytes, dimension);
+        }
+    }
+
+    @Override
+    public float dotProduct(float[] x, byte[] codes, int offset, int dimension) {
+        if(!CODE_LANES) {
+            return SCALAR.dotProduct(x, codes, offset, dimension);
+        }
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            sum = FloatVector.fromArray(SPECIES, x, index).fma(widen(codes, offset + index), sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            result += x[index] * codes[offset + index];
+        }
+        return result;
+    }
+
+    @Override
+    public float weightedSquaredEuclidean(float[] x, float[] weights, byte[] codes, int offset, int dimension) {
+        if(!CODE_LANES) {
+            return SCALAR.weightedSquaredEuclidean(x, weights, codes, offset, dimension);
+        }
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            FloatVector difference = FloatVector.fromArray(SPECIES, x, index).sub(widen(codes, offset + index));
+            sum = difference.mul(difference).fma(FloatVector.fromArray(SPECIES, weights, index), sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            float difference = x[index] - codes[offset + index];
+            result += weights[index] * difference * difference;
+        }
+        return result;
+    }
+
+    @Override
+    public float weightedManhattan(float[] x, float[] weights, byte[] codes, int offset, int dimension) {
+        if(!CODE_LANES) {
+            return SCALAR.weightedManhattan(x, weights, codes, offset, dimension);
+        }
+        FloatVector sum = FloatVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(dimension);
+        int index = 0;
+        for(; index < bound; index += SPECIES.length()) {
+            FloatVector difference = FloatVector.fromArray(SPECIES, x, index).sub(widen(codes, offset + index));
+            sum = difference.abs().fma(FloatVector.fromArray(SPECIES, weights, index), sum);
+        }
+        float result = sum.reduceLanes(VectorOperators.ADD);
+        for(; index < dimension; index++) {
+            result += weights[index] * Math.abs(x[index] - codes[offset + index]);
+        }
+        return result;
+    }
+
+    private static FloatVector widen(byte[] codes, int offset) {
+        return (FloatVector) ByteVector.fromArray(BYTE_SPECIES, codes, offset).convertShape(VectorOperators.B2F, SPECIES, 0);
+    }
+}
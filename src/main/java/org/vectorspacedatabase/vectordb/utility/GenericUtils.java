@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class GenericUtils {
@@ -18,4 +19,14 @@ public class GenericUtils {
 
         return objectMapper.writeValueAsString(requestBody);
     }
+
+    // Several inputs in one request, the response carries one embedding per input tagged with its index
+    public static String buildRequestBody(List<String> contents, String model, String encodingFormat) throws IOException {
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("input", contents);
+        requestBody.put("model", model);
+        requestBody.put("encoding_format", encodingFormat);
+
+        return objectMapper.writeValueAsString(requestBody);
+    }
 }
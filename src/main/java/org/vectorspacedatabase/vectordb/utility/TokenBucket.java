@@ -0,0 +1,57 @@
+package org.vectorspacedatabase.vectordb.utility;
+
+import java.util.concurrent.TimeUnit;
+
+// Token bucket rate limiter, refills continuously up to capacity and blocks callers until enough tokens are available
+public class TokenBucket {
+
+    private final double capacity;
+
+    private final double refillPerNano;
+
+    private double tokens;
+
+    private long lastRefill;
+
+    public TokenBucket(double capacity, double refillPerSecond) {
+        if(capacity <= 0 || refillPerSecond <= 0) {
+            throw new IllegalArgumentException("Capacity and refill rate must be greater than zero");
+        }
+        this.capacity = capacity;
+        this.refillPerNano = refillPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.tokens = capacity;
+        this.lastRefill = System.nanoTime();
+    }
+
+    // Requests larger than the capacity are clamped so a single oversized call can still go through
+    public void acquire(double permits) throws InterruptedException {
+        double wanted = Math.min(permits, capacity);
+        while(true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if(tokens >= wanted) {
+                    tokens -= wanted;
+                    return;
+                }
+                waitNanos = (long) Math.ceil((wanted - tokens) / refillPerNano);
+            }
+            TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1));
+        }
+    }
+
+    public synchronized boolean tryAcquire(double permits) {
+        refill();
+        if(tokens >= permits) {
+            tokens -= permits;
+            return true;
+        }
+        return false;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+    }
+}
@@ -0,0 +1,89 @@
+package org.vectorspacedatabase.vectordb.ingestion;
+
+import org.junit.jupiter.api.Test;
+import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.metadata.Filter;
+import org.vectorspacedatabase.vectordb.sharding.Shard;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+class IngestionPipelineTest {
+
+    @Test
+    void documentsWithTheSameHashCodeKeepTheirOwnChunks() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        RecordingShard shard = new RecordingShard();
+        IngestionPipeline pipeline = IngestionPipeline.builder()
+                .withVectorDatabase(shard)
+                .withEmbeddingStrategy(document -> new float[]{1, 0})
+                .withExtractionThreads(1)
+                .build();
+        pipeline.submit("Aa", Map.of());
+        pipeline.submit("BB", Map.of());
+        pipeline.close();
+
+        Map<String, Document> byId = new HashMap<>();
+        for(Document document : shard.documents) {
+            byId.put(document.getId(), document);
+        }
+        assertEquals(2, shard.documents.size());
+        assertEquals(2, byId.size());
+        assertNotEquals(shard.documents.get(0).getMetadata().get(IngestionPipeline.PARENT_ID),
+                shard.documents.get(1).getMetadata().get(IngestionPipeline.PARENT_ID));
+    }
+
+    @Test
+    void parentIdDependsOnTheSource() {
+        assertEquals(IngestionPipeline.parentId("", "Aa"), IngestionPipeline.parentId("", "Aa"));
+        assertNotEquals(IngestionPipeline.parentId("", "Aa"), IngestionPipeline.parentId("", "BB"));
+        assertNotEquals(IngestionPipeline.parentId("/a.txt", "Aa"), IngestionPipeline.parentId("/b.txt", "Aa"));
+    }
+
+    private static final class RecordingShard implements Shard {
+        private final List<Document> documents = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public void addEmbedded(List<Document> documents) {
+            this.documents.addAll(documents);
+        }
+
+        @Override
+        public Optional<Boolean> delete(List<String> documentIds) {
+            return Optional.of(Boolean.FALSE);
+        }
+
+        @Override
+        public Document getDocument(String documentId) {
+            return null;
+        }
+
+        @Override
+        public List<SearchResult> search(float[] queryVector, int k, Filter filter) {
+            return List.of();
+        }
+
+        @Override
+        public List<SearchResult> lexicalSearch(String query, int k, Filter filter) {
+            return List.of();
+        }
+
+        @Override
+        public int size() {
+            return documents.size();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.vectorspacedatabase.vectordb.sharding;
+
+import org.junit.jupiter.api.Test;
+import org.vectorspacedatabase.vectordb.document.Document;
+import org.vectorspacedatabase.vectordb.metadata.Filter;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ShardedVectorDatabaseTest {
+
+    private static final int MAX_K = 1000;
+
+    @Test
+    void hybridSearchAsksShardsForNoMoreThanTheirMaxK() {
+        AtomicInteger largestK = new AtomicInteger();
+        List<Shard> shards = List.of(new LimitedShard("a", largestK), new LimitedShard("b", largestK));
+        ShardedVectorDatabase database = new ShardedVectorDatabase(document -> new float[]{1, 0}, shards);
+        try {
+            int k = MAX_K / 4 + 50;
+            List<SearchResult> results = database.hybridSearch("query", k);
+
+            assertEquals(k, results.size());
+            assertEquals(MAX_K, largestK.get());
+        } finally {
+            database.close();
+        }
+    }
+
+    // Rejects k above MAX_K the way the search API of a remote shard does
+    private static final class LimitedShard implements Shard {
+        private final String prefix;
+        private final AtomicInteger largestK;
+
+        LimitedShard(String prefix, AtomicInteger largestK) {
+            this.prefix = prefix;
+            this.largestK = largestK;
+        }
+
+        @Override
+        public void addEmbedded(List<Document> documents) {
+        }
+
+        @Override
+        public Optional<Boolean> delete(List<String> documentIds) {
+            return Optional.of(Boolean.FALSE);
+        }
+
+        @Override
+        public Document getDocument(String documentId) {
+            return null;
+        }
+
+        @Override
+        public List<SearchResult> search(float[] queryVector, int k, Filter filter) {
+            return results(k);
+        }
+
+        @Override
+        public List<SearchResult> lexicalSearch(String query, int k, Filter filter) {
+            return results(k);
+        }
+
+        private List<SearchResult> results(int k) {
+            if(k > MAX_K) {
+                throw new IllegalArgumentException("k must be between 1 and " + MAX_K);
+            }
+            largestK.accumulateAndGet(k, Math::max);
+            List<SearchResult> results = new ArrayList<>(k);
+            for(int rank = 0; rank < k; rank++) {
+                results.add(new SearchResult(prefix + rank, 1f / (rank + 1)));
+            }
+            return results;
+        }
+
+        @Override
+        public int maxK() {
+            return MAX_K;
+        }
+
+        @Override
+        public int size() {
+            return MAX_K;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
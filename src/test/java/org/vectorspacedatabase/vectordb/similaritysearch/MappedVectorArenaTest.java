@@ -0,0 +1,66 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.BruteForce;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedVectorArenaTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void closedArenaFileCanBeDeletedAndReopened() throws Exception {
+        Path path = directory.resolve("vectors.bin");
+        MappedVectorArena arena = new MappedVectorArena(path, 4, false, 4 * VectorArena.BLOCK_ROWS * Float.BYTES);
+        for(int row = 0; row < 3 * VectorArena.BLOCK_ROWS; row++) {
+            arena.set(row, new float[]{row, 1, 2, 3});
+        }
+        assertTrue(arena.offHeapBytes() > 0);
+
+        arena.close();
+        assertEquals(0, arena.offHeapBytes());
+        Files.delete(path);
+        assertFalse(Files.exists(path));
+
+        MappedVectorArena reopened = new MappedVectorArena(path, 4, false);
+        reopened.set(0, new float[]{4, 5, 6, 7});
+        assertArrayEquals(new float[]{4, 5, 6, 7}, reopened.get(0));
+        reopened.close();
+    }
+
+    @Test
+    void closingTheIndexClosesItsArena() throws Exception {
+        Path path = directory.resolve("index.bin");
+        SearchSimilarity similarity = new SearchSimilarity(BruteForce.builder()
+                .withMetric(Metric.EUCLIDEAN)
+                .withArenaFactory(MappedVectorArena.factory(path))
+                .build());
+        similarity.add("a", new float[]{1, 2});
+        similarity.add("b", new float[]{3, 4});
+        assertTrue(similarity.offHeapBytes() > 0);
+
+        similarity.close();
+        assertEquals(0, similarity.offHeapBytes());
+        Files.delete(path);
+
+        SearchSimilarity reopened = new SearchSimilarity(BruteForce.builder()
+                .withMetric(Metric.EUCLIDEAN)
+                .withArenaFactory(MappedVectorArena.factory(path))
+                .build());
+        reopened.add("c", new float[]{5, 6});
+        List<SearchResult> results = reopened.search(new float[]{5, 6}, 1);
+        assertEquals("c", results.get(0).getDocumentId());
+        reopened.close();
+    }
+}
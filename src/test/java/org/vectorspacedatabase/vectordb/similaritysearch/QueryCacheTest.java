@@ -0,0 +1,58 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryCacheTest {
+
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    @Test
+    void concurrentSearchesStayWithinTheByteBudget() throws InterruptedException {
+        QueryCache cache = QueryCache.builder().withMaxBytes(MAX_BYTES).withSegments(8).build();
+        AtomicInteger wrong = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for(int thread = 0; thread < 8; thread++) {
+            int offset = thread * 100_000;
+            threads.add(new Thread(() -> {
+                for(int query = 0; query < 5_000; query++) {
+                    float[] vector = {offset + query, 1};
+                    List<SearchResult> results = List.of(new SearchResult("d" + (offset + query), 1));
+                    cache.put(vector, 10, null, 1, results);
+                    List<SearchResult> cached = cache.get(vector, 10, null, 1);
+                    if(cached != null && !cached.get(0).getDocumentId().equals("d" + (offset + query))) {
+                        wrong.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, wrong.get());
+        assertTrue(cache.getCurrentBytes() <= MAX_BYTES, cache.getCurrentBytes() + " bytes cached");
+        assertTrue(cache.getEvictionCount() > 0);
+        assertTrue(cache.getHitCount() > 0);
+    }
+
+    @Test
+    void entriesFromAnOlderEpochAreDropped() {
+        QueryCache cache = QueryCache.builder().build();
+        float[] vector = {1, 2, 3};
+        cache.put(vector, 5, null, 1, List.of(new SearchResult("a", 1)));
+
+        assertEquals("a", cache.get(vector, 5, null, 1).get(0).getDocumentId());
+        assertNull(cache.get(vector, 5, null, 2));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getCurrentBytes());
+    }
+}
@@ -0,0 +1,206 @@
+package org.vectorspacedatabase.vectordb.similaritysearch;
+
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.BruteForce;
+import org.vectorspacedatabase.vectordb.similaritysearch.algorithms.HNSW;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchSimilarityTest {
+
+    private static final int DIMENSION = 16;
+
+    @Test
+    void repeatedUpdatesOfOneDocumentKeepOrdinalsAndRowsConstant() {
+        AtomicReference<VectorArena> arena = new AtomicReference<>();
+        AtomicInteger largestOrdinal = new AtomicInteger();
+        BruteForce bruteForce = BruteForce.builder()
+                .withMetric(Metric.COSINE)
+                .withArenaFactory((dimension, normalized) -> {
+                    arena.set(new HeapVectorArena(dimension, normalized));
+                    return arena.get();
+                })
+                .build();
+        SearchSimilarity similarity = new SearchSimilarity(new RecordingStrategy(bruteForce, largestOrdinal));
+
+        Random random = new Random(11);
+        float[] vector = null;
+        for(int update = 0; update < 1000; update++) {
+            vector = randomVector(random);
+            similarity.add("doc", vector, Map.of("update", update));
+            similarity.compact();
+        }
+
+        assertEquals(1, similarity.size());
+        assertEquals(1, bruteForce.size());
+        // An update writes the new vector before the old one goes, so two rows and ordinals take turns
+        assertTrue(arena.get().size() <= 2, arena.get().size() + " rows");
+        assertTrue(largestOrdinal.get() <= 1, "ordinal " + largestOrdinal.get() + " handed out");
+        List<SearchResult> results = similarity.search(vector, 10);
+        assertEquals(1, results.size());
+        assertEquals("doc", results.get(0).getDocumentId());
+    }
+
+    @Test
+    void repeatedUpdatesReuseGraphNodesOnceCompactUnlinksThem() {
+        AtomicReference<VectorArena> arena = new AtomicReference<>();
+        HNSW hnsw = HNSW.builder()
+                .withMetric(Metric.COSINE)
+                .withArenaFactory((dimension, normalized) -> {
+                    arena.set(new HeapVectorArena(dimension, normalized));
+                    return arena.get();
+                })
+                .build();
+        SearchSimilarity similarity = new SearchSimilarity(hnsw);
+
+        Random random = new Random(13);
+        similarity.add("other", randomVector(random));
+        for(int update = 0; update < 500; update++) {
+            similarity.add("doc", randomVector(random));
+            similarity.compact();
+        }
+
+        assertEquals(2, similarity.size());
+        assertTrue(arena.get().size() <= 3, arena.get().size() + " rows");
+    }
+
+    @Test
+    void compactPacksBruteForceRowsAndKeepsOrdinals() {
+        AtomicReference<VectorArena> arena = new AtomicReference<>();
+        BruteForce bruteForce = BruteForce.builder()
+                .withMetric(Metric.EUCLIDEAN)
+                .withArenaFactory((dimension, normalized) -> {
+                    arena.set(new HeapVectorArena(dimension, normalized));
+                    return arena.get();
+                })
+                .build();
+
+        Random random = new Random(17);
+        float[][] vectors = new float[150][];
+        for(int ordinal = 0; ordinal < 100; ordinal++) {
+            vectors[ordinal] = randomVector(random);
+            bruteForce.add(ordinal, vectors[ordinal]);
+        }
+        for(int ordinal = 0; ordinal < 100; ordinal++) {
+            if(ordinal % 10 != 0) {
+                bruteForce.remove(ordinal);
+            }
+        }
+        bruteForce.compact();
+        for(int ordinal = 100; ordinal < 150; ordinal++) {
+            vectors[ordinal] = randomVector(random);
+            bruteForce.add(ordinal, vectors[ordinal]);
+        }
+
+        assertEquals(60, bruteForce.size());
+        assertEquals(100, arena.get().size());
+        RoaringBitmap allowed = new RoaringBitmap();
+        for(int ordinal = 0; ordinal < 150; ordinal++) {
+            if(ordinal >= 100 || ordinal % 10 == 0) {
+                assertEquals(ordinal, bruteForce.search(vectors[ordinal], 1).sort().ordinalAt(0));
+                allowed.add(ordinal);
+            }
+        }
+        TopK filtered = bruteForce.search(vectors[20], 60, allowed).sort();
+        assertEquals(60, filtered.size());
+        assertEquals(20, filtered.ordinalAt(0));
+    }
+
+    @Test
+    void searchDuringAnUpdateReturnsTheDocumentOnce() throws Exception {
+        CountDownLatch removing = new CountDownLatch(1);
+        CountDownLatch searched = new CountDownLatch(1);
+        SearchStrategy blockingRemove = new RecordingStrategy(BruteForce.builder().withMetric(Metric.EUCLIDEAN).build(),
+                new AtomicInteger()) {
+            @Override
+            public void remove(int ordinal) {
+                removing.countDown();
+                try {
+                    searched.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.remove(ordinal);
+            }
+        };
+        SearchSimilarity similarity = new SearchSimilarity(blockingRemove, null, QueryCache.builder().build());
+        similarity.add("doc", new float[]{1, 0});
+        similarity.add("other", new float[]{5, 5});
+
+        Thread update = new Thread(() -> similarity.add("doc", new float[]{1, 1}));
+        update.start();
+        removing.await();
+        // Both vectors of doc are indexed now
+        List<SearchResult> results = similarity.search(new float[]{1, 0}, 3);
+        searched.countDown();
+        update.join();
+
+        assertEquals(2, results.size());
+        assertEquals("doc", results.get(0).getDocumentId());
+        assertEquals("other", results.get(1).getDocumentId());
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for(int index = 0; index < DIMENSION; index++) {
+            vector[index] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static class RecordingStrategy implements SearchStrategy {
+        private final SearchStrategy delegate;
+        private final AtomicInteger largestOrdinal;
+
+        RecordingStrategy(SearchStrategy delegate, AtomicInteger largestOrdinal) {
+            this.delegate = delegate;
+            this.largestOrdinal = largestOrdinal;
+        }
+
+        @Override
+        public void add(int ordinal, float[] vector) {
+            largestOrdinal.accumulateAndGet(ordinal, Math::max);
+            delegate.add(ordinal, vector);
+        }
+
+        @Override
+        public void remove(int ordinal) {
+            delegate.remove(ordinal);
+        }
+
+        @Override
+        public TopK search(float[] query, int k) {
+            return delegate.search(query, k);
+        }
+
+        @Override
+        public TopK search(float[] query, int k, RoaringBitmap allowed) {
+            return delegate.search(query, k, allowed);
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public void compact() {
+            delegate.compact();
+        }
+
+        @Override
+        public boolean isReleased(int ordinal) {
+            return delegate.isReleased(ordinal);
+        }
+    }
+}
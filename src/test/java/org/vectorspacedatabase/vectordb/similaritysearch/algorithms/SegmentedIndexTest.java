@@ -0,0 +1,99 @@
+package org.vectorspacedatabase.vectordb.similaritysearch.algorithms;
+
+import org.junit.jupiter.api.Test;
+import org.roaringbitmap.RoaringBitmap;
+import org.vectorspacedatabase.vectordb.similaritysearch.SearchStrategy;
+import org.vectorspacedatabase.vectordb.similaritysearch.TopK;
+import org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices.Metric;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SegmentedIndexTest {
+
+    private static final int DIMENSION = 16;
+
+    @Test
+    void deletedRowsDoNotGrowTheSegmentCandidateBudget() {
+        AtomicInteger largestK = new AtomicInteger();
+        SegmentedIndex index = SegmentedIndex.builder()
+                .withMetric(Metric.COSINE)
+                .withMutableSegmentRows(1000)
+                .withCompactionThreshold(1.0)
+                .withExecutor(Runnable::run)
+                .withSegmentFactory(segmentArena -> new RecordingStrategy(
+                        HNSW.builder().withMetric(Metric.COSINE).withArenaFactory(segmentArena).build(), largestK))
+                .build();
+
+        Random random = new Random(7);
+        for(int ordinal = 0; ordinal < 1000; ordinal++) {
+            index.add(ordinal, randomVector(random));
+        }
+        // Most of the sealed segment, still below the rewrite threshold
+        for(int ordinal = 0; ordinal < 900; ordinal++) {
+            index.remove(ordinal);
+        }
+
+        for(int query = 0; query < 20; query++) {
+            TopK results = index.search(randomVector(random), 10).sort();
+            assertEquals(10, results.size());
+            for(int position = 0; position < results.size(); position++) {
+                assertTrue(results.ordinalAt(position) >= 900, "deleted row returned");
+            }
+        }
+        assertTrue(largestK.get() > 0, "the segment index was not searched");
+        assertTrue(largestK.get() <= 10, "segment asked for " + largestK.get() + " candidates");
+    }
+
+    private static float[] randomVector(Random random) {
+        float[] vector = new float[DIMENSION];
+        for(int index = 0; index < DIMENSION; index++) {
+            vector[index] = (float) random.nextGaussian();
+        }
+        return vector;
+    }
+
+    private static final class RecordingStrategy implements SearchStrategy {
+        private final SearchStrategy delegate;
+        private final AtomicInteger largestK;
+
+        RecordingStrategy(SearchStrategy delegate, AtomicInteger largestK) {
+            this.delegate = delegate;
+            this.largestK = largestK;
+        }
+
+        @Override
+        public void add(int ordinal, float[] vector) {
+            delegate.add(ordinal, vector);
+        }
+
+        @Override
+        public void remove(int ordinal) {
+            delegate.remove(ordinal);
+        }
+
+        @Override
+        public TopK search(float[] query, int k) {
+            return search(query, k, null);
+        }
+
+        @Override
+        public TopK search(float[] query, int k, RoaringBitmap allowed) {
+            largestK.accumulateAndGet(k, Math::max);
+            return delegate.search(query, k, allowed);
+        }
+
+        @Override
+        public int size() {
+            return delegate.size();
+        }
+
+        @Override
+        public void compact() {
+            delegate.compact();
+        }
+    }
+}
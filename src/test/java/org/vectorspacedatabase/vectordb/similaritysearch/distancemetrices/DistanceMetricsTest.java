@@ -0,0 +1,70 @@
+package org.vectorspacedatabase.vectordb.similaritysearch.distancemetrices;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class DistanceMetricsTest {
+
+    // Not a multiple of any SIMD lane count, so the tail loop runs too
+    private static final int DIMENSION = 19;
+
+    private static final List<DistanceKernels> KERNELS = List.of(new ScalarDistanceKernels(), new VectorizedDistanceKernels());
+
+    @Test
+    void zeroVectorsScoreZeroOnEveryKernel() {
+        float[] zero = new float[DIMENSION];
+        float[] vector = vector(1);
+        for(DistanceKernels kernels : KERNELS) {
+            String name = kernels.getClass().getSimpleName();
+            assertEquals(0, DistanceMetrics.cosineSimilarity(kernels, zero, vector, 0, DIMENSION), name);
+            assertEquals(0, DistanceMetrics.cosineSimilarity(kernels, vector, zero, 0, DIMENSION), name);
+            assertEquals(0, DistanceMetrics.cosineSimilarity(kernels, zero, zero, 0, DIMENSION), name);
+            assertEquals(1, DistanceMetrics.cosineSimilarity(kernels, vector, vector, 0, DIMENSION), 1e-5, name);
+        }
+    }
+
+    @Test
+    void zeroVectorsScoreZeroInBatchesOnEveryKernel() {
+        float[] block = new float[3 * DIMENSION];
+        System.arraycopy(vector(1), 0, block, 0, DIMENSION);
+        System.arraycopy(vector(2), 0, block, 2 * DIMENSION, DIMENSION);
+        float[] query = vector(1);
+
+        for(DistanceKernels kernels : KERNELS) {
+            String name = kernels.getClass().getSimpleName();
+            float[] scores = new float[3];
+            DistanceMetrics.cosineSimilarityBatch(kernels, query, block, 0, 3, DIMENSION, scores);
+            assertEquals(1, scores[0], 1e-5, name);
+            assertEquals(0, scores[1], name);
+            assertEquals(DistanceMetrics.cosineSimilarity(kernels, query, block, 2 * DIMENSION, DIMENSION), scores[2], 1e-5, name);
+
+            scores = new float[]{7, 7, 7};
+            DistanceMetrics.cosineSimilarityBatch(kernels, new float[DIMENSION], block, 0, 3, DIMENSION, scores);
+            assertEquals(0, scores[0], name);
+            assertEquals(0, scores[1], name);
+            assertEquals(0, scores[2], name);
+        }
+    }
+
+    @Test
+    void cosineMetricScoresZeroVectorsLikeItsPrecomputedNormForm() {
+        float[] zero = new float[DIMENSION];
+        float[] vector = vector(3);
+        float norm = DistanceMetrics.norm(vector);
+        assertEquals(0, Metric.COSINE.score(zero, vector, 0, DIMENSION));
+        assertEquals(0, Metric.COSINE.score(vector, zero, 0, DIMENSION));
+        assertEquals(Metric.COSINE.score(zero, 0, vector, 0, norm, DIMENSION), Metric.COSINE.score(zero, vector, 0, DIMENSION));
+        assertEquals(Metric.COSINE.score(vector, norm, zero, 0, 0, DIMENSION), Metric.COSINE.score(vector, zero, 0, DIMENSION));
+    }
+
+    private static float[] vector(int seed) {
+        float[] vector = new float[DIMENSION];
+        for(int index = 0; index < DIMENSION; index++) {
+            vector[index] = (float) Math.sin(seed * 31 + index);
+        }
+        return vector;
+    }
+}